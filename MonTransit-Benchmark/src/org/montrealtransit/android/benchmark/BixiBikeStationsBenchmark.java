@@ -0,0 +1,94 @@
+package org.montrealtransit.android.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.montrealtransit.android.provider.BixiStore.BikeStation;
+import org.montrealtransit.android.services.BixiBikeStationsDataHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xml.sax.InputSource;
+
+/**
+ * Bixi bike stations XML parsing (same format as https://montreal.bixi.com/data/bikeStations.xml).
+ * <p>
+ * parse() keeps all the bike stations in a list, parseStreaming() hands over each bike station as soon as parsed (like the database writer), compare
+ * the allocations with "-prof gc".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BixiBikeStationsBenchmark {
+
+	@Param({ "450" })
+	public int nbStations;
+
+	private byte[] xml;
+
+	private SAXParserFactory spf;
+
+	@Setup
+	public void setup() throws Exception {
+		Random random = new Random(42);
+		long now = System.currentTimeMillis();
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version='1.0' encoding='UTF-8'?>");
+		sb.append("<stations lastUpdate=\"").append(now).append("\" version=\"2.0\">");
+		for (int i = 1; i <= this.nbStations; i++) {
+			sb.append("<station>");
+			sb.append("<id>").append(i).append("</id>");
+			sb.append("<name>Station ").append(i).append(" / de Maisonneuve</name>");
+			sb.append("<terminalName>").append(6000 + i).append("</terminalName>");
+			sb.append("<lastCommWithServer>").append(now).append("</lastCommWithServer>");
+			sb.append("<lat>").append(45.5088 + (random.nextDouble() - 0.5) * 0.2).append("</lat>");
+			sb.append("<long>").append(-73.5540 + (random.nextDouble() - 0.5) * 0.2).append("</long>");
+			sb.append("<installed>true</installed>");
+			sb.append("<locked>false</locked>");
+			sb.append("<installDate>1276012920000</installDate>");
+			sb.append("<removalDate />");
+			sb.append("<temporary>false</temporary>");
+			sb.append("<public>true</public>");
+			sb.append("<nbBikes>").append(random.nextInt(20)).append("</nbBikes>");
+			sb.append("<nbEmptyDocks>").append(random.nextInt(20)).append("</nbEmptyDocks>");
+			sb.append("<latestUpdateTime>").append(now).append("</latestUpdateTime>");
+			sb.append("</station>");
+		}
+		sb.append("</stations>");
+		this.xml = sb.toString().getBytes("UTF-8");
+		this.spf = SAXParserFactory.newInstance();
+		this.spf.setNamespaceAware(true); // Android SAX parser reports local names
+	}
+
+	@Benchmark
+	public List<BikeStation> parse() throws Exception {
+		SAXParser sp = this.spf.newSAXParser();
+		BixiBikeStationsDataHandler handler = new BixiBikeStationsDataHandler();
+		sp.parse(new InputSource(new ByteArrayInputStream(this.xml)), handler);
+		return handler.getBikeStations();
+	}
+
+	@Benchmark
+	public int parseStreaming() throws Exception {
+		SAXParser sp = this.spf.newSAXParser();
+		final int[] count = new int[1];
+		BixiBikeStationsDataHandler handler = new BixiBikeStationsDataHandler(new BixiBikeStationsDataHandler.BikeStationListener() {
+			@Override
+			public void onBikeStation(BikeStation bikeStation) {
+				count[0] += bikeStation.getNbBikes();
+			}
+		});
+		sp.parse(new InputSource(new ByteArrayInputStream(this.xml)), handler);
+		return count[0];
+	}
+}
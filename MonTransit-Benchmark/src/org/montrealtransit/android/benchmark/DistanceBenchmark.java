@@ -0,0 +1,109 @@
+package org.montrealtransit.android.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.montrealtransit.android.DistanceUtils;
+import org.montrealtransit.android.LocationUtils;
+import org.montrealtransit.android.data.POI;
+import org.montrealtransit.android.data.Stop;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Nearby list distance update & sort (each location update).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DistanceBenchmark {
+
+	private static final double MONTREAL_LAT = 45.5088;
+	private static final double MONTREAL_LNG = -73.5540;
+
+	@Param({ "100", "1000", "10000" })
+	public int nbPOIs;
+
+	private List<POI> pois;
+
+	private double[] lats;
+
+	private double[] lngs;
+
+	private float[] distances;
+
+	private double[][] locations;
+
+	private int locationIndex = 0;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		this.pois = new ArrayList<POI>(this.nbPOIs);
+		for (int i = 0; i < this.nbPOIs; i++) {
+			Stop stop = new Stop();
+			stop.id = i;
+			stop.code = String.valueOf(i);
+			stop.lat = MONTREAL_LAT + (random.nextDouble() - 0.5) * 0.2;
+			stop.lng = MONTREAL_LNG + (random.nextDouble() - 0.5) * 0.2;
+			this.pois.add(stop);
+		}
+		this.lats = new double[this.nbPOIs];
+		this.lngs = new double[this.nbPOIs];
+		this.distances = new float[this.nbPOIs];
+		for (int i = 0; i < this.nbPOIs; i++) {
+			this.lats[i] = this.pois.get(i).getLat();
+			this.lngs[i] = this.pois.get(i).getLng();
+		}
+		// user walking (~10 meters between each location update)
+		this.locations = new double[16][2];
+		for (int i = 0; i < this.locations.length; i++) {
+			this.locations[i][0] = MONTREAL_LAT + i * 0.0001;
+			this.locations[i][1] = MONTREAL_LNG;
+		}
+	}
+
+	@Benchmark
+	public List<POI> updateDistanceAndSort() {
+		double[] location = this.locations[this.locationIndex++ % this.locations.length];
+		LocationUtils.updateDistance(this.pois, location[0], location[1]);
+		Collections.sort(this.pois, POI.POI_DISTANCE_COMPARATOR);
+		return this.pois;
+	}
+
+	/**
+	 * The previous distance update (exact distance for each POI).
+	 */
+	@Benchmark
+	public List<POI> updateDistanceExact() {
+		double[] location = this.locations[this.locationIndex++ % this.locations.length];
+		for (POI poi : this.pois) {
+			poi.setDistance(LocationUtils.distanceTo(location[0], location[1], poi.getLat(), poi.getLng()));
+		}
+		return this.pois;
+	}
+
+	@Benchmark
+	public List<POI> updateDistance() {
+		double[] location = this.locations[this.locationIndex++ % this.locations.length];
+		LocationUtils.updateDistance(this.pois, location[0], location[1]);
+		return this.pois;
+	}
+
+	@Benchmark
+	public float[] distancesArrays() {
+		double[] location = this.locations[this.locationIndex++ % this.locations.length];
+		DistanceUtils.distances(location[0], location[1], this.lats, this.lngs, this.nbPOIs, this.distances);
+		DistanceUtils.refineClosest(location[0], location[1], this.lats, this.lngs, this.nbPOIs, this.distances, DistanceUtils.EXACT_CLOSEST);
+		return this.distances;
+	}
+}
@@ -0,0 +1,62 @@
+package org.montrealtransit.android.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.montrealtransit.android.data.Route;
+import org.montrealtransit.android.data.RouteTripStop;
+import org.montrealtransit.android.data.Stop;
+import org.montrealtransit.android.data.Trip;
+import org.montrealtransit.android.provider.StmBusManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Route trip stop JSON (schedule provider selection format) conversion.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RouteTripStopBenchmark {
+
+	private RouteTripStop routeTripStop;
+
+	private String json;
+
+	@Setup
+	public void setup() {
+		Route route = new Route();
+		route.id = 24;
+		route.shortName = "24";
+		route.longName = "Sherbrooke";
+		route.color = "0060AA";
+		route.textColor = "FFFFFF";
+		Trip trip = new Trip();
+		trip.id = 2401;
+		trip.headsignType = Trip.HEADSIGN_TYPE_STRING;
+		trip.headsignValue = "E";
+		trip.routeId = route.id;
+		Stop stop = new Stop();
+		stop.id = 52084;
+		stop.code = "52084";
+		stop.name = "Sherbrooke / Saint-Denis";
+		stop.lat = 45.518114;
+		stop.lng = -73.567719;
+		this.routeTripStop = new RouteTripStop(StmBusManager.AUTHORITY, route, trip, stop);
+		this.json = this.routeTripStop.toJSON().toString();
+	}
+
+	@Benchmark
+	public String toJSON() {
+		return this.routeTripStop.toJSON().toString();
+	}
+
+	@Benchmark
+	public RouteTripStop fromJSON() {
+		return RouteTripStop.fromJSON(this.json);
+	}
+}
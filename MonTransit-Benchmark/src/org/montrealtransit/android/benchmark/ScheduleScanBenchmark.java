@@ -0,0 +1,114 @@
+package org.montrealtransit.android.benchmark;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.montrealtransit.android.provider.stmsubway.schedule.StmSubwayScheduleProvider;
+import org.montrealtransit.android.provider.stmsubway.schedule.StmSubwayScheduleProvider.ServiceDay;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Stop schedule file scan (the offline bus schedule files have the same format and scan logic as the subway ones).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ScheduleScanBenchmark {
+
+	@Param({ "subway", "bus" })
+	public String schedule;
+
+	private int stopId;
+
+	private byte[] scheduleFile;
+
+	private Set<Integer> oneTripId;
+
+	private Set<Integer> allTripIds;
+
+	private List<ServiceDay> serviceDays;
+
+	@Setup
+	public void setup() throws IOException {
+		final File rawDir = "bus".equals(this.schedule) ? new File(System.getProperty("benchmark.schedule.bus.dir", "../MonTransit-Schedule-STM-Bus"),
+				"res/raw") : new File(System.getProperty("benchmark.app.dir", "../MonTransit"), "res/raw");
+		final String prefix = "ca_mtl_stm_" + this.schedule + "_schedules_stop_";
+		// use the biggest stop schedule file (worst case)
+		File biggestFile = null;
+		for (File file : rawDir.listFiles()) {
+			if (file.getName().startsWith(prefix) && (biggestFile == null || file.length() > biggestFile.length())) {
+				biggestFile = file;
+			}
+		}
+		if (biggestFile == null) {
+			throw new IOException("No schedule file in " + rawDir);
+		}
+		this.stopId = Integer.parseInt(biggestFile.getName().substring(prefix.length()));
+		this.scheduleFile = readFully(new FileInputStream(biggestFile));
+		// all the trips & services of this stop
+		this.allTripIds = new HashSet<Integer>();
+		Set<String> serviceIds = new HashSet<String>();
+		BufferedReader br = newReader();
+		String line;
+		while ((line = br.readLine()) != null) {
+			String[] lineItems = line.split(",");
+			serviceIds.add(lineItems[0].substring(1, lineItems[0].length() - 1));
+			this.allTripIds.add(Integer.valueOf(lineItems[1]));
+		}
+		br.close();
+		this.oneTripId = Collections.singleton(this.allTripIds.iterator().next());
+		// yesterday (after midnight), today (from noon) and tomorrow
+		this.serviceDays = new ArrayList<ServiceDay>();
+		this.serviceDays.add(new ServiceDay("20150630", "360000", serviceIds));
+		this.serviceDays.add(new ServiceDay("20150701", "120000", serviceIds));
+		this.serviceDays.add(new ServiceDay("20150702", "000000", serviceIds));
+	}
+
+	@Benchmark
+	public Map<Integer, Set<Long>> scanOneTrip() throws IOException {
+		return StmSubwayScheduleProvider.readScheduleLists(newReader(), this.stopId, this.oneTripId, this.serviceDays);
+	}
+
+	@Benchmark
+	public Map<Integer, Set<Long>> scanStopDepartureBoard() throws IOException {
+		return StmSubwayScheduleProvider.readScheduleLists(newReader(), this.stopId, this.allTripIds, this.serviceDays);
+	}
+
+	private BufferedReader newReader() throws IOException {
+		return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(this.scheduleFile), "UTF8"), 8192);
+	}
+
+	static byte[] readFully(InputStream is) throws IOException {
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = is.read(buffer)) != -1) {
+				baos.write(buffer, 0, read);
+			}
+			return baos.toByteArray();
+		} finally {
+			is.close();
+		}
+	}
+}
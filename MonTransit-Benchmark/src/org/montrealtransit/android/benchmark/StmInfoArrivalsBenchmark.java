@@ -0,0 +1,117 @@
+package org.montrealtransit.android.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.montrealtransit.android.data.Departures;
+import org.montrealtransit.android.provider.stmbus.schedule.StmInfoArrivalsParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * stm.info arrivals response parsing: previous JSON tree (buffered string + JSONObject + SimpleDateFormat) vs streaming parser.
+ * <p>
+ * Run with "-prof gc" to compare the allocations per response (gc.alloc.rate.norm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StmInfoArrivalsBenchmark {
+
+	/**
+	 * The live schedule provider requests 100 arrivals.
+	 */
+	@Param({ "100" })
+	public int nbArrivals;
+
+	private byte[] response;
+
+	private Calendar now;
+
+	private String urlDateS;
+
+	private final SimpleDateFormat toTimestampFormat = new SimpleDateFormat("yyyyMMddHHmm");
+
+	@Setup
+	public void setup() throws IOException {
+		this.now = Calendar.getInstance();
+		this.now.set(2015, Calendar.JULY, 1, 10, 2, 0);
+		this.urlDateS = new SimpleDateFormat("yyyyMMdd").format(this.now.getTime());
+		StringBuilder sb = new StringBuilder("{\"status\":{\"level\":\"Info\",\"code\":\"\"},\"result\":[");
+		int time = 1002;
+		for (int i = 0; i < this.nbArrivals; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append("{\"time\":\"").append(String.format("%04d", time)).append("\",\"is_real\":false,\"note\":\"\"}");
+			time += 7;
+			if (time % 100 >= 60) {
+				time += 40; // next hour
+			}
+		}
+		sb.append("],\"messages\":[{\"text\":\"D\\u00e9tour on the route\"}]}");
+		this.response = sb.toString().getBytes("UTF-8");
+	}
+
+	@Benchmark
+	public Departures jsonTree() throws IOException, JSONException, ParseException {
+		Departures departures = new Departures("www.stm.info", true);
+		String json = readString(new InputStreamReader(new ByteArrayInputStream(this.response), "UTF-8"));
+		JSONObject jResponse = new JSONObject(json);
+		JSONArray jResponseResults = jResponse.getJSONArray("result");
+		long previousTime = -1L;
+		for (int i = 0; i < jResponseResults.length(); i++) {
+			String timeToParse = jResponseResults.getJSONObject(i).getString("time");
+			int timeInt = Integer.valueOf(timeToParse);
+			long timestamp = this.toTimestampFormat.parse(this.urlDateS + timeToParse).getTime();
+			if (timeInt <= 500 || timestamp < previousTime) {
+				timestamp += TimeUnit.DAYS.toMillis(1);
+			}
+			departures.addTimestamp(timestamp);
+			previousTime = timestamp;
+		}
+		JSONArray jResponseMessages = jResponse.getJSONArray("messages");
+		for (int i = 0; i < jResponseMessages.length(); i++) {
+			departures.addMessage(jResponseMessages.getJSONObject(i).getString("text"));
+		}
+		return departures;
+	}
+
+	@Benchmark
+	public Departures streaming() throws IOException {
+		Departures departures = new Departures("www.stm.info", true);
+		StmInfoArrivalsParser parser = new StmInfoArrivalsParser(departures, this.now);
+		parser.parse(new InputStreamReader(new ByteArrayInputStream(this.response), "UTF-8"));
+		if (parser.getMessages() != null) {
+			for (String message : parser.getMessages()) {
+				departures.addMessage(message);
+			}
+		}
+		return departures;
+	}
+
+	private static String readString(Reader reader) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		char[] buffer = new char[4096];
+		int read;
+		while ((read = reader.read(buffer)) != -1) {
+			sb.append(buffer, 0, read);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,82 @@
+package org.montrealtransit.android.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.montrealtransit.android.data.Departures;
+import org.montrealtransit.android.data.StopTimes;
+import org.montrealtransit.android.provider.common.DepartureColumns;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import android.database.MatrixCursor;
+
+/**
+ * Departures JSON (schedule provider cursor & cache format) parsing and schedule provider cursor round trips (typed rows vs JSON column).
+ * <p>
+ * Per-request allocations: run with the JMH GC profiler (-Dbench.args="-prof gc").
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StopTimesBenchmark {
+
+	@Param({ "10", "100" })
+	public int nbTimestamps;
+
+	private String json;
+
+	private Departures departures;
+
+	@Setup
+	public void setup() {
+		Departures departures = new Departures("www.stm.info", true);
+		long timestamp = System.currentTimeMillis() - 10 * 60 * 1000; // some previous times
+		for (int i = 0; i < this.nbTimestamps; i++) {
+			departures.addTimestamp(timestamp);
+			timestamp += 7 * 60 * 1000;
+		}
+		departures.addMessage("Detour on the route");
+		this.json = departures.toJSON().toString();
+		this.departures = departures;
+	}
+
+	@Benchmark
+	public StopTimes stopTimesParseJSON() {
+		return StopTimes.parseJSON(this.json);
+	}
+
+	@Benchmark
+	public Departures departuresParseJSON() {
+		return Departures.parseJSON(this.json);
+	}
+
+	@Benchmark
+	public Departures cursorTypedRows() {
+		MatrixCursor cursor = new MatrixCursor(DepartureColumns.PROJECTION_DEPARTURE);
+		this.departures.addRows(cursor, "uuid");
+		Departures result = new Departures();
+		while (cursor.moveToNext()) {
+			result.readRow(cursor);
+		}
+		cursor.close();
+		return result;
+	}
+
+	@Benchmark
+	public Departures cursorJSONColumn() {
+		MatrixCursor cursor = new MatrixCursor(new String[] { "json" });
+		cursor.addRow(new Object[] { this.departures.toJSON().toString() });
+		Departures result = null;
+		if (cursor.moveToFirst()) {
+			result = Departures.parseJSON(cursor.getString(0));
+		}
+		cursor.close();
+		return result;
+	}
+}
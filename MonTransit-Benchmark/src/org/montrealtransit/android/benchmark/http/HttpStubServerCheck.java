@@ -0,0 +1,235 @@
+package org.montrealtransit.android.benchmark.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.montrealtransit.android.CircuitBreaker;
+import org.montrealtransit.android.HttpUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Checks the shared HTTP layer ({@link HttpUtils}) against a local stub server: gzip, connection reuse, conditional requests, read time-out,
+ * per-host concurrency limit and circuit breaker.
+ * <p>
+ * Options:
+ * <ul>
+ * <li>-skipTimeout: skip the read time-out check (waits {@link HttpUtils#READ_TIMEOUT_IN_MS})</li>
+ * </ul>
+ */
+public class HttpStubServerCheck {
+
+	private static final String BODY = "{\"result\":[{\"time\":\"1002\"},{\"time\":\"1017\"}],\"messages\":[]}";
+
+	private static final String ETAG = "\"v1\"";
+
+	public static void main(String[] args) throws Exception {
+		boolean skipTimeout = args.length > 0 && "-skipTimeout".equals(args[0]);
+		final Set<Integer> clientPorts = new HashSet<Integer>();
+		final AtomicInteger gzipRequests = new AtomicInteger();
+		final AtomicInteger concurrent = new AtomicInteger();
+		final AtomicInteger maxConcurrent = new AtomicInteger();
+		final AtomicBoolean down = new AtomicBoolean(true);
+		final AtomicInteger downRequests = new AtomicInteger();
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/json", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				synchronized (clientPorts) {
+					clientPorts.add(exchange.getRemoteAddress().getPort());
+				}
+				String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+				if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+					gzipRequests.incrementAndGet();
+					exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+					send(exchange, 200, gzip(BODY.getBytes("UTF-8")));
+				} else {
+					send(exchange, 200, BODY.getBytes("UTF-8"));
+				}
+			}
+		});
+		server.createContext("/etag", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.getResponseHeaders().set("ETag", ETAG);
+				if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+					exchange.sendResponseHeaders(304, -1);
+					exchange.close();
+				} else {
+					send(exchange, 200, BODY.getBytes("UTF-8"));
+				}
+			}
+		});
+		server.createContext("/slow", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				sleep(HttpUtils.READ_TIMEOUT_IN_MS + 1000);
+				send(exchange, 200, BODY.getBytes("UTF-8"));
+			}
+		});
+		server.createContext("/concurrent", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				int current = concurrent.incrementAndGet();
+				synchronized (maxConcurrent) {
+					maxConcurrent.set(Math.max(maxConcurrent.get(), current));
+				}
+				sleep(200);
+				concurrent.decrementAndGet();
+				send(exchange, 200, BODY.getBytes("UTF-8"));
+			}
+		});
+		server.createContext("/down", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				downRequests.incrementAndGet();
+				send(exchange, down.get() ? 503 : 200, BODY.getBytes("UTF-8"));
+			}
+		});
+		server.start();
+		final String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+		try {
+			// gzip & connection reuse
+			for (int i = 0; i < 5; i++) {
+				HttpUtils.Response response = HttpUtils.get(baseUrl + "/json", false);
+				try {
+					check(response.getCode() == 200, "/json code " + response.getCode());
+					check(BODY.equals(response.getString()), "/json body not decompressed");
+				} finally {
+					response.close();
+				}
+			}
+			check(gzipRequests.get() == 5, "gzip requests: " + gzipRequests.get() + "/5");
+			check(clientPorts.size() == 1, "connections used for 5 sequential requests: " + clientPorts.size());
+			System.out.println("OK gzip & keep-alive (5 requests, " + clientPorts.size() + " connection)");
+			// conditional requests
+			HttpUtils.Response response = HttpUtils.get(baseUrl + "/etag", true);
+			try {
+				check(response.getCode() == 200, "/etag 1st code " + response.getCode());
+				response.getString();
+				response.saveValidators();
+			} finally {
+				response.close();
+			}
+			response = HttpUtils.get(baseUrl + "/etag", true);
+			try {
+				check(response.isNotModified(), "/etag 2nd code " + response.getCode());
+			} finally {
+				response.close();
+			}
+			System.out.println("OK conditional request (304 Not Modified)");
+			// per-host concurrency limit
+			ExecutorService executor = Executors.newFixedThreadPool(3 * HttpUtils.MAX_CONNECTIONS_PER_HOST);
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < 3 * HttpUtils.MAX_CONNECTIONS_PER_HOST; i++) {
+				futures.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						HttpUtils.Response response = HttpUtils.get(baseUrl + "/concurrent", false);
+						try {
+							response.getString();
+							return response.getCode();
+						} finally {
+							response.close();
+						}
+					}
+				}));
+			}
+			for (Future<Integer> future : futures) {
+				check(future.get() == 200, "/concurrent code " + future.get());
+			}
+			executor.shutdown();
+			check(maxConcurrent.get() <= HttpUtils.MAX_CONNECTIONS_PER_HOST, "max concurrent requests: " + maxConcurrent.get());
+			System.out.println("OK per-host limit (max " + maxConcurrent.get() + " concurrent requests)");
+			// read time-out
+			if (!skipTimeout) {
+				long startInMs = System.currentTimeMillis();
+				try {
+					HttpUtils.get(baseUrl + "/slow", false).close();
+					check(false, "/slow did not time-out");
+				} catch (SocketTimeoutException ste) {
+					System.out.println("OK read time-out (after " + (System.currentTimeMillis() - startInMs) + " ms)");
+				}
+			}
+			// circuit breaker (last: opens the circuit of the stub server host)
+			CircuitBreaker breaker = CircuitBreaker.get("127.0.0.1");
+			CircuitBreaker.OpenException openException = null;
+			for (int i = 0; i <= CircuitBreaker.FAILURE_THRESHOLD && openException == null; i++) {
+				try {
+					HttpUtils.get(baseUrl + "/down", false).close();
+				} catch (CircuitBreaker.OpenException oe) {
+					openException = oe;
+				}
+			}
+			check(openException != null, "circuit not open after " + downRequests.get() + " server errors");
+			check(downRequests.get() <= CircuitBreaker.FAILURE_THRESHOLD, "requests sent: " + downRequests.get());
+			long startInMs = System.currentTimeMillis();
+			try {
+				HttpUtils.get(baseUrl + "/down", false).close();
+				check(false, "request sent while the circuit is open");
+			} catch (CircuitBreaker.OpenException oe) {
+				check(System.currentTimeMillis() - startInMs < 100, "open circuit did not fail fast");
+			}
+			System.out.println("OK circuit open after " + downRequests.get() + " server errors (" + breaker + ")");
+			down.set(false);
+			sleep(openException.getRetryInMs() + 100);
+			response = HttpUtils.get(baseUrl + "/down", false);
+			try {
+				check(response.getCode() == 200, "/down trial code " + response.getCode());
+			} finally {
+				response.close();
+			}
+			check(breaker.getState() == CircuitBreaker.STATE_CLOSED, "circuit not closed after the trial request: " + breaker);
+			System.out.println("OK circuit closed after the half-open trial request (" + breaker + ")");
+		} finally {
+			server.stop(0);
+			((ExecutorService) server.getExecutor()).shutdownNow();
+		}
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new IllegalStateException("FAILED " + message);
+		}
+	}
+
+	private static void send(HttpExchange exchange, int code, byte[] body) throws IOException {
+		exchange.sendResponseHeaders(code, body.length);
+		OutputStream os = exchange.getResponseBody();
+		os.write(body);
+		os.close();
+	}
+
+	private static byte[] gzip(byte[] data) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		GZIPOutputStream gzos = new GZIPOutputStream(baos);
+		gzos.write(data);
+		gzos.close();
+		return baos.toByteArray();
+	}
+
+	private static void sleep(long timeInMs) {
+		try {
+			Thread.sleep(timeInMs);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,258 @@
+package org.montrealtransit.android.benchmark.http;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.json.JSONObject;
+import org.montrealtransit.android.CircuitBreaker;
+import org.montrealtransit.android.HttpUtils;
+import org.montrealtransit.android.benchmark.load.Latencies;
+import org.montrealtransit.android.data.Departures;
+import org.montrealtransit.android.data.Route;
+import org.montrealtransit.android.data.RouteTripStop;
+import org.montrealtransit.android.data.Stop;
+import org.montrealtransit.android.data.Trip;
+import org.montrealtransit.android.provider.StmBusManager;
+import org.montrealtransit.android.provider.stmbus.schedule.StmBusLiveScheduleProvider;
+import org.montrealtransit.android.provider.stmbus.schedule.StmInfoArrivalsParser;
+import org.montrealtransit.android.services.BixiBikeStationsDataHandler;
+import org.montrealtransit.android.services.BixiDataReader;
+import org.montrealtransit.android.services.StmInfoStatusApiReader;
+import org.xml.sax.InputSource;
+
+/**
+ * Hammers the live data readers (same requests through {@link HttpUtils} and same parsers as the live schedule provider, the Bixi reader and the
+ * service status reader) concurrently against a {@link ReplayServer} and reports the throughput and the latency percentiles by reader.
+ * <p>
+ * Options:
+ * <ul>
+ * <li>-url BASE_URL: external replay server (default: in-process replay server started with the {@link ReplayServer} options)</li>
+ * <li>-threads N (default: 4)</li>
+ * <li>-warmup S seconds (default: 5)</li>
+ * <li>-duration S seconds (default: 30)</li>
+ * <li>-weights N,N,N: arrivals,bixi,status requests weights (default: 80,10,10)</li>
+ * </ul>
+ * All the production hosts are mapped on the replay server host: the {@link HttpUtils#MAX_CONNECTIONS_PER_HOST} limit and the circuit breaker are
+ * shared by the 3 readers.
+ */
+public class NetworkLoadDriver {
+
+	private static final String[] TYPES = new String[] { "arrivals", "bixi", "status" };
+
+	public static void main(String[] args) throws Exception {
+		final Map<String, String> options = ReplayServer.parseOptions(args);
+		final int threads = Integer.parseInt(getOption(options, "-threads", "4"));
+		final long warmupInMs = TimeUnit.SECONDS.toMillis(Long.parseLong(getOption(options, "-warmup", "5")));
+		final long durationInMs = TimeUnit.SECONDS.toMillis(Long.parseLong(getOption(options, "-duration", "30")));
+		final String[] weightsS = getOption(options, "-weights", "80,10,10").split(",");
+		final int[] cumulativeWeights = new int[TYPES.length];
+		for (int i = 0; i < TYPES.length; i++) {
+			cumulativeWeights[i] = (i == 0 ? 0 : cumulativeWeights[i - 1]) + Integer.parseInt(weightsS[i]);
+		}
+		ReplayServer replayServer = null;
+		String baseUrl = options.get("-url");
+		if (baseUrl == null) {
+			if (!options.containsKey("-port")) {
+				options.put("-port", "0");
+			}
+			replayServer = new ReplayServer(options);
+			replayServer.start();
+			baseUrl = replayServer.getBaseUrl();
+		}
+		HttpUtils.setBaseUrlOverride(baseUrl);
+		System.out.printf(Locale.ENGLISH, "Loading %s with %s thread(s) (warm-up: %s s, duration: %s s)...%n", baseUrl, threads,
+				TimeUnit.MILLISECONDS.toSeconds(warmupInMs), TimeUnit.MILLISECONDS.toSeconds(durationInMs));
+		try {
+			final CountDownLatch startLatch = new CountDownLatch(1);
+			final long[] measureStartEnd = new long[2];
+			List<Worker> workers = new ArrayList<Worker>();
+			for (int i = 0; i < threads; i++) {
+				Worker worker = new Worker(cumulativeWeights, i, startLatch, measureStartEnd);
+				workers.add(worker);
+				worker.start();
+			}
+			measureStartEnd[0] = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(warmupInMs);
+			measureStartEnd[1] = measureStartEnd[0] + TimeUnit.MILLISECONDS.toNanos(durationInMs);
+			startLatch.countDown();
+			for (Worker worker : workers) {
+				worker.join();
+			}
+			// report
+			Map<String, Latencies> typeLatencies = new HashMap<String, Latencies>();
+			Latencies allLatencies = new Latencies();
+			int errors = 0;
+			int rejected = 0;
+			for (Worker worker : workers) {
+				errors += worker.errors;
+				rejected += worker.rejected;
+				for (Map.Entry<String, Latencies> entry : worker.typeLatencies.entrySet()) {
+					if (!typeLatencies.containsKey(entry.getKey())) {
+						typeLatencies.put(entry.getKey(), new Latencies());
+					}
+					typeLatencies.get(entry.getKey()).addAll(entry.getValue());
+					allLatencies.addAll(entry.getValue());
+				}
+			}
+			final double durationInSec = durationInMs / 1000.0;
+			Latencies.printHeader("reader", "requests");
+			for (String type : TYPES) {
+				if (typeLatencies.containsKey(type)) {
+					typeLatencies.get(type).print(type, durationInSec);
+				}
+			}
+			allLatencies.print("all", durationInSec);
+			System.out.printf(Locale.ENGLISH, "errors: %s, rejected by the circuit breaker: %s%n", errors, rejected);
+			for (CircuitBreaker breaker : CircuitBreaker.getAll()) {
+				System.out.println(breaker);
+			}
+			if (replayServer != null) {
+				System.out.printf(Locale.ENGLISH, "server: %s requests, %s failures injected, %s not modified%n", replayServer.getRequestCount(),
+						replayServer.getFailureCount(), replayServer.getNotModifiedCount());
+			}
+		} finally {
+			if (replayServer != null) {
+				replayServer.stop();
+			}
+		}
+	}
+
+	private static String getOption(Map<String, String> options, String name, String defaultValue) {
+		return options.containsKey(name) ? options.get(name) : defaultValue;
+	}
+
+	private static class Worker extends Thread {
+
+		private final int[] cumulativeWeights;
+		private final Random random;
+		private final CountDownLatch startLatch;
+		private final long[] measureStartEnd;
+
+		private final Map<String, Latencies> typeLatencies = new HashMap<String, Latencies>();
+		private int errors = 0;
+		private int rejected = 0;
+
+		private final SAXParserFactory spf = SAXParserFactory.newInstance();
+
+		public Worker(int[] cumulativeWeights, int index, CountDownLatch startLatch, long[] measureStartEnd) {
+			this.cumulativeWeights = cumulativeWeights;
+			this.random = new Random(42 + index);
+			this.startLatch = startLatch;
+			this.measureStartEnd = measureStartEnd;
+			this.spf.setNamespaceAware(true); // Android SAX parser reports local names
+		}
+
+		@Override
+		public void run() {
+			try {
+				this.startLatch.await();
+			} catch (InterruptedException ie) {
+				return;
+			}
+			final int totalWeight = this.cumulativeWeights[this.cumulativeWeights.length - 1];
+			while (true) {
+				final long startInNs = System.nanoTime();
+				if (startInNs >= this.measureStartEnd[1]) {
+					break;
+				}
+				final int pick = this.random.nextInt(totalWeight);
+				int type = 0;
+				while (pick >= this.cumulativeWeights[type]) {
+					type++;
+				}
+				boolean success = false;
+				try {
+					switch (type) {
+					case 0:
+						success = loadArrivals();
+						break;
+					case 1:
+						success = loadBikeStations();
+						break;
+					default:
+						success = loadServiceStatus();
+						break;
+					}
+					if (!success) {
+						this.errors++; // HTTP error or empty response
+					}
+				} catch (CircuitBreaker.OpenException oe) {
+					this.rejected++;
+				} catch (Exception e) {
+					this.errors++;
+				}
+				if (success && startInNs >= this.measureStartEnd[0]) { // after warm-up
+					if (!this.typeLatencies.containsKey(TYPES[type])) {
+						this.typeLatencies.put(TYPES[type], new Latencies());
+					}
+					this.typeLatencies.get(TYPES[type]).add(System.nanoTime() - startInNs);
+				}
+			}
+		}
+
+		private boolean loadArrivals() throws IOException {
+			Route route = new Route();
+			route.id = 10 + this.random.nextInt(200);
+			route.shortName = String.valueOf(route.id);
+			Trip trip = new Trip();
+			trip.headsignValue = this.random.nextBoolean() ? "E" : "W";
+			Stop stop = new Stop();
+			stop.id = 50000 + this.random.nextInt(10000);
+			final Calendar now = Calendar.getInstance();
+			final String urlString = StmBusLiveScheduleProvider.getUrlStringWithDateAndTime(new RouteTripStop(StmBusManager.AUTHORITY, route, trip, stop),
+					String.format(Locale.ENGLISH, "%1$tY%1$tm%1$td", now), String.format(Locale.ENGLISH, "%1$tH%1$tM", now));
+			HttpUtils.Response response = HttpUtils.get(urlString, false);
+			try {
+				if (response.getCode() != 200) {
+					return false;
+				}
+				StmInfoArrivalsParser parser = new StmInfoArrivalsParser(new Departures(StmBusLiveScheduleProvider.SOURCE_NAME, true), now);
+				parser.parse(new InputStreamReader(response.getInputStream(), "UTF-8"));
+				return parser.getResultsCount() > 0;
+			} finally {
+				response.close();
+			}
+		}
+
+		private boolean loadBikeStations() throws Exception {
+			HttpUtils.Response response = HttpUtils.get(BixiDataReader.XML_SOURCE, true);
+			try {
+				if (response.isNotModified()) {
+					return true;
+				}
+				if (response.getCode() != 200) {
+					return false;
+				}
+				BixiBikeStationsDataHandler handler = new BixiBikeStationsDataHandler();
+				this.spf.newSAXParser().parse(new InputSource(response.getInputStream()), handler);
+				response.saveValidators();
+				return handler.getBikeStations().size() > 0;
+			} finally {
+				response.close();
+			}
+		}
+
+		private boolean loadServiceStatus() throws Exception {
+			HttpUtils.Response response = HttpUtils.get(StmInfoStatusApiReader.URL_PART_1_BEFORE_LANG + "fr" + StmInfoStatusApiReader.URL_PART_2, false);
+			try {
+				if (response.getCode() != 200) {
+					return false;
+				}
+				JSONObject jMetro = new JSONObject(response.getString()).getJSONObject("metro");
+				return jMetro.names().length() > 0;
+			} finally {
+				response.close();
+			}
+		}
+	}
+}
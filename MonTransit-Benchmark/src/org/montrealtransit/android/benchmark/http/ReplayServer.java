@@ -0,0 +1,320 @@
+package org.montrealtransit.android.benchmark.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in of the stm.info & Bixi servers: replays recorded payloads with injectable latency, failures and bandwidth cap.
+ * <p>
+ * The requests are routed by path (the app base URL override keeps the production path & query, see HttpUtils.setBaseUrlOverride()):
+ * <ul>
+ * <li>.../arrivals?... : stm.info bus arrivals JSON ("arrivals.json"),</li>
+ * <li>.../bikeStations.xml : Bixi bike stations XML ("bikeStations.xml", with ETag),</li>
+ * <li>.../etats-du-service : stm.info service status JSON ("etats-du-service.json").</li>
+ * </ul>
+ * Options:
+ * <ul>
+ * <li>-port N (default: 8080, 0 for any free port)</li>
+ * <li>-data DIR: directory of the recorded payloads, ex: "curl -o arrivals.json 'http://i-www.stm.info/en/lines/...'" (default: generated)</li>
+ * <li>-latency MS: delay before each response (default: 0)</li>
+ * <li>-jitter MS: random extra delay (default: 0)</li>
+ * <li>-failureRate R: ratio of the requests answered with "503 Service Unavailable" (default: 0)</li>
+ * <li>-bandwidth KB: response body bandwidth cap in KB/s per request (default: 0 = no cap)</li>
+ * </ul>
+ * The app emulator reaches the host on "http://10.0.2.2:&lt;port&gt;".
+ */
+public class ReplayServer {
+
+	public static final String ARRIVALS = "arrivals.json";
+	public static final String BIKE_STATIONS = "bikeStations.xml";
+	public static final String SERVICE_STATUS = "etats-du-service.json";
+
+	private static final int CHUNK_SIZE_IN_BYTES = 1024;
+
+	private final int port;
+	private final long latencyInMs;
+	private final long jitterInMs;
+	private final double failureRate;
+	private final int bandwidthInKBps;
+
+	private final Map<String, byte[]> payloads = new HashMap<String, byte[]>();
+	private final Map<String, byte[]> gzipPayloads = new HashMap<String, byte[]>();
+
+	private final Random random = new Random(42);
+
+	private final AtomicInteger requestCount = new AtomicInteger();
+	private final AtomicInteger failureCount = new AtomicInteger();
+	private final AtomicInteger notModifiedCount = new AtomicInteger();
+
+	private HttpServer server;
+
+	public ReplayServer(Map<String, String> options) throws IOException {
+		this.port = Integer.parseInt(getOption(options, "-port", "8080"));
+		this.latencyInMs = Long.parseLong(getOption(options, "-latency", "0"));
+		this.jitterInMs = Long.parseLong(getOption(options, "-jitter", "0"));
+		this.failureRate = Double.parseDouble(getOption(options, "-failureRate", "0"));
+		this.bandwidthInKBps = Integer.parseInt(getOption(options, "-bandwidth", "0"));
+		File dataDir = options.containsKey("-data") ? new File(options.get("-data")) : null;
+		loadPayload(dataDir, ARRIVALS, generateArrivals());
+		loadPayload(dataDir, BIKE_STATIONS, generateBikeStations());
+		loadPayload(dataDir, SERVICE_STATUS, generateServiceStatus());
+	}
+
+	public static void main(String[] args) throws Exception {
+		ReplayServer replayServer = new ReplayServer(parseOptions(args));
+		replayServer.start();
+		System.out.printf(Locale.ENGLISH, "Replay server running on %s (Ctrl+C to stop)...%n", replayServer.getBaseUrl());
+	}
+
+	public static Map<String, String> parseOptions(String[] args) {
+		Map<String, String> options = new HashMap<String, String>();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			options.put(args[i], args[i + 1]);
+		}
+		return options;
+	}
+
+	public void start() throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress(this.port), 0);
+		this.server.setExecutor(Executors.newCachedThreadPool());
+		this.server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					replay(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		this.server.start();
+	}
+
+	public void stop() {
+		if (this.server != null) {
+			this.server.stop(0);
+			((ExecutorService) this.server.getExecutor()).shutdownNow();
+			this.server = null;
+		}
+	}
+
+	public String getBaseUrl() {
+		return "http://127.0.0.1:" + this.server.getAddress().getPort();
+	}
+
+	public int getRequestCount() {
+		return requestCount.get();
+	}
+
+	public int getFailureCount() {
+		return failureCount.get();
+	}
+
+	public int getNotModifiedCount() {
+		return notModifiedCount.get();
+	}
+
+	private void replay(HttpExchange exchange) throws IOException {
+		this.requestCount.incrementAndGet();
+		final String path = exchange.getRequestURI().getPath();
+		final String name;
+		final String contentType;
+		if (path.endsWith("/arrivals")) {
+			name = ARRIVALS;
+			contentType = "application/json; charset=utf-8";
+		} else if (path.endsWith("/" + BIKE_STATIONS)) {
+			name = BIKE_STATIONS;
+			contentType = "text/xml; charset=utf-8";
+		} else if (path.endsWith("/etats-du-service")) {
+			name = SERVICE_STATUS;
+			contentType = "application/json; charset=utf-8";
+		} else {
+			exchange.sendResponseHeaders(404, -1);
+			return;
+		}
+		long delayInMs = this.latencyInMs;
+		if (this.jitterInMs > 0) {
+			synchronized (this.random) {
+				delayInMs += (long) (this.random.nextDouble() * this.jitterInMs);
+			}
+		}
+		sleep(delayInMs);
+		boolean fail;
+		synchronized (this.random) {
+			fail = this.failureRate > 0 && this.random.nextDouble() < this.failureRate;
+		}
+		if (fail) {
+			this.failureCount.incrementAndGet();
+			exchange.sendResponseHeaders(503, -1);
+			return;
+		}
+		if (BIKE_STATIONS.equals(name)) {
+			final String eTag = "\"" + this.payloads.get(name).length + "\"";
+			exchange.getResponseHeaders().set("ETag", eTag);
+			if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				this.notModifiedCount.incrementAndGet();
+				exchange.sendResponseHeaders(304, -1);
+				return;
+			}
+		}
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		final String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		byte[] body;
+		if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+			exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+			body = this.gzipPayloads.get(name);
+		} else {
+			body = this.payloads.get(name);
+		}
+		exchange.sendResponseHeaders(200, body.length);
+		OutputStream os = exchange.getResponseBody();
+		if (this.bandwidthInKBps <= 0) {
+			os.write(body);
+		} else {
+			final long chunkDelayInMs = 1000L * CHUNK_SIZE_IN_BYTES / (this.bandwidthInKBps * 1024L);
+			for (int offset = 0; offset < body.length; offset += CHUNK_SIZE_IN_BYTES) {
+				os.write(body, offset, Math.min(CHUNK_SIZE_IN_BYTES, body.length - offset));
+				os.flush();
+				sleep(chunkDelayInMs);
+			}
+		}
+		os.close();
+	}
+
+	private void loadPayload(File dataDir, String name, String generated) throws IOException {
+		byte[] payload;
+		File file = dataDir == null ? null : new File(dataDir, name);
+		if (file != null && file.isFile()) {
+			payload = readFile(file);
+			System.out.printf(Locale.ENGLISH, "Replaying %s (%s bytes).%n", file, payload.length);
+		} else {
+			payload = generated.getBytes("UTF-8");
+		}
+		this.payloads.put(name, payload);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		GZIPOutputStream gzos = new GZIPOutputStream(baos);
+		gzos.write(payload);
+		gzos.close();
+		this.gzipPayloads.put(name, baos.toByteArray());
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		InputStream is = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = is.read(buffer)) != -1) {
+				baos.write(buffer, 0, read);
+			}
+			return baos.toByteArray();
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * @return 100 arrivals every 7 minutes from 10:02 (live schedule provider limit)
+	 */
+	private static String generateArrivals() {
+		StringBuilder sb = new StringBuilder("{\"status\":{\"level\":\"Info\",\"code\":\"\"},\"result\":[");
+		int time = 1002;
+		for (int i = 0; i < 100; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append("{\"time\":\"").append(String.format(Locale.ENGLISH, "%04d", time)).append("\",\"is_real\":false,\"note\":\"\"}");
+			time += 7;
+			if (time % 100 >= 60) {
+				time += 40; // next hour
+			}
+			if (time >= 2400) {
+				time -= 2400; // next day
+			}
+		}
+		sb.append("],\"messages\":[]}");
+		return sb.toString();
+	}
+
+	/**
+	 * @return 450 bike stations (same format as https://montreal.bixi.com/data/bikeStations.xml)
+	 */
+	private static String generateBikeStations() {
+		Random random = new Random(42);
+		long now = System.currentTimeMillis();
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version='1.0' encoding='UTF-8'?>");
+		sb.append("<stations lastUpdate=\"").append(now).append("\" version=\"2.0\">");
+		for (int i = 1; i <= 450; i++) {
+			sb.append("<station>");
+			sb.append("<id>").append(i).append("</id>");
+			sb.append("<name>Station ").append(i).append(" / de Maisonneuve</name>");
+			sb.append("<terminalName>").append(6000 + i).append("</terminalName>");
+			sb.append("<lastCommWithServer>").append(now).append("</lastCommWithServer>");
+			sb.append("<lat>").append(45.5088 + (random.nextDouble() - 0.5) * 0.2).append("</lat>");
+			sb.append("<long>").append(-73.5540 + (random.nextDouble() - 0.5) * 0.2).append("</long>");
+			sb.append("<installed>true</installed>");
+			sb.append("<locked>false</locked>");
+			sb.append("<installDate>1276012920000</installDate>");
+			sb.append("<removalDate />");
+			sb.append("<temporary>false</temporary>");
+			sb.append("<public>true</public>");
+			sb.append("<nbBikes>").append(random.nextInt(20)).append("</nbBikes>");
+			sb.append("<nbEmptyDocks>").append(random.nextInt(20)).append("</nbEmptyDocks>");
+			sb.append("<latestUpdateTime>").append(now).append("</latestUpdateTime>");
+			sb.append("</station>");
+		}
+		sb.append("</stations>");
+		return sb.toString();
+	}
+
+	/**
+	 * @return the 4 subway lines service status
+	 */
+	private static String generateServiceStatus() {
+		StringBuilder sb = new StringBuilder("{\"metro\":{");
+		for (int line = 1; line <= 5; line++) {
+			if (line == 3) {
+				continue; // no line 3
+			}
+			if (line > 1) {
+				sb.append(',');
+			}
+			sb.append('"').append(line).append("\":{\"data\":{\"text\":\"Service normal du m\\u00e9tro\"}}");
+		}
+		sb.append("}}");
+		return sb.toString();
+	}
+
+	private static String getOption(Map<String, String> options, String name, String defaultValue) {
+		return options.containsKey(name) ? options.get(name) : defaultValue;
+	}
+
+	private static void sleep(long timeInMs) {
+		if (timeInMs <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(timeInMs);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
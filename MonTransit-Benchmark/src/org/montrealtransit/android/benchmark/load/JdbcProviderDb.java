@@ -0,0 +1,137 @@
+package org.montrealtransit.android.benchmark.load;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.montrealtransit.android.R;
+import org.montrealtransit.android.provider.common.AbstractDbHelper;
+import org.montrealtransit.android.provider.common.AbstractProvider;
+
+import android.content.UriMatcher;
+import android.net.Uri;
+
+/**
+ * Route/trip/stop provider DB on sqlite-jdbc: same schema, same data files deployment and same SQL queries as {@link AbstractProvider}.
+ */
+public class JdbcProviderDb {
+
+	private final File dbFile;
+
+	private final UriMatcher uriMatcher;
+
+	public JdbcProviderDb(File dbFile, String authority) {
+		this.dbFile = dbFile;
+		this.uriMatcher = AbstractProvider.getNewUriMatcher(authority);
+	}
+
+	public Connection openConnection() throws SQLException {
+		try {
+			Class.forName("org.sqlite.JDBC");
+		} catch (ClassNotFoundException cnfe) {
+			throw new SQLException("sqlite-jdbc not in the class path!", cnfe);
+		}
+		return DriverManager.getConnection("jdbc:sqlite:" + this.dbFile.getPath());
+	}
+
+	/**
+	 * Deploys the DB from the app data files (like {@link AbstractDbHelper#onCreate(android.database.sqlite.SQLiteDatabase)}) if not already deployed with
+	 * the same version.
+	 * @param dbHelper the app DB helper (only used for its version and data files)
+	 * @param rawDir the app "res/raw" directory
+	 */
+	public void deploy(AbstractDbHelper dbHelper, File rawDir) throws SQLException, IOException {
+		Connection connection = openConnection();
+		try {
+			Statement statement = connection.createStatement();
+			if (getUserVersion(statement) == dbHelper.getDbVersion()) {
+				statement.close();
+				return; // already deployed
+			}
+			for (String sqlSetting : AbstractDbHelper.SQL_SETTINGS) {
+				statement.execute(sqlSetting);
+			}
+			final int[][] tablesFiles = dbHelper.getTablesFiles();
+			connection.setAutoCommit(false);
+			for (int i = 0; i < AbstractDbHelper.TABLES_SQL.length; i++) {
+				// one transaction per table, like the app
+				statement.execute(AbstractDbHelper.TABLES_SQL[i][3]); // drop if exists
+				statement.execute(AbstractDbHelper.TABLES_SQL[i][1]); // create if not exists
+				for (int file : tablesFiles[i]) {
+					BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(new File(rawDir, getRawResourceName(file))), "UTF8"), 8192);
+					try {
+						String line;
+						while ((line = br.readLine()) != null) {
+							statement.execute(AbstractDbHelper.getSQLInsert(AbstractDbHelper.TABLES_SQL[i][2], line));
+						}
+					} finally {
+						br.close();
+					}
+				}
+				connection.commit();
+			}
+			connection.setAutoCommit(true);
+			statement.execute("PRAGMA user_version = " + dbHelper.getDbVersion());
+			statement.close();
+		} finally {
+			connection.close();
+		}
+	}
+
+	private static int getUserVersion(Statement statement) throws SQLException {
+		ResultSet rs = statement.executeQuery("PRAGMA user_version");
+		try {
+			return rs.next() ? rs.getInt(1) : 0;
+		} finally {
+			rs.close();
+		}
+	}
+
+	/**
+	 * @return the resource name (file name) of a R.raw resource ID
+	 */
+	private static String getRawResourceName(int rawId) throws IOException {
+		try {
+			for (Field field : R.raw.class.getFields()) {
+				if (field.getInt(null) == rawId) {
+					return field.getName();
+				}
+			}
+		} catch (IllegalAccessException iae) {
+			throw new IOException("Can't read R.raw!", iae);
+		}
+		throw new IOException("Unknown raw resource " + rawId + "!");
+	}
+
+	/**
+	 * Runs the provider SQL query of the URI and reads all the columns of all the rows (like a cursor window fill).
+	 * @return the number of rows
+	 */
+	public int query(Connection connection, Uri uri, String[] projection, String selection, String sortOrder) throws SQLException {
+		final String sql = AbstractProvider.getSQLQuery(this.uriMatcher.match(uri), uri, projection, selection, sortOrder);
+		Statement statement = connection.createStatement();
+		try {
+			ResultSet rs = statement.executeQuery(sql);
+			final int columnCount = rs.getMetaData().getColumnCount();
+			int rowCount = 0;
+			while (rs.next()) {
+				for (int i = 1; i <= columnCount; i++) {
+					rs.getObject(i);
+				}
+				rowCount++;
+			}
+			rs.close();
+			return rowCount;
+		} finally {
+			statement.close();
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package org.montrealtransit.android.benchmark.load;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Recorded latencies (in nanoseconds) and their percentiles report.
+ */
+public class Latencies {
+
+	private static final double[] PERCENTILES = new double[] { 50.0, 90.0, 99.0, 99.9 };
+
+	private long[] latenciesInNs = new long[1024];
+	private int size = 0;
+
+	public void add(long latencyInNs) {
+		if (this.size == this.latenciesInNs.length) {
+			this.latenciesInNs = Arrays.copyOf(this.latenciesInNs, this.size * 2);
+		}
+		this.latenciesInNs[this.size++] = latencyInNs;
+	}
+
+	public void addAll(Latencies latencies) {
+		for (int i = 0; i < latencies.size; i++) {
+			add(latencies.latenciesInNs[i]);
+		}
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public void sort() {
+		Arrays.sort(this.latenciesInNs, 0, this.size);
+	}
+
+	public long getPercentile(double percentile) {
+		if (this.size == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(percentile / 100.0 * this.size) - 1;
+		return this.latenciesInNs[Math.max(0, Math.min(index, this.size - 1))];
+	}
+
+	public long getMax() {
+		return this.size == 0 ? 0 : this.latenciesInNs[this.size - 1];
+	}
+
+	/**
+	 * Print the report header.
+	 * @param label the 1st column label
+	 * @param unit the operations unit (ex: "queries")
+	 */
+	public static void printHeader(String label, String unit) {
+		System.out.printf(Locale.ENGLISH, "%-10s %10s %10s %10s %10s %10s %10s %10s%n", label, unit, unit + "/s", "p50 ms", "p90 ms", "p99 ms",
+				"p99.9 ms", "max ms");
+	}
+
+	/**
+	 * Print the report line (sorts the latencies).
+	 * @param label the 1st column value
+	 * @param durationInSec the measurement duration
+	 */
+	public void print(String label, double durationInSec) {
+		sort();
+		System.out.printf(Locale.ENGLISH, "%-10s %10d %10.1f", label, this.size, this.size / durationInSec);
+		for (double percentile : PERCENTILES) {
+			System.out.printf(Locale.ENGLISH, " %10.3f", getPercentile(percentile) / 1000000.0);
+		}
+		System.out.printf(Locale.ENGLISH, " %10.3f%n", getMax() / 1000000.0);
+	}
+}
@@ -0,0 +1,182 @@
+package org.montrealtransit.android.benchmark.load;
+
+import java.io.File;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.montrealtransit.android.benchmark.load.QueryMix.Query;
+import org.montrealtransit.android.provider.common.AbstractDbHelper;
+import org.montrealtransit.android.provider.stmbus.StmBusDbHelper;
+import org.montrealtransit.android.provider.stmbus.StmBusProvider;
+import org.montrealtransit.android.provider.stmsubway.StmSubwayDbHelper;
+import org.montrealtransit.android.provider.stmsubway.StmSubwayProvider;
+
+/**
+ * Replays a provider query mix (nearby, search, favorites, route listing) on the sqlite-jdbc DB at a given concurrency and reports the throughput and
+ * the latency percentiles.
+ * <p>
+ * Options:
+ * <ul>
+ * <li>-db stmbus|stmsubway (default: stmbus)</li>
+ * <li>-threads N (default: 1)</li>
+ * <li>-warmup S seconds (default: 5)</li>
+ * <li>-duration S seconds (default: 30)</li>
+ * <li>-mix FILE: replay a recorded query mix (default: generated)</li>
+ * <li>-record FILE: record the generated query mix</li>
+ * <li>-size N: generated query mix size (default: 1000)</li>
+ * <li>-weights N,N,N,N: generated query mix nearby,search,favorites,routes weights (default: 50,20,20,10)</li>
+ * <li>-seed N: generated query mix random seed (default: 42)</li>
+ * </ul>
+ * Each thread uses its own connection: this measures the SQL cost, not the Android connection pool.
+ */
+public class ProviderLoadDriver {
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<String, String>();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			options.put(args[i], args[i + 1]);
+		}
+		final String db = getOption(options, "-db", "stmbus");
+		final int threads = Integer.parseInt(getOption(options, "-threads", "1"));
+		final long warmupInMs = TimeUnit.SECONDS.toMillis(Long.parseLong(getOption(options, "-warmup", "5")));
+		final long durationInMs = TimeUnit.SECONDS.toMillis(Long.parseLong(getOption(options, "-duration", "30")));
+		final File appDir = new File(System.getProperty("benchmark.app.dir", "../MonTransit"));
+		final File outDir = new File(System.getProperty("benchmark.out.dir", "bin"));
+		// DB
+		final AbstractDbHelper dbHelper;
+		final String authority;
+		if ("stmsubway".equals(db)) {
+			dbHelper = new StmSubwayDbHelper(null);
+			authority = StmSubwayProvider.AUTHORITY;
+		} else {
+			dbHelper = new StmBusDbHelper(null);
+			authority = StmBusProvider.AUTHORITY;
+		}
+		outDir.mkdirs();
+		final JdbcProviderDb providerDb = new JdbcProviderDb(new File(outDir, dbHelper.getDbName()), authority);
+		long startInMs = System.currentTimeMillis();
+		providerDb.deploy(dbHelper, new File(appDir, "res/raw"));
+		System.out.printf(Locale.ENGLISH, "DB %s v%s ready in %s ms.%n", dbHelper.getDbName(), dbHelper.getDbVersion(), System.currentTimeMillis()
+				- startInMs);
+		// query mix
+		final QueryMix queryMix;
+		if (options.containsKey("-mix")) {
+			queryMix = QueryMix.read(new File(options.get("-mix")));
+		} else {
+			String[] weightsS = getOption(options, "-weights", "50,20,20,10").split(",");
+			int[] weights = new int[QueryMix.TYPES.length];
+			for (int i = 0; i < weights.length; i++) {
+				weights[i] = Integer.parseInt(weightsS[i]);
+			}
+			Connection connection = providerDb.openConnection();
+			try {
+				queryMix = QueryMix.generate(connection, authority, Integer.parseInt(getOption(options, "-size", "1000")), weights,
+						Long.parseLong(getOption(options, "-seed", "42")));
+			} finally {
+				connection.close();
+			}
+			if (options.containsKey("-record")) {
+				queryMix.write(new File(options.get("-record")));
+			}
+		}
+		System.out.printf(Locale.ENGLISH, "Replaying %s queries with %s thread(s) (warm-up: %s s, duration: %s s)...%n", queryMix.getQueries().size(),
+				threads, TimeUnit.MILLISECONDS.toSeconds(warmupInMs), TimeUnit.MILLISECONDS.toSeconds(durationInMs));
+		// run
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		final long[] measureStartEnd = new long[2];
+		List<Worker> workers = new ArrayList<Worker>();
+		for (int i = 0; i < threads; i++) {
+			Worker worker = new Worker(providerDb, queryMix.getQueries(), i * queryMix.getQueries().size() / threads, startLatch, measureStartEnd);
+			workers.add(worker);
+			worker.start();
+		}
+		measureStartEnd[0] = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(warmupInMs);
+		measureStartEnd[1] = measureStartEnd[0] + TimeUnit.MILLISECONDS.toNanos(durationInMs);
+		startLatch.countDown();
+		for (Worker worker : workers) {
+			worker.join();
+			if (worker.error != null) {
+				throw worker.error;
+			}
+		}
+		// report
+		Map<String, Latencies> typeLatencies = new HashMap<String, Latencies>();
+		Latencies allLatencies = new Latencies();
+		for (Worker worker : workers) {
+			for (Map.Entry<String, Latencies> entry : worker.typeLatencies.entrySet()) {
+				if (!typeLatencies.containsKey(entry.getKey())) {
+					typeLatencies.put(entry.getKey(), new Latencies());
+				}
+				typeLatencies.get(entry.getKey()).addAll(entry.getValue());
+				allLatencies.addAll(entry.getValue());
+			}
+		}
+		final double durationInSec = durationInMs / 1000.0;
+		Latencies.printHeader("type", "queries");
+		for (String type : QueryMix.TYPES) {
+			if (typeLatencies.containsKey(type)) {
+				typeLatencies.get(type).print(type, durationInSec);
+			}
+		}
+		allLatencies.print("all", durationInSec);
+	}
+
+	private static String getOption(Map<String, String> options, String name, String defaultValue) {
+		return options.containsKey(name) ? options.get(name) : defaultValue;
+	}
+
+	private static class Worker extends Thread {
+
+		private final JdbcProviderDb providerDb;
+		private final List<Query> queries;
+		private final int startIndex;
+		private final CountDownLatch startLatch;
+		private final long[] measureStartEnd;
+
+		private final Map<String, Latencies> typeLatencies = new HashMap<String, Latencies>();
+		private Exception error;
+
+		public Worker(JdbcProviderDb providerDb, List<Query> queries, int startIndex, CountDownLatch startLatch, long[] measureStartEnd) {
+			this.providerDb = providerDb;
+			this.queries = queries;
+			this.startIndex = startIndex;
+			this.startLatch = startLatch;
+			this.measureStartEnd = measureStartEnd;
+		}
+
+		@Override
+		public void run() {
+			try {
+				Connection connection = this.providerDb.openConnection();
+				try {
+					this.startLatch.await();
+					int index = this.startIndex;
+					while (true) {
+						Query query = this.queries.get(index++ % this.queries.size());
+						long startInNs = System.nanoTime();
+						if (startInNs >= this.measureStartEnd[1]) {
+							break;
+						}
+						this.providerDb.query(connection, query.uri, query.projection, query.selection, query.sortOrder);
+						if (startInNs >= this.measureStartEnd[0]) { // after warm-up
+							if (!this.typeLatencies.containsKey(query.type)) {
+								this.typeLatencies.put(query.type, new Latencies());
+							}
+							this.typeLatencies.get(query.type).add(System.nanoTime() - startInNs);
+						}
+					}
+				} finally {
+					connection.close();
+				}
+			} catch (Exception e) {
+				this.error = e;
+			}
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package org.montrealtransit.android.benchmark.load;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.montrealtransit.android.LocationUtils;
+import org.montrealtransit.android.Utils;
+import org.montrealtransit.android.data.TripStop;
+import org.montrealtransit.android.provider.DataStore.Fav;
+import org.montrealtransit.android.provider.common.AbstractDbHelper;
+import org.montrealtransit.android.provider.common.AbstractManager;
+import org.montrealtransit.android.provider.common.RouteTripStopColumns;
+import org.montrealtransit.android.provider.common.TripColumns;
+
+import android.net.Uri;
+import android.text.TextUtils;
+
+/**
+ * A list of provider queries, recorded in a text file (one tab separated query per line: type, URI, projection, selection, sort order).
+ */
+public class QueryMix {
+
+	public static final String TYPE_NEARBY = "nearby";
+	public static final String TYPE_SEARCH = "search";
+	public static final String TYPE_FAVORITES = "favorites";
+	public static final String TYPE_ROUTES = "routes";
+
+	public static final String[] TYPES = new String[] { TYPE_NEARBY, TYPE_SEARCH, TYPE_FAVORITES, TYPE_ROUTES };
+
+	private static final String SEPARATOR = "\t";
+
+	private static final String PROJECTION_SEPARATOR = ",";
+
+	private static final double MONTREAL_LAT = 45.5088;
+	private static final double MONTREAL_LNG = -73.5540;
+
+	public static class Query {
+
+		public final String type;
+		public final Uri uri;
+		public final String[] projection;
+		public final String selection;
+		public final String sortOrder;
+
+		public Query(String type, Uri uri, String[] projection, String selection, String sortOrder) {
+			this.type = type;
+			this.uri = uri;
+			this.projection = projection;
+			this.selection = selection;
+			this.sortOrder = sortOrder;
+		}
+	}
+
+	private final List<Query> queries;
+
+	public QueryMix(List<Query> queries) {
+		this.queries = queries;
+	}
+
+	public List<Query> getQueries() {
+		return queries;
+	}
+
+	public static QueryMix read(File file) throws IOException {
+		List<Query> queries = new ArrayList<Query>();
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF8"));
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				String[] items = line.split(SEPARATOR, -1);
+				queries.add(new Query(items[0], Uri.parse(items[1]), emptyToNull(items[2]) == null ? null : items[2].split(PROJECTION_SEPARATOR),
+						emptyToNull(items[3]), emptyToNull(items[4])));
+			}
+		} finally {
+			br.close();
+		}
+		return new QueryMix(queries);
+	}
+
+	public void write(File file) throws IOException {
+		PrintWriter pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF8"));
+		try {
+			pw.println("# type" + SEPARATOR + "uri" + SEPARATOR + "projection" + SEPARATOR + "selection" + SEPARATOR + "sortOrder");
+			for (Query query : this.queries) {
+				pw.print(query.type);
+				pw.print(SEPARATOR);
+				pw.print(query.uri);
+				pw.print(SEPARATOR);
+				pw.print(query.projection == null ? "" : TextUtils.join(PROJECTION_SEPARATOR, query.projection));
+				pw.print(SEPARATOR);
+				pw.print(query.selection == null ? "" : query.selection);
+				pw.print(SEPARATOR);
+				pw.print(query.sortOrder == null ? "" : query.sortOrder);
+				pw.println();
+			}
+		} finally {
+			pw.close();
+		}
+	}
+
+	private static String emptyToNull(String string) {
+		return string.length() == 0 ? null : string;
+	}
+
+	/**
+	 * Generates a query mix with the same queries as the app screens ({@link AbstractManager}) on the deployed DB data.
+	 * @param weights the weight of each {@link #TYPES} type
+	 */
+	public static QueryMix generate(Connection connection, String authority, int size, int[] weights, long seed) throws SQLException {
+		final Uri contentUri = Utils.newContentUri(authority);
+		final Random random = new Random(seed);
+		final List<String> stopNames = new ArrayList<String>();
+		final List<String> stopCodes = new ArrayList<String>();
+		final List<int[]> stopRoutes = new ArrayList<int[]>(); // stop ID, route ID
+		final List<Integer> routeIds = new ArrayList<Integer>();
+		Statement statement = connection.createStatement();
+		try {
+			ResultSet rs = statement.executeQuery("SELECT " + AbstractDbHelper.T_STOP_K_NAME + "," + AbstractDbHelper.T_STOP_K_CODE + " FROM "
+					+ AbstractDbHelper.T_STOP);
+			while (rs.next()) {
+				stopNames.add(rs.getString(1));
+				stopCodes.add(rs.getString(2));
+			}
+			rs.close();
+			rs = statement.executeQuery("SELECT DISTINCT " + AbstractDbHelper.T_TRIP_STOPS + "." + AbstractDbHelper.T_TRIP_STOPS_K_STOP_ID + ","
+					+ AbstractDbHelper.T_TRIP + "." + AbstractDbHelper.T_TRIP_K_ROUTE_ID + " FROM " + AbstractDbHelper.T_TRIP_STOPS + " JOIN "
+					+ AbstractDbHelper.T_TRIP + " ON " + AbstractDbHelper.T_TRIP_STOPS + "." + AbstractDbHelper.T_TRIP_STOPS_K_TRIP_ID + "="
+					+ AbstractDbHelper.T_TRIP + "." + AbstractDbHelper.T_TRIP_K_ID);
+			while (rs.next()) {
+				stopRoutes.add(new int[] { rs.getInt(1), rs.getInt(2) });
+			}
+			rs.close();
+			rs = statement.executeQuery("SELECT " + AbstractDbHelper.T_ROUTE_K_ID + " FROM " + AbstractDbHelper.T_ROUTE);
+			while (rs.next()) {
+				routeIds.add(rs.getInt(1));
+			}
+			rs.close();
+		} finally {
+			statement.close();
+		}
+		int totalWeight = 0;
+		for (int weight : weights) {
+			totalWeight += weight;
+		}
+		List<Query> queries = new ArrayList<Query>(size);
+		while (queries.size() < size) {
+			int pick = random.nextInt(totalWeight);
+			int typeIndex = 0;
+			while (pick >= weights[typeIndex]) {
+				pick -= weights[typeIndex];
+				typeIndex++;
+			}
+			final String type = TYPES[typeIndex];
+			if (TYPE_NEARBY.equals(type)) {
+				double lat = MONTREAL_LAT + (random.nextDouble() - 0.5) * 0.2;
+				double lng = MONTREAL_LNG + (random.nextDouble() - 0.5) * 0.2;
+				queries.add(new Query(type, AbstractManager.getRouteTripStopUri(contentUri), AbstractManager.PROJECTION_ROUTE_TRIP_STOP, LocationUtils
+						.genAroundWhere(lat, lng, RouteTripStopColumns.T_STOP_K_LAT, RouteTripStopColumns.T_STOP_K_LNG, LocationUtils.MIN_AROUND_DIFF),
+						RouteTripStopColumns.T_TRIP_STOPS_K_STOP_SEQUENCE + " ASC"));
+			} else if (TYPE_SEARCH.equals(type)) {
+				String searchTerm;
+				if (random.nextBoolean() && !TextUtils.isEmpty(stopCodes.get(0))) {
+					searchTerm = stopCodes.get(random.nextInt(stopCodes.size()));
+				} else {
+					String[] words = stopNames.get(random.nextInt(stopNames.size())).split("[\\s\\W]");
+					searchTerm = words[random.nextInt(words.length)].toLowerCase(Locale.ENGLISH);
+				}
+				queries.add(new Query(type, Uri.withAppendedPath(AbstractManager.getRouteTripStopUri(contentUri), Uri.encode(searchTerm)),
+						AbstractManager.PROJECTION_ROUTE_TRIP_STOP, null, RouteTripStopColumns.T_ROUTE_K_ID + ", " + RouteTripStopColumns.T_STOP_K_CODE
+								+ " ASC"));
+			} else if (TYPE_FAVORITES.equals(type)) {
+				List<Fav> favs = new ArrayList<Fav>();
+				final int nbFavs = 1 + random.nextInt(15);
+				for (int i = 0; i < nbFavs; i++) {
+					int[] stopRoute = stopRoutes.get(random.nextInt(stopRoutes.size()));
+					Fav fav = new Fav();
+					fav.setType(Fav.KEY_TYPE_VALUE_AUTHORITY_ROUTE_STOP);
+					fav.setFkId(TripStop.getUID(authority, stopRoute[0], stopRoute[1]));
+					favs.add(fav);
+				}
+				queries.add(new Query(type, AbstractManager.getRouteTripStopUri(contentUri), AbstractManager.PROJECTION_ROUTE_TRIP_STOP, AbstractManager
+						.genTripStopFavsWhere(favs), AbstractManager.FAVORITES_SORT_ORDER));
+			} else { // TYPE_ROUTES
+				if (random.nextBoolean()) {
+					queries.add(new Query(type, AbstractManager.getRouteUri(contentUri), AbstractManager.PROJECTION_ROUTE, null, null));
+				} else {
+					queries.add(new Query(type, AbstractManager.getTripUri(contentUri), AbstractManager.PROJECTION_TRIP, TripColumns.T_TRIP_K_ROUTE_ID
+							+ " = " + routeIds.get(random.nextInt(routeIds.size())), null));
+				}
+			}
+		}
+		return new QueryMix(queries);
+	}
+}
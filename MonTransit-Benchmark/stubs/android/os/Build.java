@@ -0,0 +1,25 @@
+package android.os;
+
+/**
+ * JVM replacement of the Android build information (read from native system properties on the Android framework jar).
+ */
+public class Build {
+
+	public static class VERSION {
+
+		public static final String SDK = "22";
+
+		public static final int SDK_INT = 22;
+
+		public static final String RELEASE = "5.1";
+	}
+
+	public static class VERSION_CODES {
+
+		public static final int FROYO = 8;
+
+		public static final int GINGERBREAD = 9;
+
+		public static final int ICE_CREAM_SANDWICH = 14;
+	}
+}
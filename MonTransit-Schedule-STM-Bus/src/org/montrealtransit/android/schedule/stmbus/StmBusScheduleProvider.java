@@ -7,8 +7,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.json.JSONArray;
@@ -52,6 +54,7 @@ public class StmBusScheduleProvider extends ContentProvider {
 	// @Deprecated
 	// private static final int ROUTE_DEPARTURE = 7;
 	private static final int DEPARTURE = 8;
+	private static final int DEPARTURES = 9;
 	private static final int PING = 100;
 
 	// private static final HashMap<String, String> SCHEDULE_PROJECTION_MAP;
@@ -60,6 +63,7 @@ public class StmBusScheduleProvider extends ContentProvider {
 		URI_MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
 		URI_MATCHER.addURI(AUTHORITY, "ping", PING);
 		URI_MATCHER.addURI(AUTHORITY, "departure", DEPARTURE);
+		URI_MATCHER.addURI(AUTHORITY, "departures", DEPARTURES);
 		// URI_MATCHER.addURI(AUTHORITY, "route/#/departure", ROUTE_DEPARTURE);
 		// URI_MATCHER.addURI(AUTHORITY, "route/#/trip/#/stop/#", ROUTE_TRIP_STOP);
 		// URI_MATCHER.addURI(AUTHORITY, "route/#/trip/#/stop/#/date/#/time/#", ROUTE_TRIP_STOP_DATE_TIME);
@@ -115,6 +119,7 @@ public class StmBusScheduleProvider extends ContentProvider {
 
 	public static final String SCHEDULE_CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/vnd." + AUTHORITY + ".schedule";
 	public static final String DEPARTURE_CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/vnd." + AUTHORITY + ".departure";
+	public static final String DEPARTURES_CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/vnd." + AUTHORITY + ".departures";
 
 	@Override
 	public String getType(Uri uri) {
@@ -130,6 +135,8 @@ public class StmBusScheduleProvider extends ContentProvider {
 		// return SCHEDULE_CONTENT_TYPE;
 		case DEPARTURE:
 			return DEPARTURE_CONTENT_TYPE;
+		case DEPARTURES:
+			return DEPARTURES_CONTENT_TYPE;
 		case PING:
 			return null;
 		default:
@@ -153,6 +160,8 @@ public class StmBusScheduleProvider extends ContentProvider {
 			return null;
 		case DEPARTURE:
 			return getDeparture(selection);
+		case DEPARTURES:
+			return getDepartures(selection);
 		default:
 			throw new IllegalArgumentException(String.format("Unknown URI (query): '%s'", uri));
 		}
@@ -334,6 +343,52 @@ public class StmBusScheduleProvider extends ContentProvider {
 		}
 	}
 
+	public Cursor getDepartures(String selection) {
+		MyLog.d(TAG, "getDepartures(%s)", selection);
+		try {
+			JSONObject jSelection = new JSONObject(selection);
+			// extract values from JSON
+			JSONArray jRouteTripStops = jSelection.optJSONArray("routeTripStops");
+			if (jRouteTripStops == null) {
+				MyLog.w(TAG, "No route trip stops in selection '%s'!", selection);
+				return null;
+			}
+			long timestamp = jSelection.has("timestamp") ? jSelection.getLong("timestamp") : System.currentTimeMillis();
+			boolean cacheOnly = jSelection.has("cacheOnly") ? jSelection.getBoolean("cacheOnly") : false;
+			MatrixCursor matrixCursor = new MatrixCursor(new String[] { "uuid", "json" });
+			// IF cache only DO return nothing (no departures cache in this provider)
+			if (cacheOnly) {
+				return matrixCursor;
+			}
+			List<RouteTripStop> routeTripStops = new ArrayList<RouteTripStop>();
+			for (int i = 0; i < jRouteTripStops.length(); i++) {
+				final RouteTripStop routeTripStop = RouteTripStop.fromJSON(jRouteTripStops.optJSONObject(i));
+				if (routeTripStop != null) {
+					routeTripStops.add(routeTripStop);
+				}
+			}
+			// other route trip stops of the same stop (stop departure board) are read from the same stop schedule file
+			JSONArray jOtherRouteTripStops = jSelection.optJSONArray("otherRouteTripStops");
+			if (jOtherRouteTripStops != null) {
+				for (int i = 0; i < jOtherRouteTripStops.length(); i++) {
+					final RouteTripStop routeTripStop = RouteTripStop.fromJSON(jOtherRouteTripStops.optJSONObject(i));
+					if (routeTripStop != null) {
+						routeTripStops.add(routeTripStop);
+					}
+				}
+			}
+			final Calendar now = Calendar.getInstance();
+			now.setTimeInMillis(timestamp);
+			for (Map.Entry<String, JSONObject> departure : findDepartures(routeTripStops, now).entrySet()) {
+				matrixCursor.addRow(new Object[] { departure.getKey(), departure.getValue().toString() });
+			}
+			return matrixCursor;
+		} catch (JSONException jsone) {
+			MyLog.w(TAG, jsone, "Error while parsing JSON '%s'!", selection);
+			return null;
+		}
+	}
+
 	public static final int CACHE_MAX_VALIDITY_IN_SEC = 24 * 60 * 60; // 1 day
 
 	public int getCACHE_MAX_VALIDITY_IN_SEC() {
@@ -351,74 +406,122 @@ public class StmBusScheduleProvider extends ContentProvider {
 	}
 
 	public Cursor getDeparture(RouteTripStop routeTripStop, Calendar now, Object cache, String cacheUUID) { // TODO cache Cache cache
-		try {
-			List<Long> allTimestamps = new ArrayList<Long>();
-			// 1ST - check if YESTERDAY schedule is over (because trips started yesterday end with 240000+ time)
-			MyLog.d(TAG, "Checking if yesterday schedule is over...");
-			Calendar yesterday = (Calendar) now.clone();
-			yesterday.add(Calendar.DATE, -1);
-			final String dateYesterday = DATE_FORMAT.format(yesterday.getTime());
-			// MyLog.d(TAG, "Date Yesterday: %s", dateYesterday);
-			final String timeYesterday = String.valueOf(Integer.valueOf(TIME_FORMAT.format(yesterday.getTime())) + 240000);
-			// yesterday.add(Calendar.DATE, +1); TODO ?
-			// MyLog.d(TAG, "Time Yesterday: %s", timeYesterday);
-			final Set<Long> yesterdayTimestamps = findScheduleList(routeTripStop.route.id, routeTripStop.trip.id, routeTripStop.stop.id, dateYesterday,
-					timeYesterday);
-			// MyLog.d(TAG, "result: %s", yesterdayTimestamps.size());
-			allTimestamps.addAll(yesterdayTimestamps);
-			MyLog.d(TAG, "Checking if yesterday schedule is over... DONE");
-			// 2ND - check TODAY schedule
-			MyLog.d(TAG, "Checking today schedule...");
-			final String dateNow = DATE_FORMAT.format(now.getTime());
-			// MyLog.d(TAG, "Date Now: %s", dateNow);
-			final String timeNow = TIME_FORMAT.format(now.getTime());
-			// MyLog.d(TAG, "Time Now: %s", timeNow);
-			final Set<Long> todayTimestamps = findScheduleList(routeTripStop.route.id, routeTripStop.trip.id, routeTripStop.stop.id, dateNow, timeNow);
-			// MyLog.d(TAG, "result: %s", todayTimestamps.size());
-			allTimestamps.addAll(todayTimestamps);
-			MyLog.d(TAG, "Checking today schedule... DONE");
-			// 3RD - look for last schedule => not necessary, query should ask for now minus the previous duration they want to have
-			// 4TH - check TOMORROW schedule
-			MyLog.d(TAG, "Checking tomorrow schedule...");
-			Calendar tomorrow = (Calendar) now.clone();
-			tomorrow.add(Calendar.DATE, +1);
-			final String tomorrowDate = DATE_FORMAT.format(tomorrow.getTime());
-			// MyLog.d(TAG, "Date tomorrow: %s", tomorrowDate);
-			// tomorrow.add(Calendar.DATE, -1);// TODO?
-			final String afterMidnightHour = "000000";
-			// MyLog.d(TAG, "Date tomorrow: %s", afterMidnightHour);
-			final Set<Long> tomorrowTimestamps = findScheduleList(routeTripStop.route.id, routeTripStop.trip.id, routeTripStop.stop.id, tomorrowDate,
-					afterMidnightHour);
-			// MyLog.d(TAG, "result: %s", tomorrowTimestamps.size());
-			allTimestamps.addAll(tomorrowTimestamps);
-			MyLog.d(TAG, "Checking tomorrow schedule... DONE");
-			// create JSON
-			final JSONObject jResult = new JSONObject();
-			jResult.put("realtime", false);
-			jResult.put("source", getContext().getString(R.string.offline_schedule));
-			final JSONArray jTimestamps = new JSONArray();
-			Collections.sort(allTimestamps);
-			for (Long t : allTimestamps) {
-				jTimestamps.put(t);
+		final JSONObject jResult = findDepartures(Collections.singletonList(routeTripStop), now).get(routeTripStop.getUUID());
+		// TODO cache // save to cache
+		// TODO cache saveToCache(cacheUUID, jResult);
+		// return result
+		return getDepartureCursor(jResult);
+	}
+
+	/**
+	 * Find the departures of the route trip stops (reading each stop schedule file only once for all the trips and service days).
+	 * @param routeTripStops the route trip stops
+	 * @param now the time
+	 * @return the departures JSON by route trip stop UUID
+	 */
+	private Map<String, JSONObject> findDepartures(List<RouteTripStop> routeTripStops, Calendar now) {
+		Map<String, JSONObject> result = new HashMap<String, JSONObject>();
+		final List<ServiceDay> serviceDays = getServiceDays(now);
+		// group route trip stops by stop (1 schedule file / stop)
+		Map<Integer, List<RouteTripStop>> stopIdToRouteTripStops = new HashMap<Integer, List<RouteTripStop>>();
+		for (RouteTripStop routeTripStop : routeTripStops) {
+			List<RouteTripStop> stopRouteTripStops = stopIdToRouteTripStops.get(routeTripStop.stop.id);
+			if (stopRouteTripStops == null) {
+				stopRouteTripStops = new ArrayList<RouteTripStop>();
+				stopIdToRouteTripStops.put(routeTripStop.stop.id, stopRouteTripStops);
 			}
-			jResult.put("timestamps", jTimestamps);
-			if (allTimestamps.size() == 0) {
-				jResult.put(
-						"error",
-						getContext().getString(R.string.stop_no_info_and_source, routeTripStop.route.shortName,
-								getContext().getString(R.string.offline_schedule)));
+			stopRouteTripStops.add(routeTripStop);
+		}
+		for (Map.Entry<Integer, List<RouteTripStop>> stopRouteTripStops : stopIdToRouteTripStops.entrySet()) {
+			Set<Integer> tripIds = new HashSet<Integer>();
+			for (RouteTripStop routeTripStop : stopRouteTripStops.getValue()) {
+				tripIds.add(routeTripStop.trip.id);
 			}
-			// MyLog.d(TAG, "jResult: %s", jResult);
-			// TODO cache // save to cache
-			// TODO cache saveToCache(cacheUUID, jResult);
-			// return result
-			return getDepartureCursor(jResult);
-		} catch (JSONException jsone) {
-			MyLog.w(TAG, jsone, "Error while parsing JSON '%s'!", routeTripStop);
-			return null;
+			final Map<Integer, Set<Long>> tripIdToTimestamps = findScheduleLists(stopRouteTripStops.getKey(), tripIds, serviceDays);
+			for (RouteTripStop routeTripStop : stopRouteTripStops.getValue()) {
+				try {
+					result.put(routeTripStop.getUUID(), getDepartureJSON(routeTripStop, tripIdToTimestamps.get(routeTripStop.trip.id)));
+				} catch (JSONException jsone) {
+					MyLog.w(TAG, jsone, "Error while parsing JSON '%s'!", routeTripStop);
+				}
+			}
+		}
+		return result;
+	}
+
+	private JSONObject getDepartureJSON(RouteTripStop routeTripStop, Set<Long> timestamps) throws JSONException {
+		List<Long> allTimestamps = new ArrayList<Long>();
+		if (timestamps != null) {
+			allTimestamps.addAll(timestamps);
+		}
+		// create JSON
+		final JSONObject jResult = new JSONObject();
+		jResult.put("realtime", false);
+		jResult.put("source", getContext().getString(R.string.offline_schedule));
+		final JSONArray jTimestamps = new JSONArray();
+		Collections.sort(allTimestamps);
+		for (Long t : allTimestamps) {
+			jTimestamps.put(t);
+		}
+		jResult.put("timestamps", jTimestamps);
+		if (allTimestamps.size() == 0) {
+			jResult.put(
+					"error",
+					getContext().getString(R.string.stop_no_info_and_source, routeTripStop.route.shortName,
+							getContext().getString(R.string.offline_schedule)));
+		}
+		// MyLog.d(TAG, "jResult: %s", jResult);
+		return jResult;
+	}
+
+	/**
+	 * A service day to look for departures.
+	 */
+	private static class ServiceDay {
+		/**
+		 * The date (yyyyMMdd).
+		 */
+		private String dateS;
+		/**
+		 * Only departures after this time (HHmmss).
+		 */
+		private long timeI;
+		/**
+		 * The services running this date.
+		 */
+		private Set<String> serviceIds;
+
+		public ServiceDay(String dateS, String timeS, Set<String> serviceIds) {
+			this.dateS = dateS;
+			this.timeI = Integer.parseInt(timeS);
+			this.serviceIds = serviceIds;
 		}
 	}
 
+	private List<ServiceDay> getServiceDays(Calendar now) {
+		List<ServiceDay> serviceDays = new ArrayList<ServiceDay>();
+		// 1ST - check if YESTERDAY schedule is over (because trips started yesterday end with 240000+ time)
+		Calendar yesterday = (Calendar) now.clone();
+		yesterday.add(Calendar.DATE, -1);
+		final String dateYesterday = DATE_FORMAT.format(yesterday.getTime());
+		final String timeYesterday = String.valueOf(Integer.valueOf(TIME_FORMAT.format(yesterday.getTime())) + 240000);
+		// yesterday.add(Calendar.DATE, +1); TODO ?
+		serviceDays.add(new ServiceDay(dateYesterday, timeYesterday, findServices(dateYesterday)));
+		// 2ND - check TODAY schedule
+		final String dateNow = DATE_FORMAT.format(now.getTime());
+		final String timeNow = TIME_FORMAT.format(now.getTime());
+		serviceDays.add(new ServiceDay(dateNow, timeNow, findServices(dateNow)));
+		// 3RD - look for last schedule => not necessary, query should ask for now minus the previous duration they want to have
+		// 4TH - check TOMORROW schedule
+		Calendar tomorrow = (Calendar) now.clone();
+		tomorrow.add(Calendar.DATE, +1);
+		final String tomorrowDate = DATE_FORMAT.format(tomorrow.getTime());
+		// tomorrow.add(Calendar.DATE, -1);// TODO?
+		final String afterMidnightHour = "000000";
+		serviceDays.add(new ServiceDay(tomorrowDate, afterMidnightHour, findServices(tomorrowDate)));
+		return serviceDays;
+	}
+
 	public Cursor getDepartureCursor(JSONObject jsonObject) {
 		if (jsonObject == null) {
 			return null;
@@ -432,10 +535,7 @@ public class StmBusScheduleProvider extends ContentProvider {
 
 	private static final String RAW_FILE_FORMAT = "ca_mtl_stm_bus_schedules_stop_%s";
 
-	private Set<Long> findScheduleList(int routeId, int tripId, int stopId, String dateS, String timeS) {
-		MyLog.v(TAG, "findScheduleList(%s,%s,%s,%s,%s)", routeId, tripId, stopId, dateS, timeS);
-		long timeI = Integer.parseInt(timeS);
-		Set<Long> result = new HashSet<Long>();
+	private Set<String> findServices(String dateS) {
 		Set<String> serviceIds = new HashSet<String>();
 		Cursor cursor = null;
 		try {
@@ -462,8 +562,13 @@ public class StmBusScheduleProvider extends ContentProvider {
 				cursor.close();
 			}
 		}
-		// MyLog.d(TAG, "findScheduleList() > found %s service(s)", serviceIds.size());
-		// read file
+		return serviceIds;
+	}
+
+	private Map<Integer, Set<Long>> findScheduleLists(int stopId, Set<Integer> tripIds, List<ServiceDay> serviceDays) {
+		MyLog.v(TAG, "findScheduleLists(%s,%s,%s)", stopId, tripIds, serviceDays.size());
+		Map<Integer, Set<Long>> result = new HashMap<Integer, Set<Long>>();
+		// read file (once for all trips & service days)
 		BufferedReader br = null;
 		String line = null;
 		String fileName = String.format(RAW_FILE_FORMAT, stopId);
@@ -471,7 +576,6 @@ public class StmBusScheduleProvider extends ContentProvider {
 			br = new BufferedReader(new InputStreamReader(getContext().getResources().openRawResource(
 					getContext().getResources().getIdentifier(fileName, "raw", getContext().getPackageName())), "UTF8"), 8192);
 			while ((line = br.readLine()) != null) {
-				// db.execSQL(String.format(sqlInsert, line));
 				try {
 					String[] lineItems = line.split(",");
 					if (lineItems.length != 4) {
@@ -479,14 +583,8 @@ public class StmBusScheduleProvider extends ContentProvider {
 						continue;
 					}
 					final String lineServiceId = lineItems[0].substring(1, lineItems[0].length() - 1);
-					if (!serviceIds.contains(lineServiceId)) {
-						// MyLog.d(TAG, "Wrong service id '%s' while looking for service ids '%s'!", lineServiceId, serviceIds);
-						continue;
-					}
-					// MyLog.d(TAG, "GOOD service id '%s' while looking for service ids '%s'!", lineServiceId, serviceIds);
 					final int lineTripId = Integer.parseInt(lineItems[1]);
-					if (tripId != lineTripId) { // TODO LATER other trip ID schedule maybe useful in cache ???
-						// MyLog.d(TAG, "Wrong trip id '%s' while looking for trip id '%s'!", lineTripId, tripId);
+					if (!tripIds.contains(lineTripId)) { // other trips are only read if requested (stop departure board)
 						continue;
 					}
 					final int lineStopId = Integer.parseInt(lineItems[2]);
@@ -494,17 +592,31 @@ public class StmBusScheduleProvider extends ContentProvider {
 						MyLog.w(TAG, "Wrong stop id '%s' while looking for stop id '%s'!", lineStopId, stopId);
 						continue;
 					}
-					final int lineDeparture = Integer.parseInt(lineItems[3]);
-					if (lineDeparture > timeI) {
-						result.add(convertToTimestamp(lineDeparture, dateS));
-						// } else {
-						// MyLog.d(TAG, "Too soon '%s' (after:%s)!", lineDeparture, timeI);
+					int lineDeparture = -1;
+					for (ServiceDay serviceDay : serviceDays) {
+						if (!serviceDay.serviceIds.contains(lineServiceId)) {
+							continue;
+						}
+						if (lineDeparture < 0) {
+							lineDeparture = Integer.parseInt(lineItems[3]);
+						}
+						if (lineDeparture > serviceDay.timeI) {
+							final Long timestamp = convertToTimestamp(lineDeparture, serviceDay.dateS);
+							if (timestamp == null) {
+								continue;
+							}
+							Set<Long> tripTimestamps = result.get(lineTripId);
+							if (tripTimestamps == null) {
+								tripTimestamps = new HashSet<Long>();
+								result.put(lineTripId, tripTimestamps);
+							}
+							tripTimestamps.add(timestamp);
+						}
 					}
 				} catch (Exception e) {
 					MyLog.w(TAG, e, "Cannot parse schedule '%s' (fileName: %s)!", line, fileName);
 				}
 			}
-			// }
 		} catch (Exception e) {
 			MyLog.w(TAG, e, "ERROR while reading stop time from file! (fileName: %s, line: %s)", fileName, line);
 		} finally {
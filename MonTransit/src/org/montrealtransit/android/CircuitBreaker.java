@@ -0,0 +1,257 @@
+package org.montrealtransit.android;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker of a remote endpoint (host):
+ * <ul>
+ * <li>CLOSED: requests are sent, {@link #FAILURE_THRESHOLD} consecutive failures open the circuit,</li>
+ * <li>OPEN: requests fail immediately ({@link OpenException}) until the back-off delay is elapsed,</li>
+ * <li>HALF_OPEN: one trial request is sent, its success closes the circuit, its failure opens it again with a longer back-off delay.</li>
+ * </ul>
+ * The back-off delay doubles after each consecutive trip (up to {@link #MAX_OPEN_DELAY_IN_MS}) with a random jitter.
+ * <p>
+ * Each request result is reported with the permit returned by {@link #acquire()}: results of requests sent before the last state change (requests
+ * still running when the circuit opened) are ignored.
+ */
+public class CircuitBreaker {
+
+	/**
+	 * The log tag.
+	 */
+	private static final String TAG = CircuitBreaker.class.getSimpleName();
+
+	public static final int STATE_CLOSED = 0;
+	public static final int STATE_OPEN = 1;
+	public static final int STATE_HALF_OPEN = 2;
+
+	/**
+	 * The number of consecutive failures opening the circuit.
+	 */
+	public static final int FAILURE_THRESHOLD = 3;
+
+	/**
+	 * The back-off delay after the 1st trip.
+	 */
+	public static final long MIN_OPEN_DELAY_IN_MS = TimeUnit.SECONDS.toMillis(10);
+
+	/**
+	 * The maximum back-off delay.
+	 */
+	public static final long MAX_OPEN_DELAY_IN_MS = TimeUnit.MINUTES.toMillis(5);
+
+	/**
+	 * The back-off delay jitter (ratio of the delay).
+	 */
+	private static final float JITTER_RATIO = 0.2f;
+
+	/**
+	 * The circuit breakers by endpoint.
+	 */
+	private static final Map<String, CircuitBreaker> breakers = new HashMap<String, CircuitBreaker>();
+
+	private static final Random random = new Random();
+
+	private final String endpoint;
+
+	private int state = STATE_CLOSED;
+
+	private int consecutiveFailures = 0;
+
+	/**
+	 * The number of consecutive trips (back-off exponent), reset when the circuit closes.
+	 */
+	private int consecutiveTrips = 0;
+
+	private int tripCount = 0;
+
+	private int rejectedCount = 0;
+
+	private long openUntilInMs = 0L;
+
+	/**
+	 * Incremented on each state change (permits of the requests sent in a previous state are stale).
+	 */
+	private int generation = 0;
+
+	private CircuitBreaker(String endpoint) {
+		this.endpoint = endpoint;
+	}
+
+	/**
+	 * @param endpoint the endpoint (host)
+	 * @return the circuit breaker of the endpoint
+	 */
+	public static CircuitBreaker get(String endpoint) {
+		synchronized (breakers) {
+			CircuitBreaker breaker = breakers.get(endpoint);
+			if (breaker == null) {
+				breaker = new CircuitBreaker(endpoint);
+				breakers.put(endpoint, breaker);
+			}
+			return breaker;
+		}
+	}
+
+	/**
+	 * @return all the circuit breakers (monitoring)
+	 */
+	public static List<CircuitBreaker> getAll() {
+		synchronized (breakers) {
+			return new ArrayList<CircuitBreaker>(breakers.values());
+		}
+	}
+
+	/**
+	 * Check if a request can be sent (MUST be followed by {@link #onSuccess(int)} or {@link #onFailure(int)}).
+	 * @return the request permit
+	 * @throws OpenException the circuit is open (or the half-open trial request is running)
+	 */
+	public synchronized int acquire() throws OpenException {
+		switch (this.state) {
+		case STATE_CLOSED:
+			return this.generation;
+		case STATE_OPEN:
+			if (System.currentTimeMillis() >= this.openUntilInMs) {
+				MyLog.d(TAG, "Circuit of %s half-open, sending trial request.", this.endpoint);
+				setState(STATE_HALF_OPEN);
+				return this.generation; // the trial request permit
+			}
+			break;
+		case STATE_HALF_OPEN:
+			break; // trial request running
+		}
+		this.rejectedCount++;
+		throw new OpenException(this.endpoint, Math.max(0, this.openUntilInMs - System.currentTimeMillis()));
+	}
+
+	/**
+	 * Record a successful request (the half-open trial request success closes the circuit).
+	 * @param permit the request permit {@link #acquire()}
+	 */
+	public synchronized void onSuccess(int permit) {
+		if (permit != this.generation) {
+			return; // request sent before the last state change
+		}
+		if (this.state == STATE_HALF_OPEN) {
+			MyLog.i(TAG, "Circuit of %s closed.", this.endpoint);
+			setState(STATE_CLOSED);
+			this.consecutiveTrips = 0;
+		}
+		this.consecutiveFailures = 0;
+	}
+
+	/**
+	 * Record a failed request (network error, time-out, server error).
+	 * @param permit the request permit {@link #acquire()}
+	 */
+	public synchronized void onFailure(int permit) {
+		if (permit != this.generation) {
+			return; // request sent before the last state change (ex: still running when the circuit opened)
+		}
+		this.consecutiveFailures++;
+		if (this.state == STATE_HALF_OPEN || this.consecutiveFailures >= FAILURE_THRESHOLD) {
+			trip();
+		}
+	}
+
+	private void setState(int state) {
+		this.state = state;
+		this.generation++;
+	}
+
+	private void trip() {
+		long delayInMs = MIN_OPEN_DELAY_IN_MS << Math.min(this.consecutiveTrips, 30);
+		if (delayInMs <= 0 || delayInMs > MAX_OPEN_DELAY_IN_MS) {
+			delayInMs = MAX_OPEN_DELAY_IN_MS;
+		}
+		// jitter: spread the trial requests of the clients
+		delayInMs += (long) (delayInMs * JITTER_RATIO * (2 * random.nextFloat() - 1));
+		setState(STATE_OPEN);
+		this.openUntilInMs = System.currentTimeMillis() + delayInMs;
+		this.consecutiveTrips++;
+		this.tripCount++;
+		MyLog.i(TAG, "Circuit of %s open for %s seconds (%s failures, trip #%s).", this.endpoint, TimeUnit.MILLISECONDS.toSeconds(delayInMs),
+				this.consecutiveFailures, this.tripCount);
+	}
+
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	/**
+	 * @return the state {@link #STATE_CLOSED}, {@link #STATE_OPEN} or {@link #STATE_HALF_OPEN}
+	 */
+	public synchronized int getState() {
+		return state;
+	}
+
+	/**
+	 * @return the state name
+	 */
+	public synchronized String getStateName() {
+		switch (this.state) {
+		case STATE_OPEN:
+			return "open";
+		case STATE_HALF_OPEN:
+			return "half-open";
+		default:
+			return "closed";
+		}
+	}
+
+	/**
+	 * @return the number of times the circuit opened
+	 */
+	public synchronized int getTripCount() {
+		return tripCount;
+	}
+
+	/**
+	 * @return the number of requests rejected because the circuit was open
+	 */
+	public synchronized int getRejectedCount() {
+		return rejectedCount;
+	}
+
+	public synchronized int getConsecutiveFailures() {
+		return consecutiveFailures;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return new StringBuilder(CircuitBreaker.class.getSimpleName()).append('[') //
+				.append(this.endpoint).append(':').append(getStateName()) //
+				.append(",trips:").append(this.tripCount) //
+				.append(",rejected:").append(this.rejectedCount) //
+				.append(']').toString();
+	}
+
+	/**
+	 * The request was not sent because the circuit of the endpoint is open.
+	 */
+	public static class OpenException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		private final long retryInMs;
+
+		public OpenException(String endpoint, long retryInMs) {
+			super("Circuit of " + endpoint + " open (retry in " + retryInMs + " ms)");
+			this.retryInMs = retryInMs;
+		}
+
+		/**
+		 * @return the time before the next trial request (in milliseconds)
+		 */
+		public long getRetryInMs() {
+			return retryInMs;
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package org.montrealtransit.android;
+
+import org.montrealtransit.android.SensorUtils.CompassListener;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.os.SystemClock;
+
+/**
+ * Process-wide compass (accelerometer + magnetic field sensor fusion) shared by all the {@link CompassListener}.
+ * <p>
+ * The sensors are registered once (first listener) and unregistered with the last listener. The sensor values are low-pass filtered in
+ * preallocated buffers (no allocation by sensor event), the display rotation is cached ({@link SensorUtils#getSurfaceRotation(Context)}) and the
+ * orientation is sent to the listeners at most every {@link #setOutputIntervalInMs(long)} milliseconds.
+ */
+public class CompassSensor implements SensorEventListener {
+
+	/**
+	 * The log tag.
+	 */
+	private static final String TAG = CompassSensor.class.getSimpleName();
+
+	/**
+	 * The default minimum time between 2 orientations sent to the listeners (in milliseconds).
+	 */
+	public static final long DEFAULT_OUTPUT_INTERVAL_IN_MS = 50;
+
+	/**
+	 * The low-pass filter smoothing factor (1: no filter).
+	 */
+	private static final float LOW_PASS_ALPHA = 0.15f;
+
+	/**
+	 * The compass or null if not used yet.
+	 */
+	private static CompassSensor instance;
+
+	private final Context context;
+
+	/**
+	 * The listeners (copy-on-write: the sensor thread iterates without lock or allocation).
+	 */
+	private volatile CompassListener[] listeners = new CompassListener[0];
+
+	private final float[] accelerometerValues = new float[3];
+
+	private final float[] magneticFieldValues = new float[3];
+
+	private boolean hasAccelerometerValues = false;
+
+	private boolean hasMagneticFieldValues = false;
+
+	private final float[] rotationMatrix = new float[9];
+
+	private final float[] remappedRotationMatrix = new float[9];
+
+	private final float[] orientationValues = new float[3];
+
+	private volatile long outputIntervalInMs = DEFAULT_OUTPUT_INTERVAL_IN_MS;
+
+	private long lastOutputAt = -1;
+
+	private CompassSensor(Context context) {
+		this.context = context;
+	}
+
+	/**
+	 * @param context the context
+	 * @return the compass
+	 */
+	public static synchronized CompassSensor get(Context context) {
+		if (instance == null) {
+			instance = new CompassSensor(context.getApplicationContext());
+		}
+		return instance;
+	}
+
+	/**
+	 * Add the listener (register the sensors if it's the first listener).
+	 * @param listener the listener
+	 */
+	public synchronized void addListener(CompassListener listener) {
+		MyLog.v(TAG, "addListener()");
+		final CompassListener[] oldListeners = this.listeners;
+		for (CompassListener oldListener : oldListeners) {
+			if (oldListener == listener) {
+				return; // already registered
+			}
+		}
+		CompassListener[] newListeners = new CompassListener[oldListeners.length + 1];
+		System.arraycopy(oldListeners, 0, newListeners, 0, oldListeners.length);
+		newListeners[oldListeners.length] = listener;
+		this.listeners = newListeners;
+		if (oldListeners.length == 0) {
+			this.hasAccelerometerValues = false;
+			this.hasMagneticFieldValues = false;
+			this.lastOutputAt = -1;
+			SensorUtils.registerCompassListener(this.context, this);
+		}
+	}
+
+	/**
+	 * Remove the listener (unregister the sensors if it was the last listener).
+	 * @param listener the listener
+	 */
+	public synchronized void removeListener(CompassListener listener) {
+		MyLog.v(TAG, "removeListener()");
+		final CompassListener[] oldListeners = this.listeners;
+		int index = -1;
+		for (int i = 0; i < oldListeners.length; i++) {
+			if (oldListeners[i] == listener) {
+				index = i;
+				break;
+			}
+		}
+		if (index < 0) {
+			return; // not registered
+		}
+		CompassListener[] newListeners = new CompassListener[oldListeners.length - 1];
+		System.arraycopy(oldListeners, 0, newListeners, 0, index);
+		System.arraycopy(oldListeners, index + 1, newListeners, index, newListeners.length - index);
+		this.listeners = newListeners;
+		if (newListeners.length == 0) {
+			SensorUtils.unregisterSensorListener(this.context, this);
+		}
+	}
+
+	/**
+	 * @param outputIntervalInMs the minimum time between 2 orientations sent to the listeners (in milliseconds)
+	 */
+	public void setOutputIntervalInMs(long outputIntervalInMs) {
+		this.outputIntervalInMs = outputIntervalInMs;
+	}
+
+	@Override
+	public void onSensorChanged(SensorEvent event) {
+		final float orientation;
+		synchronized (this) {
+			switch (event.sensor.getType()) {
+			case Sensor.TYPE_ACCELEROMETER:
+				lowPass(event.values, this.accelerometerValues, this.hasAccelerometerValues);
+				this.hasAccelerometerValues = true;
+				break;
+			case Sensor.TYPE_MAGNETIC_FIELD:
+				lowPass(event.values, this.magneticFieldValues, this.hasMagneticFieldValues);
+				this.hasMagneticFieldValues = true;
+				break;
+			default:
+				return;
+			}
+			if (!this.hasAccelerometerValues || !this.hasMagneticFieldValues) {
+				return;
+			}
+			final long now = SystemClock.uptimeMillis();
+			if (this.lastOutputAt >= 0 && now - this.lastOutputAt < this.outputIntervalInMs) {
+				return; // too soon (the values are still filtered)
+			}
+			orientation = SensorUtils.calculateOrientation(this.accelerometerValues, this.magneticFieldValues, SensorUtils.getSurfaceRotation(this.context),
+					this.rotationMatrix, this.remappedRotationMatrix, this.orientationValues);
+			this.lastOutputAt = now;
+		}
+		final CompassListener[] listeners = this.listeners;
+		for (int i = 0; i < listeners.length; i++) {
+			listeners[i].updateCompass(orientation, false);
+		}
+	}
+
+	@Override
+	public void onAccuracyChanged(Sensor sensor, int accuracy) {
+	}
+
+	/**
+	 * Low-pass filter the new values into the filtered values.
+	 * @param values the new sensor values
+	 * @param filteredValues the filtered values (input and output)
+	 * @param hasFilteredValues false to use the new values as is (first values)
+	 */
+	private static void lowPass(float[] values, float[] filteredValues, boolean hasFilteredValues) {
+		for (int i = 0; i < filteredValues.length; i++) {
+			filteredValues[i] = hasFilteredValues ? filteredValues[i] + LOW_PASS_ALPHA * (values[i] - filteredValues[i]) : values[i];
+		}
+	}
+}
@@ -0,0 +1,293 @@
+package org.montrealtransit.android;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.montrealtransit.android.data.POI;
+
+import android.location.Location;
+
+/**
+ * Fast distances for many points around the same location (nearby lists, closest POI search).
+ * <p>
+ * The distances use an equirectangular approximation (the location latitude cosine is computed once) on a spherical Earth: at the city scale,
+ * the error compared to {@link Location#distanceBetween(double, double, double, double, float[])} (WGS84 ellipsoid) is less than 0.5%. Farther
+ * points use the haversine formula. The closest points distances can be refined with the exact (ellipsoid) distance.
+ */
+public final class DistanceUtils {
+
+	/**
+	 * The mean Earth radius in meters.
+	 */
+	private static final double EARTH_RADIUS_IN_METERS = 6371009.0;
+
+	/**
+	 * Meters by degree of latitude (spherical Earth).
+	 */
+	private static final double METERS_PER_DEGREE = EARTH_RADIUS_IN_METERS * Math.PI / 180.0;
+
+	/**
+	 * The equirectangular approximation is only used up to this distance (haversine beyond).
+	 */
+	private static final double MAX_EQUIRECTANGULAR_DISTANCE_IN_METERS = 50000.0;
+
+	/**
+	 * The default number of closest POIs with the exact distance.
+	 */
+	public static final int EXACT_CLOSEST = 3;
+
+	/**
+	 * Utility class.
+	 */
+	private DistanceUtils() {
+	}
+
+	/**
+	 * @param lat the location latitude
+	 * @return the location latitude cosine (for {@link #distance(double, double, double, double, double)})
+	 */
+	public static double cosLat(double lat) {
+		return Math.cos(Math.toRadians(lat));
+	}
+
+	/**
+	 * @param lat the location latitude
+	 * @param lng the location longitude
+	 * @param cosLat the location latitude cosine {@link #cosLat(double)}
+	 * @param pointLat the point latitude
+	 * @param pointLng the point longitude
+	 * @return the approximate distance in meters
+	 */
+	public static float distance(double lat, double lng, double cosLat, double pointLat, double pointLng) {
+		final double dy = (pointLat - lat) * METERS_PER_DEGREE;
+		final double dx = (pointLng - lng) * METERS_PER_DEGREE * cosLat;
+		final double distance = Math.sqrt(dx * dx + dy * dy);
+		if (distance > MAX_EQUIRECTANGULAR_DISTANCE_IN_METERS) {
+			return haversine(lat, lng, pointLat, pointLng);
+		}
+		return (float) distance;
+	}
+
+	/**
+	 * @return the haversine (great-circle) distance in meters
+	 */
+	public static float haversine(double lat1, double lng1, double lat2, double lng2) {
+		final double sinDLat = Math.sin(Math.toRadians(lat2 - lat1) / 2);
+		final double sinDLng = Math.sin(Math.toRadians(lng2 - lng1) / 2);
+		final double a = sinDLat * sinDLat + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinDLng * sinDLng;
+		return (float) (2 * EARTH_RADIUS_IN_METERS * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a)));
+	}
+
+	/**
+	 * Compute the approximate distances of many points.
+	 * @param lat the location latitude
+	 * @param lng the location longitude
+	 * @param lats the points latitudes
+	 * @param lngs the points longitudes
+	 * @param size the number of points
+	 * @param distances the distances in meters (output, size at least)
+	 */
+	public static void distances(double lat, double lng, double[] lats, double[] lngs, int size, float[] distances) {
+		final double cosLat = cosLat(lat);
+		for (int i = 0; i < size; i++) {
+			distances[i] = distance(lat, lng, cosLat, lats[i], lngs[i]);
+		}
+	}
+
+	/**
+	 * Replace the approximate distances of the closest points with the exact distances.
+	 * @param lat the location latitude
+	 * @param lng the location longitude
+	 * @param lats the points latitudes
+	 * @param lngs the points longitudes
+	 * @param size the number of points
+	 * @param distances the approximate distances (input) and the exact distances of the closest points (output)
+	 * @param nbClosest the number of closest points to refine (small)
+	 */
+	public static void refineClosest(double lat, double lng, double[] lats, double[] lngs, int size, float[] distances, int nbClosest) {
+		final float[] results = new float[1];
+		for (int index : findClosest(distances, size, nbClosest)) {
+			Location.distanceBetween(lat, lng, lats[index], lngs[index], results);
+			distances[index] = results[0];
+		}
+	}
+
+	/**
+	 * Update the POIs distances (approximate distances, exact distances for the {@link #EXACT_CLOSEST} closest POIs).
+	 * @param pois the POIs
+	 * @param lat the location latitude
+	 * @param lng the location longitude
+	 */
+	public static void updateDistances(List<? extends POI> pois, double lat, double lng) {
+		final int size = pois.size();
+		final float[] distances = new float[size];
+		final double cosLat = cosLat(lat);
+		for (int i = 0; i < size; i++) {
+			final POI poi = pois.get(i);
+			distances[i] = poi.hasLocation() ? distance(lat, lng, cosLat, poi.getLat(), poi.getLng()) : Float.MAX_VALUE;
+		}
+		final float[] results = new float[1];
+		for (int index : findClosest(distances, size, EXACT_CLOSEST)) {
+			if (distances[index] != Float.MAX_VALUE) {
+				final POI poi = pois.get(index);
+				Location.distanceBetween(lat, lng, poi.getLat(), poi.getLng(), results);
+				distances[index] = results[0];
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			if (distances[i] != Float.MAX_VALUE) {
+				pois.get(i).setDistance(distances[i]);
+			}
+		}
+	}
+
+	/**
+	 * Bounded top-k selection (max-heap of the k closest found so far): O(n log k) instead of sorting the n distances.
+	 * @param distances the distances
+	 * @param size the number of distances
+	 * @param k the number of closest
+	 * @return the indexes of the (up to) k closest distances, closest first
+	 */
+	public static int[] findClosest(float[] distances, int size, int k) {
+		k = Math.min(k, size);
+		final int[] heap = new int[Math.max(k, 0)];
+		int heapSize = 0;
+		for (int i = 0; i < size && k > 0; i++) {
+			if (heapSize < k) {
+				heap[heapSize] = i;
+				// sift up
+				int child = heapSize++;
+				while (child > 0) {
+					final int parent = (child - 1) / 2;
+					if (distances[heap[parent]] >= distances[heap[child]]) {
+						break;
+					}
+					swap(heap, parent, child);
+					child = parent;
+				}
+			} else if (distances[i] < distances[heap[0]]) { // closer than the farthest of the k closest
+				heap[0] = i;
+				siftDown(heap, k, distances);
+			}
+		}
+		// heap sort (closest first)
+		for (int end = heapSize - 1; end > 0; end--) {
+			swap(heap, 0, end);
+			siftDown(heap, end, distances);
+		}
+		return heap;
+	}
+
+	private static void siftDown(int[] heap, int heapSize, float[] distances) {
+		int parent = 0;
+		while (true) {
+			int child = 2 * parent + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			if (child + 1 < heapSize && distances[heap[child + 1]] > distances[heap[child]]) {
+				child++;
+			}
+			if (distances[heap[parent]] >= distances[heap[child]]) {
+				break;
+			}
+			swap(heap, parent, child);
+			parent = child;
+		}
+	}
+
+	/**
+	 * @param pois the POIs (not modified)
+	 * @param k the maximum number of POIs or 0 for all the POIs
+	 * @return the k closest POIs ordered by {@link POI#POI_DISTANCE_COMPARATOR}
+	 */
+	public static <T extends POI> List<T> findClosest(List<T> pois, int k) {
+		return findSmallest(pois, k, POI.POI_DISTANCE_COMPARATOR);
+	}
+
+	/**
+	 * @param pois the POIs
+	 * @return the closest POI (according to {@link POI#POI_DISTANCE_COMPARATOR}) or null if no POI
+	 */
+	public static <T extends POI> T findClosest(List<T> pois) {
+		T closest = null;
+		for (T poi : pois) {
+			if (closest == null || POI.POI_DISTANCE_COMPARATOR.compare(poi, closest) < 0) {
+				closest = poi;
+			}
+		}
+		return closest;
+	}
+
+	/**
+	 * Bounded top-k selection (max-heap of the k smallest found so far): O(n log k) instead of sorting the n items.
+	 * @param list the items (not modified)
+	 * @param k the maximum number of items or 0 for all the items (full sort)
+	 * @param comparator the comparator
+	 * @return the k smallest items in order
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> List<T> findSmallest(List<T> list, int k, Comparator<? super T> comparator) {
+		final int size = list.size();
+		if (k <= 0 || k >= size) {
+			List<T> result = new ArrayList<T>(list);
+			Collections.sort(result, comparator);
+			return result;
+		}
+		final Object[] heap = new Object[k];
+		int heapSize = 0;
+		for (T item : list) {
+			if (heapSize < k) {
+				heap[heapSize] = item;
+				// sift up
+				int child = heapSize++;
+				while (child > 0) {
+					final int parent = (child - 1) / 2;
+					if (comparator.compare((T) heap[parent], (T) heap[child]) >= 0) {
+						break;
+					}
+					swap(heap, parent, child);
+					child = parent;
+				}
+			} else if (comparator.compare(item, (T) heap[0]) < 0) { // smaller than the largest of the k smallest
+				heap[0] = item;
+				// sift down
+				int parent = 0;
+				while (true) {
+					int child = 2 * parent + 1;
+					if (child >= k) {
+						break;
+					}
+					if (child + 1 < k && comparator.compare((T) heap[child + 1], (T) heap[child]) > 0) {
+						child++;
+					}
+					if (comparator.compare((T) heap[parent], (T) heap[child]) >= 0) {
+						break;
+					}
+					swap(heap, parent, child);
+					parent = child;
+				}
+			}
+		}
+		List<T> result = new ArrayList<T>(k);
+		for (Object item : heap) {
+			result.add((T) item);
+		}
+		Collections.sort(result, comparator);
+		return result;
+	}
+
+	private static void swap(int[] array, int i, int j) {
+		final int tmp = array[i];
+		array[i] = array[j];
+		array[j] = tmp;
+	}
+
+	private static void swap(Object[] array, int i, int j) {
+		final Object tmp = array[i];
+		array[i] = array[j];
+		array[j] = tmp;
+	}
+}
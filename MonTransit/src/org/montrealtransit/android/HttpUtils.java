@@ -0,0 +1,346 @@
+package org.montrealtransit.android;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
+
+import android.os.Build;
+import android.text.TextUtils;
+
+/**
+ * Shared HTTP layer of the network readers (live schedule, Bixi, service status):
+ * <ul>
+ * <li>connection reuse (HTTP keep-alive pool of {@link HttpURLConnection}, responses must be closed),</li>
+ * <li>gzip compression,</li>
+ * <li>connect & read time-outs,</li>
+ * <li>conditional requests (ETag / Last-Modified validators kept in memory by URL),</li>
+ * <li>maximum number of concurrent connections per host,</li>
+ * <li>circuit breaker per host ({@link CircuitBreaker}, requests fail immediately while the host is down, response body read errors count as failures).</li>
+ * </ul>
+ */
+public class HttpUtils {
+
+	/**
+	 * The log tag.
+	 */
+	private static final String TAG = HttpUtils.class.getSimpleName();
+
+	/**
+	 * The connect time-out (in milliseconds).
+	 */
+	public static final int CONNECT_TIMEOUT_IN_MS = 10 * 1000; // 10 seconds
+
+	/**
+	 * The read time-out (in milliseconds).
+	 */
+	public static final int READ_TIMEOUT_IN_MS = 15 * 1000; // 15 seconds
+
+	/**
+	 * The maximum number of concurrent connections to the same host.
+	 */
+	public static final int MAX_CONNECTIONS_PER_HOST = 2;
+
+	private static final String ENCODING_GZIP = "gzip";
+
+	/**
+	 * The system property of the base URL override.
+	 */
+	public static final String BASE_URL_OVERRIDE_PROPERTY = "montransit.base.url";
+
+	/**
+	 * The base URL (scheme, host & port) replacing the production base URL of all the requests (ex: "http://10.0.2.2:8080" to use a replay server
+	 * from the emulator) or null.
+	 */
+	private static volatile String baseUrlOverride = System.getProperty(BASE_URL_OVERRIDE_PROPERTY);
+
+	static {
+		// HttpURLConnection keep-alive pool is broken before Froyo (closing a stream can poison the pool)
+		if (Utils.isVersionOlderThan(Build.VERSION_CODES.FROYO)) {
+			System.setProperty("http.keepAlive", "false");
+		}
+	}
+
+	/**
+	 * The connection permits by host.
+	 */
+	private static final Map<String, Semaphore> hostPermits = new HashMap<String, Semaphore>();
+
+	/**
+	 * The validators ({ETag, Last-Modified}) of the last processed response by URL.
+	 */
+	private static final ConcurrentHashMap<String, String[]> validators = new ConcurrentHashMap<String, String[]>();
+
+	/**
+	 * Utility class.
+	 */
+	private HttpUtils() {
+	}
+
+	/**
+	 * Send a GET request (blocks while the maximum number of connections to the host is reached).
+	 * @param urlString the URL
+	 * @param conditional true to send the validators of the last processed response of this URL (response may be {@link Response#isNotModified()})
+	 * @return the response (MUST be closed)
+	 * @throws CircuitBreaker.OpenException the host circuit is open (request not sent)
+	 * @throws IOException network error
+	 */
+	public static Response get(String urlString, boolean conditional) throws IOException {
+		final URL url = getURL(urlString);
+		final CircuitBreaker breaker = CircuitBreaker.get(url.getHost());
+		final int breakerPermit = breaker.acquire();
+		final Semaphore permits = getHostPermits(url.getHost());
+		permits.acquireUninterruptibly();
+		boolean connected = false;
+		int code = -1;
+		try {
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			connection.setConnectTimeout(CONNECT_TIMEOUT_IN_MS);
+			connection.setReadTimeout(READ_TIMEOUT_IN_MS);
+			connection.setRequestProperty("Accept-Encoding", ENCODING_GZIP);
+			connection.setRequestProperty("Cache-Control", "no-cache"); // live data, don't use intermediate caches
+			if (conditional) {
+				String[] urlValidators = validators.get(urlString);
+				if (urlValidators != null) {
+					if (urlValidators[0] != null) {
+						connection.setRequestProperty("If-None-Match", urlValidators[0]);
+					}
+					if (urlValidators[1] != null) {
+						connection.setRequestProperty("If-Modified-Since", urlValidators[1]);
+					}
+				}
+			}
+			code = connection.getResponseCode();
+			final boolean serverError = code >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+			Response response = new Response(urlString, connection, code, permits, serverError ? null : breaker, breakerPermit);
+			connected = true;
+			return response;
+		} finally {
+			if (!connected) {
+				permits.release();
+			}
+			if (code < 0 || code >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+				breaker.onFailure(breakerPermit); // network error, time-out or server error
+			} // ELSE reported when the response is closed (response body read errors)
+		}
+	}
+
+	/**
+	 * @param baseUrlOverride the base URL (scheme, host & port) replacing the production base URL of all the requests or null to use production
+	 */
+	public static void setBaseUrlOverride(String baseUrlOverride) {
+		HttpUtils.baseUrlOverride = TextUtils.isEmpty(baseUrlOverride) ? null : baseUrlOverride;
+	}
+
+	public static String getBaseUrlOverride() {
+		return baseUrlOverride;
+	}
+
+	/**
+	 * @param urlString the production URL
+	 * @return the URL to request (production URL path & query on the base URL override if any)
+	 */
+	private static URL getURL(String urlString) throws IOException {
+		final URL url = new URL(urlString);
+		final String override = baseUrlOverride;
+		if (override == null) {
+			return url;
+		}
+		final String file = url.getFile(); // path & query
+		return new URL(override.endsWith("/") && file.startsWith("/") ? override + file.substring(1) : override + file);
+	}
+
+	/**
+	 * Forget the validators of an URL (next conditional request will return the full response).
+	 * @param urlString the URL
+	 */
+	public static void clearValidators(String urlString) {
+		validators.remove(urlString);
+	}
+
+	private static Semaphore getHostPermits(String host) {
+		synchronized (hostPermits) {
+			Semaphore permits = hostPermits.get(host);
+			if (permits == null) {
+				permits = new Semaphore(MAX_CONNECTIONS_PER_HOST);
+				hostPermits.put(host, permits);
+			}
+			return permits;
+		}
+	}
+
+	/**
+	 * A HTTP response: the connection goes back to the keep-alive pool (and the host permit is released) when closed. The request result is
+	 * reported to the host circuit breaker when closed (failure if reading the response body failed).
+	 */
+	public static class Response {
+
+		private final String urlString;
+		private final HttpURLConnection connection;
+		private final int code;
+		private Semaphore permits;
+		private InputStream inputStream;
+		/**
+		 * The circuit breaker to report to when closed or null if already reported.
+		 */
+		private CircuitBreaker breaker;
+		private final int breakerPermit;
+		private volatile boolean readFailed = false;
+
+		private Response(String urlString, HttpURLConnection connection, int code, Semaphore permits, CircuitBreaker breaker, int breakerPermit) {
+			this.urlString = urlString;
+			this.connection = connection;
+			this.code = code;
+			this.permits = permits;
+			this.breaker = breaker;
+			this.breakerPermit = breakerPermit;
+		}
+
+		/**
+		 * @return the HTTP response code
+		 */
+		public int getCode() {
+			return code;
+		}
+
+		public String getMessage() {
+			try {
+				return this.connection.getResponseMessage();
+			} catch (IOException ioe) {
+				return null;
+			}
+		}
+
+		/**
+		 * @return true if the conditional request validators match (no body)
+		 */
+		public boolean isNotModified() {
+			return this.code == HttpURLConnection.HTTP_NOT_MODIFIED;
+		}
+
+		/**
+		 * @return the (decompressed) response body
+		 */
+		public InputStream getInputStream() throws IOException {
+			if (this.inputStream == null) {
+				try {
+					InputStream is = new ReadFailureInputStream(this.connection.getInputStream());
+					if (ENCODING_GZIP.equalsIgnoreCase(this.connection.getContentEncoding())) {
+						is = new GZIPInputStream(is);
+					}
+					this.inputStream = is;
+				} catch (IOException ioe) {
+					this.readFailed = true;
+					throw ioe;
+				}
+			}
+			return this.inputStream;
+		}
+
+		/**
+		 * @return the (decompressed) response body read in a string (UTF-8)
+		 */
+		public String getString() throws IOException {
+			Reader reader = new InputStreamReader(getInputStream(), "UTF-8");
+			StringBuilder sb = new StringBuilder();
+			char[] buffer = new char[4096];
+			int read;
+			while ((read = reader.read(buffer)) != -1) {
+				sb.append(buffer, 0, read);
+			}
+			return sb.toString();
+		}
+
+		/**
+		 * Save the validators of this response for the next conditional request of this URL (call once the response body has been processed).
+		 */
+		public void saveValidators() {
+			final String eTag = this.connection.getHeaderField("ETag");
+			final String lastModified = this.connection.getHeaderField("Last-Modified");
+			if (TextUtils.isEmpty(eTag) && TextUtils.isEmpty(lastModified)) {
+				validators.remove(this.urlString);
+			} else {
+				validators.put(this.urlString, new String[] { eTag, lastModified });
+			}
+		}
+
+		/**
+		 * Close the response body (the connection is reused if the body has been read entirely) and release the host permit.
+		 */
+		public synchronized void close() {
+			if (this.permits == null) {
+				return; // already closed
+			}
+			try {
+				InputStream is = this.inputStream;
+				if (is == null) {
+					is = this.code >= HttpURLConnection.HTTP_BAD_REQUEST ? this.connection.getErrorStream() : this.connection.getInputStream();
+				}
+				if (is != null) {
+					is.close();
+				}
+			} catch (IOException ioe) {
+				MyLog.d(TAG, "Error while closing the response of %s!", this.urlString);
+			} finally {
+				this.permits.release();
+				this.permits = null;
+				if (this.breaker != null) {
+					if (this.readFailed) {
+						this.breaker.onFailure(this.breakerPermit); // time-out or network error while reading the response body
+					} else {
+						this.breaker.onSuccess(this.breakerPermit);
+					}
+					this.breaker = null;
+				}
+			}
+		}
+
+		/**
+		 * The raw response body stream recording the read errors.
+		 */
+		private class ReadFailureInputStream extends FilterInputStream {
+
+			public ReadFailureInputStream(InputStream in) {
+				super(in);
+			}
+
+			@Override
+			public int read() throws IOException {
+				try {
+					return super.read();
+				} catch (IOException ioe) {
+					readFailed = true;
+					throw ioe;
+				}
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				try {
+					return super.read(b, off, len);
+				} catch (IOException ioe) {
+					readFailed = true;
+					throw ioe;
+				}
+			}
+
+			@Override
+			public long skip(long n) throws IOException {
+				try {
+					return super.skip(n);
+				} catch (IOException ioe) {
+					readFailed = true;
+					throw ioe;
+				}
+			}
+		}
+	}
+}
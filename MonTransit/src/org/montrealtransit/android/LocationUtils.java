@@ -1,6 +1,7 @@
 package org.montrealtransit.android;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.ListIterator;
@@ -575,36 +576,14 @@ public class LocationUtils {
 		if (pois == null) {
 			return;
 		}
-		for (POI poi : pois.values()) {
-			if (!poi.hasLocation()) {
-				continue;
-			}
-			poi.setDistance(distanceTo(lat, lng, poi.getLat(), poi.getLng()));
-		}
+		updateDistance(new ArrayList<POI>(pois.values()), lat, lng);
 	}
 
 	public static void updateDistanceWithString(Context context, Map<?, ? extends POI> pois, Location currentLocation) {
 		if (pois == null || currentLocation == null) {
 			return;
 		}
-		boolean isDetailed = UserPreferences.getPrefDefault(context, UserPreferences.PREFS_DISTANCE, UserPreferences.PREFS_DISTANCE_DEFAULT).equals(
-				UserPreferences.PREFS_DISTANCE_DETAILED);
-		String distanceUnit = UserPreferences.getPrefDefault(context, UserPreferences.PREFS_DISTANCE_UNIT, UserPreferences.PREFS_DISTANCE_UNIT_DEFAULT);
-		float accuracyInMeters = currentLocation.getAccuracy();
-		// update bus stops
-		for (POI poi : pois.values()) {
-			if (!poi.hasLocation()) {
-				continue;
-			}
-			final float newDistance = distanceTo(currentLocation.getLatitude(), currentLocation.getLongitude(), poi.getLat(), poi.getLng());
-			if (poi.getDistance() > 1 && newDistance == poi.getDistance() && poi.getDistanceString() != null) {
-				// MyLog.d(TAG, "skip distance");
-				continue;
-			}
-			// update value
-			poi.setDistance(newDistance);
-			poi.setDistanceString(getDistanceString(poi.getDistance(), accuracyInMeters, isDetailed, distanceUnit));
-		}
+		updateDistanceWithString(context, new ArrayList<POI>(pois.values()), currentLocation);
 	}
 
 	public static void updateDistanceWithString(final Context context, final List<? extends POI> pois, final Location currentLocation,
@@ -637,19 +616,24 @@ public class LocationUtils {
 				UserPreferences.PREFS_DISTANCE_DETAILED);
 		String distanceUnit = UserPreferences.getPrefDefault(context, UserPreferences.PREFS_DISTANCE_UNIT, UserPreferences.PREFS_DISTANCE_UNIT_DEFAULT);
 		float accuracyInMeters = currentLocation.getAccuracy();
+		final int size = pois.size();
+		float[] previousDistances = new float[size];
+		for (int i = 0; i < size; i++) {
+			previousDistances[i] = pois.get(i).getDistance();
+		}
+		DistanceUtils.updateDistances(pois, currentLocation.getLatitude(), currentLocation.getLongitude());
 		// update bus stops
-		for (POI poi : pois) {
+		for (int i = 0; i < size; i++) {
+			final POI poi = pois.get(i);
 			if (!poi.hasLocation()) {
 				continue;
 			}
-			final float newDistance = distanceTo(currentLocation.getLatitude(), currentLocation.getLongitude(), poi.getLat(), poi.getLng());
-			if (poi.getDistance() > 1 && newDistance == poi.getDistance() && poi.getDistanceString() != null) {
+			if (previousDistances[i] > 1 && poi.getDistance() == previousDistances[i] && poi.getDistanceString() != null) {
 				// MyLog.d(TAG, "skip distance");
 				continue;
 			}
-			// update value
-			poi.setDistance(newDistance);
-			poi.setDistanceString(getDistanceString(poi.getDistance(), accuracyInMeters, isDetailed, distanceUnit));
+			// update value (formatted only if shown)
+			poi.setDistanceString(new DistanceString(poi.getDistance(), accuracyInMeters, isDetailed, distanceUnit));
 		}
 	}
 
@@ -657,12 +641,7 @@ public class LocationUtils {
 		if (pois == null) {
 			return;
 		}
-		for (POI poi : pois) {
-			if (!poi.hasLocation()) {
-				continue;
-			}
-			poi.setDistance(distanceTo(lat, lng, poi.getLat(), poi.getLng()));
-		}
+		DistanceUtils.updateDistances(pois, lat, lng);
 	}
 
 	public static void updateDistanceWithString(final Context context, final POI poi, final Location currentLocation, final LocationTaskCompleted callback) {
@@ -707,6 +686,49 @@ public class LocationUtils {
 		poi.setDistanceString(getDistanceString(poi.getDistance(), accuracyInMeters, isDetailed, distanceUnit));
 	}
 
+	/**
+	 * A distance string formatted the first time it's read (most of the POIs distances are never shown).
+	 */
+	private static class DistanceString implements CharSequence {
+
+		private final float distanceInMeters;
+		private final float accuracyInMeters;
+		private final boolean isDetailed;
+		private final String distanceUnit;
+
+		private String string;
+
+		public DistanceString(float distanceInMeters, float accuracyInMeters, boolean isDetailed, String distanceUnit) {
+			this.distanceInMeters = distanceInMeters;
+			this.accuracyInMeters = accuracyInMeters;
+			this.isDetailed = isDetailed;
+			this.distanceUnit = distanceUnit;
+		}
+
+		@Override
+		public String toString() {
+			if (this.string == null) {
+				this.string = getDistanceString(this.distanceInMeters, this.accuracyInMeters, this.isDetailed, this.distanceUnit);
+			}
+			return this.string;
+		}
+
+		@Override
+		public int length() {
+			return toString().length();
+		}
+
+		@Override
+		public char charAt(int index) {
+			return toString().charAt(index);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return toString().subSequence(start, end);
+		}
+	}
+
 	public interface LocationTaskCompleted {
 		void onLocationTaskCompleted();
 	}
@@ -2,17 +2,28 @@ package org.montrealtransit.android;
 
 import java.io.File;
 import java.io.FileFilter;
-import java.util.concurrent.Executor;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import org.montrealtransit.android.activity.UserPreferences;
 import org.montrealtransit.android.api.SupportFactory;
+import org.montrealtransit.android.data.RouteTripStop;
+import org.montrealtransit.android.data.StopTimes;
+import org.montrealtransit.android.provider.common.AbstractScheduleManager;
 
+import android.content.ContentResolver;
 import android.content.Context;
 import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 
 public class PrefetchingUtils {
 
@@ -24,11 +35,40 @@ public class PrefetchingUtils {
 
 	private static Boolean prefetchingWiFiOnly = null;
 
-	private static Executor executor;
+	/**
+	 * The maximum number of route trip stops pre-fetched for a list of POIs (in priority order).
+	 */
+	public static final int PREFETCH_TOP_N = 5;
+
+	/**
+	 * The maximum number of concurrent pre-fetching tasks.
+	 */
+	private static final int PREFETCH_MAX_CONCURRENT = 2;
+
+	/**
+	 * How long (in milliseconds) a pre-fetched entry counts as a hit when the stop is opened.
+	 */
+	private static final long PREFETCH_HIT_VALIDITY_IN_MS = TimeUnit.MINUTES.toMillis(5);
+
+	private static ThreadPoolExecutor executor;
+
+	/**
+	 * The pre-fetching requests generation: tasks of an older generation are cancelled (skipped when started).
+	 */
+	private static final AtomicInteger prefetchGeneration = new AtomicInteger();
 
-	public static Executor getExecutor() {
+	/**
+	 * The pre-fetched route trip stops UUID and pre-fetching time (in milliseconds).
+	 */
+	private static final ConcurrentHashMap<String, Long> prefetched = new ConcurrentHashMap<String, Long>();
+
+	private static final AtomicInteger stopOpenCount = new AtomicInteger();
+
+	private static final AtomicInteger stopOpenPrefetchedCount = new AtomicInteger();
+
+	public static ThreadPoolExecutor getExecutor() {
 		if (executor == null) {
-			int numCore = 1;
+			int numCore = PREFETCH_MAX_CONCURRENT;
 			// try {
 			// numCore = getNumCores(); // 1 core is plenty enough for now and multiple core sometimes give bad data
 			// } catch (Throwable t) {
@@ -37,7 +77,7 @@ public class PrefetchingUtils {
 			// if (numCore > 1) {
 			// numCore--; // keep 1 core for the rest of the app
 			// }
-			executor = new ThreadPoolExecutor(1, numCore, 0, TimeUnit.SECONDS, SupportFactory.get().getNewBlockingQueue(), new RejectedExecutionHandler() {
+			executor = new ThreadPoolExecutor(numCore, numCore, 0, TimeUnit.SECONDS, SupportFactory.get().getNewBlockingQueue(), new RejectedExecutionHandler() {
 
 				@Override
 				public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
@@ -100,7 +140,114 @@ public class PrefetchingUtils {
 
 	public static boolean isConnectedToWifi(Context context) {
 		ConnectivityManager connManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
-		return connManager.getNetworkInfo(ConnectivityManager.TYPE_WIFI).isConnected();
+		final NetworkInfo wifiNetworkInfo = connManager.getNetworkInfo(ConnectivityManager.TYPE_WIFI);
+		return wifiNetworkInfo != null && wifiNetworkInfo.isConnected(); // null if no Wi-Fi on this device
+	}
+
+	/**
+	 * Warm the departures cache of the route trip stops (cancel the previous pre-fetching requests).
+	 * <p>
+	 * The route trip stops are grouped by schedule authority and pre-fetched in 1 task with 1 batch departures call per schedule authority
+	 * ({@link AbstractScheduleManager#findStopTimesBatch(ContentResolver, android.net.Uri, List, Long, Boolean, Integer)}).
+	 * @param context the context
+	 * @param routeTripStops the route trip stops in priority order (only the {@link #PREFETCH_TOP_N} first are pre-fetched)
+	 */
+	public static void prefetchDepartures(Context context, List<RouteTripStop> routeTripStops) {
+		MyLog.v(TAG, "prefetchDepartures(%s)", Utils.getCollectionSize(routeTripStops));
+		cancelPrefetch();
+		if (routeTripStops == null || routeTripStops.size() == 0 || !isPrefetching(context)) {
+			return;
+		}
+		if (isPrefetchingWiFiOnly(context) && !isConnectedToWifi(context)) {
+			return;
+		}
+		final ContentResolver contentResolver = context.getApplicationContext().getContentResolver();
+		final int generation = prefetchGeneration.get();
+		final long now = System.currentTimeMillis();
+		// group the top N route trip stops by schedule authority
+		final Map<String, List<RouteTripStop>> scheduleAuthorityToRouteTripStops = new LinkedHashMap<String, List<RouteTripStop>>();
+		int count = 0;
+		for (RouteTripStop routeTripStop : routeTripStops) {
+			if (count >= PREFETCH_TOP_N) {
+				break;
+			}
+			count++;
+			final Long prefetchedAt = prefetched.get(routeTripStop.getUUID());
+			if (prefetchedAt != null && now - prefetchedAt < PREFETCH_HIT_VALIDITY_IN_MS) {
+				continue; // already pre-fetched recently
+			}
+			final String[] scheduleAuthorities = AbstractScheduleManager.authoritiesToScheduleAuthorities.get(routeTripStop.authority);
+			if (scheduleAuthorities == null) {
+				continue;
+			}
+			for (String scheduleAuthority : scheduleAuthorities) {
+				List<RouteTripStop> scheduleAuthorityRouteTripStops = scheduleAuthorityToRouteTripStops.get(scheduleAuthority);
+				if (scheduleAuthorityRouteTripStops == null) {
+					scheduleAuthorityRouteTripStops = new ArrayList<RouteTripStop>();
+					scheduleAuthorityToRouteTripStops.put(scheduleAuthority, scheduleAuthorityRouteTripStops);
+				}
+				scheduleAuthorityRouteTripStops.add(routeTripStop);
+			}
+		}
+		if (scheduleAuthorityToRouteTripStops.size() > 0) {
+			getExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					for (Map.Entry<String, List<RouteTripStop>> scheduleAuthorityRouteTripStops : scheduleAuthorityToRouteTripStops.entrySet()) {
+						if (generation != prefetchGeneration.get()) {
+							return; // cancelled
+						}
+						final Map<String, StopTimes> stopTimes = AbstractScheduleManager.findStopTimesBatch(contentResolver,
+								Utils.newContentUri(scheduleAuthorityRouteTripStops.getKey()), scheduleAuthorityRouteTripStops.getValue(),
+								Utils.recentTimeMillis(), false, null);
+						// only the successful pre-fetching count as hit
+						final long prefetchedAt = System.currentTimeMillis();
+						for (Map.Entry<String, StopTimes> uuidStopTimes : stopTimes.entrySet()) {
+							if (uuidStopTimes.getValue() != null) {
+								prefetched.put(uuidStopTimes.getKey(), prefetchedAt);
+							}
+						}
+					}
+				}
+			});
+		}
+		// forget old pre-fetched entries
+		Iterator<Map.Entry<String, Long>> it = prefetched.entrySet().iterator();
+		while (it.hasNext()) {
+			if (now - it.next().getValue() >= PREFETCH_HIT_VALIDITY_IN_MS) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Cancel the pending pre-fetching requests (scroll, pause...): running requests are not interrupted.
+	 */
+	public static void cancelPrefetch() {
+		prefetchGeneration.incrementAndGet();
+		if (executor != null) {
+			executor.getQueue().clear();
+		}
+	}
+
+	/**
+	 * Record a stop screen opening (pre-fetching hit ratio).
+	 * @param uuid the route trip stop UUID
+	 */
+	public static void onStopOpened(String uuid) {
+		final int opened = stopOpenCount.incrementAndGet();
+		final Long prefetchedAt = prefetched.get(uuid);
+		final boolean hit = prefetchedAt != null && System.currentTimeMillis() - prefetchedAt < PREFETCH_HIT_VALIDITY_IN_MS;
+		final int hits = hit ? stopOpenPrefetchedCount.incrementAndGet() : stopOpenPrefetchedCount.get();
+		MyLog.d(TAG, "Stop opened %s: pre-fetched:%s (%s/%s = %s)", uuid, hit, hits, opened, getPrefetchHitRatio());
+	}
+
+	/**
+	 * @return the fraction of the stop screen openings with pre-fetched departures
+	 */
+	public static float getPrefetchHitRatio() {
+		final int opened = stopOpenCount.get();
+		return opened == 0 ? 0f : (float) stopOpenPrefetchedCount.get() / opened;
 	}
 
 	public static void setPrefetching(Boolean prefetching) {
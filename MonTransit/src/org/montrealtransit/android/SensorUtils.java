@@ -15,6 +15,7 @@ import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.location.Location;
+import android.os.SystemClock;
 import android.util.DisplayMetrics;
 import android.view.Surface;
 import android.widget.AbsListView.OnScrollListener;
@@ -47,7 +48,23 @@ public final class SensorUtils {
 	/**
 	 * The minimum between 2 {@link #updateCompass(float[])} in milliseconds.
 	 */
-	public static final int COMPASS_UPDATE_THRESOLD = 0; // 0 seconds
+	public static final int COMPASS_UPDATE_THRESOLD = 50; // 20 updates / second
+
+	/**
+	 * The display rotation is read again after this time (in milliseconds).
+	 */
+	private static final long SURFACE_ROTATION_MAX_AGE_IN_MS = 1000;
+
+	private static int surfaceRotation;
+
+	private static long surfaceRotationReadAt = -1;
+
+	/**
+	 * The {@link #calculateOrientation(Context, float[], float[])} buffers (UI thread).
+	 */
+	private static final float[] ROTATION_MATRIX = new float[9];
+	private static final float[] REMAPPED_ROTATION_MATRIX = new float[9];
+	private static final float[] ORIENTATION_VALUES = new float[3];
 
 	/**
 	 * Utility class.
@@ -224,25 +241,52 @@ public final class SensorUtils {
 		return getCompassRotationInDegree(start.getLatitude(), start.getLongitude(), poi.getLat(), poi.getLng(), orientation, declination);
 	}
 
+	/**
+	 * @param context the context
+	 * @return the display rotation (cached {@link #SURFACE_ROTATION_MAX_AGE_IN_MS} milliseconds)
+	 */
+	public static synchronized int getSurfaceRotation(Context context) {
+		final long now = SystemClock.uptimeMillis();
+		if (surfaceRotationReadAt < 0 || now - surfaceRotationReadAt > SURFACE_ROTATION_MAX_AGE_IN_MS) {
+			surfaceRotation = SupportFactory.get().getSurfaceRotation(context);
+			surfaceRotationReadAt = now;
+		}
+		return surfaceRotation;
+	}
+
 	/**
 	 * @param accelerometerValues the {@link Sensor#TYPE_ACCELEROMETER} values
 	 * @param magneticFieldValues the {@link Sensor#TYPE_MAGNETIC_FIELD} values
 	 * @return the orientation
 	 */
-	public static float calculateOrientation(Context context, float[] accelerometerValues, float[] magneticFieldValues) {
+	public static synchronized float calculateOrientation(Context context, float[] accelerometerValues, float[] magneticFieldValues) {
 		// MyLog.v(TAG, "calculateOrientation()");
 		if (accelerometerValues == null || accelerometerValues.length != 3 || magneticFieldValues == null || magneticFieldValues.length != 3) {
 			MyLog.w(TAG, "accelerometer and magnetic field values are required!");
 			return 0;
 		}
-		float[] R = new float[9];
+		return calculateOrientation(accelerometerValues, magneticFieldValues, getSurfaceRotation(context), ROTATION_MATRIX, REMAPPED_ROTATION_MATRIX,
+				ORIENTATION_VALUES);
+	}
+
+	/**
+	 * Calculate the orientation without allocation.
+	 * @param accelerometerValues the {@link Sensor#TYPE_ACCELEROMETER} values
+	 * @param magneticFieldValues the {@link Sensor#TYPE_MAGNETIC_FIELD} values
+	 * @param rotation the display rotation {@link #getSurfaceRotation(Context)}
+	 * @param R the rotation matrix buffer (9)
+	 * @param outR the remapped rotation matrix buffer (9)
+	 * @param values the orientation values buffer (3)
+	 * @return the orientation (in degrees) or 0
+	 */
+	public static float calculateOrientation(float[] accelerometerValues, float[] magneticFieldValues, int rotation, float[] R, float[] outR,
+			float[] values) {
 		if (!SensorManager.getRotationMatrix(R, null, accelerometerValues, magneticFieldValues)) {
 			// MyLog.d(TAG, "No rotation matrix!");
 			return 0;
 		}
 		int x_axis = SensorManager.AXIS_X;
 		int y_axis = SensorManager.AXIS_Y;
-		int rotation = SupportFactory.get().getSurfaceRotation(context);
 		switch (rotation) {
 		case Surface.ROTATION_0:
 			break;
@@ -258,23 +302,15 @@ public final class SensorUtils {
 			y_axis = SensorManager.AXIS_X;
 			break;
 		}
-		float[] outR = new float[9];
 		if (!SensorManager.remapCoordinateSystem(R, x_axis, y_axis, outR)) {
 			MyLog.d(TAG, "Can't remap coordinate system!");
 			return 0;
 		}
 
-		float[] values = new float[3];
 		SensorManager.getOrientation(outR, values);
 
-		// Convert from Radians to Degrees.
-		values[0] = (float) Math.toDegrees(values[0]);
-		values[1] = (float) Math.toDegrees(values[1]);
-		values[2] = (float) Math.toDegrees(values[2]);
-
-		// MyLog.d(TAG, "calculateOrientation() > [" + values[0] + "|" + values[1] + "|" + values[2]);
-
-		return values[0];
+		// Convert from Radians to Degrees (only the azimuth is used).
+		return (float) Math.toDegrees(values[0]);
 	}
 
 	/**
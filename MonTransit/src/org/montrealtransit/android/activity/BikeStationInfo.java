@@ -19,7 +19,9 @@ import org.montrealtransit.android.data.ABikeStation;
 import org.montrealtransit.android.data.ClosestPOI;
 import org.montrealtransit.android.data.POI;
 import org.montrealtransit.android.data.POIArrayAdapter;
+import org.montrealtransit.android.provider.BixiHistory;
 import org.montrealtransit.android.provider.BixiManager;
+import org.montrealtransit.android.provider.BixiSnapshot;
 import org.montrealtransit.android.provider.BixiStore.BikeStation;
 import org.montrealtransit.android.provider.DataManager;
 import org.montrealtransit.android.provider.DataStore.Fav;
@@ -73,6 +75,14 @@ public class BikeStationInfo extends Activity implements BixiDataReaderListener,
 	 * The extra ID for the bike station name (optional).
 	 */
 	private static final String EXTRA_STATION_NAME = "extra_bike_station_name";
+	/**
+	 * The minimum bikes change rate (bikes/hour) to show the bike station as filling or draining.
+	 */
+	private static final float MIN_TREND_BIKES_PER_HOUR = 0.5f;
+	/**
+	 * The maximum time to full/empty estimate shown (minutes).
+	 */
+	private static final int MAX_TREND_ESTIMATE_IN_MIN = 3 * 60;
 	/**
 	 * The bike station.
 	 */
@@ -123,6 +133,10 @@ public class BikeStationInfo extends Activity implements BixiDataReaderListener,
 	private long lastCompassChanged = -1;
 
 	private POIArrayAdapter adapter;
+	/**
+	 * The version of the Bixi snapshot used to update the closest bike stations or -1.
+	 */
+	private int nearbySnapshotVersion = -1;
 
 	public static Intent newInstance(Context context, String stationTerminalName) {
 		return newInstance(context, stationTerminalName, null);
@@ -439,14 +453,23 @@ public class BikeStationInfo extends Activity implements BixiDataReaderListener,
 			return;
 		}
 		// load new closest stations data
-		Map<String, BikeStation> newStations = BixiManager.findBikeStationsMap(getContentResolver(), getTerminalNamesFromPOI(this.adapter.getPois()));
-		if (newStations == null) {
-			return;
+		final BixiSnapshot snapshot = BixiSnapshot.get();
+		Map<String, BikeStation> newStations = null;
+		if (snapshot == null) { // not loaded yet
+			newStations = BixiManager.findBikeStationsMap(getContentResolver(), getTerminalNamesFromPOI(this.adapter.getPois()));
+			if (newStations == null) {
+				return;
+			}
+		} else if (snapshot.getVersion() == this.nearbySnapshotVersion) {
+			return; // no change since the last update
+		} else {
+			this.nearbySnapshotVersion = snapshot.getVersion();
 		}
 		for (POI poi : this.adapter.getPois()) {
 			if (poi instanceof ABikeStation) {
 				ABikeStation station = (ABikeStation) poi;
-				BikeStation newStation = newStations.get(station.getTerminalName());
+				BikeStation newStation = snapshot == null ? newStations.get(station.getTerminalName()) : snapshot.getBikeStation(station
+						.getTerminalName());
 				if (newStation == null) {
 					continue;
 				}
@@ -574,6 +597,11 @@ public class BikeStationInfo extends Activity implements BixiDataReaderListener,
 
 				@Override
 				protected BikeStation doInBackground(String... params) {
+					BixiHistory.get(BikeStationInfo.this); // load the availability history
+					final BixiSnapshot snapshot = BixiSnapshot.get();
+					if (snapshot != null && snapshot.getBikeStation(params[0]) != null) {
+						return snapshot.getBikeStation(params[0]); // no database query
+					}
 					BikeStation result = null;
 					boolean success = false;
 					do {
@@ -661,6 +689,7 @@ public class BikeStationInfo extends Activity implements BixiDataReaderListener,
 		if (result != null && result.getPoiListSize() > 0) {
 			// MyLog.d(TAG, "onClosestBikeStationsDone() > result not empty");
 			this.adapter.setPois(result.getPoiList().subList(1, result.getPoiList().size()));
+			this.nearbySnapshotVersion = -1; // new closest bike stations
 			this.adapter.setLastSuccessfulRefresh(UserPreferences.getPrefLcl(this, UserPreferences.PREFS_LCL_BIXI_LAST_UPDATE, -1));
 			refreshFavoriteTerminalNamesFromDB();
 			// set location
@@ -785,6 +814,8 @@ public class BikeStationInfo extends Activity implements BixiDataReaderListener,
 		ProgressBar progressBar = (ProgressBar) availabilityLayout.findViewById(R.id.progress_bar);
 		TextView bikeTv = (TextView) availabilityLayout.findViewById(R.id.progress_bike);
 		TextView dockTv = (TextView) availabilityLayout.findViewById(R.id.progress_dock);
+		TextView trendTv = (TextView) availabilityLayout.findViewById(R.id.progress_trend);
+		trendTv.setVisibility(View.GONE);
 		boolean cacheUseful = Utils.currentTimeSec() - BikeUtils.CACHE_NOT_USEFUL_IN_SEC - getLastUpdateTime() < 0;
 		if (cacheUseful) {
 			// MyLog.d(TAG, "Cache useful.");
@@ -805,6 +836,8 @@ public class BikeStationInfo extends Activity implements BixiDataReaderListener,
 				dockTv.setText(getResources().getQuantityString(R.plurals.docks_nb, this.bikeStation.getNbEmptyDocks(), this.bikeStation.getNbEmptyDocks()));
 				dockTv.setTypeface(this.bikeStation.getNbEmptyDocks() <= 0 ? Typeface.DEFAULT_BOLD : Typeface.DEFAULT);
 				dockTv.setVisibility(View.VISIBLE);
+				// trend
+				showBikeStationTrend(trendTv);
 			}
 			// progress bar
 			progressBar.setIndeterminate(false);
@@ -832,6 +865,42 @@ public class BikeStationInfo extends Activity implements BixiDataReaderListener,
 		findViewById(R.id.availability).setVisibility(View.VISIBLE);
 	}
 
+	/**
+	 * Show the bike station trend (fill/drain rate) computed from the availability history.
+	 * @param trendTv the trend text view
+	 */
+	private void showBikeStationTrend(TextView trendTv) {
+		final BixiHistory history = BixiHistory.get();
+		if (history == null) {
+			return; // not loaded yet
+		}
+		final float bikesPerHour = history.getBikesRatePerHour(this.bikeStation.getTerminalName());
+		if (Float.isNaN(bikesPerHour)) {
+			return; // not enough recent samples
+		}
+		final String rate = String.format("%.1f", Math.abs(bikesPerHour));
+		final String trend;
+		if (bikesPerHour >= MIN_TREND_BIKES_PER_HOUR) {
+			final int minutes = Math.round(this.bikeStation.getNbEmptyDocks() * 60 / bikesPerHour);
+			if (minutes > 0 && minutes <= MAX_TREND_ESTIMATE_IN_MIN) {
+				trend = getString(R.string.bike_station_trend_filling_full_in, rate, minutes);
+			} else {
+				trend = getString(R.string.bike_station_trend_filling, rate);
+			}
+		} else if (bikesPerHour <= -MIN_TREND_BIKES_PER_HOUR) {
+			final int minutes = Math.round(this.bikeStation.getNbBikes() * 60 / -bikesPerHour);
+			if (minutes > 0 && minutes <= MAX_TREND_ESTIMATE_IN_MIN) {
+				trend = getString(R.string.bike_station_trend_draining_empty_in, rate, minutes);
+			} else {
+				trend = getString(R.string.bike_station_trend_draining, rate);
+			}
+		} else {
+			trend = getString(R.string.bike_station_trend_stable);
+		}
+		trendTv.setText(trend);
+		trendTv.setVisibility(View.VISIBLE);
+	}
+
 	/**
 	 * Set the favorite star (UI).
 	 */
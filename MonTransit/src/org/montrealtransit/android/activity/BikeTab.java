@@ -17,7 +17,9 @@ import org.montrealtransit.android.Utils;
 import org.montrealtransit.android.api.SupportFactory;
 import org.montrealtransit.android.data.ABikeStation;
 import org.montrealtransit.android.data.ClosestPOI;
+import org.montrealtransit.android.data.NearbyPOIs;
 import org.montrealtransit.android.data.POIArrayAdapter;
+import org.montrealtransit.android.provider.BixiManager;
 import org.montrealtransit.android.provider.DataManager;
 import org.montrealtransit.android.provider.DataStore.Fav;
 import org.montrealtransit.android.services.ClosestBikeStationsFinderTask;
@@ -86,6 +88,14 @@ public class BikeTab extends Activity implements LocationListener, ClosestBikeSt
 	 * The task used to load the closest bike stations.
 	 */
 	private ClosestBikeStationsFinderTask closestBikeStationsTask;
+	/**
+	 * The task updating the closest bike stations with the new location (spatial index query).
+	 */
+	private AsyncTask<Double, Void, List<ABikeStation>> closestBikeStationsIndexTask;
+	/**
+	 * The closest bike stations candidates (re-ordered while the user is moving).
+	 */
+	private NearbyPOIs<ABikeStation> nearbyBikeStations = new NearbyPOIs<ABikeStation>(SupportFactory.get().getNbClosestPOIDisplay());
 	/**
 	 * The acceleration apart from gravity.
 	 */
@@ -260,6 +270,10 @@ public class BikeTab extends Activity implements LocationListener, ClosestBikeSt
 			// MyLog.d(TAG, "new location: %s.", LocationUtils.locationToString(newLocation));
 			if (this.location == null || LocationUtils.isMoreRelevant(this.location, newLocation)) {
 				this.location = newLocation;
+				if (this.adapter.getPois() != null) {
+					// update the closest bike stations around the new location
+					updateClosestBikeStations();
+				}
 				this.adapter.setLocation(this.location);
 				if (!this.shakeUpdatesEnabled) {
 					SensorUtils.registerShakeAndCompassListener(this, this);
@@ -552,13 +566,64 @@ public class BikeTab extends Activity implements LocationListener, ClosestBikeSt
 		}
 	}
 
+	/**
+	 * Re-order the closest bike stations with the new location (new query only if the user left the candidates ring).
+	 */
+	private void updateClosestBikeStations() {
+		switch (this.nearbyBikeStations.update(this.location.getLatitude(), this.location.getLongitude())) {
+		case NearbyPOIs.DISPLAYED_CHANGED:
+			this.adapter.setPois(this.nearbyBikeStations.getDisplayed());
+			break;
+		case NearbyPOIs.OUT_OF_RING:
+			refreshClosestBikeStationsFromIndex();
+			break;
+		}
+	}
+
+	/**
+	 * Update the closest bike stations list with the current location (k-nearest query on the local bike stations spatial index, no table scan and no
+	 * download).
+	 */
+	private void refreshClosestBikeStationsFromIndex() {
+		MyLog.v(TAG, "refreshClosestBikeStationsFromIndex()");
+		if (this.location == null) {
+			return;
+		}
+		if (this.closestBikeStationsTask != null && this.closestBikeStationsTask.getStatus().equals(AsyncTask.Status.RUNNING)) {
+			return; // full refresh running
+		}
+		if (this.closestBikeStationsIndexTask != null) {
+			this.closestBikeStationsIndexTask.cancel(false); // previous location
+		}
+		final Location locationUsed = this.location;
+		this.closestBikeStationsIndexTask = new AsyncTask<Double, Void, List<ABikeStation>>() {
+			@Override
+			protected List<ABikeStation> doInBackground(Double... params) {
+				return BixiManager.findClosestBikeStationsList(getContentResolver(), params[0], params[1], BikeTab.this.nearbyBikeStations.getNbCandidates());
+			}
+
+			@Override
+			protected void onPostExecute(List<ABikeStation> result) {
+				if (isCancelled() || result == null || BikeTab.this.adapter.getPois() == null) {
+					return;
+				}
+				BikeTab.this.closestBikeStationsLocation = locationUsed;
+				BikeTab.this.nearbyBikeStations.setCandidates(locationUsed.getLatitude(), locationUsed.getLongitude(), result);
+				BikeTab.this.adapter.setPois(BikeTab.this.nearbyBikeStations.getDisplayed());
+				BikeTab.this.adapter.updateDistancesNow(getLocation());
+				BikeTab.this.adapter.updateCompassNow();
+			}
+		};
+		this.closestBikeStationsIndexTask.execute(locationUsed.getLatitude(), locationUsed.getLongitude());
+	}
+
 	private void startClosestStationsTask(boolean forceUpdateFromWeb) {
 		// MyLog.v(TAG, "startClosestStationsTask(%s)", forceUpdateFromWeb);
 		if (forceUpdateFromWeb) {
 			this.lastForcedRefresh = Utils.currentTimeSec();
 		}
 		setClosestStationsLoading(null);
-		this.closestBikeStationsTask = new ClosestBikeStationsFinderTask(this, this, SupportFactory.get().getNbClosestPOIDisplay(), forceUpdateFromWeb);
+		this.closestBikeStationsTask = new ClosestBikeStationsFinderTask(this, this, this.nearbyBikeStations.getNbCandidates(), forceUpdateFromWeb);
 		this.closestBikeStationsTask.execute(this.closestBikeStationsLocation.getLatitude(), this.closestBikeStationsLocation.getLongitude());
 	}
 
@@ -590,7 +655,8 @@ public class BikeTab extends Activity implements LocationListener, ClosestBikeSt
 					forceRefresh = true;
 				}
 				// get the result
-				BikeTab.this.adapter.setPois(result.getPoiList());
+				this.nearbyBikeStations.setCandidates(result.getLat(), result.getLng(), result.getPoiList());
+				BikeTab.this.adapter.setPois(this.nearbyBikeStations.getDisplayed());
 				// set location
 				BikeTab.this.adapter.updateDistancesNow(getLocation());
 				// set compass
@@ -692,6 +758,9 @@ public class BikeTab extends Activity implements LocationListener, ClosestBikeSt
 				this.adapter.setPois(null);
 			}
 		}
+		if (this.closestBikeStationsIndexTask != null) {
+			this.closestBikeStationsIndexTask.cancel(false);
+		}
 		AdsUtils.setupAd(this);
 		super.onDestroy();
 	}
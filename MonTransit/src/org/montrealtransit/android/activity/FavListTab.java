@@ -1,6 +1,7 @@
 package org.montrealtransit.android.activity;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -20,7 +21,7 @@ import org.montrealtransit.android.data.ABikeStation;
 import org.montrealtransit.android.data.POIArrayAdapter;
 import org.montrealtransit.android.data.RouteTripStop;
 import org.montrealtransit.android.data.TripStop;
-import org.montrealtransit.android.provider.BixiManager;
+import org.montrealtransit.android.provider.BixiSnapshot;
 import org.montrealtransit.android.provider.BixiStore.BikeStation;
 import org.montrealtransit.android.provider.DataManager;
 import org.montrealtransit.android.provider.DataStore.Fav;
@@ -325,8 +326,8 @@ public class FavListTab extends Activity implements LocationListener, SensorEven
 				if (FavListTab.this.currentBikeStationFavList == null || !Fav.listEquals(FavListTab.this.currentBikeStationFavList, newBikeFavList)) {
 					if (Utils.getCollectionSize(newBikeFavList) > 0) {
 						MyLog.d(TAG, "Loading bike station favorites from DB...");
-						this.bikeStations = BixiManager.findBikeStationsMap(getContentResolver(),
-								Utils.extractBikeStationTerminNamesFromFavList(newBikeFavList));
+						this.bikeStations = BixiSnapshot.get(getContentResolver()).getBikeStations(
+								Arrays.asList(Utils.extractBikeStationTerminNamesFromFavList(newBikeFavList).split("\\+")));
 						MyLog.d(TAG, "Loading bike station favorites from DB... DONE");
 					}
 					if (this.bikeStations == null) {
@@ -1,10 +1,10 @@
 package org.montrealtransit.android.activity;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import org.montrealtransit.android.AnalyticsUtils;
+import org.montrealtransit.android.DistanceUtils;
 import org.montrealtransit.android.LocationUtils;
 import org.montrealtransit.android.LocationUtils.LocationTaskCompleted;
 import org.montrealtransit.android.MenuUtils;
@@ -15,7 +15,6 @@ import org.montrealtransit.android.SensorUtils.CompassListener;
 import org.montrealtransit.android.SensorUtils.ShakeListener;
 import org.montrealtransit.android.Utils;
 import org.montrealtransit.android.api.SupportFactory;
-import org.montrealtransit.android.data.POI;
 import org.montrealtransit.android.data.Route;
 import org.montrealtransit.android.data.RouteTripStop;
 import org.montrealtransit.android.data.Trip;
@@ -805,9 +804,8 @@ public class RouteInfo extends Activity implements LocationListener, SensorEvent
 		if (this.stops == null || this.stops.size() == 0) {
 			return;
 		}
-		List<TripStop> orderedStops = new ArrayList<TripStop>(this.stops);
-		Collections.sort(orderedStops, POI.POI_DISTANCE_COMPARATOR);
-		this.closestStopId = orderedStops.get(0).getDistance() > 0 ? orderedStops.get(0).stop.id : null;
+		final TripStop closestStop = DistanceUtils.findClosest(this.stops);
+		this.closestStopId = closestStop.getDistance() > 0 ? closestStop.stop.id : null;
 	}
 
 	@Override
@@ -15,6 +15,7 @@ import org.montrealtransit.android.LocationUtils;
 import org.montrealtransit.android.LocationUtils.LocationTaskCompleted;
 import org.montrealtransit.android.MenuUtils;
 import org.montrealtransit.android.MyLog;
+import org.montrealtransit.android.PrefetchingUtils;
 import org.montrealtransit.android.R;
 import org.montrealtransit.android.SensorUtils;
 import org.montrealtransit.android.SensorUtils.CompassListener;
@@ -36,7 +37,10 @@ import org.montrealtransit.android.provider.common.AbstractManager;
 import org.montrealtransit.android.provider.common.AbstractScheduleManager;
 import org.montrealtransit.android.services.ClosestRouteTripStopsFinderTask.ClosestRouteTripStopsFinderListener;
 import org.montrealtransit.android.services.ClosestRouteTripStopsFinderTaskAndFilter;
+import org.montrealtransit.android.services.nextstop.AbstractNextStopProvider;
+import org.montrealtransit.android.services.nextstop.HybridScheduleTask;
 import org.montrealtransit.android.services.nextstop.NextStopListener;
+import org.montrealtransit.android.services.nextstop.NextStopsRefreshScheduler;
 import org.montrealtransit.android.services.nextstop.ScheduleTask;
 
 import android.app.Activity;
@@ -80,7 +84,7 @@ import android.widget.TextView;
  * @author Mathieu Méa
  */
 public class StopInfo extends Activity implements LocationListener, DialogInterface.OnClickListener, /* NfcListener, */SensorEventListener, CompassListener,
-		ClosestRouteTripStopsFinderListener, NextStopListener {
+		ClosestRouteTripStopsFinderListener, NextStopListener, NextStopsRefreshScheduler.Refreshable {
 
 	/**
 	 * The log tag.
@@ -181,6 +185,16 @@ public class StopInfo extends Activity implements LocationListener, DialogInterf
 
 	private int nbTaskRunning = 0;
 
+	/**
+	 * True if the displayed next stops are being refreshed by the {@link NextStopsRefreshScheduler}.
+	 */
+	private boolean refreshingNextStops = false;
+
+	/**
+	 * True if the displayed next stops are partial results (complete results still loading).
+	 */
+	private boolean partialNextStops = false;
+
 	/**
 	 * True if the activity has the focus, false otherwise.
 	 */
@@ -386,6 +400,7 @@ public class StopInfo extends Activity implements LocationListener, DialogInterf
 		refreshFavoriteIDsFromDB();
 		setStopFromIntent(getIntent(), null);
 		setIntent(null); // set intent as processed
+		NextStopsRefreshScheduler.register(this);
 		// TODO NFC SupportFactory.get().enableNfcForegroundDispatch(this);
 		// if (this.adapter != null) {
 		// this.adapter.onResume();
@@ -397,6 +412,7 @@ public class StopInfo extends Activity implements LocationListener, DialogInterf
 		MyLog.v(TAG, "onPause()");
 		// TODO NFC SupportFactory.get().disableNfcForegroundDispatch(this);
 		this.paused = true;
+		NextStopsRefreshScheduler.unregister(this);
 		this.locationUpdatesEnabled = LocationUtils.disableLocationUpdatesIfNecessary(this, this, this.locationUpdatesEnabled);
 		if (this.compassUpdatesEnabled) {
 			SensorUtils.unregisterSensorListener(this, this);
@@ -721,37 +737,16 @@ public class StopInfo extends Activity implements LocationListener, DialogInterf
 		MyLog.v(TAG, "refreshOtherRouteTripsInfo()");
 		if (this.otherRouteTrips != null) {
 			refreshOtherRouteTripsUI();
+			if (this.nearbyTask == null) { // other route trips loaded with the next stops
+				refreshNearby();
+			}
 			return;
 		}
 		new AsyncTask<Integer, Void, List<RouteTripStop>>() {
 			@Override
 			protected List<RouteTripStop> doInBackground(Integer... params) {
 				MyLog.v(TAG, "refreshOtherRouteTripsInfo()>doInBackground(%s)", params[0]);
-				List<RouteTripStop> result = AbstractManager.findRouteTripStopWithStopIdList(StopInfo.this, StopInfo.this.contentUri, params[0], false);
-				if (result != null) {
-					// remove all routes with the same route ID
-					ListIterator<RouteTripStop> it = result.listIterator();
-					while (it.hasNext()) {
-						final RouteTripStop routeTripStop = it.next();
-						// IF same trip DO
-						if (routeTripStop.trip.id == StopInfo.this.routeTripStop.trip.id) {
-							it.remove();
-							continue;
-						}
-						// // IF same route DO // TODO really?
-						// if (routeTripStop.trip.routeId == StopInfo.this.routeTripStop.trip.routeId) {
-						// it.remove();
-						// continue;
-						// }
-						// IF last stop of the trip DO
-						final TripStop lastTripStop = AbstractManager.findTripLastTripStop(StopInfo.this, StopInfo.this.contentUri, routeTripStop.trip.id);
-						if (lastTripStop != null && routeTripStop.stop.id == lastTripStop.stop.id) {
-							it.remove();
-							continue;
-						}
-					}
-				}
-				return result;
+				return findOtherRouteTrips(params[0]);
 			}
 
 			@Override
@@ -764,6 +759,39 @@ public class StopInfo extends Activity implements LocationListener, DialogInterf
 		}.execute(this.routeTripStop.stop.id);
 	}
 
+	/**
+	 * Find the other route trips using this stop (NOT from the UI thread).
+	 * @param stopId the stop ID
+	 * @return the other route trips or null
+	 */
+	private List<RouteTripStop> findOtherRouteTrips(int stopId) {
+		List<RouteTripStop> result = AbstractManager.findRouteTripStopWithStopIdList(this, this.contentUri, stopId, false);
+		if (result != null) {
+			// remove all routes with the same route ID
+			ListIterator<RouteTripStop> it = result.listIterator();
+			while (it.hasNext()) {
+				final RouteTripStop routeTripStop = it.next();
+				// IF same trip DO
+				if (routeTripStop.trip.id == this.routeTripStop.trip.id) {
+					it.remove();
+					continue;
+				}
+				// // IF same route DO // TODO really?
+				// if (routeTripStop.trip.routeId == this.routeTripStop.trip.routeId) {
+				// it.remove();
+				// continue;
+				// }
+				// IF last stop of the trip DO
+				final TripStop lastTripStop = AbstractManager.findTripLastTripStop(this, this.contentUri, routeTripStop.trip.id);
+				if (lastTripStop != null && routeTripStop.stop.id == lastTripStop.stop.id) {
+					it.remove();
+					continue;
+				}
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * Refresh other route trips UI.
 	 */
@@ -974,6 +1002,7 @@ public class StopInfo extends Activity implements LocationListener, DialogInterf
 					}
 					StopInfo.this.contentUri = Utils.newContentUri(newAuthority);
 					StopInfo.this.routeTripStop = newRouteTripStop;
+					PrefetchingUtils.onStopOpened(newRouteTripStop.getUUID());
 					StopInfo.this.otherRouteTrips = null; // reset
 					StopInfo.this.stopTimes = null; // clear current stop hours
 					// StopInfo.this.memCache = null; // clear the cache for the new stop
@@ -1069,6 +1098,10 @@ public class StopInfo extends Activity implements LocationListener, DialogInterf
 						StopInfo.this.stopTimes = cache;
 					}
 				}
+				// load the other route trips before the 1st schedule request (stop departure board)
+				if (StopInfo.this.otherRouteTrips == null) {
+					StopInfo.this.otherRouteTrips = findOtherRouteTrips(StopInfo.this.routeTripStop.stop.id);
+				}
 				return null;
 			}
 
@@ -1084,18 +1117,34 @@ public class StopInfo extends Activity implements LocationListener, DialogInterf
 		}.execute();
 	}
 
-	private Map<String, ScheduleTask> scheduleTasks = new HashMap<String, ScheduleTask>();
+	private Map<String, AbstractNextStopProvider> scheduleTasks = new HashMap<String, AbstractNextStopProvider>();
 
 	private void loadNextStopsFromSchedule(boolean force) {
-		MyLog.v(TAG, "loadNextStopsFromSchedule(%s)", force);
+		loadNextStopsFromSchedule(force ? Integer.valueOf(-1) : null);
+	}
+
+	/**
+	 * @param cacheValidityInSec the maximum age of the cached next stops (-1 to force loading, null for the provider default)
+	 */
+	private void loadNextStopsFromSchedule(Integer cacheValidityInSec) {
+		MyLog.v(TAG, "loadNextStopsFromSchedule(%s)", cacheValidityInSec);
 		// 1st - cancel all current tasks
 		cancelScheduleTasks();
+		this.refreshingNextStops = false;
+		this.partialNextStops = false;
 		setNextStopsLoading();
 		// 2nd - start a new loading task for each available provider
 		final String[] scheduleAuthorities = AbstractScheduleManager.authoritiesToScheduleAuthorities.get(this.contentUri.getAuthority());
-		if (scheduleAuthorities != null) {
+		if (HybridScheduleTask.isHybrid(scheduleAuthorities)) {
+			// live & scheduled providers merged in 1 task
+			HybridScheduleTask hybridTask = new HybridScheduleTask(this, this, this.routeTripStop, this.otherRouteTrips, scheduleAuthorities[0],
+					scheduleAuthorities[1], cacheValidityInSec);
+			hybridTask.execute();
+			this.scheduleTasks.put(scheduleAuthorities[0], hybridTask);
+			this.nbTaskRunning++;
+		} else if (scheduleAuthorities != null) {
 			for (String scheduleAuthority : scheduleAuthorities) {
-				ScheduleTask scheduleTask = new ScheduleTask(this, this, this.routeTripStop, scheduleAuthority, force);
+				ScheduleTask scheduleTask = new ScheduleTask(this, this, this.routeTripStop, this.otherRouteTrips, scheduleAuthority, cacheValidityInSec);
 				scheduleTask.execute();
 				this.scheduleTasks.put(scheduleAuthority, scheduleTask);
 				this.nbTaskRunning++;
@@ -1106,7 +1155,7 @@ public class StopInfo extends Activity implements LocationListener, DialogInterf
 	private void cancelScheduleTasks() {
 		MyLog.v(TAG, "cancelScheduleTasks()");
 		if (this.scheduleTasks != null) {
-			for (ScheduleTask scheduleTask : this.scheduleTasks.values()) {
+			for (AbstractNextStopProvider scheduleTask : this.scheduleTasks.values()) {
 				if (scheduleTask != null && scheduleTask.getStatus() == AsyncTask.Status.RUNNING) {
 					scheduleTask.cancel(true);
 				}
@@ -1119,7 +1168,7 @@ public class StopInfo extends Activity implements LocationListener, DialogInterf
 	@Override
 	public void onNextStopsProgress(String scheduleAuthority, String progress) {
 		MyLog.v(TAG, "onNextStopsProgress(%s,%s)", scheduleAuthority, progress);
-		ScheduleTask scheduleTask = this.scheduleTasks == null ? null : this.scheduleTasks.get(scheduleAuthority);
+		AbstractNextStopProvider scheduleTask = this.scheduleTasks == null ? null : this.scheduleTasks.get(scheduleAuthority);
 		// IF the task was cancelled DO
 		if (scheduleTask == null || scheduleTask.isCancelled()) {
 			// MyLog.d(TAG, "Task cancelled!");
@@ -1141,13 +1190,13 @@ public class StopInfo extends Activity implements LocationListener, DialogInterf
 	@Override
 	public void onNextStopsLoaded(String scheduleAuthority, Map<String, StopTimes> results) {
 		MyLog.v(TAG, "onNextStopsLoaded(%s)", results == null ? null : results.size());
-		ScheduleTask scheduleTask = this.scheduleTasks == null ? null : this.scheduleTasks.get(scheduleAuthority);
+		AbstractNextStopProvider scheduleTask = this.scheduleTasks == null ? null : this.scheduleTasks.get(scheduleAuthority);
 		if (scheduleTask == null || scheduleTask.isCancelled()) {
 			MyLog.d(TAG, "Task cancelled! (%s)", scheduleAuthority);
 			setTaskAsCompleted();
 			return;
 		}
-		if (this.stopTimes != null && this.stopTimes.isRealtime()) {
+		if (this.stopTimes != null && this.stopTimes.isRealtime() && !this.refreshingNextStops && !this.partialNextStops) {
 			MyLog.d(TAG, "Task too late (%s)", scheduleAuthority);
 			setTaskAsCompleted();
 			return;
@@ -1158,6 +1207,12 @@ public class StopInfo extends Activity implements LocationListener, DialogInterf
 			return;
 		}
 		// MyLog.d(TAG, "%s:%s", results.keySet(), results.values());
+		// keep the other route trips of the stop departure board (if any) for later
+		for (Map.Entry<String, StopTimes> otherResult : results.entrySet()) {
+			if (!this.routeTripStop.getUUID().equals(otherResult.getKey())) {
+				saveToMemCache(otherResult.getKey(), otherResult.getValue());
+			}
+		}
 		StopTimes result = results.get(this.routeTripStop.getUUID());
 		if (result == null) {
 			MyLog.d(TAG, "No result for this trip! (%s)", scheduleAuthority);
@@ -1168,6 +1223,11 @@ public class StopInfo extends Activity implements LocationListener, DialogInterf
 		// IF error DO
 		if (result == null || result.getSTimes().size() <= 0) {
 			MyLog.d(TAG, "Local DB no hours in result");
+			if (this.refreshingNextStops && this.stopTimes != null) {
+				MyLog.d(TAG, "Refresh failed, keep showing the current next stops (%s)", scheduleAuthority);
+				setTaskAsCompleted();
+				return;
+			}
 			// process the error
 			// if (this.wwwTaskRunning) {
 			if (this.nbTaskRunning > 1) { // 1?
@@ -1187,10 +1247,13 @@ public class StopInfo extends Activity implements LocationListener, DialogInterf
 		// show the result
 		if (result.isRealtime()) {
 			cancelScheduleTasks(); // cancel other schedule tasks
+			this.refreshingNextStops = false;
+			this.partialNextStops = false;
 			this.stopTimes = result;
 			showNewNextStops();
 		} else { // not real-time
-			if (this.stopTimes == null || this.stopTimes.getSourceName().equals(result.getSourceName())) {
+			if (this.stopTimes == null || this.partialNextStops || this.stopTimes.getSourceName().equals(result.getSourceName())) {
+				this.partialNextStops = false;
 				saveToMemCache(this.routeTripStop.getUUID(), result);
 				this.stopTimes = result;
 				showNewNextStops();
@@ -1201,12 +1264,33 @@ public class StopInfo extends Activity implements LocationListener, DialogInterf
 		setTaskAsCompleted();
 	}
 
+	@Override
+	public void onNextStopsPartiallyLoaded(String scheduleAuthority, Map<String, StopTimes> results) {
+		MyLog.v(TAG, "onNextStopsPartiallyLoaded(%s)", results == null ? null : results.size());
+		AbstractNextStopProvider scheduleTask = this.scheduleTasks == null ? null : this.scheduleTasks.get(scheduleAuthority);
+		if (scheduleTask == null || scheduleTask.isCancelled() || results == null) {
+			return;
+		}
+		StopTimes result = results.get(this.routeTripStop.getUUID());
+		if (result == null || result.getSTimes().size() <= 0) {
+			return; // wait for the complete results
+		}
+		// only show the partial results if nothing better is displayed
+		if (this.stopTimes == null || this.partialNextStops) {
+			this.partialNextStops = true;
+			this.stopTimes = result;
+			showNewNextStops();
+		}
+	}
+
 	public void setTaskAsCompleted() {
 		MyLog.v(TAG, "setLocalTaskAsCompleted()");
 		this.nbTaskRunning--;
 		if (this.nbTaskRunning <= 0) {
+			this.refreshingNextStops = false;
 			setNextStopsNotLoading();
 			refreshOtherRouteTripsInfo();
+			NextStopsRefreshScheduler.reschedule(this);
 		} else if (this.stopTimes != null) {
 			refreshOtherRouteTripsInfo();
 		}
@@ -1338,6 +1422,21 @@ public class StopInfo extends Activity implements LocationListener, DialogInterf
 		}
 	}
 
+	@Override
+	public long getNextDepartureTimestamp() {
+		return this.stopTimes == null ? -1L : this.stopTimes.getNextTimestamp();
+	}
+
+	@Override
+	public void onRefreshNextStops(int cacheValidityInSec) {
+		MyLog.v(TAG, "onRefreshNextStops(%s)", cacheValidityInSec);
+		if (this.nbTaskRunning > 0 || this.routeTripStop == null) {
+			return; // already loading
+		}
+		loadNextStopsFromSchedule(Integer.valueOf(cacheValidityInSec));
+		this.refreshingNextStops = this.stopTimes != null;
+	}
+
 	/**
 	 * Set the next stops view as loading.
 	 */
@@ -1642,6 +1741,7 @@ public class StopInfo extends Activity implements LocationListener, DialogInterf
 	@Override
 	protected void onDestroy() {
 		MyLog.v(TAG, "onDestroy()");
+		NextStopsRefreshScheduler.unregister(this);
 		cancelScheduleTasks();
 		cancelNearbyTask();
 		AdsUtils.destroyAd(this);
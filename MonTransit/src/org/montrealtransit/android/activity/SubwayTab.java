@@ -17,6 +17,7 @@ import org.montrealtransit.android.SubwayUtils;
 import org.montrealtransit.android.Utils;
 import org.montrealtransit.android.api.SupportFactory;
 import org.montrealtransit.android.data.ClosestPOI;
+import org.montrealtransit.android.data.NearbyPOIs;
 import org.montrealtransit.android.data.POIArrayAdapter;
 import org.montrealtransit.android.data.Route;
 import org.montrealtransit.android.data.RouteStop;
@@ -111,6 +112,10 @@ public class SubwayTab extends Activity implements LocationListener, StmInfoStat
 	 * The task used to find the closest stations.
 	 */
 	private ClosestRouteStopsFinderTask closestStationsTask;
+	/**
+	 * The closest stations candidates (re-ordered while the user is moving).
+	 */
+	private NearbyPOIs<RouteStop> nearbyStations = new NearbyPOIs<RouteStop>(SupportFactory.get().getNbClosestPOIDisplay());
 	/**
 	 * The current service status.
 	 */
@@ -754,8 +759,8 @@ public class SubwayTab extends Activity implements LocationListener, StmInfoStat
 			Location currentLocation = getLocation();
 			if (currentLocation != null) {
 				// find the closest stations
-				this.closestStationsTask = new ClosestRouteStopsFinderTask(this, this, new String[] { StmSubwayManager.AUTHORITY }, SupportFactory.get()
-						.getNbClosestPOIDisplay());
+				this.closestStationsTask = new ClosestRouteStopsFinderTask(this, this, new String[] { StmSubwayManager.AUTHORITY },
+						this.nearbyStations.getNbCandidates());
 				this.closestStationsTask.execute(currentLocation.getLatitude(), currentLocation.getLongitude());
 				this.closestStationsLocation = currentLocation;
 				new AsyncTask<Location, Void, String>() {
@@ -806,7 +811,8 @@ public class SubwayTab extends Activity implements LocationListener, StmInfoStat
 		} else {
 			// get the result
 			// this.closestStations = result.getPoiList();
-			this.adapter.setPois(result.getPoiList());
+			this.nearbyStations.setCandidates(result.getLat(), result.getLng(), result.getPoiList());
+			this.adapter.setPois(this.nearbyStations.getDisplayed());
 			this.adapter.updateDistancesNow(this.location);
 			this.adapter.updateCompassNow();
 			// updateCompass(this.lastCompassInDegree, true);
@@ -946,6 +952,9 @@ public class SubwayTab extends Activity implements LocationListener, StmInfoStat
 			// MyLog.d(TAG, "new location: %s.", LocationUtils.locationToString(newLocation));
 			if (this.location == null || LocationUtils.isMoreRelevant(this.location, newLocation)) {
 				this.location = newLocation;
+				if (this.adapter.getPois() != null) {
+					updateClosestStations();
+				}
 				this.adapter.setLocation(this.location);
 				if (!this.shakeUpdatesEnabled) {
 					SensorUtils.registerShakeAndCompassListener(this, this);
@@ -960,6 +969,20 @@ public class SubwayTab extends Activity implements LocationListener, StmInfoStat
 		}
 	}
 
+	/**
+	 * Re-order the closest stations with the new location (new query only if the user left the candidates ring).
+	 */
+	private void updateClosestStations() {
+		switch (this.nearbyStations.update(this.location.getLatitude(), this.location.getLongitude())) {
+		case NearbyPOIs.DISPLAYED_CHANGED:
+			this.adapter.setPois(this.nearbyStations.getDisplayed());
+			break;
+		case NearbyPOIs.OUT_OF_RING:
+			refreshClosestStations();
+			break;
+		}
+	}
+
 	/**
 	 * @return the location
 	 */
@@ -9,6 +9,7 @@ import org.montrealtransit.android.R;
 import org.montrealtransit.android.Utils;
 import org.montrealtransit.android.api.SupportFactory;
 import org.montrealtransit.android.provider.DataManager;
+import org.montrealtransit.android.provider.common.AbstractScheduleProvider;
 
 import android.annotation.SuppressLint;
 import android.app.AlertDialog;
@@ -301,6 +302,7 @@ public class UserPreferences extends PreferenceActivity {
 			@Override
 			public boolean onPreferenceClick(Preference preference) {
 				DataManager.deleteAllCache(getContentResolver());
+				AbstractScheduleProvider.clearMemoryCache();
 				Utils.notifyTheUser(getApplicationContext(), UserPreferences.this.getString(R.string.clear_cache_complete));
 				setClearCachePref();
 				// WARNING DANGEROUS UserPreferences.this.getDatabasePath(StmSubwayDbHelper.DB_NAME);
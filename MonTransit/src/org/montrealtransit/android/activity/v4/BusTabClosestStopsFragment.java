@@ -8,6 +8,7 @@ import org.montrealtransit.android.R;
 import org.montrealtransit.android.Utils;
 import org.montrealtransit.android.api.SupportFactory;
 import org.montrealtransit.android.data.ClosestPOI;
+import org.montrealtransit.android.data.NearbyPOIs;
 import org.montrealtransit.android.data.POIArrayAdapter;
 import org.montrealtransit.android.data.RouteTripStop;
 import org.montrealtransit.android.provider.DataManager;
@@ -58,6 +59,10 @@ public class BusTabClosestStopsFragment extends Fragment implements LocationList
 	 * The task used to find the closest stations.
 	 */
 	private ClosestRouteTripStopsFinderTask closestStopsTask;
+	/**
+	 * The closest stops candidates (re-ordered while the user is moving).
+	 */
+	private NearbyPOIs<RouteTripStop> nearbyStops = new NearbyPOIs<RouteTripStop>(SupportFactory.get().getNbClosestPOIDisplay());
 	/**
 	 * The location used to generate the closest stops.
 	 */
@@ -199,8 +204,8 @@ public class BusTabClosestStopsFragment extends Fragment implements LocationList
 				return;
 			}
 			// find the closest stations
-			this.closestStopsTask = new ClosestRouteTripStopsFinderTask(this, getLastActivity(), new String[] { StmBusManager.AUTHORITY }, SupportFactory.get()
-					.getNbClosestPOIDisplay());
+			this.closestStopsTask = new ClosestRouteTripStopsFinderTask(this, getLastActivity(), new String[] { StmBusManager.AUTHORITY },
+					this.nearbyStops.getNbCandidates());
 			this.closestStopsTask.execute(currentLocation.getLatitude(), currentLocation.getLongitude());
 			this.closestStopsLocation = currentLocation;
 			new AsyncTask<Location, Void, String>() {
@@ -248,7 +253,8 @@ public class BusTabClosestStopsFragment extends Fragment implements LocationList
 			setClosestStopsError(view, activity);
 		} else {
 			// get the result
-			this.adapter.setPois(result.getPoiList());
+			this.nearbyStops.setCandidates(result.getLat(), result.getLng(), result.getPoiList());
+			this.adapter.setPois(this.nearbyStops.getDisplayed());
 			this.adapter.updateDistancesNow(this.location);
 			// this.adapter.prefetchClosests();
 			refreshFavoriteUIDsFromDB();
@@ -417,15 +423,31 @@ public class BusTabClosestStopsFragment extends Fragment implements LocationList
 			// MyLog.d(TAG, "new location: %s.", LocationUtils.locationToString(newLocation));
 			if (this.location == null || LocationUtils.isMoreRelevant(this.location, newLocation)) {
 				this.location = newLocation;
-				this.adapter.setLocation(this.location);
 				if (this.adapter.getPois() == null) {
 					// start refreshing if not running.
 					refreshClosestStops();
+				} else {
+					updateClosestStops();
 				}
+				this.adapter.setLocation(this.location);
 			}
 		}
 	}
 
+	/**
+	 * Re-order the closest stops with the new location (new query only if the user left the candidates ring).
+	 */
+	private void updateClosestStops() {
+		switch (this.nearbyStops.update(this.location.getLatitude(), this.location.getLongitude())) {
+		case NearbyPOIs.DISPLAYED_CHANGED:
+			this.adapter.setPois(this.nearbyStops.getDisplayed());
+			break;
+		case NearbyPOIs.OUT_OF_RING:
+			refreshClosestStops();
+			break;
+		}
+	}
+
 	@Override
 	public void onProviderEnabled(String provider) {
 		// MyLog.v(TAG, "onProviderEnabled(%s)", provider);
@@ -0,0 +1,295 @@
+package org.montrealtransit.android.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.montrealtransit.android.MyLog;
+import org.montrealtransit.android.provider.common.DepartureColumns;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.text.TextUtils;
+
+/**
+ * The departures of a route trip stop as returned by a schedule provider (time-stamps are not formatted, see {@link StopTimes}).
+ */
+public class Departures {
+
+	private static final String TAG = Departures.class.getSimpleName();
+
+	private static final String JSON_REALTIME = "realtime";
+	private static final String JSON_SOURCE = "source";
+	private static final String JSON_TIMESTAMPS = "timestamps";
+	private static final String JSON_MESSAGES = "messages";
+	private static final String JSON_ERROR = "error";
+
+	private boolean realtime;
+
+	private String sourceName;
+
+	private long[] timestamps = new long[8];
+
+	private int timestampsCount = 0;
+
+	private List<String> messages;
+
+	private String error;
+
+	public Departures() {
+	}
+
+	public Departures(String sourceName, boolean realtime) {
+		this.sourceName = sourceName;
+		this.realtime = realtime;
+	}
+
+	public boolean isRealtime() {
+		return realtime;
+	}
+
+	public void setRealtime(boolean realtime) {
+		this.realtime = realtime;
+	}
+
+	public String getSourceName() {
+		return sourceName;
+	}
+
+	public void setSourceName(String sourceName) {
+		this.sourceName = sourceName;
+	}
+
+	/**
+	 * Add a time-stamp (call {@link #sortTimestamps()} if not added in order).
+	 * @param timestamp the departure time-stamp in milliseconds
+	 */
+	public void addTimestamp(long timestamp) {
+		if (this.timestampsCount == this.timestamps.length) {
+			long[] newTimestamps = new long[this.timestamps.length * 2];
+			System.arraycopy(this.timestamps, 0, newTimestamps, 0, this.timestampsCount);
+			this.timestamps = newTimestamps;
+		}
+		this.timestamps[this.timestampsCount++] = timestamp;
+	}
+
+	public void sortTimestamps() {
+		Arrays.sort(this.timestamps, 0, this.timestampsCount);
+	}
+
+	public int getTimestampsCount() {
+		return timestampsCount;
+	}
+
+	public long getTimestamp(int index) {
+		return this.timestamps[index];
+	}
+
+	public boolean hasTimestamps() {
+		return this.timestampsCount > 0;
+	}
+
+	/**
+	 * @param message the new message (ignored if empty)
+	 */
+	public void addMessage(String message) {
+		if (TextUtils.isEmpty(message)) {
+			return;
+		}
+		if (this.messages == null) {
+			this.messages = new ArrayList<String>();
+		}
+		this.messages.add(message);
+	}
+
+	public List<String> getMessages() {
+		if (this.messages == null) {
+			this.messages = new ArrayList<String>();
+		}
+		return messages;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public void setError(String error) {
+		this.error = error;
+	}
+
+	/**
+	 * Add the typed rows representing these departures to the cursor.
+	 * @param cursor the cursor created with the {@link DepartureColumns#PROJECTION_DEPARTURE} columns
+	 * @param uuid the route trip stop UUID
+	 */
+	public void addRows(MatrixCursor cursor, String uuid) {
+		cursor.addRow(new Object[] { uuid, DepartureColumns.ROW_TYPE_HEADER, null, this.realtime ? 1 : 0, this.sourceName, null });
+		for (int i = 0; i < this.timestampsCount; i++) {
+			cursor.addRow(new Object[] { uuid, DepartureColumns.ROW_TYPE_TIMESTAMP, this.timestamps[i], null, null, null });
+		}
+		if (this.messages != null) {
+			for (String message : this.messages) {
+				cursor.addRow(new Object[] { uuid, DepartureColumns.ROW_TYPE_MESSAGE, null, null, null, message });
+			}
+		}
+		if (!TextUtils.isEmpty(this.error)) {
+			cursor.addRow(new Object[] { uuid, DepartureColumns.ROW_TYPE_ERROR, null, null, null, this.error });
+		}
+	}
+
+	/**
+	 * Read the current typed row into these departures.
+	 * @param c the cursor
+	 */
+	public void readRow(Cursor c) {
+		switch (c.getInt(c.getColumnIndexOrThrow(DepartureColumns.T_DEPARTURE_K_ROW_TYPE))) {
+		case DepartureColumns.ROW_TYPE_HEADER:
+			this.realtime = c.getInt(c.getColumnIndexOrThrow(DepartureColumns.T_DEPARTURE_K_REALTIME)) == 1;
+			this.sourceName = c.getString(c.getColumnIndexOrThrow(DepartureColumns.T_DEPARTURE_K_SOURCE));
+			break;
+		case DepartureColumns.ROW_TYPE_TIMESTAMP:
+			addTimestamp(c.getLong(c.getColumnIndexOrThrow(DepartureColumns.T_DEPARTURE_K_TIMESTAMP)));
+			break;
+		case DepartureColumns.ROW_TYPE_MESSAGE:
+			addMessage(c.getString(c.getColumnIndexOrThrow(DepartureColumns.T_DEPARTURE_K_TEXT)));
+			break;
+		case DepartureColumns.ROW_TYPE_ERROR:
+			this.error = c.getString(c.getColumnIndexOrThrow(DepartureColumns.T_DEPARTURE_K_TEXT));
+			break;
+		default:
+			MyLog.w(TAG, "Unknown departure row type!");
+		}
+	}
+
+	/**
+	 * @return the JSON representation (compatibility with clients reading the JSON column and cache format)
+	 */
+	public JSONObject toJSON() {
+		try {
+			final JSONObject jDepartures = new JSONObject();
+			jDepartures.put(JSON_REALTIME, this.realtime);
+			jDepartures.put(JSON_SOURCE, this.sourceName);
+			final JSONArray jTimestamps = new JSONArray();
+			for (int i = 0; i < this.timestampsCount; i++) {
+				jTimestamps.put(this.timestamps[i]);
+			}
+			jDepartures.put(JSON_TIMESTAMPS, jTimestamps);
+			if (this.messages != null) {
+				final JSONArray jMessages = new JSONArray();
+				for (String message : this.messages) {
+					jMessages.put(message);
+				}
+				jDepartures.put(JSON_MESSAGES, jMessages);
+			}
+			if (!TextUtils.isEmpty(this.error)) {
+				jDepartures.put(JSON_ERROR, this.error);
+			}
+			return jDepartures;
+		} catch (JSONException jsone) {
+			MyLog.w(TAG, jsone, "Error while converting to JSON (%s)!", this);
+			return null;
+		}
+	}
+
+	/**
+	 * @param json the JSON representation
+	 * @return the departures (partially filled if the JSON is not valid)
+	 */
+	public static Departures parseJSON(String json) {
+		Departures departures = new Departures();
+		try {
+			JSONObject jDepartures = new JSONObject(json);
+			departures.setSourceName(jDepartures.getString(JSON_SOURCE));
+			departures.setRealtime(jDepartures.getBoolean(JSON_REALTIME));
+			JSONArray jTimestamps = jDepartures.getJSONArray(JSON_TIMESTAMPS);
+			for (int i = 0; i < jTimestamps.length(); i++) {
+				departures.addTimestamp(jTimestamps.getLong(i));
+			}
+			departures.setError(jDepartures.optString(JSON_ERROR));
+			JSONArray jMessages = jDepartures.optJSONArray(JSON_MESSAGES);
+			if (jMessages != null) {
+				for (int i = 0; i < jMessages.length(); i++) {
+					departures.addMessage(jMessages.getString(i));
+				}
+			}
+		} catch (JSONException jsone) {
+			MyLog.w(TAG, jsone, "Error while parsing JSON '%s'", json);
+		}
+		return departures;
+	}
+
+	/**
+	 * Merge the live departures with the scheduled (offline timetable) departures:
+	 * <ul>
+	 * <li>the live time-stamps override the scheduled trips within the live horizon (scheduled trips not returned by the live source are not served),</li>
+	 * <li>the scheduled time-stamps fill the horizon beyond the last live time-stamp (and the past departures before the 1st one).</li>
+	 * </ul>
+	 * @param live the live departures (or null)
+	 * @param scheduled the scheduled departures (or null)
+	 * @param now the current time-stamp
+	 * @param matchWindowInMs the maximum delay between a live time-stamp and its scheduled trip
+	 * @return the merged departures (the live or scheduled departures if the other one has no time-stamp, or null), the inputs are not modified
+	 */
+	public static Departures merge(Departures live, Departures scheduled, long now, long matchWindowInMs) {
+		if (scheduled == null || !scheduled.hasTimestamps()) {
+			return live != null ? live : scheduled;
+		}
+		if (live == null || !live.hasTimestamps()) {
+			if (live == null || live.messages == null || live.messages.size() == 0) {
+				return scheduled;
+			}
+			Departures merged = new Departures(scheduled.getSourceName(), scheduled.isRealtime());
+			for (int s = 0; s < scheduled.getTimestampsCount(); s++) {
+				merged.addTimestamp(scheduled.getTimestamp(s));
+			}
+			if (scheduled.messages != null) {
+				for (String message : scheduled.messages) {
+					merged.addMessage(message);
+				}
+			}
+			for (String message : live.messages) {
+				merged.addMessage(message); // i.e. detour
+			}
+			merged.setError(scheduled.getError());
+			return merged;
+		}
+		live.sortTimestamps();
+		scheduled.sortTimestamps();
+		final long firstLive = live.getTimestamp(0);
+		final long lastLive = live.getTimestamp(live.getTimestampsCount() - 1);
+		Departures merged = new Departures(live.getSourceName(), live.isRealtime());
+		int s = 0;
+		// past scheduled departures (previous time)
+		while (s < scheduled.getTimestampsCount() && scheduled.getTimestamp(s) < Math.min(now, firstLive - matchWindowInMs)) {
+			merged.addTimestamp(scheduled.getTimestamp(s++));
+		}
+		for (int l = 0; l < live.getTimestampsCount(); l++) {
+			merged.addTimestamp(live.getTimestamp(l));
+		}
+		// scheduled departures beyond the live horizon
+		while (s < scheduled.getTimestampsCount()) {
+			final long timestamp = scheduled.getTimestamp(s++);
+			if (timestamp > lastLive + matchWindowInMs) {
+				merged.addTimestamp(timestamp);
+			}
+		}
+		for (String message : live.getMessages()) {
+			merged.addMessage(message);
+		}
+		return merged;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder().append(Departures.class.getSimpleName()).append(":[") //
+				.append("source:").append(sourceName).append(',') //
+				.append("realtime:").append(realtime).append(',') //
+				.append("timestamps:").append(timestampsCount).append(',') //
+				.append("messages:").append(messages).append(',') //
+				.append("error:").append(error) //
+				.append(']').toString();
+	}
+}
@@ -0,0 +1,123 @@
+package org.montrealtransit.android.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.montrealtransit.android.DistanceUtils;
+
+/**
+ * The closest POIs kept up to date while the user is moving.
+ * <p>
+ * The closest POIs query returns more POIs (candidates) than displayed: all the other POIs are farther than the farthest candidate (the ring
+ * radius) from the query location. On each new location, the candidates distances are updated in place and re-ordered with an insertion pass
+ * (the list is almost sorted). The displayed POIs are still the closest POIs as long as the farthest displayed POI is closer than the ring radius
+ * minus the distance moved since the query: else a new query is required.
+ */
+public class NearbyPOIs<T extends POI> {
+
+	/**
+	 * The number of candidates by displayed POI.
+	 */
+	public static final int CANDIDATES_FACTOR = 2;
+
+	/**
+	 * The displayed POIs are still the same, in the same order.
+	 */
+	public static final int SAME = 0;
+
+	/**
+	 * The displayed POIs (or their order) changed: {@link #getDisplayed()}.
+	 */
+	public static final int DISPLAYED_CHANGED = 1;
+
+	/**
+	 * The user left the candidates ring: a new query is required.
+	 */
+	public static final int OUT_OF_RING = 2;
+
+	private int nbDisplayed;
+
+	/**
+	 * The candidates ordered by distance or null.
+	 */
+	private List<T> candidates;
+
+	private double queryLat;
+
+	private double queryLng;
+
+	private float ringRadiusInMeters;
+
+	/**
+	 * @param nbDisplayed the number of displayed POIs
+	 */
+	public NearbyPOIs(int nbDisplayed) {
+		this.nbDisplayed = nbDisplayed;
+	}
+
+	/**
+	 * @return the number of POIs to query
+	 */
+	public int getNbCandidates() {
+		return this.nbDisplayed * CANDIDATES_FACTOR;
+	}
+
+	/**
+	 * @param lat the query latitude
+	 * @param lng the query longitude
+	 * @param candidates the query result: the {@link #getNbCandidates()} closest POIs (or less) ordered by distance
+	 */
+	public void setCandidates(double lat, double lng, List<T> candidates) {
+		this.queryLat = lat;
+		this.queryLng = lng;
+		this.candidates = new ArrayList<T>(candidates);
+		this.ringRadiusInMeters = this.candidates.size() == 0 ? 0 : this.candidates.get(this.candidates.size() - 1).getDistance();
+	}
+
+	/**
+	 * @return the displayed POIs (the closest candidates)
+	 */
+	public List<T> getDisplayed() {
+		if (this.candidates == null) {
+			return null;
+		}
+		return new ArrayList<T>(this.candidates.subList(0, Math.min(this.nbDisplayed, this.candidates.size())));
+	}
+
+	/**
+	 * Update the candidates with the new location.
+	 * @param lat the new latitude
+	 * @param lng the new longitude
+	 * @return {@link #SAME}, {@link #DISPLAYED_CHANGED} or {@link #OUT_OF_RING}
+	 */
+	public int update(double lat, double lng) {
+		if (this.candidates == null) {
+			return OUT_OF_RING;
+		}
+		DistanceUtils.updateDistances(this.candidates, lat, lng);
+		// insertion pass (almost sorted)
+		boolean displayedChanged = false;
+		for (int i = 1; i < this.candidates.size(); i++) {
+			final T candidate = this.candidates.get(i);
+			int j = i;
+			while (j > 0 && POI.POI_DISTANCE_COMPARATOR.compare(this.candidates.get(j - 1), candidate) > 0) {
+				this.candidates.set(j, this.candidates.get(j - 1));
+				j--;
+			}
+			if (j != i) {
+				this.candidates.set(j, candidate);
+				if (j < this.nbDisplayed) {
+					displayedChanged = true;
+				}
+			}
+		}
+		// all the POIs out of the ring are at least (ring radius - distance moved) away
+		final float movedInMeters = DistanceUtils.distance(this.queryLat, this.queryLng, DistanceUtils.cosLat(this.queryLat), lat, lng);
+		final int nbDisplayed = Math.min(this.nbDisplayed, this.candidates.size());
+		final float farthestDisplayedInMeters = nbDisplayed == 0 ? 0 : this.candidates.get(nbDisplayed - 1).getDistance();
+		if (farthestDisplayedInMeters + movedInMeters > this.ringRadiusInMeters) {
+			return OUT_OF_RING;
+		}
+		return displayedChanged ? DISPLAYED_CHANGED : SAME;
+	}
+}
@@ -1,7 +1,6 @@
 package org.montrealtransit.android.data;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
@@ -9,9 +8,12 @@ import java.util.Set;
 
 import org.montrealtransit.android.BikeUtils;
 import org.montrealtransit.android.BusUtils;
+import org.montrealtransit.android.CompassSensor;
+import org.montrealtransit.android.DistanceUtils;
 import org.montrealtransit.android.LocationUtils;
 import org.montrealtransit.android.LocationUtils.LocationTaskCompleted;
 import org.montrealtransit.android.MyLog;
+import org.montrealtransit.android.PrefetchingUtils;
 import org.montrealtransit.android.R;
 import org.montrealtransit.android.SensorUtils;
 import org.montrealtransit.android.SensorUtils.CompassListener;
@@ -31,9 +33,6 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.graphics.Typeface;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.location.Location;
 import android.os.Bundle;
 import android.text.TextUtils;
@@ -54,7 +53,7 @@ import android.widget.ProgressBar;
 import android.widget.ScrollView;
 import android.widget.TextView;
 
-public class POIArrayAdapter extends ArrayAdapter<POI> implements CompassListener, OnItemClickListener, OnItemLongClickListener, SensorEventListener,
+public class POIArrayAdapter extends ArrayAdapter<POI> implements CompassListener, OnItemClickListener, OnItemLongClickListener,
 		OnScrollListener {
 
 	public static final String TAG = POIArrayAdapter.class.getSimpleName();
@@ -77,10 +76,6 @@ public class POIArrayAdapter extends ArrayAdapter<POI> implements CompassListene
 
 	private int lastSuccessfulRefresh = -1;
 
-	private float[] accelerometerValues = new float[3];
-
-	private float[] magneticFieldValues = new float[3];
-
 	private Bundle intentExtras;
 
 	private boolean showData = false;
@@ -91,6 +86,10 @@ public class POIArrayAdapter extends ArrayAdapter<POI> implements CompassListene
 
 	private int scrollState = OnScrollListener.SCROLL_STATE_IDLE;
 
+	private int firstVisibleItem = 0;
+
+	private int visibleItemCount = PrefetchingUtils.PREFETCH_TOP_N;
+
 	private ScrollView manualScrollView;
 
 	private boolean compassUpdatesEnabled = false;
@@ -99,6 +98,26 @@ public class POIArrayAdapter extends ArrayAdapter<POI> implements CompassListene
 
 	private long lastCompassChanged = -1;
 
+	private float compassOrientation;
+
+	private long compassNow;
+
+	/**
+	 * The {@link #updateCompass(float, boolean)} callback (1 instance: no allocation by compass update).
+	 */
+	private final SensorUtils.SensorTaskCompleted compassTaskCompleted = new SensorUtils.SensorTaskCompleted() {
+
+		@Override
+		public void onSensorTaskCompleted(boolean result) {
+			if (result) {
+				POIArrayAdapter.this.lastCompassInDegree = (int) POIArrayAdapter.this.compassOrientation;
+				POIArrayAdapter.this.lastCompassChanged = POIArrayAdapter.this.compassNow;
+				// update the view
+				notifyDataSetChanged(false);
+			}
+		}
+	};
+
 	public POIArrayAdapter(Activity activity) {
 		super(activity, R.layout.loading_small_layout);
 		MyLog.v(TAG, "POIArrayAdapter()");
@@ -395,14 +414,13 @@ public class POIArrayAdapter extends ArrayAdapter<POI> implements CompassListene
 			// MyLog.d(TAG, "updateClosestPoi() > 0 poi!");
 			return;
 		}
-		List<POI> orderedPois = new ArrayList<POI>(this.pois);
-		// order the POIs list by distance (closest first)
-		Collections.sort(orderedPois, POI.POI_DISTANCE_COMPARATOR);
-		if (orderedPois.get(0).getDistance() > 0) {
-			// MyLog.d(TAG, "updateClosestPoi() > found (%s)", orderedPois.get(0).getUID());
-			this.closestPOI = new Pair<Integer, String>(getItemViewType(orderedPois.get(0)), orderedPois.get(0).getUID());
+		// find the closest POI (no copy & sort)
+		final POI closestPoi = DistanceUtils.findClosest(this.pois);
+		if (closestPoi.getDistance() > 0) {
+			// MyLog.d(TAG, "updateClosestPoi() > found (%s)", closestPoi.getUID());
+			this.closestPOI = new Pair<Integer, String>(getItemViewType(closestPoi), closestPoi.getUID());
 		} else {
-			MyLog.d(TAG, "updateClosestPoi() > no distance! (%s)", orderedPois.get(0).getDistance());
+			MyLog.d(TAG, "updateClosestPoi() > no distance! (%s)", closestPoi.getDistance());
 			this.closestPOI = null;
 		}
 	}
@@ -444,29 +462,44 @@ public class POIArrayAdapter extends ArrayAdapter<POI> implements CompassListene
 		return -1;
 	}
 
-	@Deprecated
-	public void prefetchClosests() {
-		// if (this.pois == null) {
-		// return;
-		// }
-		// TODO for (int i = 0; i < this.closestStops.size() && i < 5; i++) {
-		// SupportFactory.get().executeOnExecutor(new LoadNextBusStopIntoCacheTask(getLastActivity(), this.closestStops.get(i), null, true, false),
-		// PrefetchingUtils.getExecutor());
-		// }
+	/**
+	 * Warm the departures cache of the top route trip stops: visible first, then nearest, then favorites.
+	 */
+	public void prefetchDepartures() {
+		if (this.pois == null || this.activity == null) {
+			return;
+		}
+		List<RouteTripStop> routeTripStops = new ArrayList<RouteTripStop>();
+		// 1st - visible
+		final int lastVisibleItem = Math.min(this.firstVisibleItem + this.visibleItemCount, this.pois.size());
+		for (int i = this.firstVisibleItem; i < lastVisibleItem; i++) {
+			addPrefetchRouteTripStop(routeTripStops, this.pois.get(i));
+		}
+		// 2nd - nearest
+		if (routeTripStops.size() < PrefetchingUtils.PREFETCH_TOP_N && this.location != null) {
+			// bounded selection (the visible POIs may be among the nearest)
+			final List<? extends POI> orderedPois = DistanceUtils.findClosest(this.pois, PrefetchingUtils.PREFETCH_TOP_N + routeTripStops.size());
+			for (int i = 0; i < orderedPois.size() && routeTripStops.size() < PrefetchingUtils.PREFETCH_TOP_N; i++) {
+				addPrefetchRouteTripStop(routeTripStops, orderedPois.get(i));
+			}
+		}
+		// 3rd - favorites
+		final Set<String> favStopUIDs = this.typeFavUIDs == null ? null : this.typeFavUIDs.get(POI.ITEM_VIEW_TYPE_STOP);
+		if (favStopUIDs != null) {
+			for (int i = 0; i < this.pois.size() && routeTripStops.size() < PrefetchingUtils.PREFETCH_TOP_N; i++) {
+				final POI poi = this.pois.get(i);
+				if (favStopUIDs.contains(poi.getUID())) {
+					addPrefetchRouteTripStop(routeTripStops, poi);
+				}
+			}
+		}
+		PrefetchingUtils.prefetchDepartures(this.activity, routeTripStops);
 	}
 
-	@Deprecated
-	public void prefetchFavorites() {
-		// if (this.pois == null || this.typeFavUIDs == null) {
-		// return;
-		// }
-		// TODO for (String code : this.favStopCodes) {
-		// RouteTripStop routeTripStop = new RouteTripStop(null, null, null);
-		// routeTripStop.stop.code = code;
-		// routeTripStop.route.shortName = this.busLineNumber;
-		// SupportFactory.get().executeOnExecutor(new LoadNextBusStopIntoCacheTask(getLastActivity(), busStop, null, true, false),
-		// PrefetchingUtils.getExecutor());
-		// }
+	private static void addPrefetchRouteTripStop(List<RouteTripStop> routeTripStops, POI poi) {
+		if (poi instanceof RouteTripStop && !routeTripStops.contains(poi) && routeTripStops.size() < PrefetchingUtils.PREFETCH_TOP_N) {
+			routeTripStops.add((RouteTripStop) poi);
+		}
 	}
 
 	public void setLocationDeclination(float locationDeclination) {
@@ -486,7 +519,7 @@ public class POIArrayAdapter extends ArrayAdapter<POI> implements CompassListene
 					updateClosestPoi();
 					final boolean newClosest = POIArrayAdapter.this.closestPOI == null ? false : POIArrayAdapter.this.closestPOI.equals(previousClosest);
 					notifyDataSetChanged(newClosest);
-					prefetchClosests();
+					prefetchDepartures();
 				}
 			});
 		}
@@ -512,11 +545,24 @@ public class POIArrayAdapter extends ArrayAdapter<POI> implements CompassListene
 
 	@Override
 	public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+		// list view positions include the header views, POI positions don't
+		final int nbHeaders = view instanceof ListView ? ((ListView) view).getHeaderViewsCount() : 0;
+		final int nbVisibleHeaders = Math.min(visibleItemCount, Math.max(0, nbHeaders - firstVisibleItem));
+		this.firstVisibleItem = Math.max(0, firstVisibleItem - nbHeaders);
+		this.visibleItemCount = visibleItemCount - nbVisibleHeaders;
 	}
 
 	public void setScrollState(int scrollState) {
 		// MyLog.v(TAG, "setScrollState(%s)", scrollState);
+		final boolean wasIdle = this.scrollState == OnScrollListener.SCROLL_STATE_IDLE;
 		this.scrollState = scrollState;
+		if (scrollState == OnScrollListener.SCROLL_STATE_IDLE) {
+			if (!wasIdle) {
+				prefetchDepartures(); // new visible POIs
+			}
+		} else if (wasIdle) {
+			PrefetchingUtils.cancelPrefetch();
+		}
 	}
 
 	/**
@@ -640,7 +686,7 @@ public class POIArrayAdapter extends ArrayAdapter<POI> implements CompassListene
 				this.locationDeclination = SensorUtils.getLocationDeclination(this.location);
 				if (!this.compassUpdatesEnabled) {
 					// shake handled on the activity level (1 shake / activity)
-					SensorUtils.registerCompassListener(this.activity, this);
+					CompassSensor.get(this.activity).addListener(this);
 					this.compassUpdatesEnabled = true;
 				}
 				updateDistances(this.location);
@@ -649,8 +695,9 @@ public class POIArrayAdapter extends ArrayAdapter<POI> implements CompassListene
 	}
 
 	public void onPause() {
+		PrefetchingUtils.cancelPrefetch();
 		if (this.compassUpdatesEnabled) {
-			SensorUtils.unregisterSensorListener(this.activity, this);
+			CompassSensor.get(this.activity).removeListener(this);
 			this.compassUpdatesEnabled = false;
 		}
 	}
@@ -658,7 +705,7 @@ public class POIArrayAdapter extends ArrayAdapter<POI> implements CompassListene
 	public void onResume() {
 		if (!this.compassUpdatesEnabled) {
 			// shake handled on the activity level (1 shake / activity)
-			SensorUtils.registerCompassListener(this.activity, this);
+			CompassSensor.get(this.activity).addListener(this);
 			this.compassUpdatesEnabled = true;
 		}
 	}
@@ -673,43 +720,22 @@ public class POIArrayAdapter extends ArrayAdapter<POI> implements CompassListene
 	 * @param orientation the new orientation
 	 */
 	@Override
-	public void updateCompass(final float orientation, boolean force) {
+	public void updateCompass(float orientation, boolean force) {
 		// MyLog.v(TAG, "updateCompass(%s)", orientation);
 		if (this.pois == null) {
 			// MyLog.d(TAG, "updateCompass() > no location or no POI");
 			return;
 		}
-		final long now = System.currentTimeMillis();
-		SensorUtils.updateCompass(force, this.location, orientation, now, this.scrollState, this.lastCompassChanged, this.lastCompassInDegree,
-				new SensorUtils.SensorTaskCompleted() {
-
-					@Override
-					public void onSensorTaskCompleted(boolean result) {
-						if (result) {
-							POIArrayAdapter.this.lastCompassInDegree = (int) orientation;
-							POIArrayAdapter.this.lastCompassChanged = now;
-							// update the view
-							notifyDataSetChanged(false);
-						}
-					}
-				});
+		this.compassOrientation = orientation;
+		this.compassNow = System.currentTimeMillis();
+		SensorUtils.updateCompass(force, this.location, orientation, this.compassNow, this.scrollState, this.lastCompassChanged, this.lastCompassInDegree,
+				this.compassTaskCompleted);
 	}
 
 	public void updateCompassNow() {
 		notifyDataSetChanged(true); // TODO really?
 	}
 
-	@Override
-	public void onSensorChanged(SensorEvent se) {
-		// MyLog.v(TAG, "onSensorChanged()");
-		SensorUtils.checkForCompass(this.activity, se, this.accelerometerValues, this.magneticFieldValues, this);
-	}
-
-	@Override
-	public void onAccuracyChanged(Sensor sensor, int accuracy) {
-		// MyLog.v(TAG, "onAccuracyChanged(%s)", accuracy);
-	}
-
 	private View getBikeView(int position, View convertView, ViewGroup parent) {
 		// MyLog.v(TAG, "getBikeView(%s)", position);
 		if (convertView == null) {
@@ -918,7 +944,7 @@ public class POIArrayAdapter extends ArrayAdapter<POI> implements CompassListene
 		holder.uid = poi.getUID();
 		// // distance
 		if (!TextUtils.isEmpty(poi.getDistanceString())) {
-			if (!poi.getDistanceString().equals(holder.distanceTv.getText())) {
+			if (!poi.getDistanceString().toString().equals(holder.distanceTv.getText())) {
 				holder.distanceTv.setText(poi.getDistanceString());
 			}
 			holder.distanceTv.setVisibility(View.VISIBLE);
@@ -1007,7 +1033,7 @@ public class POIArrayAdapter extends ArrayAdapter<POI> implements CompassListene
 		// trigger change if necessary
 		if (newFav) {
 			notifyDataSetChanged(true);
-			prefetchFavorites();
+			prefetchDepartures();
 		}
 	}
 
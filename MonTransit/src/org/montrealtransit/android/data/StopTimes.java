@@ -7,9 +7,6 @@ import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.montrealtransit.android.MyLog;
 import org.montrealtransit.android.Utils;
 
@@ -55,6 +52,11 @@ public class StopTimes {
 
 	private boolean realtime;
 
+	/**
+	 * The time-stamp of the next departure or -1 if unknown.
+	 */
+	private long nextTimestamp = -1L;
+
 	/**
 	 * The private constructor.
 	 */
@@ -310,48 +312,48 @@ public class StopTimes {
 		return realtime;
 	}
 
+	/**
+	 * @return the time-stamp of the next departure or -1 if unknown
+	 */
+	public long getNextTimestamp() {
+		return nextTimestamp;
+	}
+
 	// NOT THREAD SAFE
 	public static final SimpleDateFormat OUTPUT_FORMAT = new SimpleDateFormat("HH'h'mm");
 
 	public static StopTimes parseJSON(String json) {
+		return fromDepartures(Departures.parseJSON(json));
+	}
+
+	/**
+	 * @param departures the departures returned by the schedule provider
+	 * @return the stop times (formatted, previous time set)
+	 */
+	public static StopTimes fromDepartures(Departures departures) {
 		StopTimes stopTimes = new StopTimes();
-		try {
-			JSONObject jStopTimes = new JSONObject(json);
-			stopTimes.setSourceName(jStopTimes.getString("source"));
-			stopTimes.setRealtime(jStopTimes.getBoolean("realtime"));
-			JSONArray jTimestamps = jStopTimes.getJSONArray("timestamps");
-			long now = Utils.currentTimeToTheMinuteMillis();
-			for (int i = 0; i < jTimestamps.length(); i++) {
-				Long jTimestamp = jTimestamps.getLong(i);
-				if (jTimestamp != null) {
-					final String formattedTime = OUTPUT_FORMAT.format(new Date(jTimestamp));
-					if (jTimestamp.longValue() < now) {
-						stopTimes.setPreviousTime(formattedTime);
-					} else {
-						stopTimes.addSTime(formattedTime);
-					}
+		stopTimes.setSourceName(departures.getSourceName());
+		stopTimes.setRealtime(departures.isRealtime());
+		long now = Utils.currentTimeToTheMinuteMillis();
+		for (int i = 0; i < departures.getTimestampsCount(); i++) {
+			final long timestamp = departures.getTimestamp(i);
+			final String formattedTime = OUTPUT_FORMAT.format(new Date(timestamp));
+			if (timestamp < now) {
+				stopTimes.setPreviousTime(formattedTime);
+			} else {
+				if (stopTimes.nextTimestamp < 0) {
+					stopTimes.nextTimestamp = timestamp;
 				}
+				stopTimes.addSTime(formattedTime);
 			}
-			// if (jStopTimes.has("error")) {
-			stopTimes.setError(jStopTimes.optString("error"));
-			// }
-			JSONArray jMessages = jStopTimes.optJSONArray("messages");
-			if (jMessages != null) {
-				// for (int i = 0; i < jMessages.length(); i++) {
-				// String jMessage = jMessages.getString(i);
-				// if (!TextUtils.isEmpty(jMessage)) {
-				// stopTimes.addMessageString(jMessage);
-				// }
-				// }
-				if (jMessages.length() > 0) {
-					stopTimes.addMessageString(jMessages.getString(0));
-					if (jMessages.length() > 1) {
-						stopTimes.addMessage2String(jMessages.getString(1));
-					}
-				}
+		}
+		stopTimes.setError(departures.getError());
+		final List<String> messages = departures.getMessages();
+		if (messages.size() > 0) {
+			stopTimes.addMessageString(messages.get(0));
+			if (messages.size() > 1) {
+				stopTimes.addMessage2String(messages.get(1));
 			}
-		} catch (JSONException jsone) {
-			MyLog.w(TAG, jsone, "Error while parsing JSON '%s'", json);
 		}
 		return stopTimes;
 	}
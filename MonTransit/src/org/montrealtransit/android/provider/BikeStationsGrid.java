@@ -0,0 +1,159 @@
+package org.montrealtransit.android.provider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.montrealtransit.android.provider.BixiStore.BikeStation;
+
+/**
+ * In-memory spatial index (uniform grid) of the bike stations for k-nearest queries.
+ * <p>
+ * The index is immutable: it's rebuilt from the database after each bike stations update.
+ */
+class BikeStationsGrid {
+
+	/**
+	 * The cell size in degrees (about 1.1 km of latitude, 0.8 km of longitude in Montreal).
+	 */
+	private static final double CELL_SIZE_IN_DEGREES = 0.01;
+
+	/**
+	 * Meters by degree of latitude.
+	 */
+	private static final double METERS_PER_DEGREE = 6371009.0 * Math.PI / 180.0;
+
+	private final BikeStation[] bikeStations;
+
+	private final double[] lats;
+
+	private final double[] lngs;
+
+	/**
+	 * The bike stations indexes by cell key.
+	 */
+	private final Map<Long, int[]> cells = new HashMap<Long, int[]>();
+
+	private int minCellLat = Integer.MAX_VALUE;
+	private int maxCellLat = Integer.MIN_VALUE;
+	private int minCellLng = Integer.MAX_VALUE;
+	private int maxCellLng = Integer.MIN_VALUE;
+
+	/**
+	 * @param bikeStations all the bike stations
+	 */
+	public BikeStationsGrid(List<BikeStation> bikeStations) {
+		final int size = bikeStations.size();
+		this.bikeStations = bikeStations.toArray(new BikeStation[size]);
+		this.lats = new double[size];
+		this.lngs = new double[size];
+		Map<Long, List<Integer>> cellLists = new HashMap<Long, List<Integer>>();
+		for (int i = 0; i < size; i++) {
+			this.lats[i] = this.bikeStations[i].getLat();
+			this.lngs[i] = this.bikeStations[i].getLng();
+			final int cellLat = getCell(this.lats[i]);
+			final int cellLng = getCell(this.lngs[i]);
+			this.minCellLat = Math.min(this.minCellLat, cellLat);
+			this.maxCellLat = Math.max(this.maxCellLat, cellLat);
+			this.minCellLng = Math.min(this.minCellLng, cellLng);
+			this.maxCellLng = Math.max(this.maxCellLng, cellLng);
+			final Long key = getCellKey(cellLat, cellLng);
+			List<Integer> cellList = cellLists.get(key);
+			if (cellList == null) {
+				cellList = new ArrayList<Integer>();
+				cellLists.put(key, cellList);
+			}
+			cellList.add(i);
+		}
+		for (Map.Entry<Long, List<Integer>> cellList : cellLists.entrySet()) {
+			int[] cell = new int[cellList.getValue().size()];
+			for (int i = 0; i < cell.length; i++) {
+				cell[i] = cellList.getValue().get(i);
+			}
+			this.cells.put(cellList.getKey(), cell);
+		}
+	}
+
+	/**
+	 * @return the number of bike stations
+	 */
+	public int size() {
+		return this.bikeStations.length;
+	}
+
+	/**
+	 * @param lat the latitude
+	 * @param lng the longitude
+	 * @param k the maximum number of bike stations (0 for all)
+	 * @return the k closest bike stations, ordered by distance
+	 */
+	public List<BikeStation> findClosest(double lat, double lng, int k) {
+		final int size = this.bikeStations.length;
+		if (k <= 0 || k > size) {
+			k = size;
+		}
+		List<BikeStation> result = new ArrayList<BikeStation>(k);
+		if (k == 0) {
+			return result;
+		}
+		// equirectangular approximation (valid at the city scale), only used to order the bike stations
+		final double cosLat = Math.cos(Math.toRadians(lat));
+		final double cellMinSizeInMeters = CELL_SIZE_IN_DEGREES * METERS_PER_DEGREE * Math.min(1.0, cosLat);
+		final int cellLat = getCell(lat);
+		final int cellLng = getCell(lng);
+		final int maxRing = Math.max(Math.max(Math.abs(cellLat - this.minCellLat), Math.abs(cellLat - this.maxCellLat)),
+				Math.max(Math.abs(cellLng - this.minCellLng), Math.abs(cellLng - this.maxCellLng)));
+		// candidates: (squared distance float bits << 32) | index, sortable as long (positive floats bits keep the order)
+		long[] candidates = new long[Math.min(size, 64)];
+		int nbCandidates = 0;
+		float kthDistanceInMeters = Float.MAX_VALUE;
+		for (int ring = 0; ring <= maxRing; ring++) {
+			for (int dLat = -ring; dLat <= ring; dLat++) {
+				final boolean edgeRow = dLat == -ring || dLat == ring;
+				for (int dLng = -ring; dLng <= ring; dLng += (edgeRow ? 1 : 2 * ring)) {
+					final int[] cell = this.cells.get(getCellKey(cellLat + dLat, cellLng + dLng));
+					if (cell != null) {
+						for (int index : cell) {
+							final double dy = (this.lats[index] - lat) * METERS_PER_DEGREE;
+							final double dx = (this.lngs[index] - lng) * METERS_PER_DEGREE * cosLat;
+							if (nbCandidates == candidates.length) {
+								long[] newCandidates = new long[Math.min(size, candidates.length * 2)];
+								System.arraycopy(candidates, 0, newCandidates, 0, nbCandidates);
+								candidates = newCandidates;
+							}
+							candidates[nbCandidates++] = ((long) Float.floatToIntBits((float) (dx * dx + dy * dy)) << 32) | index;
+						}
+					}
+					if (ring == 0) {
+						break; // only 1 cell
+					}
+				}
+			}
+			if (nbCandidates >= k) {
+				Arrays.sort(candidates, 0, nbCandidates);
+				kthDistanceInMeters = (float) Math.sqrt(Float.intBitsToFloat((int) (candidates[k - 1] >>> 32)));
+				// the cells of the next rings are at least ring x cell size away
+				if (kthDistanceInMeters <= ring * cellMinSizeInMeters) {
+					break;
+				}
+			}
+		}
+		if (kthDistanceInMeters == Float.MAX_VALUE) {
+			Arrays.sort(candidates, 0, nbCandidates);
+		}
+		for (int i = 0; i < k && i < nbCandidates; i++) {
+			result.add(this.bikeStations[(int) (candidates[i] & 0xffffffffL)]);
+		}
+		return result;
+	}
+
+	private static int getCell(double coordinate) {
+		return (int) Math.floor(coordinate / CELL_SIZE_IN_DEGREES);
+	}
+
+	private static Long getCellKey(int cellLat, int cellLng) {
+		return Long.valueOf(((long) cellLat << 32) | (cellLng & 0xffffffffL));
+	}
+}
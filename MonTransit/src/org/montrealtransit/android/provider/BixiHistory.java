@@ -0,0 +1,302 @@
+package org.montrealtransit.android.provider;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.montrealtransit.android.MyLog;
+import org.montrealtransit.android.Utils;
+import org.montrealtransit.android.provider.BixiStore.BikeStation;
+
+import android.content.Context;
+
+/**
+ * Recent availability history (timestamp, bikes, empty docks) of each bike station.
+ * <p>
+ * Each bike station keeps its last {@link #MAX_SAMPLES} samples in a ring buffer of primitive arrays and the history is saved in a binary file
+ * ({@link #FILE_NAME}): the memory and file sizes are bounded by the number of bike stations.
+ */
+public class BixiHistory {
+
+	/**
+	 * The log tag.
+	 */
+	private static final String TAG = BixiHistory.class.getSimpleName();
+
+	/**
+	 * The history file name (application private files).
+	 */
+	private static final String FILE_NAME = "bixi_history.bin";
+
+	/**
+	 * The history file format.
+	 */
+	private static final int FILE_MAGIC = 0x42584831; // BXH1
+
+	/**
+	 * The maximum number of samples by bike station.
+	 */
+	public static final int MAX_SAMPLES = 48;
+
+	/**
+	 * The samples older than this are dropped.
+	 */
+	private static final int MAX_AGE_IN_SEC = 24 * 60 * 60;
+
+	/**
+	 * The samples used to compute the rates.
+	 */
+	private static final int RATE_WINDOW_IN_SEC = 60 * 60;
+
+	/**
+	 * The minimum time between the first and the last sample used to compute the rates.
+	 */
+	private static final int RATE_MIN_SPAN_IN_SEC = 10 * 60;
+
+	/**
+	 * The history or null if not loaded yet.
+	 */
+	private static BixiHistory instance;
+
+	/**
+	 * The samples by terminal name.
+	 */
+	private Map<String, Samples> samples = new HashMap<String, Samples>();
+
+	private File file;
+
+	private BixiHistory(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return the history or null if not loaded yet
+	 */
+	public static synchronized BixiHistory get() {
+		return instance;
+	}
+
+	/**
+	 * Load the history from the file if necessary (NOT from the UI thread).
+	 * @param context the context
+	 * @return the history
+	 */
+	public static synchronized BixiHistory get(Context context) {
+		if (instance == null) {
+			instance = new BixiHistory(context.getFileStreamPath(FILE_NAME));
+			instance.load();
+		}
+		return instance;
+	}
+
+	/**
+	 * Add the new samples and save the history (NOT from the UI thread).
+	 * @param bikeStations all the bike stations (the other bike stations history is dropped)
+	 */
+	public synchronized void record(List<BikeStation> bikeStations) {
+		MyLog.v(TAG, "record(%s)", Utils.getCollectionSize(bikeStations));
+		if (Utils.getCollectionSize(bikeStations) == 0) {
+			return;
+		}
+		Map<String, Samples> newSamples = new HashMap<String, Samples>();
+		int added = 0;
+		for (BikeStation bikeStation : bikeStations) {
+			Samples stationSamples = this.samples.get(bikeStation.getTerminalName());
+			if (stationSamples == null) {
+				stationSamples = new Samples();
+			}
+			if (stationSamples.add(bikeStation.getLatestUpdateTime(), bikeStation.getNbBikes(), bikeStation.getNbEmptyDocks())) {
+				added++;
+			}
+			newSamples.put(bikeStation.getTerminalName(), stationSamples);
+		}
+		this.samples = newSamples;
+		MyLog.d(TAG, "%s new samples.", added);
+		if (added > 0) {
+			save();
+		}
+	}
+
+	/**
+	 * @param terminalName the bike station terminal name
+	 * @return the number of samples
+	 */
+	public synchronized int getSize(String terminalName) {
+		final Samples stationSamples = this.samples.get(terminalName);
+		return stationSamples == null ? 0 : stationSamples.size;
+	}
+
+	/**
+	 * @param terminalName the bike station terminal name
+	 * @return the bikes change rate in bikes by hour (positive if filling, negative if draining) or {@link Float#NaN} if not enough recent samples
+	 */
+	public synchronized float getBikesRatePerHour(String terminalName) {
+		final Samples stationSamples = this.samples.get(terminalName);
+		return stationSamples == null ? Float.NaN : stationSamples.getBikesRatePerHour();
+	}
+
+	private void load() {
+		MyLog.v(TAG, "load()");
+		if (!this.file.exists()) {
+			return;
+		}
+		final int oldest = Utils.currentTimeSec() - MAX_AGE_IN_SEC;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file), 8192));
+			if (in.readInt() != FILE_MAGIC) {
+				MyLog.d(TAG, "Unknown history file format!");
+				return;
+			}
+			final int nbStations = in.readInt();
+			for (int i = 0; i < nbStations; i++) {
+				final String terminalName = in.readUTF();
+				final int nbSamples = in.readUnsignedByte();
+				Samples stationSamples = new Samples();
+				for (int j = 0; j < nbSamples; j++) {
+					final int timestamp = in.readInt();
+					final short nbBikes = in.readShort();
+					final short nbEmptyDocks = in.readShort();
+					if (timestamp >= oldest) {
+						stationSamples.add(timestamp, nbBikes, nbEmptyDocks);
+					}
+				}
+				if (stationSamples.size > 0) {
+					this.samples.put(terminalName, stationSamples);
+				}
+			}
+			MyLog.d(TAG, "History loaded (%s bike stations).", this.samples.size());
+		} catch (IOException ioe) {
+			MyLog.w(TAG, ioe, "Error while loading the history!");
+			this.samples.clear();
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException ioe) {
+					MyLog.d(TAG, "Error while closing the history file!");
+				}
+			}
+		}
+	}
+
+	private void save() {
+		// write a temporary file first to never leave a partial history file
+		final File tmpFile = new File(this.file.getPath() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 8192));
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(this.samples.size());
+			for (Map.Entry<String, Samples> stationSamples : this.samples.entrySet()) {
+				out.writeUTF(stationSamples.getKey());
+				stationSamples.getValue().write(out);
+			}
+			out.close();
+			out = null;
+			if (!tmpFile.renameTo(this.file)) {
+				MyLog.w(TAG, "Error while renaming the history file!");
+			}
+		} catch (IOException ioe) {
+			MyLog.w(TAG, ioe, "Error while saving the history!");
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException ioe) {
+					MyLog.d(TAG, "Error while closing the history file!");
+				}
+			}
+		}
+	}
+
+	/**
+	 * The ring buffer of 1 bike station samples (oldest sample at {@link #start}).
+	 */
+	private static class Samples {
+
+		private int[] timestamps = new int[MAX_SAMPLES];
+		private short[] nbBikes = new short[MAX_SAMPLES];
+		private short[] nbEmptyDocks = new short[MAX_SAMPLES];
+
+		private int start = 0;
+		private int size = 0;
+
+		/**
+		 * @return true if the sample was added (new timestamp)
+		 */
+		public boolean add(int timestamp, int bikes, int emptyDocks) {
+			if (this.size > 0 && timestamp <= this.timestamps[index(this.size - 1)]) {
+				return false; // not updated since the last sample
+			}
+			final int index;
+			if (this.size < MAX_SAMPLES) {
+				index = index(this.size);
+				this.size++;
+			} else { // overwrite the oldest sample
+				index = this.start;
+				this.start = index(1);
+			}
+			this.timestamps[index] = timestamp;
+			this.nbBikes[index] = (short) bikes;
+			this.nbEmptyDocks[index] = (short) emptyDocks;
+			return true;
+		}
+
+		/**
+		 * @return the least squares slope of the number of bikes over the last {@link BixiHistory#RATE_WINDOW_IN_SEC} (bikes/hour)
+		 */
+		public float getBikesRatePerHour() {
+			if (this.size < 2) {
+				return Float.NaN;
+			}
+			final int last = this.timestamps[index(this.size - 1)];
+			// relative time (in hours) to keep the sums small
+			double sumT = 0, sumB = 0, sumTT = 0, sumTB = 0;
+			int n = 0;
+			int first = last;
+			for (int i = this.size - 1; i >= 0; i--) {
+				final int index = index(i);
+				if (last - this.timestamps[index] > RATE_WINDOW_IN_SEC) {
+					break;
+				}
+				first = this.timestamps[index];
+				final double t = (this.timestamps[index] - last) / 3600.0;
+				sumT += t;
+				sumB += this.nbBikes[index];
+				sumTT += t * t;
+				sumTB += t * this.nbBikes[index];
+				n++;
+			}
+			if (n < 2 || last - first < RATE_MIN_SPAN_IN_SEC) {
+				return Float.NaN;
+			}
+			return (float) ((n * sumTB - sumT * sumB) / (n * sumTT - sumT * sumT));
+		}
+
+		/**
+		 * Write the samples (oldest first).
+		 */
+		public void write(DataOutputStream out) throws IOException {
+			out.writeByte(this.size);
+			for (int i = 0; i < this.size; i++) {
+				final int index = index(i);
+				out.writeInt(this.timestamps[index]);
+				out.writeShort(this.nbBikes[index]);
+				out.writeShort(this.nbEmptyDocks[index]);
+			}
+		}
+
+		private int index(int i) {
+			return (this.start + i) % MAX_SAMPLES;
+		}
+	}
+}
@@ -2,10 +2,13 @@ package org.montrealtransit.android.provider;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.montrealtransit.android.MyLog;
+import org.montrealtransit.android.data.ABikeStation;
 import org.montrealtransit.android.provider.BixiStore.BikeStation;
 
 import android.content.ContentResolver;
@@ -95,6 +98,73 @@ public class BixiManager {
 		return contentResolver.bulkInsert(BixiStore.BikeStation.CONTENT_URI, bulkInsertValues.toArray(new ContentValues[] {}));
 	}
 
+	/**
+	 * Insert the new bike stations entries and update the changed ones (in 1 transaction).
+	 * @param contentResolver the content resolver
+	 * @param newBikeStations the new bike stations entries (all or some bike stations)
+	 * @return the number of bike stations entries inserted or updated
+	 */
+	public static int upsertBikeStations(ContentResolver contentResolver, List<BikeStation> newBikeStations) {
+		MyLog.v(TAG, "upsertBikeStations(%s)", newBikeStations.size());
+		ContentValues[] bulkValues = new ContentValues[newBikeStations.size()];
+		for (int i = 0; i < bulkValues.length; i++) {
+			bulkValues[i] = newBikeStations.get(i).getContentValues();
+		}
+		return contentResolver.bulkInsert(BixiStore.BikeStation.CONTENT_URI_SYNC, bulkValues);
+	}
+
+	/**
+	 * Delete the bike stations entries not in the kept bike stations.
+	 * <p>
+	 * 1 transaction ("NOT IN" selection) or, if too many kept bike stations for 1 selection, 1 transaction by chunk of removed bike stations ("IN"
+	 * selection).
+	 * @param contentResolver the content resolver
+	 * @param keptTerminalNames the terminal names of the bike stations to keep
+	 * @return the number of bike stations entries deleted
+	 */
+	public static int deleteOtherBikeStations(ContentResolver contentResolver, String[] keptTerminalNames) {
+		MyLog.v(TAG, "deleteOtherBikeStations(%s)", keptTerminalNames.length);
+		if (keptTerminalNames.length <= BixiProvider.MAX_SELECTION_ARGS) {
+			return contentResolver.delete(BixiStore.BikeStation.CONTENT_URI_SYNC, getTerminalNamesSelection(true, keptTerminalNames.length),
+					keptTerminalNames);
+		}
+		// too many kept bike stations for 1 selection: find the removed bike stations
+		Set<String> kept = new HashSet<String>();
+		for (String keptTerminalName : keptTerminalNames) {
+			kept.add(keptTerminalName);
+		}
+		List<String> removedTerminalNames = new ArrayList<String>();
+		final List<BikeStation> bikeStations = findAllBikeStationsList(contentResolver, true);
+		if (bikeStations != null) {
+			for (BikeStation bikeStation : bikeStations) {
+				if (!kept.contains(bikeStation.getTerminalName())) {
+					removedTerminalNames.add(bikeStation.getTerminalName());
+				}
+			}
+		}
+		int deleted = 0;
+		for (int chunkStart = 0; chunkStart < removedTerminalNames.size(); chunkStart += BixiProvider.MAX_SELECTION_ARGS) {
+			final List<String> chunk = removedTerminalNames.subList(chunkStart,
+					Math.min(chunkStart + BixiProvider.MAX_SELECTION_ARGS, removedTerminalNames.size()));
+			deleted += contentResolver.delete(BixiStore.BikeStation.CONTENT_URI_SYNC, getTerminalNamesSelection(false, chunk.size()),
+					chunk.toArray(new String[chunk.size()]));
+		}
+		return deleted;
+	}
+
+	/**
+	 * @param not true for a "NOT IN" selection
+	 * @param count the number of terminal names (selection arguments)
+	 * @return the terminal names selection ("terminal_name [NOT] IN (?,?,...)")
+	 */
+	private static String getTerminalNamesSelection(boolean not, int count) {
+		StringBuilder selection = new StringBuilder(BixiStore.BikeStation.TERMINAL_NAME).append(not ? " NOT IN (" : " IN (");
+		for (int i = 0; i < count; i++) {
+			selection.append(i == 0 ? "?" : ",?");
+		}
+		return selection.append(')').toString();
+	}
+
 	/**
 	 * @param contentResolver the content resolver
 	 * @param uri the bike station entry URI
@@ -304,4 +374,37 @@ public class BixiManager {
 		}
 		return result;
 	}
+
+	/**
+	 * Find the closest bike stations using the provider spatial index (no table scan).
+	 * @param contentResolver content resolver
+	 * @param lat the latitude
+	 * @param lng the longitude
+	 * @param maxResult the maximum number of bike stations (0 for all)
+	 * @return the closest bike stations (with distance) ordered by distance or null
+	 */
+	public static List<ABikeStation> findClosestBikeStationsList(ContentResolver contentResolver, double lat, double lng, int maxResult) {
+		MyLog.v(TAG, "findClosestBikeStationsList(%s)", maxResult);
+		List<ABikeStation> result = null;
+		Cursor cursor = null;
+		try {
+			cursor = contentResolver.query(Uri.withAppendedPath(BixiStore.BikeStation.CONTENT_URI_CLOSEST, lat + "+" + lng + "+" + maxResult), null, null,
+					null, null);
+			if (cursor != null && cursor.getCount() > 0) {
+				if (cursor.moveToFirst()) {
+					result = new ArrayList<ABikeStation>();
+					final int distanceIdx = cursor.getColumnIndexOrThrow(BixiStore.BikeStation.DISTANCE);
+					do {
+						ABikeStation aBikeStation = new ABikeStation(BixiStore.BikeStation.fromCursor(cursor));
+						aBikeStation.setDistance(cursor.getFloat(distanceIdx));
+						result.add(aBikeStation);
+					} while (cursor.moveToNext());
+				}
+			}
+		} finally {
+			if (cursor != null)
+				cursor.close();
+		}
+		return result;
+	}
 }
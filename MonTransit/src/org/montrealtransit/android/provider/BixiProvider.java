@@ -1,6 +1,10 @@
 package org.montrealtransit.android.provider;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.montrealtransit.android.Constant;
 import org.montrealtransit.android.LocationUtils;
@@ -12,6 +16,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
@@ -35,6 +40,18 @@ public class BixiProvider extends ContentProvider {
 	private static final int BIKE_STATION_IDS = 3;
 	@Deprecated
 	private static final int BIKE_STATION_LOC_LAT_LNG = 4;
+	private static final int BIKE_STATION_SYNC = 5;
+	private static final int BIKE_STATION_CLOSEST = 6;
+
+	/**
+	 * Above this number of changed bike stations, the whole table is notified once instead of each bike station.
+	 */
+	private static final int MAX_CHANGE_NOTIFICATIONS = 25;
+
+	/**
+	 * The maximum number of arguments in a selection (SQLite limit: 999).
+	 */
+	static final int MAX_SELECTION_ARGS = 500;
 
 	/**
 	 * The URI matcher filter the content URI calls.
@@ -46,6 +63,8 @@ public class BixiProvider extends ContentProvider {
 		URI_MATCHER.addURI(AUTHORITY, "bikestations/#", BIKE_STATION_ID);
 		URI_MATCHER.addURI(AUTHORITY, "bikestations/*", BIKE_STATION_IDS);
 		URI_MATCHER.addURI(AUTHORITY, "bikestationsloc/*", BIKE_STATION_LOC_LAT_LNG);
+		URI_MATCHER.addURI(AUTHORITY, "bikestationssync", BIKE_STATION_SYNC);
+		URI_MATCHER.addURI(AUTHORITY, "bikestationsclosest/*", BIKE_STATION_CLOSEST);
 	}
 
 	/**
@@ -56,6 +75,19 @@ public class BixiProvider extends ContentProvider {
 	 * Stored the current DB version.
 	 */
 	private static int currentDbVersion = 0;
+	/**
+	 * The bike stations spatial index or null (reset after each bike stations update).
+	 */
+	private static BikeStationsGrid grid;
+
+	/**
+	 * The columns of the closest bike stations cursor.
+	 */
+	private static final String[] CLOSEST_COLUMNS = new String[] { BixiStore.BikeStation.ID, BixiStore.BikeStation.NAME,
+			BixiStore.BikeStation.TERMINAL_NAME, BixiStore.BikeStation.LAT, BixiStore.BikeStation.LNG, BixiStore.BikeStation.INSTALLED,
+			BixiStore.BikeStation.LOCKED, BixiStore.BikeStation.INSTALL_DATE, BixiStore.BikeStation.REMOVAL_DATE,
+			BixiStore.BikeStation.LAST_COMM_WITH_SERVER, BixiStore.BikeStation.TEMPORARY, BixiStore.BikeStation.PUBLIC, BixiStore.BikeStation.NB_BIKES,
+			BixiStore.BikeStation.NB_EMPTY_DOCKS, BixiStore.BikeStation.LATEST_UPDATE_TIME, BixiStore.BikeStation.DISTANCE };
 
 	@Override
 	public boolean onCreate() {
@@ -89,6 +121,11 @@ public class BixiProvider extends ContentProvider {
 	@Override
 	public synchronized Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
 		MyLog.v(TAG, "query(%s, %s, %s, %s, %s)", uri.getPath(), Arrays.toString(projection), selection, Arrays.toString(selectionArgs), sortOrder);
+		if (URI_MATCHER.match(uri) == BIKE_STATION_CLOSEST) {
+			MyLog.d(TAG, "BIKE_STATION_CLOSEST");
+			String[] latLngK = uri.getPathSegments().get(1).split("\\+");
+			return findClosestBikeStations(Double.parseDouble(latLngK[0]), Double.parseDouble(latLngK[1]), Integer.parseInt(latLngK[2]));
+		}
 		SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
 		MyLog.i(TAG, "[%s]", uri);
 		switch (URI_MATCHER.match(uri)) {
@@ -143,7 +180,12 @@ public class BixiProvider extends ContentProvider {
 		SQLiteDatabase db = getDBHelper(getContext()).getReadableDatabase();
 		Cursor cursor = qb.query(db, projection, selection, selectionArgs, null, null, orderBy);
 		if (cursor != null) {
-			cursor.setNotificationUri(getContext().getContentResolver(), uri);
+			if (URI_MATCHER.match(uri) == BIKE_STATION_ID) {
+				cursor.setNotificationUri(getContext().getContentResolver(), uri);
+			} else {
+				// many bike stations: notified by any bike station URI change (descendant URIs)
+				cursor.setNotificationUri(getContext().getContentResolver(), BixiStore.BikeStation.CONTENT_URI);
+			}
 		}
 		return cursor;
 	}
@@ -155,6 +197,8 @@ public class BixiProvider extends ContentProvider {
 		case BIKE_STATION:
 		case BIKE_STATION_IDS:
 		case BIKE_STATION_LOC_LAT_LNG:
+		case BIKE_STATION_SYNC:
+		case BIKE_STATION_CLOSEST:
 			return BixiStore.BikeStation.CONTENT_TYPE;
 		case BIKE_STATION_ID:
 			return BixiStore.BikeStation.CONTENT_ITEM_TYPE;
@@ -182,6 +226,7 @@ public class BixiProvider extends ContentProvider {
 		if (insertUri == null) {
 			throw new SQLException("Failed to insert row into " + uri);
 		} else {
+			grid = null;
 			getContext().getContentResolver().notifyChange(insertUri, null);
 			return insertUri;
 		}
@@ -192,6 +237,9 @@ public class BixiProvider extends ContentProvider {
 		MyLog.v(TAG, "bulkInsert(%s)", values.length);
 		int count = 0;
 		switch (URI_MATCHER.match(uri)) {
+		case BIKE_STATION_SYNC:
+			MyLog.d(TAG, "UPSERT>BIKE_STATION");
+			return upsertBikeStations(values);
 		case BIKE_STATION:
 			MyLog.d(TAG, "INSERT_BULK>BIKE_STATION");
 			SQLiteDatabase db = null;
@@ -223,13 +271,260 @@ public class BixiProvider extends ContentProvider {
 		default:
 			throw new IllegalArgumentException("Unknown URI (delete): " + uri);
 		}
+		grid = null;
 		getContext().getContentResolver().notifyChange(uri, null);
 		return count;
 	}
 
+	/**
+	 * Insert the new bike stations and update the changed columns (usually the number of bikes & empty docks) of the existing bike stations (matched
+	 * by terminal name) in 1 transaction.
+	 * <p>
+	 * Only the changed bike stations URIs are notified.
+	 * @param values the new bike stations (all or a batch)
+	 * @return the number of rows written (inserted or updated)
+	 */
+	private int upsertBikeStations(ContentValues[] values) {
+		final long startInMs = System.currentTimeMillis();
+		int inserted = 0;
+		int updated = 0;
+		int updatedColumns = 0;
+		List<String> changedTerminalNames = new ArrayList<String>();
+		boolean success = false;
+		SQLiteDatabase db = null;
+		try {
+			db = getDBHelper(getContext()).getWritableDatabase();
+			db.beginTransaction(); // start the transaction
+			// load the current bike stations
+			String[] terminalNames = new String[values.length];
+			for (int i = 0; i < values.length; i++) {
+				terminalNames[i] = values[i].getAsString(BixiDbHelper.T_BIKE_STATIONS_K_TERMINAL_NAME);
+			}
+			Map<String, BixiStore.BikeStation> currentBikeStations = findBikeStations(db, terminalNames);
+			for (ContentValues value : values) {
+				final String terminalName = value.getAsString(BixiDbHelper.T_BIKE_STATIONS_K_TERMINAL_NAME);
+				final BixiStore.BikeStation currentBikeStation = currentBikeStations.remove(terminalName);
+				if (currentBikeStation == null) {
+					if (db.insert(BixiDbHelper.T_BIKE_STATIONS, BixiDbHelper.T_BIKE_STATIONS_K_ID, value) > 0) {
+						inserted++;
+						changedTerminalNames.add(terminalName);
+					}
+					continue;
+				}
+				// only write the changed columns
+				final ContentValues currentValue = currentBikeStation.getContentValues();
+				final ContentValues changedValue = new ContentValues();
+				for (Map.Entry<String, Object> column : value.valueSet()) {
+					final Object currentColumnValue = currentValue.get(column.getKey());
+					if (column.getValue() == null ? currentColumnValue != null : !column.getValue().equals(currentColumnValue)) {
+						putValue(changedValue, column.getKey(), column.getValue());
+					}
+				}
+				if (changedValue.size() == 0) {
+					continue; // unchanged
+				}
+				if (db.update(BixiDbHelper.T_BIKE_STATIONS, changedValue, BixiDbHelper.T_BIKE_STATIONS_K_ID + "=" + currentBikeStation.getId(), null) > 0) {
+					updated++;
+					updatedColumns += changedValue.size();
+					changedTerminalNames.add(terminalName);
+				}
+			}
+			db.setTransactionSuccessful();// mark the transaction as successful
+			success = true;
+			MyLog.d(TAG, "upsert successful in %s ms! (%s stations: %s inserts, %s updates (%s columns), %s unchanged)", System.currentTimeMillis()
+					- startInMs, values.length, inserted, updated, updatedColumns, values.length - inserted - updated);
+		} catch (Exception e) {
+			MyLog.w(TAG, e, "ERROR while updating the bike stations!");
+		} finally {
+			try {
+				if (db != null) {
+					db.endTransaction(); // end the transaction (the database stays open for the next batch)
+				}
+			} catch (Exception e) {
+				MyLog.w(TAG, e, "ERROR while ending the transaction!");
+			}
+		}
+		if (!success) {
+			return 0; // rolled back
+		}
+		notifyBikeStationsChange(changedTerminalNames);
+		return inserted + updated;
+	}
+
+	/**
+	 * Delete the bike stations matching the selection in 1 transaction.
+	 * <p>
+	 * Only the deleted bike stations URIs are notified.
+	 * @param selection the selection (bike stations to delete)
+	 * @param selectionArgs the selection arguments
+	 * @return the number of rows deleted
+	 */
+	private int deleteBikeStations(String selection, String[] selectionArgs) {
+		int deleted = 0;
+		List<String> deletedTerminalNames = new ArrayList<String>();
+		boolean success = false;
+		SQLiteDatabase db = null;
+		try {
+			db = getDBHelper(getContext()).getWritableDatabase();
+			db.beginTransaction(); // start the transaction
+			Cursor cursor = null;
+			try {
+				cursor = db.query(BixiDbHelper.T_BIKE_STATIONS, new String[] { BixiDbHelper.T_BIKE_STATIONS_K_ID, BixiDbHelper.T_BIKE_STATIONS_K_TERMINAL_NAME },
+						selection, selectionArgs, null, null, null);
+				if (cursor != null && cursor.moveToFirst()) {
+					do {
+						if (db.delete(BixiDbHelper.T_BIKE_STATIONS, BixiDbHelper.T_BIKE_STATIONS_K_ID + "=" + cursor.getInt(0), null) > 0) {
+							deleted++;
+							deletedTerminalNames.add(cursor.getString(1));
+						}
+					} while (cursor.moveToNext());
+				}
+			} finally {
+				if (cursor != null) {
+					cursor.close();
+				}
+			}
+			db.setTransactionSuccessful();// mark the transaction as successful
+			success = true;
+			MyLog.d(TAG, "delete successful! (%s deletes)", deleted);
+		} catch (Exception e) {
+			MyLog.w(TAG, e, "ERROR while deleting the removed bike stations!");
+		} finally {
+			try {
+				if (db != null) {
+					db.endTransaction(); // end the transaction
+				}
+			} catch (Exception e) {
+				MyLog.w(TAG, e, "ERROR while ending the transaction!");
+			}
+		}
+		if (!success) {
+			return 0; // rolled back
+		}
+		notifyBikeStationsChange(deletedTerminalNames);
+		return deleted;
+	}
+
+	/**
+	 * @param db the database
+	 * @param terminalNames the terminal names
+	 * @return the existing bike stations by terminal name
+	 */
+	private static Map<String, BixiStore.BikeStation> findBikeStations(SQLiteDatabase db, String[] terminalNames) {
+		Map<String, BixiStore.BikeStation> result = new HashMap<String, BixiStore.BikeStation>();
+		for (int chunkStart = 0; chunkStart < terminalNames.length; chunkStart += MAX_SELECTION_ARGS) {
+			final int chunkLength = Math.min(MAX_SELECTION_ARGS, terminalNames.length - chunkStart);
+			String[] selectionArgs = new String[chunkLength];
+			System.arraycopy(terminalNames, chunkStart, selectionArgs, 0, chunkLength);
+			StringBuilder selection = new StringBuilder(BixiDbHelper.T_BIKE_STATIONS_K_TERMINAL_NAME).append(" IN (");
+			for (int i = 0; i < chunkLength; i++) {
+				selection.append(i == 0 ? "?" : ",?");
+			}
+			selection.append(')');
+			Cursor cursor = null;
+			try {
+				cursor = db.query(BixiDbHelper.T_BIKE_STATIONS, null, selection.toString(), selectionArgs, null, null, null);
+				if (cursor != null && cursor.moveToFirst()) {
+					do {
+						BixiStore.BikeStation bikeStation = BixiStore.BikeStation.fromCursor(cursor);
+						result.put(bikeStation.getTerminalName(), bikeStation);
+					} while (cursor.moveToNext());
+				}
+			} finally {
+				if (cursor != null) {
+					cursor.close();
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param lat the latitude
+	 * @param lng the longitude
+	 * @param k the maximum number of bike stations (0 for all)
+	 * @return the k closest bike stations ordered by distance (with the {@link BixiStore.BikeStation#DISTANCE} column)
+	 */
+	private Cursor findClosestBikeStations(double lat, double lng, int k) {
+		if (grid == null) {
+			// (re-)build the spatial index from the database (once after each update)
+			final long startInMs = System.currentTimeMillis();
+			List<BixiStore.BikeStation> bikeStations = new ArrayList<BixiStore.BikeStation>();
+			Cursor cursor = null;
+			try {
+				cursor = getDBHelper(getContext()).getReadableDatabase().query(BixiDbHelper.T_BIKE_STATIONS, null, null, null, null, null, null);
+				if (cursor != null && cursor.moveToFirst()) {
+					do {
+						bikeStations.add(BixiStore.BikeStation.fromCursor(cursor));
+					} while (cursor.moveToNext());
+				}
+			} finally {
+				if (cursor != null) {
+					cursor.close();
+				}
+			}
+			grid = new BikeStationsGrid(bikeStations);
+			MyLog.d(TAG, "Spatial index of %s bike stations built in %s ms.", grid.size(), System.currentTimeMillis() - startInMs);
+		}
+		List<BixiStore.BikeStation> closestBikeStations = grid.findClosest(lat, lng, k);
+		MatrixCursor cursor = new MatrixCursor(CLOSEST_COLUMNS, closestBikeStations.size());
+		for (BixiStore.BikeStation bikeStation : closestBikeStations) {
+			cursor.addRow(new Object[] { bikeStation.getId(), bikeStation.getName(), bikeStation.getTerminalName(), bikeStation.getLat(),
+					bikeStation.getLng(), bikeStation.isInstalled() ? 1 : 0, bikeStation.isLocked() ? 1 : 0, bikeStation.getInstallDate(),
+					bikeStation.getRemovalDate(), bikeStation.getLastCommWithServer(), bikeStation.isTemporary() ? 1 : 0,
+					bikeStation.isPublicStation() ? 1 : 0, bikeStation.getNbBikes(), bikeStation.getNbEmptyDocks(), bikeStation.getLatestUpdateTime(),
+					LocationUtils.distanceTo(lat, lng, bikeStation.getLat(), bikeStation.getLng()) });
+		}
+		cursor.setNotificationUri(getContext().getContentResolver(), BixiStore.BikeStation.CONTENT_URI);
+		return cursor;
+	}
+
+	/**
+	 * Notify the changed bike stations URIs (or the bike stations URI if too many bike stations changed).
+	 * <p>
+	 * The cursors of many bike stations are registered on the bike stations URI so they are notified of the changed bike stations URIs too.
+	 * @param changedTerminalNames the changed bike stations terminal names
+	 */
+	private void notifyBikeStationsChange(List<String> changedTerminalNames) {
+		if (changedTerminalNames.size() == 0) {
+			return; // nothing changed
+		}
+		grid = null;
+		if (changedTerminalNames.size() > MAX_CHANGE_NOTIFICATIONS) {
+			getContext().getContentResolver().notifyChange(BixiStore.BikeStation.CONTENT_URI, null);
+		} else {
+			for (String changedTerminalName : changedTerminalNames) {
+				getContext().getContentResolver().notifyChange(BixiManager.getBikeStationURI(changedTerminalName), null);
+			}
+		}
+	}
+
+	/**
+	 * Put a value in the content values (keeping its type).
+	 */
+	private static void putValue(ContentValues values, String key, Object value) {
+		if (value == null) {
+			values.putNull(key);
+		} else if (value instanceof Boolean) {
+			values.put(key, (Boolean) value);
+		} else if (value instanceof Integer) {
+			values.put(key, (Integer) value);
+		} else if (value instanceof Long) {
+			values.put(key, (Long) value);
+		} else if (value instanceof Double) {
+			values.put(key, (Double) value);
+		} else {
+			values.put(key, value.toString());
+		}
+	}
+
 	@Override
 	public synchronized int delete(Uri uri, String selection, String[] selectionArgs) {
 		MyLog.v(TAG, "delete(%s, %s, %s)", uri.getPath(), selection, Arrays.toString(selectionArgs));
+		if (URI_MATCHER.match(uri) == BIKE_STATION_SYNC) {
+			MyLog.d(TAG, "DELETE>BIKE_STATION_SYNC");
+			return deleteBikeStations(selection, selectionArgs);
+		}
 		SQLiteDatabase db = getDBHelper(getContext()).getWritableDatabase();
 		int count = 0;
 		switch (URI_MATCHER.match(uri)) {
@@ -246,6 +541,7 @@ public class BixiProvider extends ContentProvider {
 			throw new IllegalArgumentException("Unknown URI (delete): " + uri);
 		}
 		// MyLog.d(TAG, "delete() > %s row deleted.", count);
+		grid = null;
 		getContext().getContentResolver().notifyChange(uri, null);
 		return count;
 	}
@@ -263,6 +559,7 @@ public class BixiProvider extends ContentProvider {
 		default:
 			throw new IllegalArgumentException("Unknown URI (update): " + uri);
 		}
+		grid = null;
 		getContext().getContentResolver().notifyChange(uri, null);
 		return count;
 	}
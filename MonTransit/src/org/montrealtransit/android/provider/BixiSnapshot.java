@@ -0,0 +1,149 @@
+package org.montrealtransit.android.provider;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.montrealtransit.android.MyLog;
+import org.montrealtransit.android.provider.BixiStore.BikeStation;
+
+import android.content.ContentResolver;
+
+/**
+ * Process-wide immutable snapshot of all the bike stations (terminal name => bike station).
+ * <p>
+ * A new snapshot replaces the current one (copy-on-write) when new Bixi data are loaded: readers get the bike stations without database query and
+ * the {@link #getVersion()} changes only if the bike stations changed.
+ * <p>
+ * The bike stations of a snapshot MUST NOT be modified (copy them first, ex: ABikeStation).
+ */
+public class BixiSnapshot {
+
+	/**
+	 * The log tag.
+	 */
+	private static final String TAG = BixiSnapshot.class.getSimpleName();
+
+	/**
+	 * The current snapshot or null if not loaded yet.
+	 */
+	private static volatile BixiSnapshot current;
+
+	private final Map<String, BikeStation> bikeStations;
+
+	private final int version;
+
+	private BixiSnapshot(Map<String, BikeStation> bikeStations, int version) {
+		this.bikeStations = Collections.unmodifiableMap(bikeStations);
+		this.version = version;
+	}
+
+	/**
+	 * @return the current snapshot or null if not loaded yet
+	 */
+	public static BixiSnapshot get() {
+		return current;
+	}
+
+	/**
+	 * Load the snapshot from the database if necessary (NOT from the UI thread).
+	 * @param contentResolver the content resolver
+	 * @return the current snapshot (not null)
+	 */
+	public static BixiSnapshot get(ContentResolver contentResolver) {
+		BixiSnapshot snapshot = current;
+		if (snapshot == null) {
+			synchronized (BixiSnapshot.class) {
+				snapshot = current;
+				if (snapshot == null) {
+					List<BikeStation> bikeStations = BixiManager.findAllBikeStationsList(contentResolver, true);
+					snapshot = publish(bikeStations);
+				}
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Replace the current snapshot (if the bike stations changed).
+	 * @param newBikeStations all the bike stations (no longer modified) or null
+	 * @return the current snapshot
+	 */
+	public static synchronized BixiSnapshot publish(List<BikeStation> newBikeStations) {
+		final BixiSnapshot previous = current;
+		if (previous != null && !previous.hasChanged(newBikeStations)) {
+			return previous; // same version
+		}
+		Map<String, BikeStation> bikeStations = new HashMap<String, BikeStation>();
+		if (newBikeStations != null) {
+			for (BikeStation bikeStation : newBikeStations) {
+				bikeStations.put(bikeStation.getTerminalName(), bikeStation);
+			}
+		}
+		final BixiSnapshot snapshot = new BixiSnapshot(bikeStations, previous == null ? 1 : previous.version + 1);
+		current = snapshot; // atomic swap
+		MyLog.d(TAG, "New snapshot #%s (%s bike stations).", snapshot.version, bikeStations.size());
+		return snapshot;
+	}
+
+	private boolean hasChanged(List<BikeStation> newBikeStations) {
+		final int newSize = newBikeStations == null ? 0 : newBikeStations.size();
+		if (newSize != this.bikeStations.size()) {
+			return true;
+		}
+		if (newBikeStations != null) {
+			for (BikeStation newBikeStation : newBikeStations) {
+				if (!BikeStation.equals(this.bikeStations.get(newBikeStation.getTerminalName()), newBikeStation)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the snapshot version (changes only if the bike stations changed)
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the number of bike stations
+	 */
+	public int size() {
+		return this.bikeStations.size();
+	}
+
+	/**
+	 * @param terminalName the terminal name
+	 * @return the bike station or null
+	 */
+	public BikeStation getBikeStation(String terminalName) {
+		return this.bikeStations.get(terminalName);
+	}
+
+	/**
+	 * @param terminalNames the terminal names
+	 * @return the bike stations found (terminal name => bike station)
+	 */
+	public Map<String, BikeStation> getBikeStations(Collection<String> terminalNames) {
+		Map<String, BikeStation> result = new HashMap<String, BikeStation>();
+		for (String terminalName : terminalNames) {
+			final BikeStation bikeStation = this.bikeStations.get(terminalName);
+			if (bikeStation != null) {
+				result.put(terminalName, bikeStation);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return all the bike stations (read-only)
+	 */
+	public Map<String, BikeStation> getAllBikeStations() {
+		return this.bikeStations;
+	}
+}
@@ -36,6 +36,19 @@ public class BixiStore {
 		 * The content URI for the location.
 		 */
 		public static final Uri CONTENT_URI_LOC = Uri.parse("content://" + AUTHORITY + "/bikestationsloc");
+		/**
+		 * The content URI of the closest bike stations: /&lt;lat&gt;+&lt;lng&gt;+&lt;max results (0 for all)&gt;, ordered by distance.
+		 */
+		public static final Uri CONTENT_URI_CLOSEST = Uri.parse("content://" + AUTHORITY + "/bikestationsclosest");
+		/**
+		 * The distance column (in meters) of the closest bike stations.
+		 */
+		public static final String DISTANCE = "distance";
+		/**
+		 * The content URI to synchronize the bike stations: bulk insert to insert or update (changed columns only), delete with the kept terminal names
+		 * as selection arguments to delete the others.
+		 */
+		public static final Uri CONTENT_URI_SYNC = Uri.parse("content://" + AUTHORITY + "/bikestationssync");
 		/**
 		 * The MIME type of {@link #CONTENT_URI} providing a directory of bike station entries.
 		 */
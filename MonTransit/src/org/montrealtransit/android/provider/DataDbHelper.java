@@ -24,7 +24,7 @@ public class DataDbHelper extends SQLiteOpenHelper {
 	/**
 	 * The database version use to manage database changes.
 	 */
-	public static final int DATABASE_VERSION = 5;
+	public static final int DATABASE_VERSION = 6;
 
 	/**
 	 * The favorites table.
@@ -210,6 +210,21 @@ public class DataDbHelper extends SQLiteOpenHelper {
 	 */
 	private static final String DATABASE_CREATE_T_CACHE = "create table " + T_CACHE + " (" + T_CACHE_K_ID + " integer primary key autoincrement, "
 			+ T_CACHE_K_DATE + " integer, " + T_CACHE_K_TYPE + " integer, " + T_CACHE_K_FK_ID + " text," + T_CACHE_K_OBJECT + " text);";
+	/**
+	 * Database creation SQL statement for the Cache table unique type & FK ID index (one entry by type & FK ID, replaced on insert).
+	 */
+	private static final String DATABASE_CREATE_T_CACHE_TYPE_FK_ID_INDEX = "create unique index if not exists " + T_CACHE + "_" + T_CACHE_K_TYPE + "_"
+			+ T_CACHE_K_FK_ID + "_idx on " + T_CACHE + " (" + T_CACHE_K_TYPE + ", " + T_CACHE_K_FK_ID + ");";
+	/**
+	 * Database creation SQL statement for the Cache table date index (eviction).
+	 */
+	private static final String DATABASE_CREATE_T_CACHE_DATE_INDEX = "create index if not exists " + T_CACHE + "_" + T_CACHE_K_DATE + "_idx on " + T_CACHE
+			+ " (" + T_CACHE_K_DATE + ");";
+	/**
+	 * SQL statement removing the duplicated Cache entries (keep the last one) before creating the unique index.
+	 */
+	private static final String DATABASE_DELETE_T_CACHE_DUPLICATES = "delete from " + T_CACHE + " where " + T_CACHE_K_ID + " not in (select max("
+			+ T_CACHE_K_ID + ") from " + T_CACHE + " group by " + T_CACHE_K_TYPE + ", " + T_CACHE_K_FK_ID + ");";
 
 	/**
 	 * Default constructor.
@@ -227,6 +242,8 @@ public class DataDbHelper extends SQLiteOpenHelper {
 		db.execSQL(DATABASE_CREATE_T_TWITTER_API);
 		db.execSQL(DATABASE_CREATE_T_SERVICE_STATUS);
 		db.execSQL(DATABASE_CREATE_T_CACHE);
+		db.execSQL(DATABASE_CREATE_T_CACHE_TYPE_FK_ID_INDEX);
+		db.execSQL(DATABASE_CREATE_T_CACHE_DATE_INDEX);
 	}
 
 	@Override
@@ -250,6 +267,11 @@ public class DataDbHelper extends SQLiteOpenHelper {
 			MyLog.v(TAG, "add the Cache table");
 			// just create the Cache table
 			db.execSQL(DATABASE_CREATE_T_CACHE);
+		case 5:
+			MyLog.v(TAG, "add the Cache table indexes");
+			db.execSQL(DATABASE_DELETE_T_CACHE_DUPLICATES);
+			db.execSQL(DATABASE_CREATE_T_CACHE_TYPE_FK_ID_INDEX);
+			db.execSQL(DATABASE_CREATE_T_CACHE_DATE_INDEX);
 			break;
 		default:
 			MyLog.w(TAG, "Old user data destroyed!");
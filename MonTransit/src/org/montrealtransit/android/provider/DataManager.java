@@ -527,6 +527,17 @@ public class DataManager {
 		}
 	}
 
+	/**
+	 * Save a cache entry to the content provider: replace the existing entry with the same type and FK ID if any (single statement).
+	 * @param contentResolver the content resolver
+	 * @param cache the cache entry
+	 * @return true if the cache entry was saved
+	 */
+	public static boolean saveCache(ContentResolver contentResolver, Cache cache) {
+		MyLog.v(TAG, "saveCache()");
+		return contentResolver.insert(Cache.CONTENT_URI, cache.getContentValues()) != null;
+	}
+
 	/**
 	 * @param contentResolver the content resolver
 	 * @return all cache entries
@@ -2,9 +2,14 @@ package org.montrealtransit.android.provider;
 
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.montrealtransit.android.Constant;
 import org.montrealtransit.android.MyLog;
+import org.montrealtransit.android.Utils;
 import org.montrealtransit.android.provider.DataStore.Fav;
 
 import android.content.ContentProvider;
@@ -362,10 +367,12 @@ public class DataProvider extends ContentProvider {
 			}
 			break;
 		case CACHE:
-			long cacheId = db.insert(DataDbHelper.T_CACHE, DataDbHelper.T_CACHE_K_OBJECT, values);
+			// upsert: replace the existing entry with the same type & FK ID (unique index)
+			long cacheId = db.replace(DataDbHelper.T_CACHE, DataDbHelper.T_CACHE_K_OBJECT, values);
 			if (cacheId > 0) {
 				insertUri = ContentUris.withAppendedId(DataStore.Cache.CONTENT_URI, cacheId);
 			}
+			scheduleCacheSweep(getContext());
 			break;
 		default:
 			throw new IllegalArgumentException("Unknown URI (insert) " + uri);
@@ -415,6 +422,57 @@ public class DataProvider extends ContentProvider {
 		return mOpenHelper;
 	}
 
+	/**
+	 * The cache entries maximum age (longest schedule provider cache validity).
+	 */
+	private static final int CACHE_MAX_AGE_IN_SEC = 24 * 60 * 60; // 1 day
+
+	/**
+	 * The maximum number of cache entries (most recent kept).
+	 */
+	private static final int CACHE_MAX_ENTRIES = 500;
+
+	/**
+	 * The delay between a cache update and the next cache sweep.
+	 */
+	private static final long CACHE_SWEEP_DELAY_IN_MS = TimeUnit.MINUTES.toMillis(15);
+
+	private static final ScheduledExecutorService CACHE_SWEEP_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+	private static final AtomicBoolean cacheSweepScheduled = new AtomicBoolean(false);
+
+	/**
+	 * Schedule a cache sweep (in background) if not already scheduled: the cache readers ignore the too old entries and never delete.
+	 */
+	private static void scheduleCacheSweep(final Context context) {
+		if (!cacheSweepScheduled.compareAndSet(false, true)) {
+			return; // already scheduled
+		}
+		CACHE_SWEEP_EXECUTOR.schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					cacheSweepScheduled.set(false);
+					sweepCache(getDBHelper(context).getWritableDatabase());
+				} catch (Throwable t) {
+					MyLog.w(TAG, t, "Error while sweeping the cache!");
+				}
+			}
+		}, CACHE_SWEEP_DELAY_IN_MS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Delete the too old cache entries and the oldest entries over the maximum number of entries.
+	 */
+	private static void sweepCache(SQLiteDatabase db) {
+		MyLog.v(TAG, "sweepCache()");
+		final int tooOld = Utils.currentTimeSec() - CACHE_MAX_AGE_IN_SEC;
+		int count = db.delete(DataDbHelper.T_CACHE, DataDbHelper.T_CACHE_K_DATE + " < " + tooOld, null);
+		count += db.delete(DataDbHelper.T_CACHE, DataDbHelper.T_CACHE_K_ID + " IN (SELECT " + DataDbHelper.T_CACHE_K_ID + " FROM " + DataDbHelper.T_CACHE
+				+ " ORDER BY " + DataDbHelper.T_CACHE_K_DATE + " DESC LIMIT -1 OFFSET " + CACHE_MAX_ENTRIES + ")", null);
+		MyLog.d(TAG, "Cache sweep: %s entries deleted.", count);
+	}
+
 	@Override
 	public int update(Uri arg0, ContentValues arg1, String arg2, String[] arg3) {
 		MyLog.v(TAG, "update()");
@@ -79,6 +79,20 @@ public abstract class AbstractDbHelper extends SQLiteOpenHelper {
 			+ T_TRIP_STOPS_K_STOP_ID + "," + T_TRIP_STOPS_K_STOP_SEQUENCE + ") VALUES(%s)";
 	public static final String T_TRIP_STOPS_SQL_DROP = SqlUtils.getSQLDropIfExistsQuery(T_TRIP_STOPS);
 
+	/**
+	 * The DB global settings.
+	 */
+	public static final String[] SQL_SETTINGS = new String[] { "PRAGMA auto_vacuum=NONE;" };
+
+	/**
+	 * The DB tables in deployment order: table name, create, insert (data file line as values) and drop SQL.
+	 */
+	public static final String[][] TABLES_SQL = new String[][] { //
+			{ T_ROUTE, T_ROUTE_SQL_CREATE, T_ROUTE_SQL_INSERT, T_ROUTE_SQL_DROP }, //
+			{ T_TRIP, T_TRIP_SQL_CREATE, T_TRIP_SQL_INSERT, T_TRIP_SQL_DROP }, //
+			{ T_STOP, T_STOP_SQL_CREATE, T_STOP_SQL_INSERT, T_STOP_SQL_DROP }, //
+			{ T_TRIP_STOPS, T_TRIP_STOPS_SQL_CREATE, T_TRIP_STOPS_SQL_INSERT, T_TRIP_STOPS_SQL_DROP } };
+
 	private Context context;
 
 	public AbstractDbHelper(Context context, String name, CursorFactory factory, int version) {
@@ -138,11 +152,13 @@ public abstract class AbstractDbHelper extends SQLiteOpenHelper {
 		// global settings
 		// TODO FK support? db.execSQL("PRAGMA foreign_keys=OFF;");
 		// db.execSQL("PRAGMA synchronous=OFF;");
-		db.execSQL("PRAGMA auto_vacuum=NONE;");
-		initDbTableWithRetry(db, T_ROUTE, T_ROUTE_SQL_CREATE, T_ROUTE_SQL_INSERT, T_ROUTE_SQL_DROP, getRouteFiles());
-		initDbTableWithRetry(db, T_TRIP, T_TRIP_SQL_CREATE, T_TRIP_SQL_INSERT, T_TRIP_SQL_DROP, getTripFiles());
-		initDbTableWithRetry(db, T_STOP, T_STOP_SQL_CREATE, T_STOP_SQL_INSERT, T_STOP_SQL_DROP, getStopFiles());
-		initDbTableWithRetry(db, T_TRIP_STOPS, T_TRIP_STOPS_SQL_CREATE, T_TRIP_STOPS_SQL_INSERT, T_TRIP_STOPS_SQL_DROP, getTripStopsFiles());
+		for (String sqlSetting : SQL_SETTINGS) {
+			db.execSQL(sqlSetting);
+		}
+		final int[][] tablesFiles = getTablesFiles();
+		for (int i = 0; i < TABLES_SQL.length; i++) {
+			initDbTableWithRetry(db, TABLES_SQL[i][0], TABLES_SQL[i][1], TABLES_SQL[i][2], TABLES_SQL[i][3], tablesFiles[i]);
+		}
 	}
 
 	private void initDbTableWithRetry(SQLiteDatabase db, String table, String sqlCreate, String sqlInsert, String sqlDrop, int[] files) {
@@ -175,7 +191,7 @@ public abstract class AbstractDbHelper extends SQLiteOpenHelper {
 				br = new BufferedReader(new InputStreamReader(this.context.getResources().openRawResource(file), "UTF8"), 8192);
 				while ((line = br.readLine()) != null) {
 					// db.execSQL(line);
-					db.execSQL(String.format(sqlInsert, line));
+					db.execSQL(getSQLInsert(sqlInsert, line));
 				}
 			}
 			// mark the transaction as successful
@@ -205,6 +221,17 @@ public abstract class AbstractDbHelper extends SQLiteOpenHelper {
 		}
 	}
 
+	public static String getSQLInsert(String sqlInsert, String dataLine) {
+		return String.format(sqlInsert, dataLine);
+	}
+
+	/**
+	 * @return the data files of each {@link #TABLES_SQL} table
+	 */
+	public int[][] getTablesFiles() {
+		return new int[][] { getRouteFiles(), getTripFiles(), getStopFiles(), getTripStopsFiles() };
+	}
+
 	public abstract String getDbName();
 
 	public abstract int getDbVersion();
@@ -43,10 +43,14 @@ public class AbstractManager {
 
 	public static final String LOCATION_CONTENT_DIRECTORY = "location";
 
-	private static final String[] PROJECTION_ROUTE = new String[] { RouteColumns.T_ROUTE_K_ID, RouteColumns.T_ROUTE_K_SHORT_NAME,
+	public static final String FAVORITES_SORT_ORDER = RouteTripStopColumns.T_ROUTE_K_ID + ", " + RouteTripStopColumns.T_STOP_K_CODE + ", "
+	// + RouteTripStopColumns.T_STOP_K_NAME + ", "
+			+ RouteTripStopColumns.T_TRIP_STOPS_K_STOP_SEQUENCE + " ASC";
+
+	public static final String[] PROJECTION_ROUTE = new String[] { RouteColumns.T_ROUTE_K_ID, RouteColumns.T_ROUTE_K_SHORT_NAME,
 			RouteColumns.T_ROUTE_K_LONG_NAME, RouteColumns.T_ROUTE_K_COLOR, RouteColumns.T_ROUTE_K_TEXT_COLOR };
 
-	private static final String[] PROJECTION_TRIP = new String[] { TripColumns.T_TRIP_K_ID, TripColumns.T_TRIP_K_HEADSIGN_TYPE,
+	public static final String[] PROJECTION_TRIP = new String[] { TripColumns.T_TRIP_K_ID, TripColumns.T_TRIP_K_HEADSIGN_TYPE,
 			TripColumns.T_TRIP_K_HEADSIGN_VALUE, TripColumns.T_TRIP_K_ROUTE_ID };
 
 	private static final String[] PROJECTION_STOP = new String[] { StopColumns.T_STOP_K_ID, StopColumns.T_STOP_K_CODE, StopColumns.T_STOP_K_NAME,
@@ -56,7 +60,7 @@ public class AbstractManager {
 
 	private static final String[] PROJECTION_ROUTE_SHORT_NAME = new String[] { RouteColumns.T_ROUTE_K_SHORT_NAME };
 
-	private static final String[] PROJECTION_ROUTE_TRIP_STOP = new String[] { RouteTripStopColumns.T_ROUTE_K_ID, RouteTripStopColumns.T_ROUTE_K_SHORT_NAME,
+	public static final String[] PROJECTION_ROUTE_TRIP_STOP = new String[] { RouteTripStopColumns.T_ROUTE_K_ID, RouteTripStopColumns.T_ROUTE_K_SHORT_NAME,
 			RouteTripStopColumns.T_ROUTE_K_LONG_NAME, RouteTripStopColumns.T_ROUTE_K_COLOR, RouteTripStopColumns.T_ROUTE_K_TEXT_COLOR,
 			RouteTripStopColumns.T_TRIP_K_ID, RouteTripStopColumns.T_TRIP_K_HEADSIGN_TYPE, RouteTripStopColumns.T_TRIP_K_HEADSIGN_VALUE,
 			RouteTripStopColumns.T_TRIP_K_ROUTE_ID, RouteTripStopColumns.T_TRIP_STOPS_K_STOP_SEQUENCE, RouteTripStopColumns.T_STOP_K_ID,
@@ -999,33 +1003,12 @@ public class AbstractManager {
 		showSetupRequiredIfNecessary(context, contentUri);
 		Cursor cursor = null;
 		try {
-			StringBuilder selection = null;
-			for (Fav tripStopFav : tripStopFavs) {
-				if (selection == null) {
-					selection = new StringBuilder();
-				}
-				if (selection.length() > 0) {
-					selection.append(" OR ");
-				}
-				final int stopId = TripStop.getStopIdFromUID(tripStopFav.getFkId());
-				final int routeId = TripStop.getRouteIdFromUID(tripStopFav.getFkId());
-				if (stopId < 0 || routeId < 0) {
-					continue; // invalid favorite
-				}
-				selection.append("(");
-				selection.append(RouteTripStopColumns.T_STOP_K_ID).append(" = ").append(stopId);
-				selection.append(" AND ");
-				selection.append(RouteTripStopColumns.T_TRIP_K_ROUTE_ID).append(" = ").append(routeId);
-				selection.append(")");
-			}
-			if (selection == null || selection.length() == 0) {
+			final String selection = genTripStopFavsWhere(tripStopFavs);
+			if (selection == null) {
 				return null; // no favorites
 			}
-			final String sortOrder = RouteTripStopColumns.T_ROUTE_K_ID + ", " + RouteTripStopColumns.T_STOP_K_CODE + ", "
-			// + RouteTripStopColumns.T_STOP_K_NAME + ", "
-					+ RouteTripStopColumns.T_TRIP_STOPS_K_STOP_SEQUENCE + " ASC";
-			cursor = context.getContentResolver().query(getRouteTripStopUri(contentUri), PROJECTION_ROUTE_TRIP_STOP,
-					selection == null ? null : selection.toString(), null, sortOrder);
+			cursor = context.getContentResolver().query(getRouteTripStopUri(contentUri), PROJECTION_ROUTE_TRIP_STOP, selection, null,
+					FAVORITES_SORT_ORDER);
 			return getRouteTripStops(cursor, contentUri.getAuthority(), filterByUID);
 		} catch (Throwable t) {
 			MyLog.w(TAG, t, "Error!");
@@ -1037,6 +1020,35 @@ public class AbstractManager {
 		}
 	}
 
+	/**
+	 * @return the route trip stops selection of the favorites or null if no valid favorite
+	 */
+	public static String genTripStopFavsWhere(List<Fav> tripStopFavs) {
+		StringBuilder selection = null;
+		for (Fav tripStopFav : tripStopFavs) {
+			if (selection == null) {
+				selection = new StringBuilder();
+			}
+			final int stopId = TripStop.getStopIdFromUID(tripStopFav.getFkId());
+			final int routeId = TripStop.getRouteIdFromUID(tripStopFav.getFkId());
+			if (stopId < 0 || routeId < 0) {
+				continue; // invalid favorite
+			}
+			if (selection.length() > 0) {
+				selection.append(" OR ");
+			}
+			selection.append("(");
+			selection.append(RouteTripStopColumns.T_STOP_K_ID).append(" = ").append(stopId);
+			selection.append(" AND ");
+			selection.append(RouteTripStopColumns.T_TRIP_K_ROUTE_ID).append(" = ").append(routeId);
+			selection.append(")");
+		}
+		if (selection == null || selection.length() == 0) {
+			return null; // no favorites
+		}
+		return selection.toString();
+	}
+
 	private static List<RouteTripStop> getRouteTripStops(Cursor cursor, String authority, boolean filterByUID) {
 		MyLog.v(TAG, "getRouteTripStops(%s,%s)", authority, filterByUID);
 		List<RouteTripStop> result = new ArrayList<RouteTripStop>();
@@ -1,10 +1,15 @@
 package org.montrealtransit.android.provider.common;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.montrealtransit.android.MyLog;
+import org.montrealtransit.android.data.Departures;
 import org.montrealtransit.android.data.RouteTripStop;
 import org.montrealtransit.android.data.StopTimes;
 import org.montrealtransit.android.provider.StmBusLiveScheduleManager;
@@ -33,6 +38,7 @@ public abstract class AbstractScheduleManager {
 
 	private static final String PING_CONTENT_DIRECTORY = "ping";
 	private static final String DEPARTURE_CONTENT_DIRECTORY = "departure";
+	private static final String DEPARTURES_CONTENT_DIRECTORY = "departures";
 
 	private static boolean pingChecked = false;
 
@@ -75,12 +81,22 @@ public abstract class AbstractScheduleManager {
 
 	public static StopTimes findStopTimes(ContentResolver contentResolver, Uri contentUri, RouteTripStop routeTripStop, Long timestamp, Boolean cacheOnly,
 			Integer cacheValidityInSec) {
-		MyLog.v(TAG, "findStopTimes(%s, %s, %s, %s)", routeTripStop, timestamp, cacheOnly, cacheValidityInSec);
+		final Departures departures = findDepartures(contentResolver, contentUri, routeTripStop, timestamp, cacheOnly, cacheValidityInSec);
+		return departures == null ? null : StopTimes.fromDepartures(departures);
+	}
+
+	/**
+	 * Find the departures (time-stamps not formatted) of a route trip stop.
+	 * @see #findStopTimes(ContentResolver, Uri, RouteTripStop, Long, Boolean, Integer)
+	 */
+	public static Departures findDepartures(ContentResolver contentResolver, Uri contentUri, RouteTripStop routeTripStop, Long timestamp, Boolean cacheOnly,
+			Integer cacheValidityInSec) {
+		MyLog.v(TAG, "findDepartures(%s, %s, %s, %s)", routeTripStop, timestamp, cacheOnly, cacheValidityInSec);
 		if (routeTripStop == null) {
 			MyLog.w(TAG, "RouteTripStop mandatory!");
 			return null;
 		}
-		StopTimes result = null;
+		Departures result = null;
 		Cursor cursor = null;
 		try {
 			JSONObject jSelection = new JSONObject();
@@ -95,10 +111,14 @@ public abstract class AbstractScheduleManager {
 				jSelection.put("cacheValidityInSec", cacheValidityInSec);
 			}
 			String selection = jSelection.toString();
-			cursor = contentResolver.query(Uri.withAppendedPath(contentUri, DEPARTURE_CONTENT_DIRECTORY), null, selection, null, null);
+			cursor = contentResolver.query(Uri.withAppendedPath(contentUri, DEPARTURE_CONTENT_DIRECTORY), DepartureColumns.PROJECTION_DEPARTURE, selection,
+					null, null);
 			if (cursor != null && cursor.getCount() > 0) {
 				if (cursor.moveToFirst()) {
-					result = StopTimes.parseJSON(cursor.getString(cursor.getColumnIndexOrThrow("json")));
+					final Map<String, Departures> departures = readDepartures(cursor);
+					if (departures.size() > 0) {
+						result = departures.values().iterator().next();
+					}
 				}
 			}
 		} catch (Throwable t) {
@@ -110,4 +130,178 @@ public abstract class AbstractScheduleManager {
 		}
 		return result;
 	}
+
+	/**
+	 * Find the stop times of many route trip stops with only 1 content provider call.
+	 * <p>
+	 * Fall back to 1 {@link #findStopTimes(ContentResolver, Uri, RouteTripStop, Long, Boolean, Integer)} call / route trip stop if the provider doesn't
+	 * support batch departures (older schedule provider app).
+	 * @return the stop times by route trip stop UUID (route trip stops without stop times are not included)
+	 */
+	public static Map<String, StopTimes> findStopTimesBatch(ContentResolver contentResolver, Uri contentUri, List<RouteTripStop> routeTripStops,
+			Long timestamp, Boolean cacheOnly, Integer cacheValidityInSec) {
+		MyLog.v(TAG, "findStopTimesBatch(%s, %s, %s, %s)", routeTripStops == null ? null : routeTripStops.size(), timestamp, cacheOnly, cacheValidityInSec);
+		return findStopTimesBatch(contentResolver, contentUri, routeTripStops, null, timestamp, cacheOnly, cacheValidityInSec);
+	}
+
+	/**
+	 * Find the stop departure board: the stop times of the route trip stop and of the other route trip stops serving the same stop.
+	 * <p>
+	 * The other route trip stops are only returned if already in cache or if the schedule provider reads them from the same stop timetable (no extra
+	 * cost), the provider cache is populated for all of them.
+	 * @return the stop times by route trip stop UUID (route trip stops without stop times are not included)
+	 */
+	public static Map<String, StopTimes> findStopTimesAtStop(ContentResolver contentResolver, Uri contentUri, RouteTripStop routeTripStop,
+			List<RouteTripStop> otherRouteTripStops, Long timestamp, Boolean cacheOnly, Integer cacheValidityInSec) {
+		MyLog.v(TAG, "findStopTimesAtStop(%s, %s, %s, %s, %s)", routeTripStop, otherRouteTripStops == null ? null : otherRouteTripStops.size(), timestamp,
+				cacheOnly, cacheValidityInSec);
+		if (routeTripStop == null) {
+			MyLog.w(TAG, "RouteTripStop mandatory!");
+			return null;
+		}
+		return findStopTimesBatch(contentResolver, contentUri, Collections.singletonList(routeTripStop), otherRouteTripStops, timestamp, cacheOnly,
+				cacheValidityInSec);
+	}
+
+	/**
+	 * Find the departures (time-stamps not formatted) of the stop departure board.
+	 * @see #findStopTimesAtStop(ContentResolver, Uri, RouteTripStop, List, Long, Boolean, Integer)
+	 */
+	public static Map<String, Departures> findDeparturesAtStop(ContentResolver contentResolver, Uri contentUri, RouteTripStop routeTripStop,
+			List<RouteTripStop> otherRouteTripStops, Long timestamp, Boolean cacheOnly, Integer cacheValidityInSec) {
+		MyLog.v(TAG, "findDeparturesAtStop(%s, %s, %s, %s, %s)", routeTripStop, otherRouteTripStops == null ? null : otherRouteTripStops.size(), timestamp,
+				cacheOnly, cacheValidityInSec);
+		if (routeTripStop == null) {
+			MyLog.w(TAG, "RouteTripStop mandatory!");
+			return null;
+		}
+		return findDeparturesBatch(contentResolver, contentUri, Collections.singletonList(routeTripStop), otherRouteTripStops, timestamp, cacheOnly,
+				cacheValidityInSec);
+	}
+
+	private static Map<String, StopTimes> findStopTimesBatch(ContentResolver contentResolver, Uri contentUri, List<RouteTripStop> routeTripStops,
+			List<RouteTripStop> otherRouteTripStops, Long timestamp, Boolean cacheOnly, Integer cacheValidityInSec) {
+		Map<String, StopTimes> result = new HashMap<String, StopTimes>();
+		for (Map.Entry<String, Departures> departures : findDeparturesBatch(contentResolver, contentUri, routeTripStops, otherRouteTripStops, timestamp,
+				cacheOnly, cacheValidityInSec).entrySet()) {
+			result.put(departures.getKey(), StopTimes.fromDepartures(departures.getValue()));
+		}
+		return result;
+	}
+
+	/**
+	 * Find the departures of many route trip stops with only 1 content provider call.
+	 * <p>
+	 * Fall back to 1 {@link #findDepartures(ContentResolver, Uri, RouteTripStop, Long, Boolean, Integer)} call / route trip stop if the provider doesn't
+	 * support batch departures (older schedule provider app).
+	 * @return the departures by route trip stop UUID (route trip stops without departures are not included)
+	 */
+	private static Map<String, Departures> findDeparturesBatch(ContentResolver contentResolver, Uri contentUri, List<RouteTripStop> routeTripStops,
+			List<RouteTripStop> otherRouteTripStops, Long timestamp, Boolean cacheOnly, Integer cacheValidityInSec) {
+		Map<String, Departures> result = new HashMap<String, Departures>();
+		if (routeTripStops == null || routeTripStops.size() == 0) {
+			return result;
+		}
+		if (!isBatchSupported(contentResolver, contentUri)) {
+			MyLog.d(TAG, "Batch departures not supported by '%s', loading 1 by 1...", contentUri);
+			for (RouteTripStop routeTripStop : routeTripStops) {
+				final Departures departures = findDepartures(contentResolver, contentUri, routeTripStop, timestamp, cacheOnly, cacheValidityInSec);
+				if (departures != null) {
+					result.put(routeTripStop.getUUID(), departures);
+				}
+			}
+			return result;
+		}
+		Cursor cursor = null;
+		try {
+			JSONObject jSelection = new JSONObject();
+			JSONArray jRouteTripStops = new JSONArray();
+			for (RouteTripStop routeTripStop : routeTripStops) {
+				jRouteTripStops.put(routeTripStop.toJSON());
+			}
+			jSelection.put("routeTripStops", jRouteTripStops);
+			if (otherRouteTripStops != null && otherRouteTripStops.size() > 0) {
+				JSONArray jOtherRouteTripStops = new JSONArray();
+				for (RouteTripStop otherRouteTripStop : otherRouteTripStops) {
+					jOtherRouteTripStops.put(otherRouteTripStop.toJSON());
+				}
+				jSelection.put("otherRouteTripStops", jOtherRouteTripStops);
+			}
+			if (timestamp != null) {
+				jSelection.put("timestamp", timestamp);
+			}
+			if (cacheOnly != null) {
+				jSelection.put("cacheOnly", cacheOnly);
+			}
+			if (cacheValidityInSec != null) {
+				jSelection.put("cacheValidityInSec", cacheValidityInSec);
+			}
+			String selection = jSelection.toString();
+			cursor = contentResolver.query(Uri.withAppendedPath(contentUri, DEPARTURES_CONTENT_DIRECTORY), DepartureColumns.PROJECTION_DEPARTURE, selection,
+					null, null);
+			if (cursor != null && cursor.getCount() > 0) {
+				if (cursor.moveToFirst()) {
+					result.putAll(readDepartures(cursor));
+				}
+			}
+		} catch (Throwable t) {
+			MyLog.w(TAG, t, "Error!");
+		} finally {
+			if (cursor != null) {
+				cursor.close();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The batch departures support by schedule provider authority.
+	 */
+	private static final Map<String, Boolean> batchSupported = new ConcurrentHashMap<String, Boolean>();
+
+	/**
+	 * @return true if the schedule provider declares the batch departures URI (older schedule provider apps don't)
+	 */
+	private static boolean isBatchSupported(ContentResolver contentResolver, Uri contentUri) {
+		final String authority = contentUri.getAuthority();
+		Boolean supported = batchSupported.get(authority);
+		if (supported == null) {
+			String type = null;
+			try {
+				type = contentResolver.getType(Uri.withAppendedPath(contentUri, DEPARTURES_CONTENT_DIRECTORY));
+			} catch (IllegalArgumentException iae) { // older schedule provider: unknown URI
+				MyLog.d(TAG, "Unknown batch departures URI for '%s'!", authority);
+			}
+			supported = type != null && type.endsWith("." + DEPARTURES_CONTENT_DIRECTORY);
+			batchSupported.put(authority, supported);
+		}
+		return supported;
+	}
+
+	/**
+	 * Read the departures from the cursor (positioned on the first row).
+	 * <p>
+	 * Read the typed rows ({@link DepartureColumns}) or the JSON column if the provider doesn't support typed rows (older schedule provider app).
+	 * @param cursor the departure(s) cursor
+	 * @return the departures by route trip stop UUID (empty string UUID if not provided)
+	 */
+	private static Map<String, Departures> readDepartures(Cursor cursor) {
+		Map<String, Departures> result = new HashMap<String, Departures>();
+		final int uuidIdx = cursor.getColumnIndex(AbstractScheduleProvider.DEPARTURES_COLUMN_UUID);
+		final int jsonIdx = cursor.getColumnIndex(AbstractScheduleProvider.DEPARTURE_COLUMN_JSON);
+		do {
+			final String uuid = uuidIdx < 0 ? "" : cursor.getString(uuidIdx);
+			if (jsonIdx >= 0) {
+				result.put(uuid, Departures.parseJSON(cursor.getString(jsonIdx)));
+				continue;
+			}
+			Departures departures = result.get(uuid);
+			if (departures == null) {
+				departures = new Departures();
+				result.put(uuid, departures);
+			}
+			departures.readRow(cursor);
+		} while (cursor.moveToNext());
+		return result;
+	}
 }
@@ -1,13 +1,22 @@
 package org.montrealtransit.android.provider.common;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.montrealtransit.android.CircuitBreaker;
 import org.montrealtransit.android.MyLog;
 import org.montrealtransit.android.Utils;
+import org.montrealtransit.android.data.Departures;
 import org.montrealtransit.android.data.RouteTripStop;
 import org.montrealtransit.android.provider.DataManager;
 import org.montrealtransit.android.provider.DataStore.Cache;
@@ -28,9 +37,51 @@ public abstract class AbstractScheduleProvider extends ContentProvider {
 
 	public static final String DEPARTURE_CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/vnd." + GLOBAL_AUTHORITY + ".departure";
 
+	public static final String DEPARTURES_CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/vnd." + GLOBAL_AUTHORITY + ".departures";
+
+	/**
+	 * The departure cursor JSON column (returned when no projection is requested, compatibility with older clients).
+	 */
+	public static final String DEPARTURE_COLUMN_JSON = "json";
+	/**
+	 * The departures (batch) cursor route trip stop UUID column.
+	 */
+	public static final String DEPARTURES_COLUMN_UUID = "uuid";
+
+	private static final String[] DEPARTURE_PROJECTION_JSON = new String[] { DEPARTURE_COLUMN_JSON };
+
+	private static final String[] DEPARTURES_PROJECTION_JSON = new String[] { DEPARTURES_COLUMN_UUID, DEPARTURE_COLUMN_JSON };
+
+	private static final String[] CACHE_STATS_PROJECTION = new String[] { "tier", "requests", "hits", "ratio" };
+
+	private static final String[] BREAKER_STATS_PROJECTION = new String[] { "endpoint", "state", "trips", "rejected", "failures" };
+
 	private static final int DEPARTURE = 1;
+	private static final int DEPARTURES = 2;
+	private static final int BREAKER_STATS = 97;
+	private static final int CACHE_STATS = 98;
 	private static final int PING = 99;
 
+	/**
+	 * The in-process departures cache maximum size.
+	 */
+	private static final int MEMORY_CACHE_MAX_SIZE_IN_BYTES = 256 * 1024;
+
+	/**
+	 * The in-process departures cache (memory tier) of all the schedule providers of the process (keys include the authority).
+	 */
+	private static final DeparturesCache departuresCache = new DeparturesCache(MEMORY_CACHE_MAX_SIZE_IN_BYTES);
+
+	/**
+	 * The background refresh of the stale departures (stale-while-revalidate).
+	 */
+	private static final ExecutorService REVALIDATE_EXECUTOR = Executors.newSingleThreadExecutor();
+
+	/**
+	 * The cache UUIDs with a background refresh pending.
+	 */
+	private static final ConcurrentHashMap<String, Boolean> revalidating = new ConcurrentHashMap<String, Boolean>();
+
 	// protected static final int VERSION = 100;
 	// protected static final int DEPLOYED = 101;
 	// protected static final int LABEL = 102;
@@ -39,6 +90,9 @@ public abstract class AbstractScheduleProvider extends ContentProvider {
 	public static UriMatcher getNewUriMatcher(String authority) {
 		UriMatcher URI_MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
 		URI_MATCHER.addURI(authority, "departure", DEPARTURE);
+		URI_MATCHER.addURI(authority, "departures", DEPARTURES);
+		URI_MATCHER.addURI(authority, "cachestats", CACHE_STATS);
+		URI_MATCHER.addURI(authority, "breakerstats", BREAKER_STATS);
 		URI_MATCHER.addURI(authority, "ping", PING);
 		// URI_MATCHER.addURI(authority, "version", VERSION);
 		// URI_MATCHER.addURI(authority, "deployed", DEPLOYED);
@@ -62,8 +116,18 @@ public abstract class AbstractScheduleProvider extends ContentProvider {
 			MyLog.v(TAG, "query>PING");
 			ping();
 			return null;
+		case CACHE_STATS:
+			MyLog.v(TAG, "query>CACHE_STATS");
+			return getCacheStats();
+		case BREAKER_STATS:
+			MyLog.v(TAG, "query>BREAKER_STATS");
+			return getBreakerStats();
 		case DEPARTURE:
-			return getDeparture(selection);
+			MyLog.v(TAG, "query>DEPARTURE");
+			return getDeparture(selection, projection);
+		case DEPARTURES:
+			MyLog.v(TAG, "query>DEPARTURES");
+			return getDepartures(selection, projection);
 		default:
 			throw new IllegalArgumentException(String.format("Unknown URI (query): '%s'", uri));
 		}
@@ -75,6 +139,10 @@ public abstract class AbstractScheduleProvider extends ContentProvider {
 		switch (getURIMATCHER().match(uri)) {
 		case DEPARTURE:
 			return DEPARTURE_CONTENT_TYPE;
+		case DEPARTURES:
+			return DEPARTURES_CONTENT_TYPE;
+		case CACHE_STATS:
+		case BREAKER_STATS:
 		case PING:
 			return null;
 		default:
@@ -82,7 +150,23 @@ public abstract class AbstractScheduleProvider extends ContentProvider {
 		}
 	}
 
-	public Cursor getDeparture(String selection) {
+	/**
+	 * @param projection the requested projection
+	 * @return true if the client asked for typed departure rows ({@link DepartureColumns}) instead of the JSON column
+	 */
+	public static boolean isTypedDepartureProjection(String[] projection) {
+		if (projection == null) {
+			return false;
+		}
+		for (String column : projection) {
+			if (DepartureColumns.T_DEPARTURE_K_ROW_TYPE.equals(column)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public Cursor getDeparture(String selection, String[] projection) {
 		MyLog.d(TAG, "getDeparture(%s)", selection);
 		try {
 			JSONObject jSelection = new JSONObject(selection);
@@ -90,93 +174,301 @@ public abstract class AbstractScheduleProvider extends ContentProvider {
 			RouteTripStop routeTripStop = RouteTripStop.fromJSON(jSelection.optJSONObject("routeTripStop"));
 			long timestamp = jSelection.has("timestamp") ? jSelection.getLong("timestamp") : System.currentTimeMillis();
 			boolean cacheOnly = jSelection.has("cacheOnly") ? jSelection.getBoolean("cacheOnly") : false;
-			int cacheValidityInSec = jSelection.has("cacheValidityInSec") ? jSelection.getInt("cacheValidityInSec") : getCACHE_MAX_VALIDITY_IN_SEC();
+			// explicit validity (refresh requested by the user or the refresh scheduler) => no stale-while-revalidate
+			final boolean explicitValidity = jSelection.has("cacheValidityInSec");
+			int cacheValidityInSec = explicitValidity ? jSelection.getInt("cacheValidityInSec") : getCACHE_MAX_VALIDITY_IN_SEC();
 			int cacheNotRefreshedInSec = Math.min(getCACHE_NOT_REFRESHED_IN_SEC(), cacheValidityInSec);
+			final boolean typed = isTypedDepartureProjection(projection);
 			// read cache
 			String cacheUUID = routeTripStop.getUUID() + getAUTHORITY();
-			Cache cache = getDataAlreadyInCacheIfStillUseful(cacheUUID);
+			DeparturesCache.Entry cache = getDataAlreadyInCacheIfStillUseful(cacheUUID);
 			// IF cache only DO return cache OR nothing
 			if (cacheOnly) {
-				JSONObject jResult = null;
-				if (cache != null) {
-					try {
-						jResult = new JSONObject(cache.getObject());
-					} catch (JSONException jsone) {
-						MyLog.w(TAG, jsone, "Error while parsing JSON from cache!");
-						// cache not valid, returning empty
-					}
+				if (cache == null) {
+					return null;
 				}
 				// MyLog.d(TAG, "getDeparture() > use cache (only)");
-				return getDepartureCursor(jResult);
+				return getDeparturesCursor(routeTripStop.getUUID(), cache.getDepartures(), typed);
 			}
 			// IF cache doesn't have to be refreshed DO return cache
 			int tooOld = Utils.currentTimeSec() - cacheNotRefreshedInSec;
 			if (cache != null && tooOld <= cache.getDate()) {
-				try {
-					// MyLog.d(TAG, "getDeparture() > use cache");
-					return getDepartureCursor(new JSONObject(cache.getObject()));
-				} catch (JSONException jsone) {
-					MyLog.w(TAG, jsone, "Error while parsing JSON from cache!");
-					// cache not valid, loading from www
-				}
+				// MyLog.d(TAG, "getDeparture() > use cache");
+				return getDeparturesCursor(routeTripStop.getUUID(), cache.getDepartures(), typed);
 			}
 			final Calendar now = Calendar.getInstance();
 			now.setTimeInMillis(timestamp);
+			// IF stale cache still valid AND stale-while-revalidate AND no explicit validity DO return cache & refresh in background
+			if (cache != null && isStaleWhileRevalidate() && !explicitValidity) {
+				// MyLog.d(TAG, "getDeparture() > use stale cache, refresh in background");
+				revalidate(routeTripStop, now, cache.getDepartures(), cacheUUID);
+				return getDeparturesCursor(routeTripStop.getUUID(), cache.getDepartures(), typed);
+			}
 			// get departure from content provider
 			// MyLog.d(TAG, "getDeparture() > NOT use cache, use content provider");
-			return getDeparture(routeTripStop, now, cache, cacheUUID);
+			final Departures departures = getDeparture(routeTripStop, now, cache == null ? null : cache.getDepartures(), cacheUUID);
+			if (departures == null) {
+				return null;
+			}
+			return getDeparturesCursor(routeTripStop.getUUID(), departures, typed);
 		} catch (JSONException jsone) {
 			MyLog.w(TAG, jsone, "Error while parsing JSON '%s'!", selection);
 			return null;
 		}
 	}
 
-	public Cursor getDepartureCursor(JSONObject jsonObject) {
-		if (jsonObject == null) {
+	/**
+	 * Return the departures of many route trip stops in one multi-row cursor (1 row / route trip stop with departures or typed rows).
+	 * <p>
+	 * The optional "otherRouteTripStops" array contains the other route trip stops serving the same stop (stop departure board): returned if in cache or
+	 * if the provider reads them with the requested ones (see {@link #hasStopTimetable()}).
+	 * @param selection the JSON selection ("routeTripStops" array + same options as {@link #getDeparture(String, String[])})
+	 * @param projection the projection ({@link DepartureColumns#PROJECTION_DEPARTURE} for typed rows)
+	 * @return the departures cursor
+	 */
+	public Cursor getDepartures(String selection, String[] projection) {
+		MyLog.d(TAG, "getDepartures(%s)", selection);
+		try {
+			JSONObject jSelection = new JSONObject(selection);
+			// extract values from JSON
+			JSONArray jRouteTripStops = jSelection.optJSONArray("routeTripStops");
+			if (jRouteTripStops == null) {
+				MyLog.w(TAG, "No route trip stops in selection '%s'!", selection);
+				return null;
+			}
+			JSONArray jOtherRouteTripStops = jSelection.optJSONArray("otherRouteTripStops");
+			final int nbRouteTripStops = jRouteTripStops.length();
+			final int nbOtherRouteTripStops = jOtherRouteTripStops == null ? 0 : jOtherRouteTripStops.length();
+			long timestamp = jSelection.has("timestamp") ? jSelection.getLong("timestamp") : System.currentTimeMillis();
+			boolean cacheOnly = jSelection.has("cacheOnly") ? jSelection.getBoolean("cacheOnly") : false;
+			// explicit validity (refresh requested by the user or the refresh scheduler) => no stale-while-revalidate
+			final boolean explicitValidity = jSelection.has("cacheValidityInSec");
+			int cacheValidityInSec = explicitValidity ? jSelection.getInt("cacheValidityInSec") : getCACHE_MAX_VALIDITY_IN_SEC();
+			int cacheNotRefreshedInSec = Math.min(getCACHE_NOT_REFRESHED_IN_SEC(), cacheValidityInSec);
+			int tooOld = Utils.currentTimeSec() - cacheNotRefreshedInSec;
+			final boolean typed = isTypedDepartureProjection(projection);
+			MatrixCursor matrixCursor = newDeparturesCursor(typed, true);
+			List<RouteTripStop> routeTripStopsToLoad = new ArrayList<RouteTripStop>();
+			Map<String, Departures> caches = new HashMap<String, Departures>();
+			for (int i = 0; i < nbRouteTripStops + nbOtherRouteTripStops; i++) {
+				final boolean other = i >= nbRouteTripStops;
+				final RouteTripStop routeTripStop = RouteTripStop.fromJSON(other ? jOtherRouteTripStops.optJSONObject(i - nbRouteTripStops) : jRouteTripStops
+						.optJSONObject(i));
+				if (routeTripStop == null) {
+					continue;
+				}
+				// read cache
+				final String cacheUUID = routeTripStop.getUUID() + getAUTHORITY();
+				final DeparturesCache.Entry cache = getDataAlreadyInCacheIfStillUseful(cacheUUID);
+				// IF cache only OR cache doesn't have to be refreshed DO use cache (if any)
+				if (cacheOnly || (cache != null && tooOld <= cache.getDate())) {
+					if (cache != null) {
+						addDeparturesRows(matrixCursor, routeTripStop.getUUID(), cache.getDepartures(), typed, true);
+					}
+					continue;
+				}
+				// IF other route trip stop AND not free to load DO skip
+				if (other && !hasStopTimetable()) {
+					continue;
+				}
+				// IF stale cache still valid AND stale-while-revalidate AND no explicit validity DO use cache & refresh in background
+				if (cache != null && isStaleWhileRevalidate() && !explicitValidity) {
+					addDeparturesRows(matrixCursor, routeTripStop.getUUID(), cache.getDepartures(), typed, true);
+					final Calendar now = Calendar.getInstance();
+					now.setTimeInMillis(timestamp);
+					revalidate(routeTripStop, now, cache.getDepartures(), cacheUUID);
+					continue;
+				}
+				if (cache != null) {
+					caches.put(cacheUUID, cache.getDepartures());
+				}
+				routeTripStopsToLoad.add(routeTripStop);
+			}
+			if (routeTripStopsToLoad.size() > 0) {
+				final Calendar now = Calendar.getInstance();
+				now.setTimeInMillis(timestamp);
+				// get departures from content provider
+				final Map<String, Departures> departures = getDepartures(routeTripStopsToLoad, now, caches);
+				if (departures != null) {
+					for (Map.Entry<String, Departures> departure : departures.entrySet()) {
+						addDeparturesRows(matrixCursor, departure.getKey(), departure.getValue(), typed, true);
+					}
+				}
+			}
+			return matrixCursor;
+		} catch (JSONException jsone) {
+			MyLog.w(TAG, jsone, "Error while parsing JSON '%s'!", selection);
 			return null;
 		}
-		MatrixCursor matrixCursor = new MatrixCursor(new String[] { "json" });
-		matrixCursor.addRow(new Object[] { jsonObject.toString() });
+	}
+
+	/**
+	 * Load the departures of many route trip stops (not in cache or cache need to be refreshed).
+	 * <p>
+	 * Default implementation loads each route trip stop one by one, providers able to share work between route trip stops (same stop file, same service
+	 * day...) should override this method.
+	 * @param routeTripStops the route trip stops
+	 * @param now the time
+	 * @param caches the existing cached departures by cache UUID (maybe used as fall-back)
+	 * @return the departures by route trip stop UUID
+	 */
+	public Map<String, Departures> getDepartures(List<RouteTripStop> routeTripStops, Calendar now, Map<String, Departures> caches) {
+		Map<String, Departures> result = new HashMap<String, Departures>();
+		for (RouteTripStop routeTripStop : routeTripStops) {
+			final String cacheUUID = routeTripStop.getUUID() + getAUTHORITY();
+			try {
+				final Departures departures = getDeparture(routeTripStop, now, caches == null ? null : caches.get(cacheUUID), cacheUUID);
+				if (departures != null) {
+					result.put(routeTripStop.getUUID(), departures);
+				}
+			} catch (Throwable t) {
+				MyLog.w(TAG, t, "Error while loading departure for %s!", routeTripStop);
+			}
+		}
+		return result;
+	}
+
+	private static MatrixCursor newDeparturesCursor(boolean typed, boolean batch) {
+		if (typed) {
+			return new MatrixCursor(DepartureColumns.PROJECTION_DEPARTURE);
+		}
+		return new MatrixCursor(batch ? DEPARTURES_PROJECTION_JSON : DEPARTURE_PROJECTION_JSON);
+	}
+
+	private static void addDeparturesRows(MatrixCursor matrixCursor, String uuid, Departures departures, boolean typed, boolean batch) {
+		if (typed) {
+			departures.addRows(matrixCursor, uuid);
+			return;
+		}
+		final JSONObject jDepartures = departures.toJSON();
+		if (jDepartures == null) {
+			return;
+		}
+		if (batch) {
+			matrixCursor.addRow(new Object[] { uuid, jDepartures.toString() });
+		} else {
+			matrixCursor.addRow(new Object[] { jDepartures.toString() });
+		}
+	}
+
+	private static Cursor getDeparturesCursor(String uuid, Departures departures, boolean typed) {
+		MatrixCursor matrixCursor = newDeparturesCursor(typed, false);
+		addDeparturesRows(matrixCursor, uuid, departures, typed, false);
 		return matrixCursor;
 	}
 
-	private Cache getDataAlreadyInCacheIfStillUseful(String uuid) {
+	private static Cursor getCacheStats() {
+		MatrixCursor matrixCursor = new MatrixCursor(CACHE_STATS_PROJECTION);
+		synchronized (departuresCache) {
+			matrixCursor.addRow(new Object[] { "memory", departuresCache.getRequestCount(), departuresCache.getMemoryHitCount(),
+					departuresCache.getMemoryHitRatio() });
+			matrixCursor.addRow(new Object[] { "db", departuresCache.getDbRequestCount(), departuresCache.getDbHitCount(), departuresCache.getDbHitRatio() });
+		}
+		return matrixCursor;
+	}
+
+	private static Cursor getBreakerStats() {
+		MatrixCursor matrixCursor = new MatrixCursor(BREAKER_STATS_PROJECTION);
+		for (CircuitBreaker breaker : CircuitBreaker.getAll()) {
+			synchronized (breaker) {
+				matrixCursor.addRow(new Object[] { breaker.getEndpoint(), breaker.getStateName(), breaker.getTripCount(), breaker.getRejectedCount(),
+						breaker.getConsecutiveFailures() });
+			}
+		}
+		return matrixCursor;
+	}
+
+	/**
+	 * Clear the in-process departures cache (schedule providers running in this process).
+	 */
+	public static void clearMemoryCache() {
+		departuresCache.clear();
+	}
+
+	private DeparturesCache.Entry getDataAlreadyInCacheIfStillUseful(String uuid) {
 		MyLog.v(TAG, "getDataAlreadyInCacheIfStillUseful(%s)", uuid);
-		// load cache from database
-		Cache cache = DataManager.findCache(getContext().getContentResolver(), Cache.KEY_TYPE_VALUE_AUTHORITY_ROUTE_TRIP_STOP_JSON, uuid);
+		// 1st - load cache from memory
+		DeparturesCache.Entry cache = departuresCache.get(uuid);
+		if (cache == null) {
+			// 2nd - load cache from database (memory miss or process restart)
+			Cache dbCache = DataManager.findCache(getContext().getContentResolver(), Cache.KEY_TYPE_VALUE_AUTHORITY_ROUTE_TRIP_STOP_JSON, uuid);
+			departuresCache.recordDbRequest(dbCache != null);
+			if (dbCache != null) {
+				cache = new DeparturesCache.Entry(Departures.parseJSON(dbCache.getObject()), dbCache.getDate());
+				departuresCache.put(uuid, cache);
+			}
+		}
 		// compute the too old date
 		int tooOld = Utils.currentTimeSec() - getCACHE_MAX_VALIDITY_IN_SEC();
 		// IF the cache is too old DO
 		if (cache != null && tooOld >= cache.getDate()) {
-			// don't use the cache
+			// don't use the cache (deleted later by the data provider cache sweep)
 			cache = null;
-			// delete all too old cache
-			try {
-				DataManager.deleteCacheOlderThan(getContext().getContentResolver(), tooOld);
-			} catch (Exception e) {
-				MyLog.w(TAG, e, "Can't clean the cache!");
-			}
 		}
 		return cache;
 	}
 
-	public void saveToCache(String uuid, JSONObject jResult) {
+	public void saveToCache(String uuid, Departures departures) {
 		MyLog.v(TAG, "saveToCache(%s)", uuid);
-		final JSONArray jTimestamps = jResult == null ? null : jResult.optJSONArray("timestamps");
-		if (jTimestamps == null || jTimestamps.length() == 0) {
-			// MyLog.d(TAG, "saveToCache(%s,%s) > skipped because no timestamp", uuid, jResult);
+		if (departures == null || !departures.hasTimestamps()) {
+			// MyLog.d(TAG, "saveToCache(%s,%s) > skipped because no timestamp", uuid, departures);
+			return;
+		}
+		final JSONObject jDepartures = departures.toJSON();
+		if (jDepartures == null) {
 			return;
 		}
-		Cache newCache = new Cache(Cache.KEY_TYPE_VALUE_AUTHORITY_ROUTE_TRIP_STOP_JSON, uuid, jResult.toString());
-		// remove existing cache for this bus stop
-		DataManager.deleteCacheIfExist(getContext().getContentResolver(), Cache.KEY_TYPE_VALUE_AUTHORITY_ROUTE_TRIP_STOP_JSON, uuid);
-		// save the new value to cache
-		DataManager.addCache(getContext().getContentResolver(), newCache);
+		Cache newCache = new Cache(Cache.KEY_TYPE_VALUE_AUTHORITY_ROUTE_TRIP_STOP_JSON, uuid, jDepartures.toString());
+		// save the new value to memory
+		departuresCache.put(uuid, new DeparturesCache.Entry(departures, newCache.getDate()));
+		// save the new value to cache (replace existing cache for this route trip stop)
+		DataManager.saveCache(getContext().getContentResolver(), newCache);
+	}
+
+	/**
+	 * @return true if the departures of all the trips serving a stop are read at once from the stop timetable (loading the other route trip stops of the
+	 *         same stop is free)
+	 */
+	public boolean hasStopTimetable() {
+		return false;
+	}
+
+	/**
+	 * @return true if the cache older than {@link #getCACHE_NOT_REFRESHED_IN_SEC()} (but still valid) is returned immediately and refreshed in background
+	 *         instead of blocking the request until refreshed (only if the request has no explicit "cacheValidityInSec")
+	 */
+	public boolean isStaleWhileRevalidate() {
+		return false;
+	}
+
+	/**
+	 * Refresh the stale departures in background (if not already pending): the provider saves the new departures to cache.
+	 */
+	private void revalidate(final RouteTripStop routeTripStop, final Calendar now, final Departures cache, final String cacheUUID) {
+		if (revalidating.putIfAbsent(cacheUUID, Boolean.TRUE) != null) {
+			return; // already pending
+		}
+		REVALIDATE_EXECUTOR.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					getDeparture(routeTripStop, now, cache, cacheUUID);
+				} catch (Throwable t) {
+					MyLog.w(TAG, t, "Error while refreshing departures of %s!", routeTripStop);
+				} finally {
+					revalidating.remove(cacheUUID);
+				}
+			}
+		});
 	}
 
 	public abstract void ping();
 
-	public abstract Cursor getDeparture(RouteTripStop routeTripStop, Calendar now, Cache cache, String cacheUUID);
+	/**
+	 * @param cache the cached departures (still valid, maybe used as fall-back) or null
+	 * @return the departures or null
+	 */
+	public abstract Departures getDeparture(RouteTripStop routeTripStop, Calendar now, Departures cache, String cacheUUID);
 
 	public abstract UriMatcher getURIMATCHER();
 
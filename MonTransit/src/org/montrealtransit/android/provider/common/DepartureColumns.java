@@ -0,0 +1,38 @@
+package org.montrealtransit.android.provider.common;
+
+/**
+ * The columns of the typed departure cursor returned by the schedule providers (1 row / header, departure, message or error).
+ */
+public class DepartureColumns {
+
+	public static final String T_DEPARTURE_K_UUID = "uuid";
+	public static final String T_DEPARTURE_K_ROW_TYPE = "row_type";
+	public static final String T_DEPARTURE_K_TIMESTAMP = "timestamp";
+	public static final String T_DEPARTURE_K_REALTIME = "realtime";
+	public static final String T_DEPARTURE_K_SOURCE = "source";
+	public static final String T_DEPARTURE_K_TEXT = "text";
+
+	/**
+	 * The header row (real-time flag + source).
+	 */
+	public static final int ROW_TYPE_HEADER = 0;
+	/**
+	 * A departure time-stamp row.
+	 */
+	public static final int ROW_TYPE_TIMESTAMP = 1;
+	/**
+	 * A message row.
+	 */
+	public static final int ROW_TYPE_MESSAGE = 2;
+	/**
+	 * The error row.
+	 */
+	public static final int ROW_TYPE_ERROR = 3;
+
+	/**
+	 * The projection requesting typed departure rows instead of the JSON compatibility column.
+	 */
+	public static final String[] PROJECTION_DEPARTURE = new String[] { T_DEPARTURE_K_UUID, T_DEPARTURE_K_ROW_TYPE, T_DEPARTURE_K_TIMESTAMP,
+			T_DEPARTURE_K_REALTIME, T_DEPARTURE_K_SOURCE, T_DEPARTURE_K_TEXT };
+
+}
@@ -0,0 +1,157 @@
+package org.montrealtransit.android.provider.common;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.montrealtransit.android.data.Departures;
+
+/**
+ * In-process LRU of the decoded departures (memory tier in front of the data provider cache table), bounded by the estimated memory size of the
+ * departures.
+ * <p>
+ * Cached departures are shared between requests and must not be modified once cached.
+ */
+public class DeparturesCache {
+
+	/**
+	 * Estimated size of an entry without the time-stamps and the messages (key, entry & departures objects).
+	 */
+	private static final int ENTRY_BASE_SIZE_IN_BYTES = 256;
+
+	public static class Entry {
+
+		private final Departures departures;
+		private final int date;
+		private final int sizeInBytes;
+
+		public Entry(Departures departures, int date) {
+			this.departures = departures;
+			this.date = date;
+			int sizeInBytes = ENTRY_BASE_SIZE_IN_BYTES + 8 * departures.getTimestampsCount();
+			for (String message : departures.getMessages()) {
+				sizeInBytes += 2 * message.length();
+			}
+			this.sizeInBytes = sizeInBytes;
+		}
+
+		public Departures getDepartures() {
+			return departures;
+		}
+
+		/**
+		 * @return the date in seconds
+		 */
+		public int getDate() {
+			return date;
+		}
+	}
+
+	private final int maxSizeInBytes;
+
+	private int sizeInBytes = 0;
+
+	/**
+	 * Entries in access order (least recently used first).
+	 */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	private long requestCount = 0;
+	private long memoryHitCount = 0;
+	private long dbRequestCount = 0;
+	private long dbHitCount = 0;
+
+	public DeparturesCache(int maxSizeInBytes) {
+		this.maxSizeInBytes = maxSizeInBytes;
+	}
+
+	/**
+	 * @return the memory entry or null (counted as a memory tier request)
+	 */
+	public synchronized Entry get(String uuid) {
+		this.requestCount++;
+		final Entry entry = this.entries.get(uuid);
+		if (entry != null) {
+			this.memoryHitCount++;
+		}
+		return entry;
+	}
+
+	/**
+	 * Record a data provider cache table read after a memory miss.
+	 * @param hit true if the entry was found
+	 */
+	public synchronized void recordDbRequest(boolean hit) {
+		this.dbRequestCount++;
+		if (hit) {
+			this.dbHitCount++;
+		}
+	}
+
+	public synchronized void put(String uuid, Entry entry) {
+		final Entry previous = this.entries.put(uuid, entry);
+		if (previous != null) {
+			this.sizeInBytes -= previous.sizeInBytes;
+		}
+		this.sizeInBytes += entry.sizeInBytes;
+		// evict least recently used entries
+		Iterator<Map.Entry<String, Entry>> it = this.entries.entrySet().iterator();
+		while (this.sizeInBytes > this.maxSizeInBytes && it.hasNext()) {
+			this.sizeInBytes -= it.next().getValue().sizeInBytes;
+			it.remove();
+		}
+	}
+
+	public synchronized void clear() {
+		this.entries.clear();
+		this.sizeInBytes = 0;
+	}
+
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	public synchronized int getSizeInBytes() {
+		return sizeInBytes;
+	}
+
+	public synchronized long getRequestCount() {
+		return requestCount;
+	}
+
+	public synchronized long getMemoryHitCount() {
+		return memoryHitCount;
+	}
+
+	public synchronized long getDbRequestCount() {
+		return dbRequestCount;
+	}
+
+	public synchronized long getDbHitCount() {
+		return dbHitCount;
+	}
+
+	/**
+	 * @return the memory tier hit ratio (all requests)
+	 */
+	public synchronized float getMemoryHitRatio() {
+		return this.requestCount == 0 ? 0f : (float) this.memoryHitCount / this.requestCount;
+	}
+
+	/**
+	 * @return the data provider cache table tier hit ratio (memory misses only)
+	 */
+	public synchronized float getDbHitRatio() {
+		return this.dbRequestCount == 0 ? 0f : (float) this.dbHitCount / this.dbRequestCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return new StringBuilder(DeparturesCache.class.getSimpleName()).append('[') //
+				.append("entries:").append(this.entries.size()) //
+				.append(",bytes:").append(this.sizeInBytes) //
+				.append(",memory:").append(this.memoryHitCount).append('/').append(this.requestCount) //
+				.append(",db:").append(this.dbHitCount).append('/').append(this.dbRequestCount) //
+				.append(']').toString();
+	}
+}
@@ -0,0 +1,153 @@
+package org.montrealtransit.android.provider.common;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+import org.montrealtransit.android.data.Departures;
+
+/**
+ * Compact read-only table of the departures by (stop, trip) precomputed for 1 service day.
+ * <p>
+ * Keys are sorted and each (stop, trip) departures are stored sorted in 1 shared array, a lookup is 2 binary searches (no schedule file read).
+ * <p>
+ * All the departures of the service day are stored, not only the next N departures from the computation time: a lookup returns the next
+ * departures of any time of the service day and the table only has to be rebuilt at the service day rollover (a bounded next N table would be
+ * stale after the N-th departure).
+ */
+public class NextDeparturesTable {
+
+	/**
+	 * The first time-stamp (inclusive) this table can answer for (service day start).
+	 */
+	private final long startInMs;
+	/**
+	 * The last time-stamp (exclusive) this table can answer for (next service day start).
+	 */
+	private final long endInMs;
+	/**
+	 * The sorted (stop ID, trip ID) keys.
+	 */
+	private final long[] keys;
+	/**
+	 * The index of the first departure of each key in {@link #timestamps} (+1 for the end of the last key).
+	 */
+	private final int[] offsets;
+	/**
+	 * All the departures (sorted for each key).
+	 */
+	private final long[] timestamps;
+
+	private NextDeparturesTable(long startInMs, long endInMs, long[] keys, int[] offsets, long[] timestamps) {
+		this.startInMs = startInMs;
+		this.endInMs = endInMs;
+		this.keys = keys;
+		this.offsets = offsets;
+		this.timestamps = timestamps;
+	}
+
+	/**
+	 * @param keyToTimestamps the departures by key (see {@link #getKey(int, int)})
+	 * @return the new table
+	 */
+	public static NextDeparturesTable build(long startInMs, long endInMs, Map<Long, Set<Long>> keyToTimestamps) {
+		final long[] keys = new long[keyToTimestamps.size()];
+		int nbTimestamps = 0;
+		int k = 0;
+		for (Map.Entry<Long, Set<Long>> keyTimestamps : keyToTimestamps.entrySet()) {
+			keys[k++] = keyTimestamps.getKey();
+			nbTimestamps += keyTimestamps.getValue().size();
+		}
+		Arrays.sort(keys);
+		final int[] offsets = new int[keys.length + 1];
+		final long[] timestamps = new long[nbTimestamps];
+		int t = 0;
+		for (k = 0; k < keys.length; k++) {
+			offsets[k] = t;
+			for (Long timestamp : keyToTimestamps.get(keys[k])) {
+				timestamps[t++] = timestamp;
+			}
+			Arrays.sort(timestamps, offsets[k], t);
+		}
+		offsets[keys.length] = t;
+		return new NextDeparturesTable(startInMs, endInMs, keys, offsets, timestamps);
+	}
+
+	public static long getKey(int stopId, int tripId) {
+		return ((long) stopId << 32) | (tripId & 0xffffffffL);
+	}
+
+	/**
+	 * @param timestamp the time-stamp
+	 * @return true if this table can answer for this time-stamp
+	 */
+	public boolean isInHorizon(long timestamp) {
+		return timestamp >= this.startInMs && timestamp < this.endInMs;
+	}
+
+	public long getEndInMs() {
+		return endInMs;
+	}
+
+	/**
+	 * Add the departures after the time-stamp to the departures.
+	 * @return false if this table can't answer (out of horizon or unknown stop/trip) and the schedule file needs to be read
+	 */
+	public boolean findDepartures(int stopId, int tripId, long timestamp, Departures departures) {
+		if (!isInHorizon(timestamp)) {
+			return false;
+		}
+		final int k = binarySearch(this.keys, 0, this.keys.length, getKey(stopId, tripId));
+		if (k < 0) {
+			return false;
+		}
+		final int end = this.offsets[k + 1];
+		int t = binarySearch(this.timestamps, this.offsets[k], end, timestamp);
+		if (t < 0) {
+			t = -(t + 1); // insertion point
+		} else {
+			t++; // after the time-stamp
+		}
+		for (; t < end; t++) {
+			departures.addTimestamp(this.timestamps[t]);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of departures in this table
+	 */
+	public int size() {
+		return this.timestamps.length;
+	}
+
+	/**
+	 * {@link Arrays#binarySearch(long[], long)} on a range (not available on older Android versions).
+	 */
+	private static int binarySearch(long[] array, int fromIndex, int toIndex, long value) {
+		int low = fromIndex;
+		int high = toIndex - 1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			final long midValue = array[mid];
+			if (midValue < value) {
+				low = mid + 1;
+			} else if (midValue > value) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder().append(NextDeparturesTable.class.getSimpleName()).append(":[") //
+				.append("start:").append(startInMs).append(',') //
+				.append("end:").append(endInMs).append(',') //
+				.append("keys:").append(keys.length).append(',') //
+				.append("timestamps:").append(timestamps.length) //
+				.append(']').toString();
+	}
+}
@@ -0,0 +1,476 @@
+package org.montrealtransit.android.provider.stmbus.schedule;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import org.montrealtransit.android.data.Departures;
+
+/**
+ * Streaming (pull) parser of the stm.info arrivals JSON response:
+ *
+ * <pre>
+ * {"result":[{"time":"1002",...},...],"messages":[{"text":"..."},...],"status":{"level":"Error","code":"NoResultsDate"},...}
+ * </pre>
+ *
+ * The arrival times are added directly to the departures time-stamps (no JSON tree, no intermediate string). Other members are skipped.
+ * <p>
+ * android.util.JsonReader is only available on Honeycomb+.
+ */
+public class StmInfoArrivalsParser {
+
+	private static final String RESULT = "result";
+	private static final String TIME = "time";
+	private static final String MESSAGES = "messages";
+	private static final String TEXT = "text";
+	private static final String STATUS = "status";
+	private static final String LEVEL = "level";
+	private static final String CODE = "code";
+	private static final String LEVEL_ERROR = "Error";
+
+	private static final int INVALID_TIME = -1;
+
+	private static final long ONE_DAY_IN_MILLIS = 1 * 24 * 60 * 60 * 1000;
+
+	private final Departures departures;
+
+	/**
+	 * The service day (time fields reset for each arrival).
+	 */
+	private final Calendar day;
+	private final int dayYear;
+	private final int dayMonth;
+	private final int dayDate;
+
+	private long previousTimestamp = -1L;
+
+	private int resultsCount = 0;
+
+	private List<String> messages;
+
+	private boolean statusError = false;
+
+	private String statusCode;
+
+	private Reader reader;
+
+	private final char[] buffer = new char[1024];
+	private int bufferPos = 0;
+	private int bufferLimit = 0;
+	private int peeked = -1;
+
+	/**
+	 * The current string (keys & values).
+	 */
+	private final StringBuilder sb = new StringBuilder(64);
+
+	/**
+	 * @param departures the departures receiving the arrival time-stamps
+	 * @param now the request time (service day of the arrivals)
+	 */
+	public StmInfoArrivalsParser(Departures departures, Calendar now) {
+		this.departures = departures;
+		this.day = (Calendar) now.clone();
+		this.day.set(Calendar.SECOND, 0);
+		this.day.set(Calendar.MILLISECOND, 0);
+		this.dayYear = now.get(Calendar.YEAR);
+		this.dayMonth = now.get(Calendar.MONTH);
+		this.dayDate = now.get(Calendar.DATE);
+	}
+
+	/**
+	 * Parse the response.
+	 * @param reader the response reader (not closed)
+	 * @throws IOException read error or invalid JSON
+	 */
+	public void parse(Reader reader) throws IOException {
+		this.reader = reader;
+		expect('{');
+		int c = nextNonWhitespace();
+		if (c == '}') {
+			return;
+		}
+		while (true) {
+			readKey(c);
+			if (equals(this.sb, RESULT)) {
+				readResults();
+			} else if (equals(this.sb, MESSAGES)) {
+				readMessages();
+			} else if (equals(this.sb, STATUS)) {
+				readStatus();
+			} else {
+				skipValue(nextNonWhitespace());
+			}
+			c = nextNonWhitespace();
+			if (c == '}') {
+				return;
+			}
+			if (c != ',') {
+				throw syntaxError(c);
+			}
+			c = nextNonWhitespace();
+		}
+	}
+
+	/**
+	 * @return the number of arrivals in the response (including invalid times)
+	 */
+	public int getResultsCount() {
+		return resultsCount;
+	}
+
+	/**
+	 * @return the messages or null
+	 */
+	public List<String> getMessages() {
+		return messages;
+	}
+
+	/**
+	 * @return true if the response status level is "Error"
+	 */
+	public boolean isStatusError() {
+		return statusError;
+	}
+
+	/**
+	 * @return the response status code or null
+	 */
+	public String getStatusCode() {
+		return statusCode;
+	}
+
+	private void readResults() throws IOException {
+		int c = nextNonWhitespace();
+		if (c != '[') {
+			skipValue(c);
+			return;
+		}
+		c = nextNonWhitespace();
+		if (c == ']') {
+			return;
+		}
+		while (true) {
+			this.resultsCount++;
+			if (c == '{') {
+				int time = INVALID_TIME;
+				c = nextNonWhitespace();
+				if (c != '}') {
+					while (true) {
+						readKey(c);
+						c = nextNonWhitespace();
+						if (c == '"' && equals(this.sb, TIME)) {
+							time = readTime();
+						} else {
+							skipValue(c);
+						}
+						c = nextNonWhitespace();
+						if (c == '}') {
+							break;
+						}
+						if (c != ',') {
+							throw syntaxError(c);
+						}
+						c = nextNonWhitespace();
+					}
+				}
+				if (time != INVALID_TIME) {
+					addTimestamp(time);
+				}
+			} else {
+				skipValue(c);
+			}
+			c = nextNonWhitespace();
+			if (c == ']') {
+				return;
+			}
+			if (c != ',') {
+				throw syntaxError(c);
+			}
+			c = nextNonWhitespace();
+		}
+	}
+
+	private void readMessages() throws IOException {
+		int c = nextNonWhitespace();
+		if (c != '[') {
+			skipValue(c);
+			return;
+		}
+		c = nextNonWhitespace();
+		if (c == ']') {
+			return;
+		}
+		while (true) {
+			if (c == '{') {
+				c = nextNonWhitespace();
+				if (c != '}') {
+					while (true) {
+						readKey(c);
+						c = nextNonWhitespace();
+						if (c == '"' && equals(this.sb, TEXT)) {
+							readString();
+							if (this.messages == null) {
+								this.messages = new ArrayList<String>();
+							}
+							this.messages.add(this.sb.toString());
+						} else {
+							skipValue(c);
+						}
+						c = nextNonWhitespace();
+						if (c == '}') {
+							break;
+						}
+						if (c != ',') {
+							throw syntaxError(c);
+						}
+						c = nextNonWhitespace();
+					}
+				}
+			} else {
+				skipValue(c);
+			}
+			c = nextNonWhitespace();
+			if (c == ']') {
+				return;
+			}
+			if (c != ',') {
+				throw syntaxError(c);
+			}
+			c = nextNonWhitespace();
+		}
+	}
+
+	private void readStatus() throws IOException {
+		int c = nextNonWhitespace();
+		if (c != '{') {
+			skipValue(c);
+			return;
+		}
+		c = nextNonWhitespace();
+		if (c == '}') {
+			return;
+		}
+		while (true) {
+			readKey(c);
+			c = nextNonWhitespace();
+			if (c == '"' && equals(this.sb, LEVEL)) {
+				readString();
+				this.statusError = equalsIgnoreCase(this.sb, LEVEL_ERROR);
+			} else if (c == '"' && equals(this.sb, CODE)) {
+				readString();
+				this.statusCode = this.sb.toString();
+			} else {
+				skipValue(c);
+			}
+			c = nextNonWhitespace();
+			if (c == '}') {
+				return;
+			}
+			if (c != ',') {
+				throw syntaxError(c);
+			}
+			c = nextNonWhitespace();
+		}
+	}
+
+	/**
+	 * Read the "HHmm" time string (opening quote already read).
+	 * @return the time or {@link #INVALID_TIME}
+	 */
+	private int readTime() throws IOException {
+		int time = 0;
+		int digits = 0;
+		boolean valid = true;
+		int c;
+		while ((c = read()) != '"') {
+			if (c == -1) {
+				throw syntaxError(c);
+			}
+			if (c >= '0' && c <= '9') {
+				time = time * 10 + (c - '0');
+				digits++;
+			} else {
+				valid = false; // invalid time, skipped
+				if (c == '\\') {
+					read();
+				}
+			}
+		}
+		return valid && digits > 0 && digits <= 4 ? time : INVALID_TIME;
+	}
+
+	private void addTimestamp(int time) {
+		this.day.set(this.dayYear, this.dayMonth, this.dayDate, time / 100, time % 100);
+		long timestamp = this.day.getTimeInMillis();
+		if (time <= StmBusLiveScheduleProvider.STM_DAYS_ENDS_AT_ON_THE_NEXT_DAY || timestamp < this.previousTimestamp) {
+			timestamp += ONE_DAY_IN_MILLIS;
+		}
+		this.departures.addTimestamp(timestamp);
+		this.previousTimestamp = timestamp;
+	}
+
+	private void readKey(int c) throws IOException {
+		if (c != '"') {
+			throw syntaxError(c);
+		}
+		readString();
+		expect(':');
+	}
+
+	/**
+	 * Read a string in {@link #sb} (opening quote already read).
+	 */
+	private void readString() throws IOException {
+		this.sb.setLength(0);
+		int c;
+		while ((c = read()) != '"') {
+			if (c == -1) {
+				throw syntaxError(c);
+			}
+			if (c == '\\') {
+				c = read();
+				switch (c) {
+				case 'b':
+					this.sb.append('\b');
+					break;
+				case 'f':
+					this.sb.append('\f');
+					break;
+				case 'n':
+					this.sb.append('\n');
+					break;
+				case 'r':
+					this.sb.append('\r');
+					break;
+				case 't':
+					this.sb.append('\t');
+					break;
+				case 'u':
+					int unicode = 0;
+					for (int i = 0; i < 4; i++) {
+						unicode = (unicode << 4) + Character.digit(read(), 16);
+					}
+					this.sb.append((char) unicode);
+					break;
+				case -1:
+					throw syntaxError(c);
+				default: // " \ /
+					this.sb.append((char) c);
+					break;
+				}
+			} else {
+				this.sb.append((char) c);
+			}
+		}
+	}
+
+	/**
+	 * Skip a value.
+	 * @param c the 1st character of the value
+	 */
+	private void skipValue(int c) throws IOException {
+		switch (c) {
+		case '"':
+			while ((c = read()) != '"') {
+				if (c == -1) {
+					throw syntaxError(c);
+				}
+				if (c == '\\') {
+					read();
+				}
+			}
+			return;
+		case '{':
+		case '[':
+			int depth = 1;
+			while (depth > 0) {
+				c = read();
+				if (c == '{' || c == '[') {
+					depth++;
+				} else if (c == '}' || c == ']') {
+					depth--;
+				} else if (c == '"') {
+					skipValue(c);
+				} else if (c == -1) {
+					throw syntaxError(c);
+				}
+			}
+			return;
+		default: // number, true, false, null
+			while (true) {
+				c = read();
+				if (c == ',' || c == '}' || c == ']' || c == -1 || isWhitespace(c)) {
+					this.peeked = c;
+					return;
+				}
+			}
+		}
+	}
+
+	private void expect(char expected) throws IOException {
+		int c = nextNonWhitespace();
+		if (c != expected) {
+			throw syntaxError(c);
+		}
+	}
+
+	private int nextNonWhitespace() throws IOException {
+		int c;
+		do {
+			c = read();
+		} while (isWhitespace(c));
+		return c;
+	}
+
+	private int read() throws IOException {
+		if (this.peeked != -1) {
+			int c = this.peeked;
+			this.peeked = -1;
+			return c;
+		}
+		if (this.bufferPos == this.bufferLimit) {
+			this.bufferLimit = this.reader.read(this.buffer, 0, this.buffer.length);
+			this.bufferPos = 0;
+			if (this.bufferLimit <= 0) {
+				this.bufferLimit = 0;
+				return -1;
+			}
+		}
+		return this.buffer[this.bufferPos++];
+	}
+
+	private static boolean isWhitespace(int c) {
+		return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+	}
+
+	private static boolean equals(StringBuilder sb, String s) {
+		if (sb.length() != s.length()) {
+			return false;
+		}
+		for (int i = 0; i < s.length(); i++) {
+			if (sb.charAt(i) != s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean equalsIgnoreCase(StringBuilder sb, String s) {
+		if (sb.length() != s.length()) {
+			return false;
+		}
+		for (int i = 0; i < s.length(); i++) {
+			if (Character.toLowerCase(sb.charAt(i)) != Character.toLowerCase(s.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static IOException syntaxError(int c) {
+		return new IOException(c == -1 ? "Unexpected end of JSON!" : "Unexpected character '" + (char) c + "' in JSON!");
+	}
+}
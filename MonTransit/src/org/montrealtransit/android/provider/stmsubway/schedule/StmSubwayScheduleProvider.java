@@ -1,23 +1,31 @@
 package org.montrealtransit.android.provider.stmsubway.schedule;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.montrealtransit.android.MyLog;
 import org.montrealtransit.android.R;
+import org.montrealtransit.android.data.Departures;
 import org.montrealtransit.android.data.RouteTripStop;
-import org.montrealtransit.android.provider.DataStore.Cache;
+import org.montrealtransit.android.provider.StmSubwayManager;
+import org.montrealtransit.android.provider.common.AbstractManager;
 import org.montrealtransit.android.provider.common.AbstractScheduleProvider;
+import org.montrealtransit.android.provider.common.NextDeparturesTable;
+import org.montrealtransit.android.provider.common.RouteTripStopColumns;
 import org.montrealtransit.android.provider.common.ServiceDateColumns;
 
 import android.content.Context;
@@ -43,6 +51,8 @@ public class StmSubwayScheduleProvider extends AbstractScheduleProvider {
 	public void ping() {
 		// remove this app icon
 		// SplashScreen.removeLauncherIcon(getContext());
+		// precompute the next departures table (on demand)
+		scheduleNextDeparturesTableUpdate(System.currentTimeMillis(), 0);
 	}
 
 	@Override
@@ -55,7 +65,10 @@ public class StmSubwayScheduleProvider extends AbstractScheduleProvider {
 		return URI_MATCHER;
 	}
 
-	private StmSubwayScheduleDbHelper getDBHelper(Context context) {
+	/**
+	 * Synchronized: used by the binder threads and by the next departures table background computation.
+	 */
+	private static synchronized StmSubwayScheduleDbHelper getDBHelper(Context context) {
 		MyLog.v(TAG, "getDBHelper()");
 		if (stmSubwayScheduleDbHelper == null) { // initialize
 			MyLog.d(TAG, "Initialize DB...");
@@ -77,79 +90,272 @@ public class StmSubwayScheduleProvider extends AbstractScheduleProvider {
 		return stmSubwayScheduleDbHelper;
 	}
 
-	// NOT THREAD SAFE
+	// NOT THREAD SAFE: synchronized on DATE_FORMAT
 	private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyyMMdd");
-	// NOT THREAD SAFE
+	// NOT THREAD SAFE: synchronized on DATE_FORMAT
 	private static final SimpleDateFormat TIME_FORMAT = new SimpleDateFormat("HHmmss");
 
 	@Override
-	public Cursor getDeparture(RouteTripStop routeTripStop, Calendar now, Cache cache, String cacheUUID) {
+	public boolean hasStopTimetable() {
+		return true;
+	}
+
+	@Override
+	public Departures getDeparture(RouteTripStop routeTripStop, Calendar now, Departures cache, String cacheUUID) {
+		return findDepartures(Collections.singletonList(routeTripStop), now).get(routeTripStop.getUUID());
+	}
+
+	@Override
+	public Map<String, Departures> getDepartures(List<RouteTripStop> routeTripStops, Calendar now, Map<String, Departures> caches) {
+		return findDepartures(routeTripStops, now);
+	}
+
+	/**
+	 * Find the departures of the route trip stops (reading each stop schedule file only once for all the trips and service days).
+	 * <p>
+	 * All the route trip stops of the same stop (stop departure board) are computed in one pass of the stop schedule file and saved to cache.
+	 * @param routeTripStops the route trip stops
+	 * @param now the time
+	 * @return the departures by route trip stop UUID (saved to cache)
+	 */
+	private Map<String, Departures> findDepartures(List<RouteTripStop> routeTripStops, Calendar now) {
+		Map<String, Departures> result = new HashMap<String, Departures>();
+		// 1st - use the precomputed next departures table (if available for this time)
+		final NextDeparturesTable table = nextDeparturesTable;
+		final long nowInMs = now.getTimeInMillis();
+		if (table == null || !table.isInHorizon(nowInMs)) {
+			scheduleNextDeparturesTableUpdate(nowInMs, 0);
+		}
+		List<RouteTripStop> routeTripStopsToRead = new ArrayList<RouteTripStop>();
+		for (RouteTripStop routeTripStop : routeTripStops) {
+			final Departures departures = new Departures(getContext().getString(R.string.offline_schedule), false);
+			if (table != null && table.findDepartures(routeTripStop.stop.id, routeTripStop.trip.id, nowInMs, departures)) {
+				setNoDeparturesError(routeTripStop, departures);
+				// save to cache
+				saveToCache(routeTripStop.getUUID() + getAUTHORITY(), departures);
+				result.put(routeTripStop.getUUID(), departures);
+			} else {
+				routeTripStopsToRead.add(routeTripStop);
+			}
+		}
+		if (routeTripStopsToRead.size() == 0) {
+			return result;
+		}
+		// 2nd - read the schedule files (outside the precomputed horizon)
+		final List<ServiceDay> serviceDays = getServiceDays(now);
+		// group route trip stops by stop (1 schedule file / stop)
+		Map<Integer, List<RouteTripStop>> stopIdToRouteTripStops = new HashMap<Integer, List<RouteTripStop>>();
+		for (RouteTripStop routeTripStop : routeTripStopsToRead) {
+			List<RouteTripStop> stopRouteTripStops = stopIdToRouteTripStops.get(routeTripStop.stop.id);
+			if (stopRouteTripStops == null) {
+				stopRouteTripStops = new ArrayList<RouteTripStop>();
+				stopIdToRouteTripStops.put(routeTripStop.stop.id, stopRouteTripStops);
+			}
+			stopRouteTripStops.add(routeTripStop);
+		}
+		for (Map.Entry<Integer, List<RouteTripStop>> stopRouteTripStops : stopIdToRouteTripStops.entrySet()) {
+			Set<Integer> tripIds = new HashSet<Integer>();
+			for (RouteTripStop routeTripStop : stopRouteTripStops.getValue()) {
+				tripIds.add(routeTripStop.trip.id);
+			}
+			final Map<Integer, Set<Long>> tripIdToTimestamps = findScheduleLists(stopRouteTripStops.getKey(), tripIds, serviceDays);
+			for (RouteTripStop routeTripStop : stopRouteTripStops.getValue()) {
+				final Departures departures = getDepartures(routeTripStop, tripIdToTimestamps.get(routeTripStop.trip.id));
+				// save to cache
+				saveToCache(routeTripStop.getUUID() + getAUTHORITY(), departures);
+				result.put(routeTripStop.getUUID(), departures);
+			}
+		}
+		return result;
+	}
+
+	private Departures getDepartures(RouteTripStop routeTripStop, Set<Long> timestamps) {
+		final Departures departures = new Departures(getContext().getString(R.string.offline_schedule), false);
+		if (timestamps != null) {
+			for (Long timestamp : timestamps) {
+				departures.addTimestamp(timestamp);
+			}
+		}
+		departures.sortTimestamps();
+		setNoDeparturesError(routeTripStop, departures);
+		// MyLog.d(TAG, "departures: %s", departures);
+		return departures;
+	}
+
+	private void setNoDeparturesError(RouteTripStop routeTripStop, Departures departures) {
+		if (!departures.hasTimestamps()) {
+			departures.setError(getContext().getString(R.string.stop_no_info_and_source, routeTripStop.route.shortName,
+					getContext().getString(R.string.offline_schedule)));
+		}
+	}
+
+	/**
+	 * The STM service day starts at 05:00 AM.
+	 */
+	private static final int SERVICE_DAY_START_HOUR = 5;
+
+	/**
+	 * All the departures of all the subway trip stops for the current service day (null until computed). The whole service day is kept (not only
+	 * the next N departures by trip stop) so the table stays valid until the service day rollover instead of being recomputed as departures pass.
+	 */
+	private static volatile NextDeparturesTable nextDeparturesTable;
+
+	private static final ScheduledExecutorService NEXT_DEPARTURES_TABLE_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+	private static final AtomicBoolean nextDeparturesTableUpdateScheduled = new AtomicBoolean(false);
+
+	/**
+	 * Schedule the computation of the next departures table for the service day of the time-stamp (in background).
+	 * @param timestamp the time-stamp
+	 * @param delayInMs the delay before starting
+	 */
+	private void scheduleNextDeparturesTableUpdate(final long timestamp, long delayInMs) {
+		final NextDeparturesTable table = nextDeparturesTable;
+		if (delayInMs == 0 && table != null && table.isInHorizon(timestamp)) {
+			return; // already computed
+		}
+		if (!nextDeparturesTableUpdateScheduled.compareAndSet(false, true)) {
+			return; // already scheduled
+		}
+		NEXT_DEPARTURES_TABLE_EXECUTOR.schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					nextDeparturesTableUpdateScheduled.set(false);
+					final long startInMs = getServiceDayStart(Math.max(timestamp, System.currentTimeMillis()));
+					nextDeparturesTable = computeNextDeparturesTable(startInMs);
+					// refresh again at service day rollover
+					scheduleNextDeparturesTableUpdate(nextDeparturesTable.getEndInMs(), nextDeparturesTable.getEndInMs() - System.currentTimeMillis());
+				} catch (Throwable t) {
+					MyLog.w(TAG, t, "Error while computing the next departures table!");
+				}
+			}
+		}, Math.max(0, delayInMs), TimeUnit.MILLISECONDS);
+	}
+
+	private static long getServiceDayStart(long timestamp) {
+		Calendar serviceDayStart = Calendar.getInstance();
+		serviceDayStart.setTimeInMillis(timestamp);
+		if (serviceDayStart.get(Calendar.HOUR_OF_DAY) < SERVICE_DAY_START_HOUR) {
+			serviceDayStart.add(Calendar.DATE, -1); // still yesterday service day
+		}
+		serviceDayStart.set(Calendar.HOUR_OF_DAY, SERVICE_DAY_START_HOUR);
+		serviceDayStart.set(Calendar.MINUTE, 0);
+		serviceDayStart.set(Calendar.SECOND, 0);
+		serviceDayStart.set(Calendar.MILLISECOND, 0);
+		return serviceDayStart.getTimeInMillis();
+	}
+
+	private static final String[] PROJECTION_STOP_TRIP = new String[] { RouteTripStopColumns.T_STOP_K_ID, RouteTripStopColumns.T_TRIP_K_ID };
+
+	/**
+	 * Compute the departures of all the subway trip stops from the start of the service day (reading each stop schedule file once).
+	 * @param startInMs the service day start
+	 * @return the next departures table
+	 */
+	private NextDeparturesTable computeNextDeparturesTable(long startInMs) {
+		MyLog.v(TAG, "computeNextDeparturesTable(%s)", startInMs);
+		final long startTime = System.currentTimeMillis();
+		Calendar start = Calendar.getInstance();
+		start.setTimeInMillis(startInMs);
+		Calendar end = (Calendar) start.clone();
+		end.add(Calendar.DATE, +1);
+		// find all subway trips by stop
+		Map<Integer, Set<Integer>> stopIdToTripIds = new HashMap<Integer, Set<Integer>>();
+		Cursor cursor = null;
 		try {
-			List<Long> allTimestamps = new ArrayList<Long>();
-			// 1ST - check if YESTERDAY schedule is over (because trips started yesterday end with 240000+ time)
-			MyLog.d(TAG, "Checking if yesterday schedule is over...");
-			Calendar yesterday = (Calendar) now.clone();
-			yesterday.add(Calendar.DATE, -1);
-			final String dateYesterday = DATE_FORMAT.format(yesterday.getTime());
-			// MyLog.d(TAG, "Date Yesterday: %s", dateYesterday);
-			final String timeYesterday = String.valueOf(Integer.valueOf(TIME_FORMAT.format(yesterday.getTime())) + 240000);
-			// yesterday.add(Calendar.DATE, +1); TODO ?
-			// MyLog.d(TAG, "Time Yesterday: %s", timeYesterday);
-			final Set<Long> yesterdayTimestamps = findScheduleList(routeTripStop.route.id, routeTripStop.trip.id, routeTripStop.stop.id, dateYesterday,
-					timeYesterday);
-			// MyLog.d(TAG, "result: %s", yesterdayTimestamps.size());
-			allTimestamps.addAll(yesterdayTimestamps);
-			MyLog.d(TAG, "Checking if yesterday schedule is over... DONE");
-			// 2ND - check TODAY schedule
-			MyLog.d(TAG, "Checking today schedule...");
-			final String dateNow = DATE_FORMAT.format(now.getTime());
-			// MyLog.d(TAG, "Date Now: %s", dateNow);
-			final String timeNow = TIME_FORMAT.format(now.getTime());
-			// MyLog.d(TAG, "Time Now: %s", timeNow);
-			final Set<Long> todayTimestamps = findScheduleList(routeTripStop.route.id, routeTripStop.trip.id, routeTripStop.stop.id, dateNow, timeNow);
-			// MyLog.d(TAG, "result: %s", todayTimestamps.size());
-			allTimestamps.addAll(todayTimestamps);
-			MyLog.d(TAG, "Checking today schedule... DONE");
-			// 3RD - look for last schedule => not necessary, query should ask for now minus the previous duration they want to have
-			// 4TH - check TOMORROW schedule
-			MyLog.d(TAG, "Checking tomorrow schedule...");
-			Calendar tomorrow = (Calendar) now.clone();
-			tomorrow.add(Calendar.DATE, +1);
-			final String tomorrowDate = DATE_FORMAT.format(tomorrow.getTime());
-			// MyLog.d(TAG, "Date tomorrow: %s", tomorrowDate);
-			// tomorrow.add(Calendar.DATE, -1);// TODO?
-			final String afterMidnightHour = "000000";
-			// MyLog.d(TAG, "Date tomorrow: %s", afterMidnightHour);
-			final Set<Long> tomorrowTimestamps = findScheduleList(routeTripStop.route.id, routeTripStop.trip.id, routeTripStop.stop.id, tomorrowDate,
-					afterMidnightHour);
-			// MyLog.d(TAG, "result: %s", tomorrowTimestamps.size());
-			allTimestamps.addAll(tomorrowTimestamps);
-			MyLog.d(TAG, "Checking tomorrow schedule... DONE");
-			// create JSON
-			final JSONObject jResult = new JSONObject();
-			jResult.put("realtime", false);
-			jResult.put("source", getContext().getString(R.string.offline_schedule));
-			final JSONArray jTimestamps = new JSONArray();
-			Collections.sort(allTimestamps);
-			for (Long t : allTimestamps) {
-				jTimestamps.put(t);
+			cursor = getContext().getContentResolver().query(AbstractManager.getRouteTripStopUri(StmSubwayManager.CONTENT_URI), PROJECTION_STOP_TRIP,
+					null, null, null);
+			if (cursor != null && cursor.getCount() > 0) {
+				if (cursor.moveToFirst()) {
+					do {
+						final int stopId = cursor.getInt(0);
+						Set<Integer> tripIds = stopIdToTripIds.get(stopId);
+						if (tripIds == null) {
+							tripIds = new HashSet<Integer>();
+							stopIdToTripIds.put(stopId, tripIds);
+						}
+						tripIds.add(cursor.getInt(1));
+					} while (cursor.moveToNext());
+				}
 			}
-			jResult.put("timestamps", jTimestamps);
-			if (jTimestamps.length() == 0) {
-				jResult.put(
-						"error",
-						getContext().getString(R.string.stop_no_info_and_source, routeTripStop.route.shortName,
-								getContext().getString(R.string.offline_schedule)));
+		} finally {
+			if (cursor != null) {
+				cursor.close();
 			}
-			// MyLog.d(TAG, "jResult: %s", jResult);
-			// save to cache
-			saveToCache(cacheUUID, jResult);
-			// return result
-			return getDepartureCursor(jResult);
-		} catch (JSONException jsone) {
-			MyLog.w(TAG, jsone, "Error while parsing JSON '%s'!", routeTripStop);
-			return null;
 		}
+		// read each stop schedule file once
+		final List<ServiceDay> serviceDays = getServiceDays(start);
+		Map<Long, Set<Long>> keyToTimestamps = new HashMap<Long, Set<Long>>();
+		for (Map.Entry<Integer, Set<Integer>> stopTripIds : stopIdToTripIds.entrySet()) {
+			final Map<Integer, Set<Long>> tripIdToTimestamps = findScheduleLists(stopTripIds.getKey(), stopTripIds.getValue(), serviceDays);
+			for (Map.Entry<Integer, Set<Long>> tripTimestamps : tripIdToTimestamps.entrySet()) {
+				keyToTimestamps.put(NextDeparturesTable.getKey(stopTripIds.getKey(), tripTimestamps.getKey()), tripTimestamps.getValue());
+			}
+			for (Integer tripId : stopTripIds.getValue()) {
+				if (!tripIdToTimestamps.containsKey(tripId)) {
+					keyToTimestamps.put(NextDeparturesTable.getKey(stopTripIds.getKey(), tripId), new HashSet<Long>()); // no departure
+				}
+			}
+		}
+		final NextDeparturesTable table = NextDeparturesTable.build(startInMs, end.getTimeInMillis(), keyToTimestamps);
+		MyLog.d(TAG, "Next departures table computed in %s ms (%s).", System.currentTimeMillis() - startTime, table);
+		return table;
+	}
+
+	/**
+	 * A service day to look for departures.
+	 */
+	public static class ServiceDay {
+		/**
+		 * The date (yyyyMMdd).
+		 */
+		private String dateS;
+		/**
+		 * Only departures after this time (HHmmss).
+		 */
+		private long timeI;
+		/**
+		 * The services running this date.
+		 */
+		private Set<String> serviceIds;
+
+		public ServiceDay(String dateS, String timeS, Set<String> serviceIds) {
+			this.dateS = dateS;
+			this.timeI = Integer.parseInt(timeS);
+			this.serviceIds = serviceIds;
+		}
+	}
+
+	private List<ServiceDay> getServiceDays(Calendar now) {
+		List<ServiceDay> serviceDays = new ArrayList<ServiceDay>();
+		// 1ST - check if YESTERDAY schedule is over (because trips started yesterday end with 240000+ time)
+		Calendar yesterday = (Calendar) now.clone();
+		yesterday.add(Calendar.DATE, -1);
+		Calendar tomorrow = (Calendar) now.clone();
+		tomorrow.add(Calendar.DATE, +1);
+		final String dateYesterday;
+		final String timeYesterday;
+		final String dateNow;
+		final String timeNow;
+		final String tomorrowDate;
+		synchronized (DATE_FORMAT) { // also used by the next departures table background computation
+			dateYesterday = DATE_FORMAT.format(yesterday.getTime());
+			timeYesterday = String.valueOf(Integer.valueOf(TIME_FORMAT.format(yesterday.getTime())) + 240000);
+			dateNow = DATE_FORMAT.format(now.getTime());
+			timeNow = TIME_FORMAT.format(now.getTime());
+			tomorrowDate = DATE_FORMAT.format(tomorrow.getTime());
+		}
+		// yesterday.add(Calendar.DATE, +1); TODO ?
+		serviceDays.add(new ServiceDay(dateYesterday, timeYesterday, findServices(dateYesterday)));
+		// 2ND - check TODAY schedule
+		serviceDays.add(new ServiceDay(dateNow, timeNow, findServices(dateNow)));
+		// 3RD - look for last schedule => not necessary, query should ask for now minus the previous duration they want to have
+		// 4TH - check TOMORROW schedule
+		// tomorrow.add(Calendar.DATE, -1);// TODO?
+		final String afterMidnightHour = "000000";
+		serviceDays.add(new ServiceDay(tomorrowDate, afterMidnightHour, findServices(tomorrowDate)));
+		return serviceDays;
 	}
 
 	public static final int CACHE_MAX_VALIDITY_IN_SEC = 24 * 60 * 60; // 1 day
@@ -175,55 +381,18 @@ public class StmSubwayScheduleProvider extends AbstractScheduleProvider {
 	private static final int STOP_SCHEDULE_FILE_COL_STOP_IDX = 2;
 	private static final int STOP_SCHEDULE_FILE_COL_DEPARTURE_IDX = 3;
 
-	private Set<Long> findScheduleList(int routeId, int tripId, int stopId, String dateS, String timeS) {
-		MyLog.v(TAG, "findScheduleList(%s,%s,%s,%s,%s)", routeId, tripId, stopId, dateS, timeS);
-		long timeI = Integer.parseInt(timeS);
-		Set<Long> result = new HashSet<Long>();
-		// 1st find date service(s) in DB
-		Set<String> serviceIds = findServices(dateS);
-		// MyLog.d(TAG, "findScheduleList() > found %s service(s)", serviceIds.size());
-		// 2nd read schedule file
+	private Map<Integer, Set<Long>> findScheduleLists(int stopId, Set<Integer> tripIds, List<ServiceDay> serviceDays) {
+		MyLog.v(TAG, "findScheduleLists(%s,%s,%s)", stopId, tripIds, serviceDays.size());
+		Map<Integer, Set<Long>> result = new HashMap<Integer, Set<Long>>();
+		// read schedule file (once for all trips & service days)
 		BufferedReader br = null;
-		String line = null;
 		String fileName = String.format(RAW_FILE_FORMAT, stopId);
 		try {
 			br = new BufferedReader(new InputStreamReader(getContext().getResources().openRawResource(
 					getContext().getResources().getIdentifier(fileName, "raw", getContext().getPackageName())), "UTF8"), 8192);
-			while ((line = br.readLine()) != null) {
-				try {
-					String[] lineItems = line.split(",");
-					if (lineItems.length != 4) {
-						MyLog.w(TAG, "Cannot parse schedule '%s'!", line);
-						continue;
-					}
-					final String lineServiceId = lineItems[STOP_SCHEDULE_FILE_COL_SERVICE_IDX].substring(1, lineItems[STOP_SCHEDULE_FILE_COL_SERVICE_IDX].length() - 1);
-					if (!serviceIds.contains(lineServiceId)) {
-						// MyLog.d(TAG, "Wrong service id '%s' while looking for service ids '%s'!", lineServiceId, serviceIds);
-						continue;
-					}
-					// MyLog.d(TAG, "GOOD service id '%s' while looking for service ids '%s'!", lineServiceId, serviceIds);
-					final int lineTripId = Integer.parseInt(lineItems[STOP_SCHEDULE_FILE_COL_TRIP_IDX]);
-					if (tripId != lineTripId) { // TODO LATER other trip ID schedule maybe useful in cache ???
-						// MyLog.d(TAG, "Wrong trip id '%s' while looking for trip id '%s'!", lineTripId, tripId);
-						continue;
-					}
-					final int lineStopId = Integer.parseInt(lineItems[STOP_SCHEDULE_FILE_COL_STOP_IDX]);
-					if (stopId != lineStopId) {
-						MyLog.w(TAG, "Wrong stop id '%s' while looking for stop id '%s'!", lineStopId, stopId);
-						continue;
-					}
-					final int lineDeparture = Integer.parseInt(lineItems[STOP_SCHEDULE_FILE_COL_DEPARTURE_IDX]);
-					if (lineDeparture > timeI) {
-						result.add(convertToTimestamp(lineDeparture, dateS));
-						// } else {
-						// MyLog.d(TAG, "Too soon '%s' (after:%s)!", lineDeparture, timeI);
-					}
-				} catch (Exception e) {
-					MyLog.w(TAG, e, "Cannot parse schedule '%s' (fileName: %s)!", line, fileName);
-				}
-			}
+			result = readScheduleLists(br, stopId, tripIds, serviceDays);
 		} catch (Exception e) {
-			MyLog.w(TAG, e, "ERROR while reading stop time from file! (fileName: %s, line: %s)", fileName, line);
+			MyLog.w(TAG, e, "ERROR while reading stop time from file! (fileName: %s)", fileName);
 		} finally {
 			try {
 				if (br != null) {
@@ -236,6 +405,63 @@ public class StmSubwayScheduleProvider extends AbstractScheduleProvider {
 		return result;
 	}
 
+	/**
+	 * Read the departures of the trips from a stop schedule file (no Android dependency, used by the benchmarks).
+	 * @param br the stop schedule file reader
+	 * @param stopId the stop ID
+	 * @param tripIds the trip IDs
+	 * @param serviceDays the service days
+	 * @return the departures time-stamps by trip ID
+	 */
+	public static Map<Integer, Set<Long>> readScheduleLists(BufferedReader br, int stopId, Set<Integer> tripIds, List<ServiceDay> serviceDays)
+			throws IOException {
+		Map<Integer, Set<Long>> result = new HashMap<Integer, Set<Long>>();
+		String line = null;
+		while ((line = br.readLine()) != null) {
+			try {
+				String[] lineItems = line.split(",");
+				if (lineItems.length != 4) {
+					MyLog.w(TAG, "Cannot parse schedule '%s'!", line);
+					continue;
+				}
+				final String lineServiceId = lineItems[STOP_SCHEDULE_FILE_COL_SERVICE_IDX].substring(1, lineItems[STOP_SCHEDULE_FILE_COL_SERVICE_IDX].length() - 1);
+				final int lineTripId = Integer.parseInt(lineItems[STOP_SCHEDULE_FILE_COL_TRIP_IDX]);
+				if (!tripIds.contains(lineTripId)) { // other trips are only read if requested (stop departure board)
+					continue;
+				}
+				final int lineStopId = Integer.parseInt(lineItems[STOP_SCHEDULE_FILE_COL_STOP_IDX]);
+				if (stopId != lineStopId) {
+					MyLog.w(TAG, "Wrong stop id '%s' while looking for stop id '%s'!", lineStopId, stopId);
+					continue;
+				}
+				int lineDeparture = -1;
+				for (ServiceDay serviceDay : serviceDays) {
+					if (!serviceDay.serviceIds.contains(lineServiceId)) {
+						continue;
+					}
+					if (lineDeparture < 0) {
+						lineDeparture = Integer.parseInt(lineItems[STOP_SCHEDULE_FILE_COL_DEPARTURE_IDX]);
+					}
+					if (lineDeparture > serviceDay.timeI) {
+						final Long timestamp = convertToTimestamp(lineDeparture, serviceDay.dateS);
+						if (timestamp == null) {
+							continue;
+						}
+						Set<Long> tripTimestamps = result.get(lineTripId);
+						if (tripTimestamps == null) {
+							tripTimestamps = new HashSet<Long>();
+							result.put(lineTripId, tripTimestamps);
+						}
+						tripTimestamps.add(timestamp);
+					}
+				}
+			} catch (Exception e) {
+				MyLog.w(TAG, e, "Cannot parse schedule '%s' (stop: %s)!", line, stopId);
+			}
+		}
+		return result;
+	}
+
 	public Set<String> findServices(String dateS) {
 		Set<String> serviceIds = new HashSet<String>();
 		Cursor cursor = null;
@@ -266,12 +492,14 @@ public class StmSubwayScheduleProvider extends AbstractScheduleProvider {
 		return serviceIds;
 	}
 
-	// NOT THREAD SAFE
+	// NOT THREAD SAFE: synchronized on TO_TIMESTAMP_FORMAT
 	public static final SimpleDateFormat TO_TIMESTAMP_FORMAT = new SimpleDateFormat("yyyyMMdd" + "HHmmss");
 
-	private Long convertToTimestamp(int timeInt, String dateS) {
+	private static Long convertToTimestamp(int timeInt, String dateS) {
 		try {
-			return TO_TIMESTAMP_FORMAT.parse(dateS + String.format("%06d", timeInt)).getTime();
+			synchronized (TO_TIMESTAMP_FORMAT) { // also used by the next departures table background computation
+				return TO_TIMESTAMP_FORMAT.parse(dateS + String.format("%06d", timeInt)).getTime();
+			}
 		} catch (Exception e) {
 			MyLog.w(TAG, e, "Error while parsing time %s %s!", dateS, timeInt);
 			return null;
@@ -4,7 +4,6 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.montrealtransit.android.MyLog;
-import org.montrealtransit.android.Utils;
 import org.montrealtransit.android.provider.BixiStore.BikeStation;
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
@@ -48,12 +47,17 @@ public class BixiBikeStationsDataHandler extends DefaultHandler implements Conte
 	private static final String SUPPORTED_VERSIONS = "2.0";
 
 	/**
-	 * The current element name.
+	 * The current element text (reused for all elements).
 	 */
-	private String currentLocalName = STATIONS;
+	private char[] buffer = new char[64];
 
 	/**
-	 * The bike stations.
+	 * The current element text length.
+	 */
+	private int bufferLength = 0;
+
+	/**
+	 * The bike stations (only if no listener).
 	 */
 	private List<BikeStation> bikeStations = new ArrayList<BikeStation>();
 	// /**
@@ -61,13 +65,32 @@ public class BixiBikeStationsDataHandler extends DefaultHandler implements Conte
 	// */
 	// private int lastUpdate = -1;
 
+	/**
+	 * The listener receiving each bike station as soon as parsed or null.
+	 */
+	private BikeStationListener listener;
+
 	/**
 	 * The current bike station or null.
 	 */
 	private BikeStation currentBikeStation = null;
 
 	/**
-	 * @return the list of bike stations
+	 * Parsed bike stations are returned by {@link #getBikeStations()}.
+	 */
+	public BixiBikeStationsDataHandler() {
+		this(null);
+	}
+
+	/**
+	 * @param listener the listener receiving each bike station as soon as parsed (not stored in {@link #getBikeStations()}) or null
+	 */
+	public BixiBikeStationsDataHandler(BikeStationListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @return the list of bike stations (empty if a listener is set)
 	 */
 	public List<BikeStation> getBikeStations() {
 		return this.bikeStations;
@@ -88,7 +111,7 @@ public class BixiBikeStationsDataHandler extends DefaultHandler implements Conte
 	@Override
 	public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
 		// MyLog.v(TAG, "startElement(%s,%s,%s)", uri, localName, qName);
-		this.currentLocalName = localName;
+		this.bufferLength = 0;
 		if (STATIONS.equals(localName)) {
 			// read version attribute
 			String version = attributes.getValue(STATIONS_VERSION);
@@ -108,43 +131,14 @@ public class BixiBikeStationsDataHandler extends DefaultHandler implements Conte
 	public void characters(char[] ch, int start, int length) throws SAXException {
 		// MyLog.v(TAG, "characters(%s)", new String(ch, start, length));
 		if (this.currentBikeStation != null) {
-			try {
-				String string = new String(ch, start, length).trim();
-				if (ID.equals(this.currentLocalName)) {
-					// do not store source ID as it only represents the current position in the XML list
-					// this.currentBikeStation.setId(Integer.valueOf(string));
-				} else if (NAME.equals(this.currentLocalName)) {
-					this.currentBikeStation.setName(string);
-				} else if (TERMINAL_NAME.equals(this.currentLocalName)) {
-					this.currentBikeStation.setTerminalName(string);
-				} else if (LAST_COMM_WITH_SERVER.equals(this.currentLocalName)) {
-					this.currentBikeStation.setLastCommWithServer(Utils.toTimestampInSeconds(Long.valueOf(string)));
-				} else if (LAT.equals(this.currentLocalName)) {
-					this.currentBikeStation.setLat(Double.valueOf(string));
-				} else if (LONG.equals(this.currentLocalName)) {
-					this.currentBikeStation.setLng(Double.valueOf(string));
-				} else if (INSTALLED.equals(this.currentLocalName)) {
-					this.currentBikeStation.setInstalled(Boolean.valueOf(string));
-				} else if (LOCKED.equals(this.currentLocalName)) {
-					this.currentBikeStation.setLocked(Boolean.valueOf(string));
-				} else if (INSTALL_DATE.equals(this.currentLocalName)) {
-					this.currentBikeStation.setInstallDate(Utils.toTimestampInSeconds(Long.valueOf(string)));
-				} else if (REMOVAL_DATE.equals(this.currentLocalName)) {
-					this.currentBikeStation.setRemovalDate(Utils.toTimestampInSeconds(Long.valueOf(string)));
-				} else if (TEMPORARY.equals(this.currentLocalName)) {
-					this.currentBikeStation.setTemporary(Boolean.valueOf(string));
-				} else if (PUBLIC.equals(this.currentLocalName)) {
-					this.currentBikeStation.setPublicStation(Boolean.valueOf(string));
-				} else if (NB_BIKES.equals(this.currentLocalName)) {
-					this.currentBikeStation.setNbBikes(Integer.valueOf(string));
-				} else if (NB_EMPTY_DOCKS.equals(this.currentLocalName)) {
-					this.currentBikeStation.setNbEmptyDocks(Integer.valueOf(string));
-				} else if (LATEST_UPDATE_TIME.equals(this.currentLocalName)) {
-					this.currentBikeStation.setLatestUpdateTime(Utils.toTimestampInSeconds(Long.valueOf(string)));
-				}
-			} catch (Exception e) {
-				MyLog.w(TAG, "Error while parsing '%s'!", e);
+			// the text of an element can be split in multiple calls
+			if (this.bufferLength + length > this.buffer.length) {
+				char[] newBuffer = new char[Math.max(this.buffer.length * 2, this.bufferLength + length)];
+				System.arraycopy(this.buffer, 0, newBuffer, 0, this.bufferLength);
+				this.buffer = newBuffer;
 			}
+			System.arraycopy(ch, start, this.buffer, this.bufferLength, length);
+			this.bufferLength += length;
 		}
 		// super.characters(ch, start, length);
 	}
@@ -152,10 +146,100 @@ public class BixiBikeStationsDataHandler extends DefaultHandler implements Conte
 	@Override
 	public void endElement(String uri, String localName, String qName) throws SAXException {
 		// MyLog.v(TAG, "endElement(%s,%s,%s)", uri, localName, qName);
+		if (this.currentBikeStation == null) {
+			return;
+		}
 		if (STATION.equals(localName)) {
-			this.bikeStations.add(this.currentBikeStation);
+			if (this.listener != null) {
+				this.listener.onBikeStation(this.currentBikeStation);
+			} else {
+				this.bikeStations.add(this.currentBikeStation);
+			}
 			this.currentBikeStation = null;
+			return;
+		}
+		// trim
+		int start = 0;
+		int end = this.bufferLength;
+		while (start < end && this.buffer[start] <= ' ') {
+			start++;
+		}
+		while (end > start && this.buffer[end - 1] <= ' ') {
+			end--;
+		}
+		this.bufferLength = 0;
+		if (start == end) {
+			return; // empty element
 		}
+		try {
+			if (ID.equals(localName)) {
+				// do not store source ID as it only represents the current position in the XML list
+				// this.currentBikeStation.setId(Integer.valueOf(string));
+			} else if (NAME.equals(localName)) {
+				this.currentBikeStation.setName(new String(this.buffer, start, end - start));
+			} else if (TERMINAL_NAME.equals(localName)) {
+				this.currentBikeStation.setTerminalName(new String(this.buffer, start, end - start));
+			} else if (LAST_COMM_WITH_SERVER.equals(localName)) {
+				this.currentBikeStation.setLastCommWithServer((int) (parseLong(this.buffer, start, end) / 1000));
+			} else if (LAT.equals(localName)) {
+				this.currentBikeStation.setLat(Double.parseDouble(new String(this.buffer, start, end - start)));
+			} else if (LONG.equals(localName)) {
+				this.currentBikeStation.setLng(Double.parseDouble(new String(this.buffer, start, end - start)));
+			} else if (INSTALLED.equals(localName)) {
+				this.currentBikeStation.setInstalled(parseBoolean(this.buffer, start, end));
+			} else if (LOCKED.equals(localName)) {
+				this.currentBikeStation.setLocked(parseBoolean(this.buffer, start, end));
+			} else if (INSTALL_DATE.equals(localName)) {
+				this.currentBikeStation.setInstallDate((int) (parseLong(this.buffer, start, end) / 1000));
+			} else if (REMOVAL_DATE.equals(localName)) {
+				this.currentBikeStation.setRemovalDate((int) (parseLong(this.buffer, start, end) / 1000));
+			} else if (TEMPORARY.equals(localName)) {
+				this.currentBikeStation.setTemporary(parseBoolean(this.buffer, start, end));
+			} else if (PUBLIC.equals(localName)) {
+				this.currentBikeStation.setPublicStation(parseBoolean(this.buffer, start, end));
+			} else if (NB_BIKES.equals(localName)) {
+				this.currentBikeStation.setNbBikes((int) parseLong(this.buffer, start, end));
+			} else if (NB_EMPTY_DOCKS.equals(localName)) {
+				this.currentBikeStation.setNbEmptyDocks((int) parseLong(this.buffer, start, end));
+			} else if (LATEST_UPDATE_TIME.equals(localName)) {
+				this.currentBikeStation.setLatestUpdateTime((int) (parseLong(this.buffer, start, end) / 1000));
+			}
+		} catch (Exception e) {
+			MyLog.w(TAG, "Error while parsing '%s'!", e);
+		}
+	}
+
+	/**
+	 * Parse a decimal number without creating a string.
+	 * @throws NumberFormatException if the text is not a number
+	 */
+	private static long parseLong(char[] text, int start, int end) {
+		boolean negative = false;
+		int i = start;
+		if (text[i] == '-' || text[i] == '+') {
+			negative = text[i] == '-';
+			i++;
+		}
+		if (i == end) {
+			throw new NumberFormatException(new String(text, start, end - start));
+		}
+		long result = 0;
+		for (; i < end; i++) {
+			final int digit = text[i] - '0';
+			if (digit < 0 || digit > 9) {
+				throw new NumberFormatException(new String(text, start, end - start));
+			}
+			result = result * 10 + digit;
+		}
+		return negative ? -result : result;
+	}
+
+	/**
+	 * @return true if the text is "true" (ignoring case) like {@link Boolean#valueOf(String)}
+	 */
+	private static boolean parseBoolean(char[] text, int start, int end) {
+		return end - start == 4 && Character.toLowerCase(text[start]) == 't' && Character.toLowerCase(text[start + 1]) == 'r'
+				&& Character.toLowerCase(text[start + 2]) == 'u' && Character.toLowerCase(text[start + 3]) == 'e';
 	}
 
 	// @Override
@@ -181,4 +265,15 @@ public class BixiBikeStationsDataHandler extends DefaultHandler implements Conte
 		MyLog.w(TAG, exception, "Warning while parsing XML!");
 	}
 
+	/**
+	 * Receives the bike stations as soon as parsed.
+	 */
+	public interface BikeStationListener {
+
+		/**
+		 * @param bikeStation the parsed bike station
+		 */
+		void onBikeStation(BikeStation bikeStation);
+	}
+
 }
\ No newline at end of file
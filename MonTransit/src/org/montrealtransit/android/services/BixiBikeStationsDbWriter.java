@@ -0,0 +1,163 @@
+package org.montrealtransit.android.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.montrealtransit.android.MyLog;
+import org.montrealtransit.android.provider.BixiManager;
+import org.montrealtransit.android.provider.BixiStore.BikeStation;
+
+import android.content.ContentResolver;
+
+/**
+ * Writes the bike stations to the database while they are parsed ({@link BixiBikeStationsDataHandler}):
+ * <ul>
+ * <li>the parser thread queues the bike stations as soon as parsed,</li>
+ * <li>the writer thread inserts or updates the queued bike stations in batches (1 transaction per batch),</li>
+ * <li>once the parsing is complete, the bike stations not in the XML are deleted.</li>
+ * </ul>
+ * {@link #finish(boolean)} MUST be called after {@link #start()}.
+ */
+public class BixiBikeStationsDbWriter implements BixiBikeStationsDataHandler.BikeStationListener, Runnable {
+
+	/**
+	 * The log tag.
+	 */
+	private static final String TAG = BixiBikeStationsDbWriter.class.getSimpleName();
+
+	/**
+	 * The maximum number of bike stations written in 1 transaction.
+	 */
+	public static final int MAX_BATCH_SIZE = 50;
+
+	/**
+	 * The end of the parsing marker.
+	 */
+	private static final BikeStation END = new BikeStation();
+
+	/**
+	 * The writer thread (1 writer at a time).
+	 */
+	private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor();
+
+	private ContentResolver contentResolver;
+
+	/**
+	 * The parsed bike stations not written yet.
+	 */
+	private BlockingQueue<BikeStation> queue = new LinkedBlockingQueue<BikeStation>();
+
+	/**
+	 * All the parsed bike stations (only read after {@link #finish(boolean)}).
+	 */
+	private List<BikeStation> bikeStations = new ArrayList<BikeStation>();
+
+	/**
+	 * True if all the bike stations have been parsed.
+	 */
+	private volatile boolean complete = false;
+
+	/**
+	 * True if the writer thread wrote all the queued bike stations.
+	 */
+	private volatile boolean done = false;
+
+	private Future<?> future;
+
+	private long startInMs;
+
+	private long firstBatchInMs = -1;
+
+	private int batches = 0;
+
+	private int written = 0;
+
+	/**
+	 * @param contentResolver the content resolver
+	 */
+	public BixiBikeStationsDbWriter(ContentResolver contentResolver) {
+		this.contentResolver = contentResolver;
+	}
+
+	/**
+	 * Start the writer thread.
+	 */
+	public void start() {
+		MyLog.v(TAG, "start()");
+		this.startInMs = System.currentTimeMillis();
+		this.future = EXECUTOR.submit(this);
+	}
+
+	@Override
+	public void onBikeStation(BikeStation bikeStation) {
+		this.queue.add(bikeStation);
+	}
+
+	/**
+	 * Wait for the queued bike stations to be written.
+	 * @param complete true if all the bike stations have been parsed (delete the bike stations not parsed)
+	 * @return all the parsed bike stations or null if the writer failed (some bike stations may not be written)
+	 */
+	public List<BikeStation> finish(boolean complete) {
+		MyLog.v(TAG, "finish(%s)", complete);
+		this.complete = complete;
+		this.queue.add(END);
+		try {
+			this.future.get();
+		} catch (InterruptedException ie) {
+			MyLog.d(TAG, "Interrupted while waiting for the writer!");
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException ee) {
+			MyLog.w(TAG, ee.getCause(), "Error while writing the bike stations!");
+		}
+		MyLog.d(TAG, "%s bike stations written (%s parsed) in %s batches, 1st batch after %s ms, done after %s ms (done: %s).", this.written,
+				this.bikeStations.size(), this.batches, this.firstBatchInMs, System.currentTimeMillis() - this.startInMs, this.done);
+		if (!this.done) {
+			return null;
+		}
+		return this.bikeStations;
+	}
+
+	@Override
+	public void run() {
+		List<BikeStation> batch = new ArrayList<BikeStation>(MAX_BATCH_SIZE);
+		boolean end = false;
+		try {
+			while (!end) {
+				batch.clear();
+				batch.add(this.queue.take()); // wait for the next bike station
+				this.queue.drainTo(batch, MAX_BATCH_SIZE - 1); // + the already parsed bike stations
+				if (batch.get(batch.size() - 1) == END) {
+					batch.remove(batch.size() - 1);
+					end = true;
+				}
+				if (batch.size() == 0) {
+					continue;
+				}
+				this.bikeStations.addAll(batch);
+				this.written += BixiManager.upsertBikeStations(this.contentResolver, batch);
+				if (this.batches == 0) {
+					this.firstBatchInMs = System.currentTimeMillis() - this.startInMs;
+				}
+				this.batches++;
+			}
+		} catch (InterruptedException ie) {
+			MyLog.d(TAG, "Writer interrupted!");
+			return;
+		}
+		if (this.complete && this.bikeStations.size() > 0) { // keep the local data if the XML is empty
+			String[] terminalNames = new String[this.bikeStations.size()];
+			for (int i = 0; i < terminalNames.length; i++) {
+				terminalNames[i] = this.bikeStations.get(i).getTerminalName();
+			}
+			this.written += BixiManager.deleteOtherBikeStations(this.contentResolver, terminalNames);
+		}
+		this.done = true;
+	}
+}
@@ -3,24 +3,26 @@ package org.montrealtransit.android.services;
 import java.lang.ref.WeakReference;
 import java.net.HttpURLConnection;
 import java.net.SocketException;
-import java.net.URL;
-import java.net.URLConnection;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
-import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLHandshakeException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
 import org.montrealtransit.android.AnalyticsUtils;
+import org.montrealtransit.android.CircuitBreaker;
+import org.montrealtransit.android.HttpUtils;
 import org.montrealtransit.android.MyLog;
 import org.montrealtransit.android.R;
 import org.montrealtransit.android.Utils;
 import org.montrealtransit.android.activity.UserPreferences;
+import org.montrealtransit.android.provider.BixiHistory;
 import org.montrealtransit.android.provider.BixiManager;
+import org.montrealtransit.android.provider.BixiSnapshot;
 import org.montrealtransit.android.provider.BixiStore.BikeStation;
 import org.xml.sax.InputSource;
 import org.xml.sax.XMLReader;
@@ -125,12 +127,24 @@ public class BixiDataReader extends AsyncTask<String, String, List<BikeStation>>
 	public static List<BikeStation> doInForeground(Context context, WeakReference<BixiDataReaderListener> from, final List<String> forceDBUpdateTerminalNames,
 			int tried) {
 		// MyLog.v(TAG, "doInForeground(%s)", Utils.getCollectionSize(forceDBUpdateTerminalNames));
+		HttpUtils.Response response = null;
 		try {
-			URL url = new URL(XML_SOURCE);
-			URLConnection urlc = url.openConnection();
-			urlc.addRequestProperty("Cache-Control", "no-cache"); // IMPORTANT!
-			HttpsURLConnection httpsUrlConnection = (HttpsURLConnection) urlc;
-			switch (httpsUrlConnection.getResponseCode()) {
+			response = HttpUtils.get(XML_SOURCE, true); // sends "Cache-Control: no-cache" (IMPORTANT!)
+			switch (response.getCode()) {
+			case HttpURLConnection.HTTP_NOT_MODIFIED:
+				// MyLog.d(TAG, "Bixi data not modified since last update.");
+				List<BikeStation> bikeStations = BixiManager.findAllBikeStationsList(context.getContentResolver(), true);
+				if (Utils.getCollectionSize(bikeStations) == 0) {
+					// local data lost since last update => load all data
+					HttpUtils.clearValidators(XML_SOURCE);
+					response.close();
+					return doInForeground(context, from, forceDBUpdateTerminalNames, tried);
+				}
+				BixiSnapshot.publish(bikeStations); // same version if already loaded
+				// save new last update
+				UserPreferences.savePrefLcl(context, UserPreferences.PREFS_LCL_BIXI_LAST_UPDATE, Utils.currentTimeSec());
+				publishProgress(from, new String[] { null }); // clear error message
+				return bikeStations;
 			case HttpURLConnection.HTTP_OK:
 				publishProgress(from, context.getString(R.string.downloading_data_from_and_source, SOURCE));
 				AnalyticsUtils.dispatch(context); // while we are connected, send the analytics data
@@ -139,14 +153,31 @@ public class BixiDataReader extends AsyncTask<String, String, List<BikeStation>>
 				SAXParser sp = spf.newSAXParser();
 				// Get the XML Reader of the SAX Parser we created
 				XMLReader xr = sp.getXMLReader();
-				// Create a new ContentHandler and apply it to the XML-Reader
-				BixiBikeStationsDataHandler handler = new BixiBikeStationsDataHandler();
-				xr.setContentHandler(handler);
-				// MyLog.d(TAG, "Parsing data...");
-				xr.parse(new InputSource(urlc.getInputStream()));
-				// MyLog.d(TAG, "Parsing data... DONE");
+				// write the bike stations to the database while parsing
+				BixiBikeStationsDbWriter writer = new BixiBikeStationsDbWriter(context.getContentResolver());
+				writer.start();
+				boolean complete = false;
+				List<BikeStation> newBikeStations;
+				try {
+					// Create a new ContentHandler and apply it to the XML-Reader
+					xr.setContentHandler(new BixiBikeStationsDataHandler(writer));
+					// MyLog.d(TAG, "Parsing data...");
+					xr.parse(new InputSource(response.getInputStream()));
+					// MyLog.d(TAG, "Parsing data... DONE");
+					complete = true;
+				} finally {
+					newBikeStations = writer.finish(complete);
+				}
+				// IF the writer failed OR empty XML DO keep the local data (snapshot & history)
+				if (Utils.getCollectionSize(newBikeStations) == 0) {
+					MyLog.w(TAG, "No bike stations loaded (writer failed or empty XML)!");
+					publishProgress(from, context.getString(R.string.error));
+					return null;
+				}
+				BixiSnapshot.publish(newBikeStations);
+				BixiHistory.get(context).record(newBikeStations);
 				publishProgress(from, context.getString(R.string.processing));
-				updateDatabaseAll(context, handler.getBikeStations());
+				response.saveValidators();
 				// save new last update
 				UserPreferences.savePrefLcl(context, UserPreferences.PREFS_LCL_BIXI_LAST_UPDATE, Utils.currentTimeSec());
 				if (tried > 0) { // didn't work on 1st try but worked on retry
@@ -154,15 +185,14 @@ public class BixiDataReader extends AsyncTask<String, String, List<BikeStation>>
 							tried);
 				}
 				publishProgress(from, new String[] { null }); // clear error message
-				return handler.getBikeStations();
+				return newBikeStations;
 			default:
-				MyLog.w(TAG, "ERROR: HTTP URL-Connection Response Code %s (Message: %s)", httpsUrlConnection.getResponseCode(),
-						httpsUrlConnection.getResponseMessage());
+				MyLog.w(TAG, "ERROR: HTTP URL-Connection Response Code %s (Message: %s)", response.getCode(), response.getMessage());
 				publishProgress(from, context.getString(R.string.error));
 				AnalyticsUtils.trackEvent(context, AnalyticsUtils.CATEGORY_ERROR, AnalyticsUtils.ACTION_BIXI_DATA_LOADING_FAIL,
-						tried + httpsUrlConnection.getResponseMessage(), httpsUrlConnection.getResponseCode());
-				AnalyticsUtils.trackEvent(context, AnalyticsUtils.CATEGORY_ERROR, AnalyticsUtils.ACTION_HTTP_ERROR, SOURCE,
-						httpsUrlConnection.getResponseCode());
+						tried + response.getMessage(), response.getCode());
+				AnalyticsUtils.trackEvent(context, AnalyticsUtils.CATEGORY_ERROR, AnalyticsUtils.ACTION_HTTP_ERROR, SOURCE, response.getCode());
+				response.close(); // before retry
 				if (tried < MAX_RETRY) {
 					return doInForeground(context, from, forceDBUpdateTerminalNames, ++tried);
 				} else {
@@ -178,6 +208,10 @@ public class BixiDataReader extends AsyncTask<String, String, List<BikeStation>>
 			} else {
 				return null;
 			}
+		} catch (CircuitBreaker.OpenException oe) {
+			MyLog.d(TAG, "%s not available: %s", SOURCE, oe.getMessage());
+			publishProgress(from, context.getString(R.string.error_http_504_and_source));
+			return null; // no retry, keep the local data
 		} catch (UnknownHostException uhe) {
 			if (MyLog.isLoggable(android.util.Log.DEBUG)) {
 				MyLog.w(TAG, uhe, "No Internet Connection!");
@@ -186,6 +220,10 @@ public class BixiDataReader extends AsyncTask<String, String, List<BikeStation>>
 			}
 			publishProgress(from, context.getString(R.string.no_internet));
 			return null;
+		} catch (SocketTimeoutException ste) {
+			MyLog.w(TAG, ste, "Bixi data time-out!");
+			publishProgress(from, context.getString(R.string.error_http_504_and_source));
+			return null;
 		} catch (SocketException se) {
 			MyLog.w(TAG, se, "No Internet Connection!");
 			publishProgress(from, context.getString(R.string.no_internet));
@@ -195,11 +233,18 @@ public class BixiDataReader extends AsyncTask<String, String, List<BikeStation>>
 			MyLog.e(TAG, e, "INTERNAL ERROR: Unknown Exception");
 			publishProgress(from, context.getString(R.string.error));
 			AnalyticsUtils.trackEvent(context, AnalyticsUtils.CATEGORY_ERROR, AnalyticsUtils.ACTION_BIXI_DATA_LOADING_FAIL, e.getMessage(), 0);
+			if (response != null) {
+				response.close(); // before retry
+			}
 			if (tried < MAX_RETRY) {
 				return doInForeground(context, from, forceDBUpdateTerminalNames, ++tried);
 			} else {
 				return null;
 			}
+		} finally {
+			if (response != null) {
+				response.close();
+			}
 		}
 	}
 
@@ -237,59 +282,6 @@ public class BixiDataReader extends AsyncTask<String, String, List<BikeStation>>
 	// }
 	// }
 
-	// /**
-	// * Update the database.
-	// * @param context the context
-	// * @param newBikeStations the new bike stations to put in the database
-	// * @param forceDBUpdateTerminalNames the list of bike station terminal names to be updated in the database or null
-	// * @deprecated not useful anymore. Use {@link #updateDatabaseAll(Context, List, boolean)} directly.
-	// */
-	// @SuppressWarnings("unused")
-	// @Deprecated
-	// private static synchronized void updateDatabase(final Context context, final List<BikeStation> newBikeStations, List<String> forceDBUpdateTerminalNames)
-	// {
-	// // MyLog.v(TAG, "updateDatabase(%s,%s,%s)", Utils.getCollectionSize(newBikeStations), forceDBUpdate, forceDBUpdateTerminalNames);
-	// // IF no bike stations terminal names were provided DO
-	// if (Utils.getCollectionSize(forceDBUpdateTerminalNames) == 0) {
-	// // synchronously update all
-	// updateDatabaseAll(context, newBikeStations);
-	// } else {
-	// int updated = 0;
-	// // synchronously update these bike stations
-	// for (BikeStation newBikeStation : newBikeStations) {
-	// if (forceDBUpdateTerminalNames.contains(newBikeStation.getTerminalName())) {
-	// BixiManager.updateBikeStation(context.getContentResolver(), newBikeStation, newBikeStation.getTerminalName());
-	// updated++;
-	// // TODO remove updated bike station from list
-	// }
-	// if (forceDBUpdateTerminalNames.size() == updated) {
-	// break; // all forced updates done
-	// }
-	// }
-	// // asynchronously update the rest
-	// new AsyncTask<Void, Void, Void>() {
-	// @Override
-	// protected Void doInBackground(Void... params) {
-	// updateDatabaseAll(context, newBikeStations);
-	// return null;
-	// }
-	// }.execute();
-	// }
-	// }
-
-	/**
-	 * Update all the database.
-	 * @param context the context
-	 * @param newBikeStations the new bike stations
-	 */
-	public static void updateDatabaseAll(Context context, List<BikeStation> newBikeStations) {
-		MyLog.v(TAG, "updateDatabaseAll(%s)", Utils.getCollectionSize(newBikeStations));
-		// delete all existing bike stations
-		BixiManager.deleteAllBikeStations(context.getContentResolver());
-		// add all new bike stations
-		BixiManager.addBikeStations(context.getContentResolver(), newBikeStations);
-	}
-
 	/**
 	 * Publish progress.
 	 * @param from the listener
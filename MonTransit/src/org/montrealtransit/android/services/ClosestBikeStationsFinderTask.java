@@ -2,10 +2,10 @@ package org.montrealtransit.android.services;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
+import org.montrealtransit.android.DistanceUtils;
 import org.montrealtransit.android.LocationUtils;
 import org.montrealtransit.android.MyLog;
 import org.montrealtransit.android.R;
@@ -13,7 +13,6 @@ import org.montrealtransit.android.Utils;
 import org.montrealtransit.android.activity.UserPreferences;
 import org.montrealtransit.android.data.ABikeStation;
 import org.montrealtransit.android.data.ClosestPOI;
-import org.montrealtransit.android.data.POI;
 import org.montrealtransit.android.provider.BixiManager;
 import org.montrealtransit.android.provider.BixiStore.BikeStation;
 import org.montrealtransit.android.services.BixiDataReader.BixiDataReaderListener;
@@ -92,13 +91,14 @@ public class ClosestBikeStationsFinderTask extends AsyncTask<Double, String, Clo
 				BixiDataReader.doInForeground(this.context, new WeakReference<BixiDataReaderListener>(this), null, 0);
 			}
 			publishProgress(this.context.getString(R.string.processing));
-			// get the closest bike station from database or NULL
-			List<BikeStation> bikeStations = getAllBikeStations(params[0], params[1]);
+			// get the closest bike station from the database spatial index or NULL
+			List<ABikeStation> closestBikeStations = BixiManager.findClosestBikeStationsList(this.context.getContentResolver(), params[0], params[1],
+					this.maxResult);
 			if (!TextUtils.isEmpty(this.lastBixiDataMessage)) {
 				result.setErrorMessage(this.lastBixiDataMessage);
 			}
-			if (bikeStations != null) { // bike stations
-				result.setPoiList(getABikeStations(bikeStations, params[0], params[1], this.maxResult));
+			if (closestBikeStations != null) { // bike stations (ordered by distance)
+				result.setPoiList(closestBikeStations);
 			} else if (TextUtils.isEmpty(this.lastBixiDataMessage)) { // no bike stations
 				result.setPoiList(new ArrayList<ABikeStation>());
 			}
@@ -150,13 +150,8 @@ public class ClosestBikeStationsFinderTask extends AsyncTask<Double, String, Clo
 			astation.setDistance(LocationUtils.distanceTo(lat, lng, bikeStation.getLat(), bikeStation.getLng()));
 			aresult.add(astation);
 		}
-		// sort the bike stations
-		Collections.sort(aresult, POI.POI_DISTANCE_COMPARATOR);
-		if (maxResult > 0 && aresult.size() > maxResult) {
-			return aresult.subList(0, maxResult);
-		} else {
-			return aresult;
-		}
+		// keep the closest bike stations (ordered by distance)
+		return DistanceUtils.findClosest(aresult, maxResult);
 	}
 
 	public static List<ABikeStation> getABikeStations(List<BikeStation> bikeStations) {
@@ -1,15 +1,13 @@
 package org.montrealtransit.android.services;
 
 import java.lang.ref.WeakReference;
-import java.util.Collections;
 import java.util.List;
 
+import org.montrealtransit.android.DistanceUtils;
 import org.montrealtransit.android.LocationUtils;
 import org.montrealtransit.android.MyLog;
 import org.montrealtransit.android.R;
-import org.montrealtransit.android.Utils;
 import org.montrealtransit.android.data.ClosestPOI;
-import org.montrealtransit.android.data.POI;
 import org.montrealtransit.android.data.RouteStop;
 import org.montrealtransit.android.provider.common.AbstractManager;
 
@@ -75,13 +73,8 @@ public class ClosestRouteStopsFinderTask extends AsyncTask<Double, String, Close
 			List<RouteStop> routeStops = AbstractManager.findRouteStopsWithLatLngList(this.context, this.authorities, lat, lng, true);
 			// set stops distance
 			LocationUtils.updateDistance(routeStops, lat, lng);
-			// sort by distance
-			Collections.sort(routeStops, POI.POI_DISTANCE_COMPARATOR);
-			if (Utils.getCollectionSize(routeStops) > this.maxResult) {
-				result.setPoiList(routeStops.subList(0, this.maxResult));
-			} else {
-				result.setPoiList(routeStops);
-			}
+			// keep the closest (ordered by distance)
+			result.setPoiList(DistanceUtils.findClosest(routeStops, this.maxResult));
 		}
 		return result;
 	}
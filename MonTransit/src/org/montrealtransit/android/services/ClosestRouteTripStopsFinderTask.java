@@ -1,15 +1,13 @@
 package org.montrealtransit.android.services;
 
 import java.lang.ref.WeakReference;
-import java.util.Collections;
 import java.util.List;
 
+import org.montrealtransit.android.DistanceUtils;
 import org.montrealtransit.android.LocationUtils;
 import org.montrealtransit.android.MyLog;
 import org.montrealtransit.android.R;
-import org.montrealtransit.android.Utils;
 import org.montrealtransit.android.data.ClosestPOI;
-import org.montrealtransit.android.data.POI;
 import org.montrealtransit.android.data.RouteTripStop;
 import org.montrealtransit.android.provider.common.AbstractManager;
 
@@ -74,12 +72,8 @@ public class ClosestRouteTripStopsFinderTask extends AsyncTask<Double, String, C
 			List<RouteTripStop> routeTripStops = AbstractManager.findRouteTripStopsWithLatLngList(this.context, this.authorities, lat, lng, true);
 			// set stops distance
 			LocationUtils.updateDistance(routeTripStops, lat, lng);
-			// sort by distance
-			Collections.sort(routeTripStops, POI.POI_DISTANCE_COMPARATOR);
-			if (Utils.getCollectionSize(routeTripStops) > maxResult) {
-				routeTripStops = routeTripStops.subList(0, maxResult);
-			}
-			result.setPoiList(routeTripStops);
+			// keep the closest (ordered by distance)
+			result.setPoiList(DistanceUtils.findClosest(routeTripStops, this.maxResult));
 		}
 		return result;
 	}
@@ -3,8 +3,7 @@ package org.montrealtransit.android.services;
 import java.lang.ref.WeakReference;
 import java.net.HttpURLConnection;
 import java.net.SocketException;
-import java.net.URL;
-import java.net.URLConnection;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Comparator;
@@ -14,6 +13,8 @@ import java.util.Locale;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.montrealtransit.android.AnalyticsUtils;
+import org.montrealtransit.android.CircuitBreaker;
+import org.montrealtransit.android.HttpUtils;
 import org.montrealtransit.android.MyLog;
 import org.montrealtransit.android.R;
 import org.montrealtransit.android.Utils;
@@ -42,8 +43,8 @@ public class StmInfoStatusApiReader extends AsyncTask<String, String, String> {
 	/**
 	 * The stm.info XMX URL.
 	 */
-	private static final String URL_PART_1_BEFORE_LANG = "http://www.stm.info/";
-	private static final String URL_PART_2 = "/ajax/etats-du-service";
+	public static final String URL_PART_1_BEFORE_LANG = "http://www.stm.info/";
+	public static final String URL_PART_2 = "/ajax/etats-du-service";
 
 	/**
 	 * The context executing the task.
@@ -68,14 +69,12 @@ public class StmInfoStatusApiReader extends AsyncTask<String, String, String> {
 	@Override
 	protected String doInBackground(String... params) {
 		MyLog.v(TAG, "doInBackground()");
+		HttpUtils.Response response = null;
 		try {
-			URL url = new URL(getUrlString());
-			URLConnection urlc = url.openConnection();
-			// MyLog.d(TAG, "URL created: '%s'", url.toString());
-			HttpURLConnection httpUrlConnection = (HttpURLConnection) urlc;
-			switch (httpUrlConnection.getResponseCode()) {
+			response = HttpUtils.get(getUrlString(), false);
+			switch (response.getCode()) {
 			case HttpURLConnection.HTTP_OK:
-				String json = Utils.getJson(urlc);
+				String json = response.getString();
 				AnalyticsUtils.dispatch(this.context); // while we are connected, send the analytics data
 				publishProgress(this.context.getResources().getString(R.string.processing_data));
 				JSONObject jResponse = new JSONObject(json);
@@ -114,16 +113,23 @@ public class StmInfoStatusApiReader extends AsyncTask<String, String, String> {
 				}
 				return null;
 			default:
-				MyLog.w(TAG, "ERROR: HTTP URL-Connection Response Code %s (Message: %s)", httpUrlConnection.getResponseCode(),
-						httpUrlConnection.getResponseMessage());
+				MyLog.w(TAG, "ERROR: HTTP URL-Connection Response Code %s (Message: %s)", response.getCode(), response.getMessage());
 				publishProgress(this.context.getString(R.string.error));
 				return this.context.getString(R.string.error);
 			}
 
+		} catch (CircuitBreaker.OpenException oe) {
+			MyLog.d(TAG, "Service status not available: %s", oe.getMessage());
+			publishProgress(this.context.getString(R.string.error_http_504_and_source));
+			return this.context.getString(R.string.error_http_504_and_source);
 		} catch (UnknownHostException uhe) {
 			MyLog.w(TAG, uhe, "No Internet Connection!");
 			publishProgress(this.context.getString(R.string.no_internet));
 			return this.context.getString(R.string.no_internet);
+		} catch (SocketTimeoutException ste) {
+			MyLog.w(TAG, ste, "Service status time-out!");
+			publishProgress(this.context.getString(R.string.error_http_504_and_source));
+			return this.context.getString(R.string.error_http_504_and_source);
 		} catch (SocketException se) {
 			MyLog.w(TAG, se, "No Internet Connection!");
 			publishProgress(this.context.getString(R.string.no_internet));
@@ -133,6 +139,10 @@ public class StmInfoStatusApiReader extends AsyncTask<String, String, String> {
 			MyLog.e(TAG, e, "INTERNAL ERROR: Unknown Exception");
 			publishProgress(this.context.getString(R.string.error));
 			return this.context.getString(R.string.error);
+		} finally {
+			if (response != null) {
+				response.close();
+			}
 		}
 	}
 
@@ -0,0 +1,242 @@
+package org.montrealtransit.android.services.nextstop;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.montrealtransit.android.HttpUtils;
+import org.montrealtransit.android.MyLog;
+import org.montrealtransit.android.Utils;
+import org.montrealtransit.android.data.Departures;
+import org.montrealtransit.android.data.RouteTripStop;
+import org.montrealtransit.android.data.StopTimes;
+import org.montrealtransit.android.provider.common.AbstractScheduleManager;
+
+import android.content.Context;
+
+/**
+ * Load the next stops from the live and the scheduled (offline timetable) schedule providers in parallel and merge them
+ * ({@link Departures#merge(Departures, Departures, long, long)}).
+ * <p>
+ * If both providers didn't answer within the latency budget, the first answer is published as partial results
+ * ({@link NextStopListener#onNextStopsPartiallyLoaded(String, Map)}) before the merged results.
+ */
+public class HybridScheduleTask extends AbstractNextStopProvider {
+
+	public static final String TAG = HybridScheduleTask.class.getSimpleName();
+
+	/**
+	 * The latency budget: time (in milliseconds) to wait for both providers before publishing the first answer.
+	 */
+	public static final long LATENCY_BUDGET_IN_MS = 100;
+
+	/**
+	 * The maximum time (in milliseconds) to wait for the other provider once the 1st answer has been received.
+	 */
+	private static final long ANSWER_TIMEOUT_IN_MS = HttpUtils.CONNECT_TIMEOUT_IN_MS + HttpUtils.READ_TIMEOUT_IN_MS;
+
+	/**
+	 * The maximum delay (in milliseconds) between a live time and its scheduled trip.
+	 */
+	private static final long MATCH_WINDOW_IN_MS = TimeUnit.MINUTES.toMillis(5);
+
+	/**
+	 * The maximum number of concurrent provider loads (live and scheduled loads of 2 tasks).
+	 */
+	private static final int MAX_CONCURRENT_LOADS = 4;
+
+	/**
+	 * The provider loads executor (shared by all the tasks, the loads of the other tasks wait in the queue).
+	 */
+	private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(MAX_CONCURRENT_LOADS);
+
+	/**
+	 * The scheduled (offline timetable) schedule provider authority.
+	 */
+	private String scheduledAuthority;
+
+	/**
+	 * The other route trip stops serving the same stop (stop departure board) or null.
+	 */
+	private List<RouteTripStop> otherRouteTripStops;
+
+	/**
+	 * The maximum age of the cached departures (-1 to force loading, null for the provider default).
+	 */
+	private Integer cacheValidityInSec;
+
+	/**
+	 * The partial results to publish.
+	 */
+	private volatile Map<String, StopTimes> partialResults;
+
+	/**
+	 * @param liveAuthority the live schedule provider authority (results reported for this authority)
+	 * @param scheduledAuthority the scheduled (offline timetable) schedule provider authority
+	 */
+	public HybridScheduleTask(Context context, NextStopListener from, RouteTripStop stop, List<RouteTripStop> otherRouteTripStops, String liveAuthority,
+			String scheduledAuthority, Integer cacheValidityInSec) {
+		super(context, from, stop, liveAuthority);
+		this.scheduledAuthority = scheduledAuthority;
+		this.otherRouteTripStops = otherRouteTripStops;
+		this.cacheValidityInSec = cacheValidityInSec;
+	}
+
+	/**
+	 * @param scheduleAuthorities the schedule authorities of an authority ({@link AbstractScheduleManager#authoritiesToScheduleAuthorities})
+	 * @return true if the schedule authorities are a live (1st) and a scheduled (2nd) schedule authorities
+	 */
+	public static boolean isHybrid(String[] scheduleAuthorities) {
+		return scheduleAuthorities != null && scheduleAuthorities.length == 2;
+	}
+
+	@Override
+	protected Map<String, StopTimes> doInBackground(Void... params) {
+		MyLog.v(TAG, "doInBackground()");
+		if (this.routeTripStop == null) {
+			MyLog.w(TAG, "No stop available!");
+			return null;
+		}
+		final long now = Utils.recentTimeMillis();
+		CompletionService<Map<String, Departures>> completionService = new ExecutorCompletionService<Map<String, Departures>>(EXECUTOR);
+		final Future<Map<String, Departures>> liveLoad = completionService.submit(newLoad(this.scheduleAuthority, now));
+		Future<Map<String, Departures>> scheduledLoad = null;
+		if (Utils.isContentProviderAvailable(this.context, this.scheduledAuthority)) {
+			scheduledLoad = completionService.submit(newLoad(this.scheduledAuthority, now));
+		} else {
+			MyLog.d(TAG, "Content provider '%s' not available, live schedule only.", this.scheduledAuthority);
+		}
+		Map<String, Departures> live = null;
+		Map<String, Departures> scheduled = null;
+		int remaining = scheduledLoad == null ? 1 : 2;
+		final long budgetEnd = System.currentTimeMillis() + LATENCY_BUDGET_IN_MS;
+		try {
+			while (remaining > 0) {
+				final long budgetLeftInMs = budgetEnd - System.currentTimeMillis();
+				Future<Map<String, Departures>> load = budgetLeftInMs > 0 ? completionService.poll(budgetLeftInMs, TimeUnit.MILLISECONDS) : null;
+				if (load == null) { // latency budget elapsed
+					if (this.partialResults == null && (live != null || scheduled != null)) {
+						this.partialResults = merge(live, scheduled, now);
+						publishProgress(); // partial results
+					}
+					load = completionService.poll(ANSWER_TIMEOUT_IN_MS, TimeUnit.MILLISECONDS);
+					if (load == null) {
+						MyLog.d(TAG, "Time-out while waiting for the %s schedule!", live == null ? "live" : "scheduled");
+						break;
+					}
+				}
+				remaining--;
+				if (load == liveLoad) {
+					live = getResult(load);
+				} else {
+					scheduled = getResult(load);
+				}
+			}
+		} catch (InterruptedException ie) {
+			MyLog.d(TAG, "Task interrupted!");
+			return null;
+		} finally {
+			// cancel the loads not completed (time-out or task interrupted) to free the executor
+			liveLoad.cancel(true);
+			if (scheduledLoad != null) {
+				scheduledLoad.cancel(true);
+			}
+		}
+		return merge(live, scheduled, now);
+	}
+
+	private Callable<Map<String, Departures>> newLoad(final String scheduleAuthority, final long now) {
+		return new Callable<Map<String, Departures>>() {
+			@Override
+			public Map<String, Departures> call() throws Exception {
+				if (HybridScheduleTask.this.otherRouteTripStops != null && HybridScheduleTask.this.otherRouteTripStops.size() > 0) {
+					return AbstractScheduleManager.findDeparturesAtStop(HybridScheduleTask.this.context.getContentResolver(),
+							Utils.newContentUri(scheduleAuthority), HybridScheduleTask.this.routeTripStop, HybridScheduleTask.this.otherRouteTripStops, now,
+							false, HybridScheduleTask.this.cacheValidityInSec);
+				}
+				Map<String, Departures> result = new HashMap<String, Departures>();
+				final Departures departures = AbstractScheduleManager.findDepartures(HybridScheduleTask.this.context.getContentResolver(),
+						Utils.newContentUri(scheduleAuthority), HybridScheduleTask.this.routeTripStop, now, false,
+						HybridScheduleTask.this.cacheValidityInSec);
+				if (departures != null) {
+					result.put(HybridScheduleTask.this.routeTripStop.getUUID(), departures);
+				}
+				return result;
+			}
+		};
+	}
+
+	private static Map<String, Departures> getResult(Future<Map<String, Departures>> load) {
+		try {
+			return load.get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException ee) {
+			MyLog.w(TAG, ee.getCause(), "Error while loading departures!");
+			return null;
+		}
+	}
+
+	/**
+	 * @return the merged stop times by route trip stop UUID (null if no result at all)
+	 */
+	private Map<String, StopTimes> merge(Map<String, Departures> live, Map<String, Departures> scheduled, long now) {
+		if (live == null && scheduled == null) {
+			return null;
+		}
+		Set<String> uuids = new HashSet<String>();
+		if (live != null) {
+			uuids.addAll(live.keySet());
+		}
+		if (scheduled != null) {
+			uuids.addAll(scheduled.keySet());
+		}
+		Map<String, StopTimes> result = new HashMap<String, StopTimes>();
+		for (String uuid : uuids) {
+			final Departures departures = Departures.merge(live == null ? null : live.get(uuid), scheduled == null ? null : scheduled.get(uuid), now,
+					MATCH_WINDOW_IN_MS);
+			if (departures != null) {
+				result.put(uuid, StopTimes.fromDepartures(departures));
+			}
+		}
+		if (!result.containsKey(this.routeTripStop.getUUID())) {
+			MyLog.w(TAG, "No stop times found for stop '%s'!", this.routeTripStop);
+			result.put(this.routeTripStop.getUUID(), null);
+		}
+		return result;
+	}
+
+	@Override
+	protected void onProgressUpdate(String... values) {
+		if (values.length == 0) {
+			MyLog.v(TAG, "onProgressUpdate() > partial results");
+			final Map<String, StopTimes> partialResults = this.partialResults;
+			if (this.from != null && partialResults != null && !isCancelled()) {
+				this.from.onNextStopsPartiallyLoaded(this.scheduleAuthority, partialResults);
+			}
+			return;
+		}
+		super.onProgressUpdate(values);
+	}
+
+	@Override
+	public String getTag() {
+		return TAG;
+	}
+
+	@Override
+	public String getSourceName() {
+		return null; // live and scheduled sources
+	}
+}
@@ -24,4 +24,12 @@ public interface NextStopListener {
 	 */
 	void onNextStopsLoaded(String authority, Map<String,StopTimes> results);
 
+	/**
+	 * Methods called during the execution of the task with the first available results (the task will call
+	 * {@link #onNextStopsLoaded(String, Map)} with the complete results).
+	 * @param authority the schedule provider authority
+	 * @param results the partial results
+	 */
+	void onNextStopsPartiallyLoaded(String authority, Map<String, StopTimes> results);
+
 }
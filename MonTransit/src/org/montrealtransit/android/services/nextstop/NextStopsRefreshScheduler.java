@@ -0,0 +1,182 @@
+package org.montrealtransit.android.services.nextstop;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.montrealtransit.android.MyLog;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Refreshes the next stops of the visible stop screens:
+ * <ul>
+ * <li>the refresh interval depends on the time before the next departure (frequent when the bus is a few minutes away, sparse otherwise),</li>
+ * <li>the screens due for a refresh at about the same time are refreshed together (one wake-up),</li>
+ * <li>only registered (visible) screens are refreshed: register in onResume() and unregister in onPause().</li>
+ * </ul>
+ * All the methods MUST be called from the main thread.
+ */
+public class NextStopsRefreshScheduler {
+
+	/**
+	 * The log tag.
+	 */
+	private static final String TAG = NextStopsRefreshScheduler.class.getSimpleName();
+
+	/**
+	 * The screens due within this window (in milliseconds) are refreshed with the screen that woke up the scheduler.
+	 */
+	private static final long BATCH_WINDOW_IN_MS = TimeUnit.SECONDS.toMillis(15);
+
+	/**
+	 * The refresh interval when the next departure is unknown (in milliseconds).
+	 */
+	private static final long UNKNOWN_DEPARTURE_REFRESH_INTERVAL_IN_MS = TimeUnit.MINUTES.toMillis(10);
+
+	/**
+	 * The minimum refresh interval (in milliseconds).
+	 */
+	private static final long MIN_REFRESH_INTERVAL_IN_MS = TimeUnit.SECONDS.toMillis(30);
+
+	/**
+	 * A stop screen refreshed by the scheduler.
+	 */
+	public interface Refreshable {
+
+		/**
+		 * @return the time-stamp of the next departure displayed or -1 if unknown
+		 */
+		long getNextDepartureTimestamp();
+
+		/**
+		 * Refresh the next stops (and call {@link NextStopsRefreshScheduler#reschedule(Refreshable)} once loaded).
+		 * @param cacheValidityInSec the maximum age of the cached next stops
+		 */
+		void onRefreshNextStops(int cacheValidityInSec);
+	}
+
+	private static Handler handler;
+
+	/**
+	 * The registered screens and their next refresh time (in milliseconds).
+	 */
+	private static final Map<Refreshable, Long> nextRefreshTimes = new HashMap<Refreshable, Long>();
+
+	private static final Runnable wakeUp = new Runnable() {
+		@Override
+		public void run() {
+			refreshDue();
+		}
+	};
+
+	/**
+	 * Utility class.
+	 */
+	private NextStopsRefreshScheduler() {
+	}
+
+	/**
+	 * Start refreshing the screen next stops.
+	 * @param refreshable the screen
+	 */
+	public static void register(Refreshable refreshable) {
+		MyLog.v(TAG, "register(%s)", refreshable);
+		setNextRefreshTime(refreshable, System.currentTimeMillis());
+		scheduleWakeUp();
+	}
+
+	/**
+	 * Stop refreshing the screen next stops.
+	 * @param refreshable the screen
+	 */
+	public static void unregister(Refreshable refreshable) {
+		MyLog.v(TAG, "unregister(%s)", refreshable);
+		if (nextRefreshTimes.remove(refreshable) != null) {
+			scheduleWakeUp();
+		}
+	}
+
+	/**
+	 * Compute the next refresh of a screen from its new next stops (ignored if the screen is not registered).
+	 * @param refreshable the screen
+	 */
+	public static void reschedule(Refreshable refreshable) {
+		MyLog.v(TAG, "reschedule(%s)", refreshable);
+		if (!nextRefreshTimes.containsKey(refreshable)) {
+			return; // not visible
+		}
+		setNextRefreshTime(refreshable, System.currentTimeMillis());
+		scheduleWakeUp();
+	}
+
+	/**
+	 * @param nextDepartureTimestamp the next departure time-stamp or -1 if unknown
+	 * @param now the current time (in milliseconds)
+	 * @return the refresh interval (in milliseconds)
+	 */
+	public static long getRefreshIntervalInMs(long nextDepartureTimestamp, long now) {
+		if (nextDepartureTimestamp < 0) {
+			return UNKNOWN_DEPARTURE_REFRESH_INTERVAL_IN_MS;
+		}
+		final long timeToDepartureInMs = nextDepartureTimestamp - now;
+		long intervalInMs;
+		if (timeToDepartureInMs <= TimeUnit.MINUTES.toMillis(5)) {
+			intervalInMs = MIN_REFRESH_INTERVAL_IN_MS;
+		} else if (timeToDepartureInMs <= TimeUnit.MINUTES.toMillis(15)) {
+			intervalInMs = TimeUnit.MINUTES.toMillis(1);
+		} else if (timeToDepartureInMs <= TimeUnit.MINUTES.toMillis(30)) {
+			intervalInMs = TimeUnit.MINUTES.toMillis(3);
+		} else {
+			intervalInMs = TimeUnit.MINUTES.toMillis(10);
+		}
+		// refresh when the next departure is 5 minutes away at the latest
+		final long untilFrequentInMs = timeToDepartureInMs - TimeUnit.MINUTES.toMillis(5);
+		if (untilFrequentInMs > 0 && untilFrequentInMs < intervalInMs) {
+			intervalInMs = untilFrequentInMs;
+		}
+		return Math.max(MIN_REFRESH_INTERVAL_IN_MS, intervalInMs);
+	}
+
+	private static void setNextRefreshTime(Refreshable refreshable, long now) {
+		nextRefreshTimes.put(refreshable, now + getRefreshIntervalInMs(refreshable.getNextDepartureTimestamp(), now));
+	}
+
+	private static void scheduleWakeUp() {
+		if (handler == null) {
+			handler = new Handler(Looper.getMainLooper());
+		}
+		handler.removeCallbacks(wakeUp);
+		if (nextRefreshTimes.size() == 0) {
+			return;
+		}
+		long nextWakeUp = Long.MAX_VALUE;
+		for (Long nextRefreshTime : nextRefreshTimes.values()) {
+			nextWakeUp = Math.min(nextWakeUp, nextRefreshTime);
+		}
+		final long delayInMs = Math.max(0, nextWakeUp - System.currentTimeMillis());
+		MyLog.d(TAG, "Next refresh in %s seconds (%s screens).", TimeUnit.MILLISECONDS.toSeconds(delayInMs), nextRefreshTimes.size());
+		handler.postDelayed(wakeUp, delayInMs);
+	}
+
+	private static void refreshDue() {
+		final long now = System.currentTimeMillis();
+		List<Refreshable> dueRefreshables = new ArrayList<Refreshable>();
+		for (Map.Entry<Refreshable, Long> nextRefreshTime : nextRefreshTimes.entrySet()) {
+			if (nextRefreshTime.getValue() <= now + BATCH_WINDOW_IN_MS) {
+				dueRefreshables.add(nextRefreshTime.getKey());
+			}
+		}
+		for (Refreshable refreshable : dueRefreshables) {
+			final long intervalInMs = getRefreshIntervalInMs(refreshable.getNextDepartureTimestamp(), now);
+			// next refresh in case the refresh doesn't call reschedule()
+			nextRefreshTimes.put(refreshable, now + intervalInMs);
+			// only use cached next stops loaded during the 2nd half of the interval
+			refreshable.onRefreshNextStops((int) TimeUnit.MILLISECONDS.toSeconds(intervalInMs / 2));
+		}
+		scheduleWakeUp();
+	}
+}
@@ -1,6 +1,7 @@
 package org.montrealtransit.android.services.nextstop;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.montrealtransit.android.MyLog;
@@ -16,11 +17,20 @@ import android.os.Environment;
 public class ScheduleTask extends AbstractNextStopProvider {
 
 	public static final String TAG = ScheduleTask.class.getSimpleName();
-	private boolean force;
+	/**
+	 * The maximum age of the cached stop times (-1 to force loading, null for the provider default).
+	 */
+	private Integer cacheValidityInSec;
+	/**
+	 * The other route trip stops serving the same stop (stop departure board) or null.
+	 */
+	private List<RouteTripStop> otherRouteTripStops;
 
-	public ScheduleTask(Context context, NextStopListener from, RouteTripStop stop, String scheduleAuthority, boolean force) {
+	public ScheduleTask(Context context, NextStopListener from, RouteTripStop stop, List<RouteTripStop> otherRouteTripStops, String scheduleAuthority,
+			Integer cacheValidityInSec) {
 		super(context, from, stop, scheduleAuthority);
-		this.force = force;
+		this.otherRouteTripStops = otherRouteTripStops;
+		this.cacheValidityInSec = cacheValidityInSec;
 	}
 
 	@Override
@@ -43,7 +53,17 @@ public class ScheduleTask extends AbstractNextStopProvider {
 			return stopTimes;
 		}
 		publishProgress(this.context.getString(R.string.downloading_data_from_and_source, getSourceName()));
-		Integer cacheValidityInSec = force ? -1 : null;
+		if (this.otherRouteTripStops != null && this.otherRouteTripStops.size() > 0) {
+			// load the stop departure board (other route trip stops returned if available at no extra cost)
+			final Map<String, StopTimes> stopTimes = AbstractScheduleManager.findStopTimesAtStop(this.context.getContentResolver(),
+					Utils.newContentUri(this.scheduleAuthority), this.routeTripStop, this.otherRouteTripStops, Utils.recentTimeMillis(), false,
+					cacheValidityInSec);
+			if (stopTimes != null && !stopTimes.containsKey(this.routeTripStop.getUUID())) {
+				MyLog.w(TAG, "No stop times found for stop '%s' in provider '%s'!", this.routeTripStop, this.scheduleAuthority);
+				stopTimes.put(this.routeTripStop.getUUID(), null);
+			}
+			return stopTimes;
+		}
 		final StopTimes stopTime = AbstractScheduleManager.findStopTimes(this.context.getContentResolver(), Utils.newContentUri(this.scheduleAuthority),
 				routeTripStop, Utils.recentTimeMillis(), false, cacheValidityInSec);
 		// MyLog.d(TAG, "stopTime: %s", stopTime);